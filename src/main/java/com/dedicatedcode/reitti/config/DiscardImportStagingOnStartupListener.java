@@ -0,0 +1,25 @@
+package com.dedicatedcode.reitti.config;
+
+import com.dedicatedcode.reitti.repository.RawLocationPointJdbcService;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bulk imports only run inside the application, so whatever is left in the import staging table on startup belongs
+ * to an import which was interrupted by a shutdown or crash and is never merged.
+ */
+@Component
+public class DiscardImportStagingOnStartupListener implements ApplicationListener<ApplicationReadyEvent> {
+
+    private final RawLocationPointJdbcService rawLocationPointJdbcService;
+
+    public DiscardImportStagingOnStartupListener(RawLocationPointJdbcService rawLocationPointJdbcService) {
+        this.rawLocationPointJdbcService = rawLocationPointJdbcService;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        rawLocationPointJdbcService.discardAllImportStaging();
+    }
+}
@@ -0,0 +1,252 @@
+package com.dedicatedcode.reitti.config;
+
+import com.dedicatedcode.reitti.event.LocationDataEvent;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Writes {@link LocationDataEvent}s in a compact binary format and hands everything else to the given delegate.
+ * <p>
+ * Timestamps are stored as deltas to the previous point, coordinates as deltas of E7 fixed-point values and
+ * accuracies in centimeters, all as zig-zag varints. Incoming messages are decoded by their content type, so
+ * JSON messages which are still queued keep working.
+ */
+public class LocationDataMessageConverter implements MessageConverter {
+    public static final String CONTENT_TYPE = "application/x-reitti-location-data";
+    public static final String DEFLATE_ENCODING = "deflate";
+
+    private static final byte VERSION = 1;
+    private static final double E7 = 10_000_000d;
+    private static final double E2 = 100d;
+
+    private final MessageConverter delegate;
+    private final boolean enabled;
+    private final int compressionThreshold;
+
+    /**
+     * @param compressionThreshold payloads of at least this many bytes get deflated, a negative value disables compression
+     */
+    public LocationDataMessageConverter(MessageConverter delegate, boolean enabled, int compressionThreshold) {
+        this.delegate = delegate;
+        this.enabled = enabled;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
+        if (!enabled || !(object instanceof LocationDataEvent event)) {
+            return delegate.toMessage(object, messageProperties);
+        }
+
+        byte[] body = encode(event);
+        if (compressionThreshold >= 0 && body.length >= compressionThreshold) {
+            body = deflate(body);
+            messageProperties.setContentEncoding(DEFLATE_ENCODING);
+        }
+        messageProperties.setContentType(CONTENT_TYPE);
+        messageProperties.setContentLength(body.length);
+        return new Message(body, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        MessageProperties properties = message.getMessageProperties();
+        if (properties == null || !CONTENT_TYPE.equals(properties.getContentType())) {
+            return delegate.fromMessage(message);
+        }
+
+        byte[] body = message.getBody();
+        if (DEFLATE_ENCODING.equals(properties.getContentEncoding())) {
+            body = inflate(body);
+        }
+        return decode(body);
+    }
+
+    static byte[] encode(LocationDataEvent event) {
+        PointBatch points = event.getPoints();
+        int count = points.validCount();
+        ByteWriter out = new ByteWriter(32 + count * 12);
+        out.writeByte(VERSION);
+        byte[] username = event.getUsername().getBytes(StandardCharsets.UTF_8);
+        out.writeVarLong(username.length);
+        out.writeBytes(username);
+        out.writeVarLong(count);
+
+        long previousTimestamp = 0;
+        long previousLatitude = 0;
+        long previousLongitude = 0;
+        for (int i = 0; i < points.size(); i++) {
+            if (!points.isValid(i)) {
+                continue;
+            }
+            long timestamp = points.epochMillis(i);
+            long latitude = Math.round(points.latitude(i) * E7);
+            long longitude = Math.round(points.longitude(i) * E7);
+            out.writeSignedVarLong(timestamp - previousTimestamp);
+            out.writeSignedVarLong(latitude - previousLatitude);
+            out.writeSignedVarLong(longitude - previousLongitude);
+            out.writeSignedVarLong(Math.round(points.accuracyMeters(i) * E2));
+            previousTimestamp = timestamp;
+            previousLatitude = latitude;
+            previousLongitude = longitude;
+        }
+        return out.toByteArray();
+    }
+
+    static LocationDataEvent decode(byte[] body) {
+        ByteReader in = new ByteReader(body);
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new MessageConversionException("Unsupported location data format version [" + version + "]");
+        }
+        int usernameLength = (int) in.readVarLong();
+        String username = new String(in.readBytes(usernameLength), StandardCharsets.UTF_8);
+        int count = (int) in.readVarLong();
+
+        PointBatch.Builder builder = PointBatch.builder(count);
+        long timestamp = 0;
+        long latitude = 0;
+        long longitude = 0;
+        for (int i = 0; i < count; i++) {
+            timestamp += in.readSignedVarLong();
+            latitude += in.readSignedVarLong();
+            longitude += in.readSignedVarLong();
+            double accuracy = in.readSignedVarLong() / E2;
+            builder.add(timestamp, latitude / E7, longitude / E7, accuracy);
+        }
+        return new LocationDataEvent(username, builder.build());
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 16);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] input) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length * 3);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new MessageConversionException("Truncated deflated location data message");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new MessageConversionException("Unable to inflate location data message", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static final class ByteWriter {
+        private byte[] buffer;
+        private int position;
+
+        private ByteWriter(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[position++] = (byte) value;
+        }
+
+        private void writeBytes(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        private void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (position + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + additional));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    private static final class ByteReader {
+        private final byte[] buffer;
+        private int position;
+
+        private ByteReader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        private byte readByte() {
+            if (position >= buffer.length) {
+                throw new MessageConversionException("Unexpected end of location data message");
+            }
+            return buffer[position++];
+        }
+
+        private byte[] readBytes(int length) {
+            if (length < 0 || position + length > buffer.length) {
+                throw new MessageConversionException("Unexpected end of location data message");
+            }
+            byte[] result = Arrays.copyOfRange(buffer, position, position + length);
+            position += length;
+            return result;
+        }
+
+        private long readSignedVarLong() {
+            long raw = readVarLong();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        private long readVarLong() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new MessageConversionException("Malformed varint in location data message");
+        }
+    }
+}
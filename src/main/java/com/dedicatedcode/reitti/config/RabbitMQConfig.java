@@ -5,9 +5,14 @@ import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 public class RabbitMQConfig {
 
@@ -59,6 +64,10 @@ public class RabbitMQConfig {
                 .build();
     }
 
+    /**
+     * Visits are merged on the shard queues of {@link VisitMergeShardRouter}, events published to this queue by older
+     * versions are only moved over to their shard.
+     */
     @Bean
     public Queue mergeVisitQueue() {
         return QueueBuilder.durable(MERGE_VISIT_QUEUE)
@@ -114,6 +123,25 @@ public class RabbitMQConfig {
         return BindingBuilder.bind(mergeVisitQueue).to(exchange).with(MERGE_VISIT_ROUTING_KEY);
     }
 
+    /**
+     * One queue per merge shard, consumed by a single listener each. The single active consumer keeps the events of a
+     * shard in order when several instances are running.
+     */
+    @Bean
+    public Declarables mergeVisitShardQueues(VisitMergeShardRouter shardRouter, TopicExchange exchange) {
+        List<Declarable> declarables = new ArrayList<>();
+        for (int shard = 0; shard < shardRouter.getShards(); shard++) {
+            Queue queue = QueueBuilder.durable(VisitMergeShardRouter.queueName(shard))
+                    .withArgument("x-dead-letter-exchange", DLX_NAME)
+                    .withArgument("x-dead-letter-routing-key", DLQ_NAME)
+                    .singleActiveConsumer()
+                    .build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange).with(VisitMergeShardRouter.routingKey(shard)));
+        }
+        return new Declarables(declarables);
+    }
+
     @Bean
     public Binding detectTripBinding(Queue detectTripQueue, TopicExchange exchange) {
         return BindingBuilder.bind(detectTripQueue).to(exchange).with(DETECT_TRIP_ROUTING_KEY);
@@ -145,8 +173,9 @@ public class RabbitMQConfig {
     }
 
     @Bean
-    public Jackson2JsonMessageConverter messageConverter() {
-        return new Jackson2JsonMessageConverter();
+    public MessageConverter messageConverter(@Value("${reitti.events.binary-codec.enabled:true}") boolean binaryCodecEnabled,
+                                             @Value("${reitti.events.binary-codec.compression-threshold:1024}") int compressionThreshold) {
+        return new LocationDataMessageConverter(new Jackson2JsonMessageConverter(), binaryCodecEnabled, compressionThreshold);
     }
 
     @Bean
@@ -155,7 +184,7 @@ public class RabbitMQConfig {
     }
 
     @Bean
-    public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory, Jackson2JsonMessageConverter messageConverter) {
+    public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory, MessageConverter messageConverter) {
         RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
         rabbitTemplate.setMessageConverter(messageConverter);
         return rabbitTemplate;
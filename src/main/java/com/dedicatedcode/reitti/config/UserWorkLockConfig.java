@@ -0,0 +1,53 @@
+package com.dedicatedcode.reitti.config;
+
+import com.dedicatedcode.reitti.service.lock.LocalUserWorkLock;
+import com.dedicatedcode.reitti.service.lock.PostgresUserWorkLock;
+import com.dedicatedcode.reitti.service.lock.RedisUserWorkLock;
+import com.dedicatedcode.reitti.service.lock.UserWorkLock;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.JdbcConnectionDetails;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+
+@Configuration
+public class UserWorkLockConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "reitti.processing.lock.type", havingValue = "local", matchIfMissing = true)
+    public UserWorkLock localUserWorkLock(@Value("${reitti.processing.lock.acquire-timeout:PT5M}") Duration acquireTimeout) {
+        return new LocalUserWorkLock(acquireTimeout);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "reitti.processing.lock.type", havingValue = "postgres")
+    public UserWorkLock postgresUserWorkLock(JdbcConnectionDetails connectionDetails,
+                                             @Value("${reitti.processing.lock.acquire-timeout:PT5M}") Duration acquireTimeout,
+                                             @Value("${reitti.processing.lock.postgres.pool-size:48}") int poolSize) {
+        HikariDataSource lockDataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .driverClassName(connectionDetails.getDriverClassName())
+                .url(connectionDetails.getJdbcUrl())
+                .username(connectionDetails.getUsername())
+                .password(connectionDetails.getPassword())
+                .build();
+        lockDataSource.setPoolName("reitti-work-lock");
+        lockDataSource.setMaximumPoolSize(poolSize);
+        lockDataSource.setMinimumIdle(0);
+        lockDataSource.setConnectionTimeout(acquireTimeout.toMillis());
+        return new PostgresUserWorkLock(lockDataSource, acquireTimeout);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "reitti.processing.lock.type", havingValue = "redis")
+    public UserWorkLock redisUserWorkLock(StringRedisTemplate redisTemplate,
+                                          @Value("${reitti.processing.lock.acquire-timeout:PT5M}") Duration acquireTimeout,
+                                          @Value("${reitti.processing.lock.lease-timeout:PT30M}") Duration leaseTimeout) {
+        return new RedisUserWorkLock(redisTemplate, acquireTimeout, leaseTimeout);
+    }
+}
@@ -0,0 +1,77 @@
+package com.dedicatedcode.reitti.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Spreads visit merging over a fixed number of queues. All events of a user end up on the same shard, so they are
+ * still merged one after another, while different users are merged in parallel.
+ * <p>
+ * Shards are picked by a jump consistent hash of the username, changing the shard count only moves the users of the
+ * added or removed shards.
+ */
+@Component
+public class VisitMergeShardRouter {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int shards;
+
+    public VisitMergeShardRouter(@Value("${reitti.events.merge-visit.shards:4}") int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("reitti.events.merge-visit.shards must be at least 1 but was " + shards);
+        }
+        this.shards = shards;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public int shardFor(String username) {
+        return jumpConsistentHash(fnv1a(username), shards);
+    }
+
+    public String routingKeyFor(String username) {
+        return routingKey(shardFor(username));
+    }
+
+    public List<String> queueNames() {
+        return IntStream.range(0, shards).mapToObj(VisitMergeShardRouter::queueName).toList();
+    }
+
+    public static String queueName(int shard) {
+        return RabbitMQConfig.MERGE_VISIT_QUEUE + ".shard." + shard;
+    }
+
+    public static String routingKey(int shard) {
+        return RabbitMQConfig.MERGE_VISIT_ROUTING_KEY + ".shard." + shard;
+    }
+
+    private static long fnv1a(String value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Lamping and Veach, "A Fast, Minimal Memory, Consistent Hash Algorithm".
+     */
+    static int jumpConsistentHash(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+}
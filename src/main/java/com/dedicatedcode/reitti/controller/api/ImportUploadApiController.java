@@ -0,0 +1,109 @@
+package com.dedicatedcode.reitti.controller.api;
+
+import com.dedicatedcode.reitti.dto.ChunkedUploadRequest;
+import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.service.importer.ChunkedUploadException;
+import com.dedicatedcode.reitti.service.importer.ChunkedUploadService;
+import com.dedicatedcode.reitti.service.importer.UploadSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Resumable chunked uploads for large import files. A client announces the file, sends it in chunks with their
+ * SHA-256 checksum and asks for the current offset whenever the connection dropped. Completing the upload starts
+ * the import in the background, its progress is published as IMPORT_PROGRESS events on /events.
+ */
+@RestController
+@RequestMapping("/api/v1/import/uploads")
+public class ImportUploadApiController {
+    private static final Logger logger = LoggerFactory.getLogger(ImportUploadApiController.class);
+    public static final String CHUNK_CHECKSUM_HEADER = "X-Chunk-Sha256";
+
+    private final ChunkedUploadService chunkedUploadService;
+
+    public ImportUploadApiController(ChunkedUploadService chunkedUploadService) {
+        this.chunkedUploadService = chunkedUploadService;
+    }
+
+    @PostMapping
+    public ResponseEntity<?> startUpload(@AuthenticationPrincipal User user, @RequestBody ChunkedUploadRequest request) {
+        if (request.getFilename() == null || request.getFormat() == null || request.getSize() <= 0) {
+            return ResponseEntity.badRequest().body(Map.of("error", "filename, format and a positive size are required"));
+        }
+        try {
+            UploadSession session = chunkedUploadService.start(user, request.getFilename(), request.getFormat(), request.getSize(), request.isBulk());
+            return ResponseEntity.status(HttpStatus.CREATED).body(toResponse(session));
+        } catch (IOException e) {
+            logger.error("Unable to start upload of [{}]", request.getFilename(), e);
+            return ResponseEntity.internalServerError().body(Map.of("error", "Unable to start upload: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<?> getUpload(@AuthenticationPrincipal User user, @PathVariable String uploadId) {
+        return chunkedUploadService.find(user, uploadId)
+                .<ResponseEntity<?>>map(session -> ResponseEntity.ok(toResponse(session)))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Upload not found")));
+    }
+
+    @PutMapping("/{uploadId}")
+    public ResponseEntity<?> uploadChunk(@AuthenticationPrincipal User user,
+                                         @PathVariable String uploadId,
+                                         @RequestParam long offset,
+                                         @RequestHeader(value = CHUNK_CHECKSUM_HEADER, required = false) String sha256,
+                                         InputStream content) {
+        try {
+            long newOffset = chunkedUploadService.appendChunk(user, uploadId, offset, sha256, content);
+            return ResponseEntity.ok(Map.of("uploadId", uploadId, "offset", newOffset));
+        } catch (IOException e) {
+            logger.warn("Chunk at offset [{}] of upload [{}] failed: {}", offset, uploadId, e.getMessage());
+            return ResponseEntity.internalServerError().body(Map.of("error", "Unable to store chunk: " + e.getMessage()));
+        }
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<?> completeUpload(@AuthenticationPrincipal User user, @PathVariable String uploadId) {
+        UploadSession session = chunkedUploadService.complete(user, uploadId);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(toResponse(session));
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<?> cancelUpload(@AuthenticationPrincipal User user, @PathVariable String uploadId) {
+        chunkedUploadService.cancel(user, uploadId);
+        return ResponseEntity.noContent().build();
+    }
+
+    @ExceptionHandler(ChunkedUploadException.class)
+    public ResponseEntity<?> handleUploadException(ChunkedUploadException e) {
+        HttpStatus status = switch (e.getReason()) {
+            case NOT_FOUND -> HttpStatus.NOT_FOUND;
+            case OFFSET_MISMATCH, INVALID_STATE, INCOMPLETE -> HttpStatus.CONFLICT;
+            case CHECKSUM_MISMATCH -> HttpStatus.UNPROCESSABLE_ENTITY;
+            case TOO_LARGE -> HttpStatus.CONTENT_TOO_LARGE;
+        };
+        return ResponseEntity.status(status).body(Map.of(
+                "error", e.getMessage(),
+                "offset", e.getCurrentOffset()
+        ));
+    }
+
+    private static Map<String, Object> toResponse(UploadSession session) {
+        return Map.of(
+                "uploadId", session.getId(),
+                "filename", session.getFilename(),
+                "format", session.getFormat(),
+                "size", session.getSize(),
+                "offset", session.getOffset(),
+                "state", session.getState(),
+                "bulk", session.isBulk()
+        );
+    }
+}
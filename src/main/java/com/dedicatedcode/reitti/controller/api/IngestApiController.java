@@ -4,10 +4,12 @@ import com.dedicatedcode.reitti.dto.LocationDataRequest;
 import com.dedicatedcode.reitti.dto.OwntracksLocationRequest;
 import com.dedicatedcode.reitti.model.security.User;
 import com.dedicatedcode.reitti.repository.UserJdbcService;
-import com.dedicatedcode.reitti.service.ImportBatchProcessor;
+import com.dedicatedcode.reitti.service.LocationIngestCoalescer;
+import com.dedicatedcode.reitti.service.QueueBackpressureService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -20,7 +22,6 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.io.Serializable;
-import java.util.Collections;
 import java.util.Map;
 
 @RestController
@@ -33,13 +34,17 @@ public class IngestApiController {
             "message", "Successfully queued Owntracks location point for processing"
     );
 
-    private final ImportBatchProcessor batchProcessor;
+    private final LocationIngestCoalescer ingestCoalescer;
+    private final QueueBackpressureService backpressureService;
     private final UserJdbcService userJdbcService;
 
     @Autowired
-    public IngestApiController(ImportBatchProcessor batchProcessor, UserJdbcService userJdbcService) {
+    public IngestApiController(LocationIngestCoalescer ingestCoalescer,
+                               QueueBackpressureService backpressureService,
+                               UserJdbcService userJdbcService) {
         this.userJdbcService = userJdbcService;
-        this.batchProcessor = batchProcessor;
+        this.ingestCoalescer = ingestCoalescer;
+        this.backpressureService = backpressureService;
     }
     
     @PostMapping("/owntracks")
@@ -66,7 +71,15 @@ public class IngestApiController {
                 return ResponseEntity.ok(Map.of());
             }
 
-            this.batchProcessor.sendToQueue(user, Collections.singletonList(locationPoint));
+            if (this.backpressureService.isIngestOverloaded()) {
+                int retryAfter = this.backpressureService.getRetryAfterSeconds();
+                logger.debug("Rejecting Owntracks location point for user {}, processing backlog is too large", user.getUsername());
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+                        .body(Map.of("error", "Too many location points waiting to be processed, retry in " + retryAfter + " seconds"));
+            }
+
+            this.ingestCoalescer.add(user, locationPoint);
             logger.debug("Successfully received and queued Owntracks location point for user {}",
                     user.getUsername());
             
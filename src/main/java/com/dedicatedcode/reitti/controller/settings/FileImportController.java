@@ -18,6 +18,8 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Map;
 
 @Controller
@@ -31,6 +33,7 @@ public class FileImportController {
     private final GoogleAndroidTimelineImporter googleAndroidTimelineImporter;
     private final GoogleIOSTimelineImporter googleTimelineIOSImporter;
     private final GeoJsonImporter geoJsonImporter;
+    private final GoogleTakeoutImporter googleTakeoutImporter;
     private final boolean dataManagementEnabled;
 
     public FileImportController(GpxImporter gpxImporter,
@@ -38,12 +41,14 @@ public class FileImportController {
                                 GoogleAndroidTimelineImporter googleAndroidTimelineImporter,
                                 GoogleIOSTimelineImporter googleTimelineIOSImporter,
                                 GeoJsonImporter geoJsonImporter,
+                                GoogleTakeoutImporter googleTakeoutImporter,
                                 @Value("${reitti.data-management.enabled:false}") boolean dataManagementEnabled) {
         this.gpxImporter = gpxImporter;
         this.googleRecordsImporter = googleRecordsImporter;
         this.googleAndroidTimelineImporter = googleAndroidTimelineImporter;
         this.googleTimelineIOSImporter = googleTimelineIOSImporter;
         this.geoJsonImporter = geoJsonImporter;
+        this.googleTakeoutImporter = googleTakeoutImporter;
         this.dataManagementEnabled = dataManagementEnabled;
     }
 
@@ -207,6 +212,50 @@ public class FileImportController {
         }
     }
 
+    @PostMapping("/google-takeout")
+    public String importGoogleTakeout(@RequestParam("file") MultipartFile file,
+                                      Authentication authentication,
+                                      Model model) {
+        User user = (User) authentication.getPrincipal();
+
+        if (file.isEmpty() || file.getOriginalFilename() == null) {
+            model.addAttribute("uploadErrorMessage", "File is empty");
+            return "settings/import-data :: file-upload-content";
+        }
+
+        if (!file.getOriginalFilename().endsWith(".zip")) {
+            model.addAttribute("uploadErrorMessage", "Only ZIP archives are supported");
+            return "settings/import-data :: file-upload-content";
+        }
+
+        Path archive = null;
+        try {
+            // entries are read with random access, so the archive has to be on disk
+            archive = Files.createTempFile("reitti-takeout", ".zip");
+            file.transferTo(archive);
+            Map<String, Object> result = this.googleTakeoutImporter.importTakeout(archive, user);
+
+            if ((Boolean) result.get("success")) {
+                model.addAttribute("uploadSuccessMessage", result.get("message"));
+            } else {
+                model.addAttribute("uploadErrorMessage", result.get("error"));
+            }
+
+            return "settings/import-data :: file-upload-content";
+        } catch (IOException e) {
+            model.addAttribute("uploadErrorMessage", "Error processing file: " + e.getMessage());
+            return "settings/import-data :: file-upload-content";
+        } finally {
+            if (archive != null) {
+                try {
+                    Files.deleteIfExists(archive);
+                } catch (IOException e) {
+                    logger.warn("Unable to delete temporary archive [{}]", archive, e);
+                }
+            }
+        }
+    }
+
     @PostMapping("/geojson")
     public String importGeoJson(@RequestParam("files") MultipartFile[] files,
                                 Authentication authentication,
@@ -229,7 +278,7 @@ public class FileImportController {
             }
 
             String filename = file.getOriginalFilename();
-            if (filename == null || (!filename.endsWith(".geojson") && !filename.endsWith(".json"))) {
+            if (filename == null || (!filename.endsWith(".geojson") && !filename.endsWith(".geojsons") && !filename.endsWith(".json"))) {
                 errorMessages.append("File ").append(filename).append(" is not a GeoJSON file. ");
                 continue;
             }
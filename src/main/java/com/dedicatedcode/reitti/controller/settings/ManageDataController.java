@@ -6,6 +6,7 @@ import com.dedicatedcode.reitti.repository.ProcessedVisitJdbcService;
 import com.dedicatedcode.reitti.repository.RawLocationPointJdbcService;
 import com.dedicatedcode.reitti.repository.TripJdbcService;
 import com.dedicatedcode.reitti.repository.VisitJdbcService;
+import com.dedicatedcode.reitti.service.importer.ImportedVisitService;
 import com.dedicatedcode.reitti.service.processing.ProcessingPipelineTrigger;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.MessageSource;
@@ -25,6 +26,7 @@ public class ManageDataController {
     private final ProcessedVisitJdbcService processedVisitJdbcService;
     private final ProcessingPipelineTrigger processingPipelineTrigger;
     private final RawLocationPointJdbcService rawLocationPointJdbcService;
+    private final ImportedVisitService importedVisitService;
     private final MessageSource messageSource;
 
     public ManageDataController(@Value("${reitti.data-management.enabled:false}") boolean dataManagementEnabled,
@@ -32,6 +34,7 @@ public class ManageDataController {
                                 TripJdbcService tripJdbcService,
                                 ProcessedVisitJdbcService processedVisitJdbcService,
                                 ProcessingPipelineTrigger processingPipelineTrigger, RawLocationPointJdbcService rawLocationPointJdbcService,
+                                ImportedVisitService importedVisitService,
                                 MessageSource messageSource) {
         this.dataManagementEnabled = dataManagementEnabled;
         this.visitJdbcService = visitJdbcService;
@@ -39,6 +42,7 @@ public class ManageDataController {
         this.processedVisitJdbcService = processedVisitJdbcService;
         this.processingPipelineTrigger = processingPipelineTrigger;
         this.rawLocationPointJdbcService = rawLocationPointJdbcService;
+        this.importedVisitService = importedVisitService;
         this.messageSource = messageSource;
     }
 
@@ -87,6 +91,7 @@ public class ManageDataController {
             clearProcessedDataExceptPlaces(user);
             markRawLocationPointsAsUnprocessed(user);
             processingPipelineTrigger.start();
+            importedVisitService.reprocess(user);
             model.addAttribute("successMessage", getMessage("data.clear.reprocess.success"));
         } catch (Exception e) {
             model.addAttribute("errorMessage", getMessage("data.clear.reprocess.error", e.getMessage()));
@@ -114,7 +119,7 @@ public class ManageDataController {
     private void clearProcessedDataExceptPlaces(User user) {
         tripJdbcService.deleteAllForUser(user);
         processedVisitJdbcService.deleteAllForUser(user);
-        visitJdbcService.deleteAllForUser(user);
+        visitJdbcService.deleteAllDetectedForUser(user);
     }
 
     private void markRawLocationPointsAsUnprocessed(User user) {
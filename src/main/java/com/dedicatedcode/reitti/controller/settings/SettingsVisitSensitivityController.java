@@ -6,6 +6,7 @@ import com.dedicatedcode.reitti.model.processing.DetectionParameter;
 import com.dedicatedcode.reitti.model.security.User;
 import com.dedicatedcode.reitti.repository.*;
 import com.dedicatedcode.reitti.service.VisitDetectionPreviewService;
+import com.dedicatedcode.reitti.service.importer.ImportedVisitService;
 import com.dedicatedcode.reitti.service.processing.ProcessingPipelineTrigger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +41,7 @@ public class SettingsVisitSensitivityController {
     private final MessageSource messageSource;
     private final boolean dataManagementEnabled;
     private final RawLocationPointJdbcService rawLocationPointJdbcService;
+    private final ImportedVisitService importedVisitService;
 
     public SettingsVisitSensitivityController(VisitDetectionParametersJdbcService configurationService,
                                               VisitDetectionPreviewService visitDetectionPreviewService,
@@ -48,7 +50,8 @@ public class SettingsVisitSensitivityController {
                                               ProcessedVisitJdbcService processedVisitJdbcService,
                                               VisitJdbcService visitJdbcService,
                                               MessageSource messageSource,
-                                              @Value("${reitti.data-management.enabled:false}") boolean dataManagementEnabled, RawLocationPointJdbcService rawLocationPointJdbcService) {
+                                              @Value("${reitti.data-management.enabled:false}") boolean dataManagementEnabled, RawLocationPointJdbcService rawLocationPointJdbcService,
+                                              ImportedVisitService importedVisitService) {
         this.configurationService = configurationService;
         this.visitDetectionPreviewService = visitDetectionPreviewService;
         this.processingPipelineTrigger = processingPipelineTrigger;
@@ -58,6 +61,7 @@ public class SettingsVisitSensitivityController {
         this.messageSource = messageSource;
         this.dataManagementEnabled = dataManagementEnabled;
         this.rawLocationPointJdbcService = rawLocationPointJdbcService;
+        this.importedVisitService = importedVisitService;
     }
     
     @GetMapping
@@ -267,8 +271,9 @@ public class SettingsVisitSensitivityController {
             log.debug("Clearing all time range");
             tripJdbcService.deleteAllForUser(user);
             processedVisitJdbcService.deleteAllForUser(user);
-            visitJdbcService.deleteAllForUser(user);
+            visitJdbcService.deleteAllDetectedForUser(user);
             rawLocationPointJdbcService.markAllAsUnprocessedForUser(user);
+            importedVisitService.reprocess(user);
         } else {
             Optional<DetectionParameter> parametersAfterEarliest = allConfigurationsForUser.stream().filter(p -> p.getValidSince() != null && p.getValidSince().isAfter(latest.getValidSince())).findFirst();
 
@@ -276,16 +281,18 @@ public class SettingsVisitSensitivityController {
                 log.debug("Clearing time range between {} and {}", earliest.getValidSince(), parametersAfterEarliest.get().getValidSince());
                 this.tripJdbcService.deleteAllForUserBetween(user, earliest.getValidSince(), parametersAfterEarliest.get().getValidSince());
                 this.processedVisitJdbcService.deleteAllForUserBetween(user, earliest.getValidSince(), parametersAfterEarliest.get().getValidSince());
-                this.visitJdbcService.deleteAllForUserBetween(user, earliest.getValidSince(), parametersAfterEarliest.get().getValidSince());
+                this.visitJdbcService.deleteAllDetectedForUserBetween(user, earliest.getValidSince(), parametersAfterEarliest.get().getValidSince());
 
                 this.rawLocationPointJdbcService.markAllAsUnprocessedForUserBetween(user, earliest.getValidSince(), parametersAfterEarliest.get().getValidSince());
+                this.importedVisitService.reprocessBetween(user, earliest.getValidSince(), parametersAfterEarliest.get().getValidSince());
             } else {
                 log.debug("Clearing time range after {}", earliest.getValidSince());
                 this.tripJdbcService.deleteAllForUserAfter(user, earliest.getValidSince());
                 this.processedVisitJdbcService.deleteAllForUserAfter(user, earliest.getValidSince());
-                this.visitJdbcService.deleteAllForUserAfter(user, earliest.getValidSince());
+                this.visitJdbcService.deleteAllDetectedForUserAfter(user, earliest.getValidSince());
 
                 this.rawLocationPointJdbcService.markAllAsUnprocessedForUserAfter(user, earliest.getValidSince());
+                this.importedVisitService.reprocessAfter(user, earliest.getValidSince());
             }
         }
         allConfigurationsForUser.forEach(config -> this.configurationService.updateConfiguration(config.withNeedsRecalculation(false)));
@@ -0,0 +1,42 @@
+package com.dedicatedcode.reitti.dto;
+
+import com.dedicatedcode.reitti.service.importer.ImportFormat;
+
+public class ChunkedUploadRequest {
+    private String filename;
+    private ImportFormat format;
+    private long size;
+    private boolean bulk;
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public ImportFormat getFormat() {
+        return format;
+    }
+
+    public void setFormat(ImportFormat format) {
+        this.format = format;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public boolean isBulk() {
+        return bulk;
+    }
+
+    public void setBulk(boolean bulk) {
+        this.bulk = bulk;
+    }
+}
@@ -0,0 +1,74 @@
+package com.dedicatedcode.reitti.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.io.Serializable;
+
+/**
+ * Progress of an import running in the background, sent to the user with {@link SSEType#IMPORT_PROGRESS} events.
+ */
+public class ImportProgress implements Serializable {
+    public enum State {
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    private final String uploadId;
+    private final String filename;
+    private final State state;
+    private final long bytesParsed;
+    private final long totalBytes;
+    private final long pointsQueued;
+    private final String message;
+
+    @JsonCreator
+    public ImportProgress(String uploadId, String filename, State state, long bytesParsed, long totalBytes, long pointsQueued, String message) {
+        this.uploadId = uploadId;
+        this.filename = filename;
+        this.state = state;
+        this.bytesParsed = bytesParsed;
+        this.totalBytes = totalBytes;
+        this.pointsQueued = pointsQueued;
+        this.message = message;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getBytesParsed() {
+        return bytesParsed;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getPointsQueued() {
+        return pointsQueued;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportProgress{" +
+                "uploadId='" + uploadId + '\'' +
+                ", state=" + state +
+                ", bytesParsed=" + bytesParsed +
+                ", totalBytes=" + totalBytes +
+                ", pointsQueued=" + pointsQueued +
+                '}';
+    }
+}
@@ -1,22 +1,21 @@
 package com.dedicatedcode.reitti.event;
 
-import com.dedicatedcode.reitti.dto.LocationDataRequest;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.io.Serializable;
 import java.time.Instant;
-import java.util.List;
 
 public class LocationDataEvent implements Serializable {
     private final String username;
-    private final List<LocationDataRequest.LocationPoint> points;
+    private final PointBatch points;
     private final Instant receivedAt;
 
     @JsonCreator
     public LocationDataEvent(
             @JsonProperty("username") String username,
-            @JsonProperty("points") List<LocationDataRequest.LocationPoint> points) {
+            @JsonProperty("points") PointBatch points) {
         this.username = username;
         this.points = points;
         this.receivedAt = Instant.now();
@@ -26,7 +25,7 @@ public class LocationDataEvent implements Serializable {
         return username;
     }
 
-    public List<LocationDataRequest.LocationPoint> getPoints() {
+    public PointBatch getPoints() {
         return points;
     }
 
@@ -1,18 +1,23 @@
 package com.dedicatedcode.reitti.event;
 
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.List;
+
 public class ProcessedVisitCreatedEvent {
     private final String username;
-    private final long visitId;
+    private final List<Long> visitIds;
     private final String previewId;
 
     public ProcessedVisitCreatedEvent(
             @JsonProperty String username,
-            @JsonProperty long visitId,
+            // events queued by older versions carry a single visitId
+            @JsonProperty @JsonAlias("visitId") @JsonFormat(with = JsonFormat.Feature.ACCEPT_SINGLE_VALUE_AS_ARRAY) List<Long> visitIds,
             @JsonProperty String previewId) {
         this.username = username;
-        this.visitId = visitId;
+        this.visitIds = visitIds;
         this.previewId = previewId;
     }
 
@@ -20,8 +25,8 @@ public class ProcessedVisitCreatedEvent {
         return username;
     }
 
-    public long getVisitId() {
-        return visitId;
+    public List<Long> getVisitIds() {
+        return visitIds;
     }
 
     public String getPreviewId() {
@@ -11,14 +11,20 @@ public class SSEEvent implements Serializable {
     private final Long changedUserId;
     private final LocalDate date;
     private final String previewId;
+    private final ImportProgress importProgress;
 
-    @JsonCreator
     public SSEEvent(SSEType type, Long userId, Long changedUserId, LocalDate date, String previewId) {
+        this(type, userId, changedUserId, date, previewId, null);
+    }
+
+    @JsonCreator
+    public SSEEvent(SSEType type, Long userId, Long changedUserId, LocalDate date, String previewId, ImportProgress importProgress) {
         this.type = type;
         this.userId = userId;
         this.changedUserId = changedUserId;
         this.date = date;
         this.previewId = previewId;
+        this.importProgress = importProgress;
     }
 
     public SSEType getType() {
@@ -40,4 +46,8 @@ public class SSEEvent implements Serializable {
     public String getPreviewId() {
         return previewId;
     }
+
+    public ImportProgress getImportProgress() {
+        return importProgress;
+    }
 }
@@ -4,5 +4,6 @@ public enum SSEType {
     CONNECTED,
     TRIPS,
     VISITS,
-    RAW_DATA
+    RAW_DATA,
+    IMPORT_PROGRESS
 }
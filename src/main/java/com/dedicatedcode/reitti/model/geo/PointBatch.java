@@ -0,0 +1,270 @@
+package com.dedicatedcode.reitti.model.geo;
+
+import com.dedicatedcode.reitti.dto.LocationDataRequest;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar batch of location points. Timestamps are parsed once when the batch is built and kept as epoch millis
+ * next to the coordinates in primitive arrays. Points which are incomplete or got rejected later on are only
+ * flagged in the validity bitmap, so filtering does not need to copy the batch.
+ * <p>
+ * As JSON the columns are written as arrays. A list of point objects is read as well, that is how events queued by
+ * older versions carry their points.
+ */
+@JsonDeserialize(using = PointBatch.JsonReader.class)
+public class PointBatch implements Serializable {
+    private final long[] epochMillis;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] accuracyMeters;
+    private final long[] validity;
+
+    public PointBatch(long[] epochMillis,
+                      double[] latitudes,
+                      double[] longitudes,
+                      double[] accuracyMeters,
+                      long[] validity) {
+        if (latitudes.length != epochMillis.length || longitudes.length != epochMillis.length || accuracyMeters.length != epochMillis.length) {
+            throw new IllegalArgumentException("All columns of a point batch must have the same length");
+        }
+        this.epochMillis = epochMillis;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.accuracyMeters = accuracyMeters;
+        this.validity = validity != null ? validity : allValid(epochMillis.length);
+    }
+
+    public static PointBatch empty() {
+        return new Builder(0).build();
+    }
+
+    public static Builder builder(int expectedSize) {
+        return new Builder(expectedSize);
+    }
+
+    /**
+     * Converts the given points, points without coordinates, accuracy or a parsable timestamp are marked invalid.
+     */
+    public static PointBatch of(List<LocationDataRequest.LocationPoint> points) {
+        Builder builder = new Builder(points.size());
+        for (LocationDataRequest.LocationPoint point : points) {
+            builder.add(point);
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return epochMillis.length;
+    }
+
+    @JsonIgnore
+    public boolean isEmpty() {
+        return validCount() == 0;
+    }
+
+    public int validCount() {
+        int count = 0;
+        for (long word : validity) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public boolean isValid(int index) {
+        return (validity[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public void invalidate(int index) {
+        validity[index >>> 6] &= ~(1L << index);
+    }
+
+    public long epochMillis(int index) {
+        return epochMillis[index];
+    }
+
+    public double latitude(int index) {
+        return latitudes[index];
+    }
+
+    public double longitude(int index) {
+        return longitudes[index];
+    }
+
+    public double accuracyMeters(int index) {
+        return accuracyMeters[index];
+    }
+
+    /**
+     * @return the highest timestamp of all valid points or {@link Long#MIN_VALUE} if there is none
+     */
+    public long maxValidEpochMillis() {
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < epochMillis.length; i++) {
+            if (isValid(i) && epochMillis[i] > max) {
+                max = epochMillis[i];
+            }
+        }
+        return max;
+    }
+
+    public List<LocationDataRequest.LocationPoint> toLocationPoints() {
+        List<LocationDataRequest.LocationPoint> result = new ArrayList<>(validCount());
+        for (int i = 0; i < epochMillis.length; i++) {
+            if (isValid(i)) {
+                LocationDataRequest.LocationPoint point = new LocationDataRequest.LocationPoint();
+                point.setTimestamp(Instant.ofEpochMilli(epochMillis[i]).toString());
+                point.setLatitude(latitudes[i]);
+                point.setLongitude(longitudes[i]);
+                point.setAccuracyMeters(accuracyMeters[i]);
+                result.add(point);
+            }
+        }
+        return result;
+    }
+
+    @JsonProperty("epochMillis")
+    public long[] getEpochMillis() {
+        return epochMillis;
+    }
+
+    @JsonProperty("latitudes")
+    public double[] getLatitudes() {
+        return latitudes;
+    }
+
+    @JsonProperty("longitudes")
+    public double[] getLongitudes() {
+        return longitudes;
+    }
+
+    @JsonProperty("accuracyMeters")
+    public double[] getAccuracyMeters() {
+        return accuracyMeters;
+    }
+
+    @JsonProperty("validity")
+    public long[] getValidity() {
+        return validity;
+    }
+
+    private static long[] allValid(int size) {
+        long[] bits = new long[(size + 63) >>> 6];
+        for (int i = 0; i < size; i++) {
+            bits[i >>> 6] |= 1L << i;
+        }
+        return bits;
+    }
+
+    @Override
+    public String toString() {
+        return "PointBatch{" +
+                "size=" + size() +
+                ", valid=" + validCount() +
+                '}';
+    }
+
+    static class JsonReader extends StdDeserializer<PointBatch> {
+
+        JsonReader() {
+            super(PointBatch.class);
+        }
+
+        @Override
+        public PointBatch deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            if (parser.currentToken() == JsonToken.START_ARRAY) {
+                JavaType listType = context.getTypeFactory().constructCollectionType(List.class, LocationDataRequest.LocationPoint.class);
+                List<LocationDataRequest.LocationPoint> points = context.readValue(parser, listType);
+                return of(points);
+            }
+            Columns columns = context.readValue(parser, Columns.class);
+            return new PointBatch(columns.epochMillis(), columns.latitudes(), columns.longitudes(), columns.accuracyMeters(), columns.validity());
+        }
+
+        private record Columns(long[] epochMillis, double[] latitudes, double[] longitudes, double[] accuracyMeters, long[] validity) {
+        }
+    }
+
+    public static class Builder {
+        private long[] epochMillis;
+        private double[] latitudes;
+        private double[] longitudes;
+        private double[] accuracyMeters;
+        private long[] validity;
+        private int size;
+
+        private Builder(int expectedSize) {
+            int capacity = Math.max(expectedSize, 16);
+            this.epochMillis = new long[capacity];
+            this.latitudes = new double[capacity];
+            this.longitudes = new double[capacity];
+            this.accuracyMeters = new double[capacity];
+            this.validity = new long[(capacity + 63) >>> 6];
+        }
+
+        public Builder add(long epochMillis, double latitude, double longitude, double accuracyMeters) {
+            int index = append(epochMillis, latitude, longitude, accuracyMeters);
+            this.validity[index >>> 6] |= 1L << index;
+            return this;
+        }
+
+        public Builder add(LocationDataRequest.LocationPoint point) {
+            if (point.getLatitude() == null || point.getLongitude() == null || point.getAccuracyMeters() == null || point.getTimestamp() == null) {
+                append(0, 0, 0, 0);
+                return this;
+            }
+            try {
+                long timestamp = ZonedDateTime.parse(point.getTimestamp()).toInstant().toEpochMilli();
+                return add(timestamp, point.getLatitude(), point.getLongitude(), point.getAccuracyMeters());
+            } catch (DateTimeParseException e) {
+                append(0, 0, 0, 0);
+                return this;
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public PointBatch build() {
+            return new PointBatch(
+                    Arrays.copyOf(epochMillis, size),
+                    Arrays.copyOf(latitudes, size),
+                    Arrays.copyOf(longitudes, size),
+                    Arrays.copyOf(accuracyMeters, size),
+                    Arrays.copyOf(validity, (size + 63) >>> 6));
+        }
+
+        private int append(long epochMillis, double latitude, double longitude, double accuracyMeters) {
+            if (size == this.epochMillis.length) {
+                int capacity = size * 2;
+                this.epochMillis = Arrays.copyOf(this.epochMillis, capacity);
+                this.latitudes = Arrays.copyOf(this.latitudes, capacity);
+                this.longitudes = Arrays.copyOf(this.longitudes, capacity);
+                this.accuracyMeters = Arrays.copyOf(this.accuracyMeters, capacity);
+                this.validity = Arrays.copyOf(this.validity, (capacity + 63) >>> 6);
+            }
+            int index = size++;
+            this.epochMillis[index] = epochMillis;
+            this.latitudes[index] = latitude;
+            this.longitudes[index] = longitude;
+            this.accuracyMeters[index] = accuracyMeters;
+            return index;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.dedicatedcode.reitti.model.geo;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Time sorted track of location points in primitive arrays. Next to every point the distance travelled from the first
+ * point up to it is kept, so the distance and the number of points within any time range are found by two binary
+ * searches instead of loading and walking the points again.
+ * <p>
+ * Timestamps are kept as epoch microseconds, the precision of the stored timestamps, so the ranges match the ones a
+ * {@code BETWEEN} query would return.
+ */
+public class PointTrack {
+    private final long[] epochMicros;
+    private final double[] travelledMeters;
+    private final int size;
+
+    private PointTrack(long[] epochMicros, double[] travelledMeters, int size) {
+        this.epochMicros = epochMicros;
+        this.travelledMeters = travelledMeters;
+        this.size = size;
+    }
+
+    public static Builder builder(int expectedSize) {
+        return new Builder(expectedSize);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of points with a timestamp between start and end, both inclusive
+     */
+    public int countBetween(Instant start, Instant end) {
+        return Math.max(0, upperBound(toEpochMicros(end)) - lowerBound(toEpochMicros(start)));
+    }
+
+    /**
+     * @return the distance travelled along the points with a timestamp between start and end, both inclusive
+     */
+    public double distanceBetween(Instant start, Instant end) {
+        int from = lowerBound(toEpochMicros(start));
+        int to = upperBound(toEpochMicros(end)) - 1;
+        return to > from ? travelledMeters[to] - travelledMeters[from] : 0.0;
+    }
+
+    private int lowerBound(long epochMicros) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.epochMicros[middle] < epochMicros) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int upperBound(long epochMicros) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.epochMicros[middle] <= epochMicros) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static long toEpochMicros(Instant instant) {
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000L), instant.getNano() / 1_000);
+    }
+
+    @Override
+    public String toString() {
+        return "PointTrack{" +
+                "size=" + size +
+                '}';
+    }
+
+    public static class Builder {
+        private long[] epochMicros;
+        private double[] travelledMeters;
+        private double lastLatitude;
+        private double lastLongitude;
+        private int size;
+
+        private Builder(int expectedSize) {
+            int capacity = Math.max(expectedSize, 16);
+            this.epochMicros = new long[capacity];
+            this.travelledMeters = new double[capacity];
+        }
+
+        /**
+         * Points have to be added ordered by their timestamp.
+         */
+        public Builder add(Instant timestamp, double latitude, double longitude) {
+            long micros = toEpochMicros(timestamp);
+            if (size > 0 && micros < epochMicros[size - 1]) {
+                throw new IllegalArgumentException("Points of a track must be added in order of their timestamp");
+            }
+            if (size == epochMicros.length) {
+                epochMicros = Arrays.copyOf(epochMicros, size * 2);
+                travelledMeters = Arrays.copyOf(travelledMeters, size * 2);
+            }
+            epochMicros[size] = micros;
+            travelledMeters[size] = size == 0 ? 0.0 : travelledMeters[size - 1] + GeoUtils.distanceInMeters(lastLatitude, lastLongitude, latitude, longitude);
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+            size++;
+            return this;
+        }
+
+        public PointTrack build() {
+            return new PointTrack(epochMicros, travelledMeters, size);
+        }
+    }
+}
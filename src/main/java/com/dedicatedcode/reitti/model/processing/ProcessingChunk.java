@@ -0,0 +1,9 @@
+package com.dedicatedcode.reitti.model.processing;
+
+import java.time.Instant;
+
+/**
+ * A run of location points which has been handed over to visit detection in one go.
+ */
+public record ProcessingChunk(int count, Instant earliest, Instant latest) {
+}
@@ -0,0 +1,9 @@
+package com.dedicatedcode.reitti.model.processing;
+
+import java.time.Instant;
+
+/**
+ * Start and end of something stored, when only its times are needed.
+ */
+public record TimeRange(Instant start, Instant end) {
+}
@@ -0,0 +1,75 @@
+package com.dedicatedcode.reitti.repository;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+
+/**
+ * Writes rows in the PostgreSQL binary COPY format.
+ * <p>
+ * Only the column types needed to stream location points are supported. Geometries are written as big-endian EWKB,
+ * which PostGIS accepts directly through its binary receive function, so no WKT parsing happens on the server.
+ */
+public class PgBinaryCopyWriter implements AutoCloseable {
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    // microseconds between 1970-01-01 and the PostgreSQL epoch 2000-01-01
+    private static final long POSTGRES_EPOCH_OFFSET_MICROS = 946_684_800_000_000L;
+    private static final int EWKB_POINT_WITH_SRID = 0x20000001;
+    private static final int EWKB_POINT_LENGTH = 1 + 4 + 4 + 8 + 8;
+
+    private final DataOutputStream out;
+
+    public PgBinaryCopyWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.out.write(SIGNATURE);
+        this.out.writeInt(0); // flags
+        this.out.writeInt(0); // header extension length
+    }
+
+    public void startRow(int columnCount) throws IOException {
+        out.writeShort(columnCount);
+    }
+
+    public void writeLong(long value) throws IOException {
+        out.writeInt(8);
+        out.writeLong(value);
+    }
+
+    public void writeDouble(double value) throws IOException {
+        out.writeInt(8);
+        out.writeDouble(value);
+    }
+
+    public void writeTimestamp(Instant instant) throws IOException {
+        writeTimestamp(instant.getEpochSecond() * 1_000_000L + instant.getNano() / 1_000);
+    }
+
+    public void writeTimestampMillis(long epochMillis) throws IOException {
+        writeTimestamp(epochMillis * 1_000L);
+    }
+
+    private void writeTimestamp(long epochMicros) throws IOException {
+        out.writeInt(8);
+        out.writeLong(epochMicros - POSTGRES_EPOCH_OFFSET_MICROS);
+    }
+
+    public void writePoint(double x, double y, int srid) throws IOException {
+        out.writeInt(EWKB_POINT_LENGTH);
+        out.writeByte(0); // big endian
+        out.writeInt(EWKB_POINT_WITH_SRID);
+        out.writeInt(srid);
+        out.writeDouble(x);
+        out.writeDouble(y);
+    }
+
+    public void writeNull() throws IOException {
+        out.writeInt(-1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.writeShort(-1);
+        out.close();
+    }
+}
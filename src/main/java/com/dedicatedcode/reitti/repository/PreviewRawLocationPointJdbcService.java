@@ -1,7 +1,8 @@
 package com.dedicatedcode.reitti.repository;
 
-import com.dedicatedcode.reitti.model.ClusteredPoint;
+import com.dedicatedcode.reitti.model.geo.PointTrack;
 import com.dedicatedcode.reitti.model.geo.RawLocationPoint;
+import com.dedicatedcode.reitti.model.processing.ProcessingChunk;
 import com.dedicatedcode.reitti.model.security.User;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
@@ -9,9 +10,11 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Optional;
 
 @Service
 @Transactional
@@ -45,60 +48,62 @@ public class PreviewRawLocationPointJdbcService {
                 user.getId(), Timestamp.from(startTime), Timestamp.from(endTime), previewId);
     }
 
-    public List<RawLocationPoint> findByUserAndProcessedIsFalseOrderByTimestamp(User user, String previewId) {
-        String sql = "SELECT rlp.id, rlp.accuracy_meters, rlp.timestamp, rlp.user_id, ST_AsText(rlp.geom) as geom, rlp.processed, rlp.version " +
+    /**
+     * Same points as {@link #findByUserAndTimestampBetweenOrderByTimestampAsc}, but only their timestamp and position.
+     */
+    public PointTrack findTrackByUserAndTimestampBetween(User user, String previewId, Instant startTime, Instant endTime) {
+        String sql = "SELECT rlp.timestamp, ST_Y(rlp.geom) as latitude, ST_X(rlp.geom) as longitude " +
                 "FROM preview_raw_location_points rlp " +
-                "WHERE rlp.user_id = ? AND rlp.processed = false AND preview_id = ? " +
+                "WHERE rlp.user_id = ? AND rlp.timestamp BETWEEN ? AND ? AND preview_id = ? " +
                 "ORDER BY rlp.timestamp";
-        return jdbcTemplate.query(sql, rawLocationPointRowMapper, user.getId(), previewId);
+        PointTrack.Builder track = PointTrack.builder(0);
+        jdbcTemplate.query(sql, rs -> {
+            track.add(rs.getTimestamp("timestamp").toInstant(), rs.getDouble("latitude"), rs.getDouble("longitude"));
+        }, user.getId(), Timestamp.from(startTime), Timestamp.from(endTime), previewId);
+        return track.build();
     }
 
-    public List<RawLocationPoint> findByUserAndProcessedIsFalseOrderByTimestampWithLimit(User user, String previewId, int limit, int offset) {
+    public List<RawLocationPoint> findByUserAndProcessedIsFalseOrderByTimestamp(User user, String previewId) {
         String sql = "SELECT rlp.id, rlp.accuracy_meters, rlp.timestamp, rlp.user_id, ST_AsText(rlp.geom) as geom, rlp.processed, rlp.version " +
                 "FROM preview_raw_location_points rlp " +
                 "WHERE rlp.user_id = ? AND rlp.processed = false AND preview_id = ? " +
-                "ORDER BY rlp.timestamp " +
-                "LIMIT ? OFFSET ?";
-        return jdbcTemplate.query(sql, rawLocationPointRowMapper, user.getId(), previewId, limit, offset);
-    }
-
-    public List<ClusteredPoint> findClusteredPointsInTimeRangeForUser(
-            User user, String previewId, Instant startTime, Instant endTime, int minimumPoints, double distanceInMeters) {
-        String sql = "SELECT rlp.id, rlp.accuracy_meters, rlp.timestamp, rlp.user_id, ST_AsText(rlp.geom) as geom, rlp.processed, rlp.version , " +
-                "ST_ClusterDBSCAN(rlp.geom, ?, ?) over () AS cluster_id " +
-                "FROM preview_raw_location_points rlp " +
-                "WHERE rlp.user_id = ? AND rlp.timestamp BETWEEN ? AND ? AND preview_id = ?";
-
-        return jdbcTemplate.query(sql, (rs, rowNum) -> {
-
-                    RawLocationPoint point = new RawLocationPoint(
-                            rs.getLong("id"),
-                            rs.getTimestamp("timestamp").toInstant(),
-                            this.pointReaderWriter.read(rs.getString("geom")),
-                            rs.getDouble("accuracy_meters"),
-                            rs.getBoolean("processed"),
-                            rs.getLong("version")
-                    );
-
-                    Integer clusterId = rs.getObject("cluster_id", Integer.class);
-
-                    return new ClusteredPoint(point, clusterId);
-                }, distanceInMeters, minimumPoints, user.getId(),
-                Timestamp.from(startTime), Timestamp.from(endTime), previewId);
+                "ORDER BY rlp.timestamp";
+        return jdbcTemplate.query(sql, rawLocationPointRowMapper, user.getId(), previewId);
     }
 
-    public void bulkUpdateProcessedStatus(List<RawLocationPoint> points) {
-        if (points.isEmpty()) {
-            return;
+    /**
+     * Marks the next unprocessed points after the given timestamp as processed. The chunk ends after limit points or
+     * once it would span more than maxSpan. Paging by timestamp instead of an offset keeps every call as cheap as the
+     * first one, it only touches the partial index of unprocessed points.
+     *
+     * @param after the latest timestamp of the previous chunk, null to start with the oldest point
+     */
+    public Optional<ProcessingChunk> markNextChunkProcessed(User user, String previewId, Instant after, int limit, Duration maxSpan) {
+        String sql = """
+                WITH candidates AS (
+                    SELECT id, timestamp FROM preview_raw_location_points
+                    WHERE user_id = ? AND processed = false AND preview_id = ?%s
+                    ORDER BY timestamp
+                    LIMIT ?
+                ), chunk AS (
+                    SELECT id FROM candidates
+                    WHERE timestamp <= (SELECT min(timestamp) FROM candidates) + ? * interval '1 second'
+                ), updated AS (
+                    UPDATE preview_raw_location_points p SET processed = true FROM chunk WHERE p.id = chunk.id
+                    RETURNING p.timestamp
+                )
+                SELECT count(*) AS count, min(timestamp) AS earliest, max(timestamp) AS latest FROM updated
+                """.formatted(after == null ? "" : " AND timestamp > ?");
+        List<Object> args = new ArrayList<>(List.of(user.getId(), previewId));
+        if (after != null) {
+            args.add(Timestamp.from(after));
         }
-        
-        String sql = "UPDATE preview_raw_location_points SET processed = true WHERE id = ?";
-        
-        List<Object[]> batchArgs = points.stream()
-                .map(point -> new Object[]{point.getId()})
-                .collect(Collectors.toList());
-        
-        jdbcTemplate.batchUpdate(sql, batchArgs);
+        args.add(limit);
+        args.add(maxSpan.toSeconds());
+        ProcessingChunk chunk = jdbcTemplate.queryForObject(sql, (rs, _) -> rs.getInt("count") == 0 ? null : new ProcessingChunk(
+                rs.getInt("count"),
+                rs.getTimestamp("earliest").toInstant(),
+                rs.getTimestamp("latest").toInstant()), args.toArray());
+        return Optional.ofNullable(chunk);
     }
-
 }
@@ -10,7 +10,9 @@ import org.springframework.transaction.annotation.Transactional;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -62,6 +64,15 @@ public class PreviewVisitJdbcService {
                 Timestamp.from(windowStart), Timestamp.from(windowEnd), previewId);
     }
 
+    public List<Visit> findDetectedByUserAndTimeAfterAndStartTimeBefore(User user, String previewId, Instant windowStart, Instant windowEnd) {
+        String sql = "SELECT v.* " +
+                "FROM preview_visits v " +
+                "WHERE v.user_id = ? AND v.end_time >= ? AND v.start_time <= ? AND preview_id = ? AND NOT v.imported " +
+                "ORDER BY v.start_time";
+        return jdbcTemplate.query(sql, VISIT_ROW_MAPPER, user.getId(),
+                Timestamp.from(windowStart), Timestamp.from(windowEnd), previewId);
+    }
+
     public List<Visit> bulkInsert(User user, String previewId, List<Visit> visitsToInsert) {
         if (visitsToInsert.isEmpty()) {
             return new ArrayList<>();
@@ -95,6 +106,88 @@ public class PreviewVisitJdbcService {
         return createdVisits;
     }
 
+    /**
+     * Updates position and time of all given visits. Fails without updating any if one of them was modified or
+     * deleted in the meantime. A visit whose new time range is already taken by another visit of the user keeps its
+     * current values, the same way inserting such a visit is skipped.
+     *
+     * @return the updated visits with their new version
+     */
+    @Transactional(rollbackFor = OptimisticLockException.class)
+    public List<Visit> bulkUpdate(List<Visit> visits) throws OptimisticLockException {
+        if (visits.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String sql = """
+                UPDATE preview_visits v SET longitude = ?, latitude = ?, start_time = ?, end_time = ?, duration_seconds = ?, processed = ?, version = v.version + 1
+                WHERE v.id = ? AND v.version = ?
+                  AND NOT EXISTS (SELECT 1 FROM preview_visits other
+                                  WHERE other.user_id = v.user_id AND other.preview_id = v.preview_id AND other.start_time = ? AND other.end_time = ? AND other.id <> v.id)
+                """;
+        int[] updateCounts = jdbcTemplate.batchUpdate(sql, visits.stream()
+                .map(visit -> new Object[]{
+                        visit.getLongitude(),
+                        visit.getLatitude(),
+                        Timestamp.from(visit.getStartTime()),
+                        Timestamp.from(visit.getEndTime()),
+                        visit.getDurationSeconds(),
+                        visit.isProcessed(),
+                        visit.getId(),
+                        visit.getVersion(),
+                        Timestamp.from(visit.getStartTime()),
+                        Timestamp.from(visit.getEndTime())
+                })
+                .toList());
+
+        List<Visit> notUpdated = new ArrayList<>();
+        List<Visit> updated = new ArrayList<>();
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == 0) {
+                notUpdated.add(visits.get(i));
+            } else {
+                updated.add(visits.get(i).withVersion(visits.get(i).getVersion() + 1));
+            }
+        }
+        if (!notUpdated.isEmpty()) {
+            // the rows are unchanged if their version still matches, only their new time range was taken
+            checkVersions(notUpdated);
+        }
+        return updated;
+    }
+
+    private void checkVersions(List<Visit> visits) throws OptimisticLockException {
+        String placeholders = String.join(",", visits.stream().map(_ -> "?").toList());
+        Map<Long, Long> versions = new HashMap<>();
+        jdbcTemplate.query("SELECT id, version FROM preview_visits WHERE id IN (" + placeholders + ")",
+                rs -> {
+                    versions.put(rs.getLong("id"), rs.getLong("version"));
+                },
+                visits.stream().map(Visit::getId).toArray());
+
+        for (Visit visit : visits) {
+            Long version = versions.get(visit.getId());
+            if (version == null) {
+                throw new OptimisticLockException("Visit with id " + visit.getId() + " does not exist");
+            }
+            if (!version.equals(visit.getVersion())) {
+                throw new OptimisticLockException("Visit with id " + visit.getId() + " was modified by another transaction");
+            }
+        }
+    }
+
+    /**
+     * Deletes, updates and inserts the given visits in one transaction, either all of the changes are stored or none.
+     *
+     * @return the updated and the inserted visits
+     */
+    @Transactional(rollbackFor = OptimisticLockException.class)
+    public List<Visit> applyChanges(User user, String previewId, List<Visit> deleted, List<Visit> updated, List<Visit> inserted) throws OptimisticLockException {
+        delete(deleted);
+        List<Visit> changedVisits = new ArrayList<>(bulkUpdate(updated));
+        changedVisits.addAll(bulkInsert(user, previewId, inserted));
+        return changedVisits;
+    }
+
     public void delete(List<Visit> affectedVisits) throws OptimisticLockException {
         if (affectedVisits == null || affectedVisits.isEmpty()) {
             return;
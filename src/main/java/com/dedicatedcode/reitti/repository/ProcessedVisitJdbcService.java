@@ -13,8 +13,10 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
@@ -61,6 +63,20 @@ public class ProcessedVisitJdbcService {
                 Timestamp.from(endTime), Timestamp.from(startTime));
     }
 
+    /**
+     * @return the last visit ending before the start time and the first visit starting after the end time, if any
+     */
+    public List<ProcessedVisit> findNeighboursByUser(User user, Instant startTime, Instant endTime) {
+        String sql = "(SELECT pv.* FROM processed_visits pv " +
+                "WHERE pv.user_id = ? AND pv.end_time < ? ORDER BY pv.end_time DESC LIMIT 1) " +
+                "UNION ALL " +
+                "(SELECT pv.* FROM processed_visits pv " +
+                "WHERE pv.user_id = ? AND pv.start_time > ? ORDER BY pv.start_time LIMIT 1) " +
+                "ORDER BY start_time";
+        return jdbcTemplate.query(sql, PROCESSED_VISIT_ROW_MAPPER, user.getId(), Timestamp.from(startTime),
+                user.getId(), Timestamp.from(endTime));
+    }
+
     public Optional<ProcessedVisit> findByUserAndId(User user, long id) {
         String sql = "SELECT pv.* " +
                 "FROM processed_visits pv " +
@@ -69,6 +85,31 @@ public class ProcessedVisitJdbcService {
         return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
     }
 
+    public List<ProcessedVisit> findByUserAndIds(User user, List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        String placeholders = String.join(",", ids.stream().map(_ -> "?").toList());
+        String sql = "SELECT pv.* " +
+                "FROM processed_visits pv " +
+                "WHERE pv.user_id = ? AND pv.id IN (" + placeholders + ") ORDER BY pv.start_time";
+        List<Object> parameters = new ArrayList<>(List.of(user.getId()));
+        parameters.addAll(ids);
+        return jdbcTemplate.query(sql, PROCESSED_VISIT_ROW_MAPPER, parameters.toArray());
+    }
+
+    /**
+     * @return the ids of the given visits which still exist
+     */
+    public Set<Long> findExistingIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Set.of();
+        }
+        String placeholders = String.join(",", ids.stream().map(_ -> "?").toList());
+        String sql = "SELECT id FROM processed_visits WHERE id IN (" + placeholders + ")";
+        return new HashSet<>(jdbcTemplate.queryForList(sql, Long.class, ids.toArray()));
+    }
+
     public List<ProcessedVisit> findByUserAndStartTimeBeforeEqualAndEndTimeAfterEqual(User user, Instant endTime, Instant startTime) {
         String sql = "SELECT pv.* " +
                 "FROM processed_visits pv " +
@@ -1,28 +1,110 @@
 package com.dedicatedcode.reitti.repository;
 
-import com.dedicatedcode.reitti.dto.LocationDataRequest;
-import com.dedicatedcode.reitti.model.ClusteredPoint;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
+import com.dedicatedcode.reitti.model.geo.PointTrack;
 import com.dedicatedcode.reitti.model.geo.RawLocationPoint;
+import com.dedicatedcode.reitti.model.processing.ProcessingChunk;
 import com.dedicatedcode.reitti.model.security.User;
-import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.GeometryFactory;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @Service
 @Transactional
 public class RawLocationPointJdbcService {
 
+    private static final String CREATE_STAGING_TABLE_SQL = """
+            CREATE TEMPORARY TABLE IF NOT EXISTS raw_location_points_staging
+            (
+                user_id         bigint                      not null,
+                timestamp       timestamp(6) with time zone not null,
+                accuracy_meters double precision            not null,
+                geom            geometry(Point, 4326)       not null
+            ) ON COMMIT DELETE ROWS
+            """;
+    private static final String COPY_STAGING_SQL = "COPY raw_location_points_staging (user_id, timestamp, accuracy_meters, geom) FROM STDIN (FORMAT binary)";
+    private static final String MERGE_STAGING_SQL = "INSERT INTO raw_location_points (user_id, timestamp, accuracy_meters, geom, processed) " +
+            "SELECT user_id, timestamp, accuracy_meters, geom, false FROM raw_location_points_staging ON CONFLICT DO NOTHING";
+    private static final String TRUNCATE_STAGING_SQL = "TRUNCATE raw_location_points_staging";
+    private static final String COPY_IMPORT_STAGING_SQL = "COPY raw_location_points_import_staging (import_id, user_id, timestamp, accuracy_meters, geom) FROM STDIN (FORMAT binary)";
+    /*
+     * Set-based version of the GeoPointAnomalyFilter. Points are compared with their direct neighbours in time instead
+     * of the last accepted point: on an impossible speed or distance jump the point with the worse accuracy is
+     * dropped, as is a point in the middle of a sharp reversal which is less accurate than both neighbours. The
+     * window is seeded with the stored points right before and after the chunk, so points at the edges of a chunk
+     * are checked against the earlier chunks as well. The seeds themselves are never inserted again.
+     */
+    private static final String MERGE_IMPORT_STAGING_SQL = """
+            WITH chunk AS (
+                DELETE FROM raw_location_points_import_staging WHERE import_id = ?
+                RETURNING user_id, timestamp, accuracy_meters, geom
+            ),
+            deduplicated AS (
+                SELECT DISTINCT ON (user_id, timestamp) user_id, timestamp, accuracy_meters, geom, false AS seed
+                FROM chunk
+                WHERE accuracy_meters <= ?
+                ORDER BY user_id, timestamp, accuracy_meters
+            ),
+            bounds AS (
+                SELECT user_id, min(timestamp) AS first_timestamp, max(timestamp) AS last_timestamp FROM deduplicated GROUP BY user_id
+            ),
+            seeded AS (
+                SELECT * FROM deduplicated
+                UNION ALL
+                SELECT p.*, true FROM bounds b CROSS JOIN LATERAL (
+                    SELECT r.user_id, r.timestamp, r.accuracy_meters, r.geom FROM raw_location_points r
+                    WHERE r.user_id = b.user_id AND r.timestamp < b.first_timestamp ORDER BY r.timestamp DESC LIMIT 1) p
+                UNION ALL
+                SELECT n.*, true FROM bounds b CROSS JOIN LATERAL (
+                    SELECT r.user_id, r.timestamp, r.accuracy_meters, r.geom FROM raw_location_points r
+                    WHERE r.user_id = b.user_id AND r.timestamp > b.last_timestamp ORDER BY r.timestamp LIMIT 1) n
+            ),
+            neighbours AS (
+                SELECT d.*,
+                       lag(geom) OVER w              AS prev_geom,
+                       lag(accuracy_meters) OVER w   AS prev_accuracy,
+                       EXTRACT(EPOCH FROM timestamp - lag(timestamp) OVER w)::double precision AS prev_seconds,
+                       lead(geom) OVER w             AS next_geom,
+                       lead(accuracy_meters) OVER w  AS next_accuracy,
+                       EXTRACT(EPOCH FROM lead(timestamp) OVER w - timestamp)::double precision AS next_seconds
+                FROM seeded d
+                WINDOW w AS (PARTITION BY user_id ORDER BY timestamp)
+            ),
+            measured AS (
+                SELECT n.*,
+                       ST_DistanceSphere(prev_geom, geom) AS prev_distance,
+                       ST_DistanceSphere(geom, next_geom) AS next_distance,
+                       abs(degrees(ST_Azimuth(geom::geography, next_geom::geography) - ST_Azimuth(prev_geom::geography, geom::geography))) AS turn
+                FROM neighbours n
+            )
+            INSERT INTO raw_location_points (user_id, timestamp, accuracy_meters, geom, processed)
+            SELECT user_id, timestamp, accuracy_meters, geom, false
+            FROM measured
+            WHERE NOT seed
+              AND NOT coalesce(accuracy_meters > prev_accuracy
+                      AND (prev_distance > ? OR (prev_seconds > 0 AND prev_distance / prev_seconds * 3.6 > ?)), false)
+              AND NOT coalesce(accuracy_meters >= next_accuracy
+                      AND (next_distance > ? OR (next_seconds > 0 AND next_distance / next_seconds * 3.6 > ?)), false)
+              AND NOT coalesce(least(turn, 360 - turn) > 150 AND prev_distance > 50 AND next_distance > 50
+                      AND accuracy_meters > greatest(prev_accuracy, next_accuracy), false)
+            ON CONFLICT DO NOTHING
+            """;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
     private final JdbcTemplate jdbcTemplate;
     private final RowMapper<RawLocationPoint> rawLocationPointRowMapper;
     private final PointReaderWriter pointReaderWriter;
@@ -54,6 +136,21 @@ public class RawLocationPointJdbcService {
                 user.getId(), Timestamp.from(startTime), Timestamp.from(endTime));
     }
 
+    /**
+     * Same points as {@link #findByUserAndTimestampBetweenOrderByTimestampAsc}, but only their timestamp and position.
+     */
+    public PointTrack findTrackByUserAndTimestampBetween(User user, Instant startTime, Instant endTime) {
+        String sql = "SELECT rlp.timestamp, ST_Y(rlp.geom) as latitude, ST_X(rlp.geom) as longitude " +
+                "FROM raw_location_points rlp " +
+                "WHERE rlp.user_id = ? AND rlp.timestamp BETWEEN ? AND ? " +
+                "ORDER BY rlp.timestamp";
+        PointTrack.Builder track = PointTrack.builder(0);
+        jdbcTemplate.query(sql, rs -> {
+            track.add(rs.getTimestamp("timestamp").toInstant(), rs.getDouble("latitude"), rs.getDouble("longitude"));
+        }, user.getId(), Timestamp.from(startTime), Timestamp.from(endTime));
+        return track.build();
+    }
+
     public List<RawLocationPoint> findByUserAndDateRange(User user, java.time.LocalDateTime startTime, java.time.LocalDateTime endTime) {
         String sql = "SELECT rlp.id, rlp.accuracy_meters, rlp.timestamp, rlp.user_id, ST_AsText(rlp.geom) as geom, rlp.processed, rlp.version " +
                 "FROM raw_location_points rlp " +
@@ -71,13 +168,40 @@ public class RawLocationPointJdbcService {
         return jdbcTemplate.query(sql, rawLocationPointRowMapper, user.getId());
     }
 
-    public List<RawLocationPoint> findByUserAndProcessedIsFalseOrderByTimestampWithLimit(User user, int limit, int offset) {
-        String sql = "SELECT rlp.id, rlp.accuracy_meters, rlp.timestamp, rlp.user_id, ST_AsText(rlp.geom) as geom, rlp.processed, rlp.version " +
-                "FROM raw_location_points rlp " +
-                "WHERE rlp.user_id = ? AND rlp.processed = false " +
-                "ORDER BY rlp.timestamp " +
-                "LIMIT ? OFFSET ?";
-        return jdbcTemplate.query(sql, rawLocationPointRowMapper, user.getId(), limit, offset);
+    /**
+     * Marks the next unprocessed points after the given timestamp as processed. The chunk ends after limit points or
+     * once it would span more than maxSpan. Paging by timestamp instead of an offset keeps every call as cheap as the
+     * first one, it only touches the partial index of unprocessed points.
+     *
+     * @param after the latest timestamp of the previous chunk, null to start with the oldest point
+     */
+    public Optional<ProcessingChunk> markNextChunkProcessed(User user, Instant after, int limit, Duration maxSpan) {
+        String sql = """
+                WITH candidates AS (
+                    SELECT id, timestamp FROM raw_location_points
+                    WHERE user_id = ? AND processed = false%s
+                    ORDER BY timestamp
+                    LIMIT ?
+                ), chunk AS (
+                    SELECT id FROM candidates
+                    WHERE timestamp <= (SELECT min(timestamp) FROM candidates) + ? * interval '1 second'
+                ), updated AS (
+                    UPDATE raw_location_points p SET processed = true FROM chunk WHERE p.id = chunk.id
+                    RETURNING p.timestamp
+                )
+                SELECT count(*) AS count, min(timestamp) AS earliest, max(timestamp) AS latest FROM updated
+                """.formatted(after == null ? "" : " AND timestamp > ?");
+        List<Object> args = new ArrayList<>(List.of(user.getId()));
+        if (after != null) {
+            args.add(Timestamp.from(after));
+        }
+        args.add(limit);
+        args.add(maxSpan.toSeconds());
+        ProcessingChunk chunk = jdbcTemplate.queryForObject(sql, (rs, _) -> rs.getInt("count") == 0 ? null : new ProcessingChunk(
+                rs.getInt("count"),
+                rs.getTimestamp("earliest").toInstant(),
+                rs.getTimestamp("latest").toInstant()), args.toArray());
+        return Optional.ofNullable(chunk);
     }
 
     public List<Integer> findDistinctYearsByUser(User user) {
@@ -144,31 +268,6 @@ public class RawLocationPointJdbcService {
         jdbcTemplate.update(sql, id);
     }
 
-    public List<ClusteredPoint> findClusteredPointsInTimeRangeForUser(
-            User user, Instant startTime, Instant endTime, int minimumPoints, double distanceInMeters) {
-        String sql = "SELECT rlp.id, rlp.accuracy_meters, rlp.timestamp, rlp.user_id, ST_AsText(rlp.geom) as geom, rlp.processed, rlp.version , " +
-                "ST_ClusterDBSCAN(rlp.geom, ?, ?) over () AS cluster_id " +
-                "FROM raw_location_points rlp " +
-                "WHERE rlp.user_id = ? AND rlp.timestamp BETWEEN ? AND ?";
-
-        return jdbcTemplate.query(sql, (rs, rowNum) -> {
-
-                    RawLocationPoint point = new RawLocationPoint(
-                            rs.getLong("id"),
-                            rs.getTimestamp("timestamp").toInstant(),
-                            this.pointReaderWriter.read(rs.getString("geom")),
-                            rs.getDouble("accuracy_meters"),
-                            rs.getBoolean("processed"),
-                            rs.getLong("version")
-                    );
-
-                    Integer clusterId = rs.getObject("cluster_id", Integer.class);
-
-                    return new ClusteredPoint(point, clusterId);
-                }, distanceInMeters, minimumPoints, user.getId(),
-                Timestamp.from(startTime), Timestamp.from(endTime));
-    }
-
     public long count() {
         return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM raw_location_points", Long.class);
     }
@@ -178,40 +277,81 @@ public class RawLocationPointJdbcService {
         return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM raw_location_points WHERE user_id = ?", Long.class, user.getId());
     }
 
-    public void bulkInsert(User user, List<LocationDataRequest.LocationPoint> points) {
+    /**
+     * Streams the points through a binary COPY into a session-local staging table and merges them with a single
+     * set-based insert. Duplicates on (user_id, timestamp) are skipped like before. The staging table is emptied
+     * after the merge, otherwise a second call within the same transaction would merge the earlier rows again.
+     */
+    public void bulkInsert(User user, PointBatch points) {
         if (points.isEmpty()) {
             return;
         }
-        
-        String sql = "INSERT INTO raw_location_points (user_id, timestamp, accuracy_meters, geom, processed) " +
-                "VALUES (?, ?, ?, CAST(? AS geometry), false) ON CONFLICT DO NOTHING;";
-
-        List<Object[]> batchArgs = new ArrayList<>();
-        for (LocationDataRequest.LocationPoint point : points) {
-            ZonedDateTime parse = ZonedDateTime.parse(point.getTimestamp());
-            Timestamp timestamp = Timestamp.from(parse.toInstant());
-            batchArgs.add(new Object[]{
-                    user.getId(),
-                    timestamp,
-                    point.getAccuracyMeters(),
-                    geometryFactory.createPoint(new Coordinate(point.getLongitude(), point.getLatitude())).toString()
-            });
-        }
-        jdbcTemplate.batchUpdate(sql, batchArgs);
+
+        jdbcTemplate.execute(CREATE_STAGING_TABLE_SQL);
+        copy(COPY_STAGING_SQL, null, user, points);
+        jdbcTemplate.update(MERGE_STAGING_SQL);
+        jdbcTemplate.execute(TRUNCATE_STAGING_SQL);
+    }
+
+    public long nextImportId() {
+        return jdbcTemplate.queryForObject("SELECT nextval('raw_location_points_import_staging_import_id_seq')", Long.class);
     }
 
-    public void bulkUpdateProcessedStatus(List<RawLocationPoint> points) {
+    /**
+     * Copies the points into the persistent import staging table, they are not visible in raw_location_points
+     * before {@link #mergeImportStaging} ran.
+     */
+    public void stageForImport(long importId, User user, PointBatch points) {
         if (points.isEmpty()) {
             return;
         }
-        
-        String sql = "UPDATE raw_location_points SET processed = true WHERE id = ?";
-        
-        List<Object[]> batchArgs = points.stream()
-                .map(point -> new Object[]{point.getId()})
-                .collect(Collectors.toList());
-        
-        jdbcTemplate.batchUpdate(sql, batchArgs);
+        copy(COPY_IMPORT_STAGING_SQL, importId, user, points);
+    }
+
+    /**
+     * Moves everything staged for the import into raw_location_points in one statement. Duplicates and anomalies
+     * are removed on the way, see {@link #MERGE_IMPORT_STAGING_SQL}.
+     *
+     * @return the number of points inserted
+     */
+    public int mergeImportStaging(long importId, double maxAccuracyMeters, double maxSpeedKmh, double maxDistanceJumpMeters) {
+        return jdbcTemplate.update(MERGE_IMPORT_STAGING_SQL, importId, maxAccuracyMeters,
+                maxDistanceJumpMeters, maxSpeedKmh, maxDistanceJumpMeters, maxSpeedKmh);
+    }
+
+    public void discardImportStaging(long importId) {
+        jdbcTemplate.update("DELETE FROM raw_location_points_import_staging WHERE import_id = ?", importId);
+    }
+
+    /**
+     * Drops the staging rows of all imports, only safe while no bulk import is running.
+     */
+    public void discardAllImportStaging() {
+        jdbcTemplate.execute("TRUNCATE raw_location_points_import_staging");
+    }
+
+    private void copy(String copySql, Long importId, User user, PointBatch points) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            try (PgBinaryCopyWriter writer = new PgBinaryCopyWriter(new PGCopyOutputStream(pgConnection, copySql, COPY_BUFFER_SIZE))) {
+                for (int i = 0; i < points.size(); i++) {
+                    if (!points.isValid(i)) {
+                        continue;
+                    }
+                    writer.startRow(importId != null ? 5 : 4);
+                    if (importId != null) {
+                        writer.writeLong(importId);
+                    }
+                    writer.writeLong(user.getId());
+                    writer.writeTimestampMillis(points.epochMillis(i));
+                    writer.writeDouble(points.accuracyMeters(i));
+                    writer.writePoint(points.longitude(i), points.latitude(i), geometryFactory.getSRID());
+                }
+            } catch (IOException e) {
+                throw new SQLException("Unable to stream location points into staging table", e);
+            }
+            return null;
+        });
     }
 
     public void deleteAll() {
@@ -2,6 +2,7 @@ package com.dedicatedcode.reitti.repository;
 
 import com.dedicatedcode.reitti.model.Page;
 import com.dedicatedcode.reitti.model.PageRequest;
+import com.dedicatedcode.reitti.model.geo.GeoUtils;
 import com.dedicatedcode.reitti.model.geo.SignificantPlace;
 import com.dedicatedcode.reitti.model.security.User;
 import org.locationtech.jts.geom.Point;
@@ -11,10 +12,16 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @Transactional
@@ -22,6 +29,7 @@ public class SignificantPlaceJdbcService {
 
     private final JdbcTemplate jdbcTemplate;
     private final PointReaderWriter  pointReaderWriter;
+    private final Map<Long, PlaceIndex> placeIndexes = new ConcurrentHashMap<>();
 
     public SignificantPlaceJdbcService(JdbcTemplate jdbcTemplate, PointReaderWriter pointReaderWriter) {
         this.jdbcTemplate = jdbcTemplate;
@@ -63,6 +71,49 @@ public class SignificantPlaceJdbcService {
                 userId, point.toString(), distanceInMeters);
     }
 
+    /**
+     * Looks the places up in the in-memory index of the user, loaded on first use. Like ST_DWithin on the stored
+     * geometry the distance is given in degrees, the closest of the places within it is picked by distance in meters.
+     * The index only knows the positions of the places, resolve the id through {@link #findById(Long)}.
+     */
+    public Optional<Long> findClosestPlaceId(Long userId, double latitude, double longitude, double distance) {
+        PlaceIndex index = placeIndexes.get(userId);
+        if (index == null) {
+            index = loadPlaceIndex(userId);
+            placeIndexes.put(userId, index);
+        }
+        return index.findClosest(latitude, longitude, distance);
+    }
+
+    /**
+     * Checks a loaded index against the stored places of the user with one query and loads it again if places were
+     * created, moved or deleted elsewhere, e.g. on another instance or in a transaction which was rolled back.
+     */
+    public void refreshPlaceIndex(Long userId) {
+        PlaceIndex index = placeIndexes.get(userId);
+        if (index == null) {
+            return;
+        }
+        String sql = "SELECT COUNT(*) AS places, COALESCE(MAX(id), 0) AS max_id, " +
+                "COALESCE(SUM(ROUND(latitude_centroid * 1000000)::bigint), 0) AS latitudes, " +
+                "COALESCE(SUM(ROUND(longitude_centroid * 1000000)::bigint), 0) AS longitudes " +
+                "FROM significant_places WHERE user_id = ?";
+        PlaceIndex.Stamp stored = jdbcTemplate.queryForObject(sql, (rs, _) -> new PlaceIndex.Stamp(
+                rs.getLong("places"), rs.getLong("max_id"), rs.getLong("latitudes"), rs.getLong("longitudes")), userId);
+        if (!index.stamp().equals(stored)) {
+            placeIndexes.put(userId, loadPlaceIndex(userId));
+        }
+    }
+
+    private PlaceIndex loadPlaceIndex(Long userId) {
+        PlaceIndex index = new PlaceIndex();
+        jdbcTemplate.query("SELECT id, latitude_centroid, longitude_centroid FROM significant_places WHERE user_id = ?",
+                rs -> {
+                    index.put(rs.getLong("id"), rs.getDouble("latitude_centroid"), rs.getDouble("longitude_centroid"));
+                }, userId);
+        return index;
+    }
+
     public SignificantPlace create(User user, SignificantPlace place) {
         String sql = "INSERT INTO significant_places (user_id, name, latitude_centroid, longitude_centroid, timezone, geom) " +
                 "VALUES (?, ?, ?, ?, ?, ST_GeomFromText(?, '4326')) RETURNING id";
@@ -74,6 +125,11 @@ public class SignificantPlaceJdbcService {
                 place.getTimezone().getId(),
                 this.pointReaderWriter.write(place.getLongitudeCentroid(), place.getLatitudeCentroid())
         );
+        PlaceIndex index = placeIndexes.get(user.getId());
+        if (index != null) {
+            index.put(id, place.getLatitudeCentroid(), place.getLongitudeCentroid());
+            dropPlaceIndexOnRollback(user.getId());
+        }
         return findById(id).orElseThrow();
     }
 
@@ -92,6 +148,11 @@ public class SignificantPlaceJdbcService {
                 place.isGeocoded(),
                 place.getId()
         );
+        placeIndexes.forEach((userId, index) -> {
+            if (index.move(place.getId(), place.getLatitudeCentroid(), place.getLongitudeCentroid())) {
+                dropPlaceIndexOnRollback(userId);
+            }
+        });
         return findById(place.getId()).orElseThrow();
     }
 
@@ -135,5 +196,104 @@ public class SignificantPlaceJdbcService {
 
     public void deleteForUser(User user) {
         this.jdbcTemplate.update("DELETE FROM significant_places WHERE user_id = ?", user.getId());
+        this.placeIndexes.remove(user.getId());
+    }
+
+    /**
+     * The index is changed right away, so places created while merging are found by the same run. If the transaction
+     * is rolled back afterwards, the index is loaded again on the next lookup.
+     */
+    private void dropPlaceIndexOnRollback(Long userId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        placeIndexes.remove(userId);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * The positions of the places of one user in a uniform grid over latitude and longitude.
+     */
+    private static final class PlaceIndex {
+        private static final double CELL_SIZE_IN_DEGREES = 0.01;
+        private static final double STAMP_SCALE = 1_000_000;
+
+        private final Map<Long, double[]> positionsById = new HashMap<>();
+        private final Map<Long, List<Long>> cells = new HashMap<>();
+
+        /**
+         * What {@link #refreshPlaceIndex(Long)} compares with the stored places, positions rounded to 1e-6 degrees.
+         */
+        private record Stamp(long places, long maxId, long latitudes, long longitudes) {
+        }
+
+        synchronized void put(long id, double latitude, double longitude) {
+            remove(id);
+            positionsById.put(id, new double[]{latitude, longitude});
+            cells.computeIfAbsent(cellKey(cell(latitude), cell(longitude)), _ -> new ArrayList<>()).add(id);
+        }
+
+        synchronized boolean move(long id, double latitude, double longitude) {
+            if (!positionsById.containsKey(id)) {
+                return false;
+            }
+            put(id, latitude, longitude);
+            return true;
+        }
+
+        synchronized Optional<Long> findClosest(double latitude, double longitude, double distance) {
+            Long closest = null;
+            double closestDistance = Double.MAX_VALUE;
+            for (long x = cell(latitude - distance); x <= cell(latitude + distance); x++) {
+                for (long y = cell(longitude - distance); y <= cell(longitude + distance); y++) {
+                    for (Long id : cells.getOrDefault(cellKey(x, y), List.of())) {
+                        double[] position = positionsById.get(id);
+                        double dLatitude = position[0] - latitude;
+                        double dLongitude = position[1] - longitude;
+                        if (dLatitude * dLatitude + dLongitude * dLongitude > distance * distance) {
+                            continue;
+                        }
+                        double meters = GeoUtils.distanceInMeters(latitude, longitude, position[0], position[1]);
+                        if (meters < closestDistance) {
+                            closest = id;
+                            closestDistance = meters;
+                        }
+                    }
+                }
+            }
+            return Optional.ofNullable(closest);
+        }
+
+        synchronized Stamp stamp() {
+            long maxId = 0;
+            long latitudes = 0;
+            long longitudes = 0;
+            for (Map.Entry<Long, double[]> entry : positionsById.entrySet()) {
+                maxId = Math.max(maxId, entry.getKey());
+                latitudes += (long) Math.rint(entry.getValue()[0] * STAMP_SCALE);
+                longitudes += (long) Math.rint(entry.getValue()[1] * STAMP_SCALE);
+            }
+            return new Stamp(positionsById.size(), maxId, latitudes, longitudes);
+        }
+
+        private void remove(long id) {
+            double[] existing = positionsById.remove(id);
+            if (existing != null) {
+                cells.get(cellKey(cell(existing[0]), cell(existing[1]))).remove(Long.valueOf(id));
+            }
+        }
+
+        private static long cell(double value) {
+            return (long) Math.floor(value / CELL_SIZE_IN_DEGREES);
+        }
+
+        private static long cellKey(long x, long y) {
+            return (x << 32) ^ (y & 0xffffffffL);
+        }
     }
 }
@@ -2,6 +2,7 @@ package com.dedicatedcode.reitti.repository;
 
 import com.dedicatedcode.reitti.model.geo.ProcessedVisit;
 import com.dedicatedcode.reitti.model.geo.Trip;
+import com.dedicatedcode.reitti.model.processing.TimeRange;
 import com.dedicatedcode.reitti.model.security.User;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
@@ -75,6 +76,18 @@ public class TripJdbcService {
         return count != null && count > 0;
     }
 
+    /**
+     * Start and end of all trips starting or ending between the given times, without loading their visits.
+     */
+    public List<TimeRange> findTimeRangesByUserBetween(User user, Instant startTime, Instant endTime) {
+        String sql = "SELECT start_time, end_time FROM trips " +
+                "WHERE user_id = ? AND ((start_time >= ? AND start_time <= ?) OR (end_time >= ? AND end_time <= ?))";
+        return jdbcTemplate.query(sql, (rs, _) -> new TimeRange(rs.getTimestamp("start_time").toInstant(), rs.getTimestamp("end_time").toInstant()),
+                user.getId(),
+                Timestamp.from(startTime), Timestamp.from(endTime),
+                Timestamp.from(startTime), Timestamp.from(endTime));
+    }
+
     public List<Object[]> findTransportStatisticsByUser(User user) {
         String sql = "SELECT transport_mode_inferred, SUM(travelled_distance_meters), SUM(duration_seconds), COUNT(*) " +
                 "FROM trips " +
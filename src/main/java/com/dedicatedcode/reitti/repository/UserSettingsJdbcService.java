@@ -3,6 +3,7 @@ package com.dedicatedcode.reitti.repository;
 import com.dedicatedcode.reitti.dto.LocationDataRequest;
 import com.dedicatedcode.reitti.model.TimeDisplayMode;
 import com.dedicatedcode.reitti.model.UnitSystem;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
 import com.dedicatedcode.reitti.model.security.User;
 import com.dedicatedcode.reitti.model.security.UserSettings;
 import org.springframework.dao.EmptyResultDataAccessException;
@@ -109,6 +110,17 @@ public class UserSettingsJdbcService {
         });
     }
 
+    public void updateNewestData(User user, PointBatch filtered) {
+        long latest = filtered.maxValidEpochMillis();
+        if (latest != Long.MIN_VALUE) {
+            updateNewestData(user, Instant.ofEpochMilli(latest));
+        }
+    }
+
+    public void updateNewestData(User user, Instant latest) {
+        this.jdbcTemplate.update("UPDATE user_settings SET latest_data = GREATEST(latest_data, ?) WHERE user_id = ?", Timestamp.from(latest), user.getId());
+    }
+
     public void deleteFor(User user) {
         this.jdbcTemplate.update("DELETE FROM user_settings WHERE user_id = ?", user.getId());
     }
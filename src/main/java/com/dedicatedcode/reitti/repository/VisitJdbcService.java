@@ -10,13 +10,19 @@ import org.springframework.transaction.annotation.Transactional;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @Transactional
 public class VisitJdbcService {
+    // six parameters per visit, well below the parameter limit of a single statement
+    private static final int IMPORTED_INSERT_CHUNK_SIZE = 1000;
+
     private final JdbcTemplate jdbcTemplate;
 
     public VisitJdbcService(JdbcTemplate jdbcTemplate) {
@@ -115,8 +121,12 @@ public class VisitJdbcService {
         jdbcTemplate.update(sql, user.getId());
     }
 
-    public void deleteAllForUserBetween(User user, Instant start, Instant end) {
-        jdbcTemplate.update("DELETE FROM visits WHERE user_id = ?  AND start_time <= ? AND end_time >= ?", user.getId(), Timestamp.from(end), Timestamp.from(start));
+    public void deleteAllDetectedForUser(User user) {
+        jdbcTemplate.update("DELETE FROM visits WHERE user_id = ? AND NOT imported", user.getId());
+    }
+
+    public void deleteAllDetectedForUserBetween(User user, Instant start, Instant end) {
+        jdbcTemplate.update("DELETE FROM visits WHERE user_id = ? AND NOT imported AND start_time <= ? AND end_time >= ?", user.getId(), Timestamp.from(end), Timestamp.from(start));
     }
 
     public List<Visit> findByUserAndTimeAfterAndStartTimeBefore(User user, Instant windowStart, Instant windowEnd) {
@@ -128,6 +138,33 @@ public class VisitJdbcService {
                 Timestamp.from(windowStart), Timestamp.from(windowEnd));
     }
 
+    /**
+     * Same as {@link #findByUserAndTimeAfterAndStartTimeBefore(User, Instant, Instant)} but leaves out imported visits,
+     * which are not backed by raw location points and must survive a new visit detection run.
+     */
+    public List<Visit> findDetectedByUserAndTimeAfterAndStartTimeBefore(User user, Instant windowStart, Instant windowEnd) {
+        String sql = "SELECT v.* " +
+                "FROM visits v " +
+                "WHERE v.user_id = ? AND v.end_time >= ? AND v.start_time <= ? AND NOT v.imported " +
+                "ORDER BY v.start_time";
+        return jdbcTemplate.query(sql, VISIT_ROW_MAPPER, user.getId(),
+                Timestamp.from(windowStart), Timestamp.from(windowEnd));
+    }
+
+    public List<Long> findImportedIdsByUser(User user) {
+        return jdbcTemplate.queryForList("SELECT id FROM visits WHERE user_id = ? AND imported ORDER BY start_time", Long.class, user.getId());
+    }
+
+    public List<Long> findImportedIdsByUserBetween(User user, Instant start, Instant end) {
+        return jdbcTemplate.queryForList("SELECT id FROM visits WHERE user_id = ? AND imported AND start_time <= ? AND end_time >= ? ORDER BY start_time",
+                Long.class, user.getId(), Timestamp.from(end), Timestamp.from(start));
+    }
+
+    public List<Long> findImportedIdsByUserAfter(User user, Instant start) {
+        return jdbcTemplate.queryForList("SELECT id FROM visits WHERE user_id = ? AND imported AND end_time >= ? ORDER BY start_time",
+                Long.class, user.getId(), Timestamp.from(start));
+    }
+
     public List<Visit> bulkInsert(User user, List<Visit> visitsToInsert) {
         if (visitsToInsert.isEmpty()) {
             return new ArrayList<>();
@@ -160,24 +197,45 @@ public class VisitJdbcService {
         return createdVisits;
     }
 
+    /**
+     * Inserts the visits with one multi-row statement per {@link #IMPORTED_INSERT_CHUNK_SIZE} visits. Visits whose
+     * time range is already taken are skipped.
+     *
+     * @return the inserted visits
+     */
+    public List<Visit> bulkInsertImported(User user, List<Visit> visitsToInsert) {
+        if (visitsToInsert.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<Visit> createdVisits = new ArrayList<>();
+        for (int from = 0; from < visitsToInsert.size(); from += IMPORTED_INSERT_CHUNK_SIZE) {
+            List<Visit> chunk = visitsToInsert.subList(from, Math.min(from + IMPORTED_INSERT_CHUNK_SIZE, visitsToInsert.size()));
+            String values = String.join(",", chunk.stream().map(_ -> "(?, ?, ?, ?, ?, ?, false, 1, true)").toList());
+            String sql = "INSERT INTO visits (user_id, latitude, longitude, start_time, end_time, duration_seconds, processed, version, imported) " +
+                    "VALUES " + values + " ON CONFLICT DO NOTHING RETURNING *";
+
+            Object[] args = chunk.stream()
+                    .flatMap(visit -> Stream.of(
+                            user.getId(),
+                            visit.getLatitude(),
+                            visit.getLongitude(),
+                            Timestamp.from(visit.getStartTime()),
+                            Timestamp.from(visit.getEndTime()),
+                            visit.getDurationSeconds()))
+                    .toArray();
+            createdVisits.addAll(jdbcTemplate.query(sql, VISIT_ROW_MAPPER, args));
+        }
+        return createdVisits;
+    }
+
     public void delete(List<Visit> affectedVisits) throws OptimisticLockException {
         if (affectedVisits == null || affectedVisits.isEmpty()) {
             return;
         }
         
         // Check versions for all visits before deleting any
-        for (Visit visit : affectedVisits) {
-            String checkSql = "SELECT version FROM visits WHERE id = ?";
-            List<Long> versions = jdbcTemplate.queryForList(checkSql, Long.class, visit.getId());
-            
-            if (versions.isEmpty()) {
-                throw new OptimisticLockException("Visit with id " + visit.getId() + " does not exist");
-            }
-            
-            if (!versions.getFirst().equals(visit.getVersion())) {
-                throw new OptimisticLockException("Visit with id " + visit.getId() + " was modified by another transaction");
-            }
-        }
+        checkVersions(affectedVisits);
 
         String placeholders = String.join(",", affectedVisits.stream().map(_ -> "?").toList());
         String sql = "DELETE FROM visits WHERE id IN (" + placeholders + ")";
@@ -186,7 +244,103 @@ public class VisitJdbcService {
         jdbcTemplate.update(sql, ids);
     }
 
-    public void deleteAllForUserAfter(User user, Instant start) {
-        jdbcTemplate.update("DELETE FROM visits WHERE user_id = ?  AND end_time >= ?", user.getId(), Timestamp.from(start));
+    /**
+     * Updates position and time of all given visits. Fails without updating any if one of them was modified or
+     * deleted in the meantime. A visit whose new time range is already taken by another visit of the user keeps its
+     * current values, the same way inserting such a visit is skipped.
+     *
+     * @return the updated visits with their new version
+     */
+    @Transactional(rollbackFor = OptimisticLockException.class)
+    public List<Visit> bulkUpdate(List<Visit> visits) throws OptimisticLockException {
+        if (visits.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String sql = """
+                UPDATE visits v SET longitude = ?, latitude = ?, start_time = ?, end_time = ?, duration_seconds = ?, processed = ?, version = v.version + 1
+                WHERE v.id = ? AND v.version = ?
+                  AND NOT EXISTS (SELECT 1 FROM visits other
+                                  WHERE other.user_id = v.user_id AND other.start_time = ? AND other.end_time = ? AND other.id <> v.id)
+                """;
+        int[] updateCounts = jdbcTemplate.batchUpdate(sql, visits.stream()
+                .map(visit -> new Object[]{
+                        visit.getLongitude(),
+                        visit.getLatitude(),
+                        Timestamp.from(visit.getStartTime()),
+                        Timestamp.from(visit.getEndTime()),
+                        visit.getDurationSeconds(),
+                        visit.isProcessed(),
+                        visit.getId(),
+                        visit.getVersion(),
+                        Timestamp.from(visit.getStartTime()),
+                        Timestamp.from(visit.getEndTime())
+                })
+                .toList());
+
+        List<Visit> notUpdated = new ArrayList<>();
+        List<Visit> updated = new ArrayList<>();
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == 0) {
+                notUpdated.add(visits.get(i));
+            } else {
+                updated.add(visits.get(i).withVersion(visits.get(i).getVersion() + 1));
+            }
+        }
+        if (!notUpdated.isEmpty()) {
+            // the rows are unchanged if their version still matches, only their new time range was taken
+            checkVersions(notUpdated);
+        }
+        return updated;
+    }
+
+    /**
+     * Deletes, updates and inserts the given visits in one transaction, either all of the changes are stored or none.
+     *
+     * @return the updated and the inserted visits
+     */
+    @Transactional(rollbackFor = OptimisticLockException.class)
+    public List<Visit> applyChanges(User user, List<Visit> deleted, List<Visit> updated, List<Visit> inserted) throws OptimisticLockException {
+        delete(deleted);
+        List<Visit> changedVisits = new ArrayList<>(bulkUpdate(updated));
+        changedVisits.addAll(bulkInsert(user, inserted));
+        return changedVisits;
+    }
+
+    /**
+     * Creates the given visits without an id and updates the others in one transaction.
+     *
+     * @return the stored visits in the given order
+     */
+    @Transactional(rollbackFor = OptimisticLockException.class)
+    public List<Visit> saveAll(User user, List<Visit> visits) throws OptimisticLockException {
+        List<Visit> storedVisits = new ArrayList<>(visits.size());
+        for (Visit visit : visits) {
+            storedVisits.add(visit.getId() == null ? create(user, visit) : update(visit));
+        }
+        return storedVisits;
+    }
+
+    private void checkVersions(List<Visit> visits) throws OptimisticLockException {
+        String placeholders = String.join(",", visits.stream().map(_ -> "?").toList());
+        Map<Long, Long> versions = new HashMap<>();
+        jdbcTemplate.query("SELECT id, version FROM visits WHERE id IN (" + placeholders + ")",
+                rs -> {
+                    versions.put(rs.getLong("id"), rs.getLong("version"));
+                },
+                visits.stream().map(Visit::getId).toArray());
+
+        for (Visit visit : visits) {
+            Long version = versions.get(visit.getId());
+            if (version == null) {
+                throw new OptimisticLockException("Visit with id " + visit.getId() + " does not exist");
+            }
+            if (!version.equals(visit.getVersion())) {
+                throw new OptimisticLockException("Visit with id " + visit.getId() + " was modified by another transaction");
+            }
+        }
+    }
+
+    public void deleteAllDetectedForUserAfter(User user, Instant start) {
+        jdbcTemplate.update("DELETE FROM visits WHERE user_id = ? AND NOT imported AND end_time >= ?", user.getId(), Timestamp.from(start));
     }
 }
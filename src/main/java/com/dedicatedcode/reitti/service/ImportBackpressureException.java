@@ -0,0 +1,11 @@
+package com.dedicatedcode.reitti.service;
+
+public class ImportBackpressureException extends RuntimeException {
+    public ImportBackpressureException(String message) {
+        super(message);
+    }
+
+    public ImportBackpressureException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
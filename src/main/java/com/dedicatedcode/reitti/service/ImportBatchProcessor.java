@@ -4,6 +4,7 @@ import com.dedicatedcode.reitti.config.RabbitMQConfig;
 import com.dedicatedcode.reitti.dto.LocationDataRequest;
 import com.dedicatedcode.reitti.event.LocationDataEvent;
 import com.dedicatedcode.reitti.event.TriggerProcessingEvent;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
 import com.dedicatedcode.reitti.model.security.User;
 import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
@@ -12,9 +13,11 @@ import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Component
 public class ImportBatchProcessor {
@@ -22,37 +25,125 @@ public class ImportBatchProcessor {
     private static final Logger logger = LoggerFactory.getLogger(ImportBatchProcessor.class);
     
     private final RabbitTemplate rabbitTemplate;
+    private final QueueBackpressureService backpressureService;
     private final int batchSize;
     private final int processingIdleStartTime;
     private final ScheduledExecutorService scheduler;
     private final ConcurrentHashMap<String, ScheduledFuture<?>> pendingTriggers;
+    private final ConcurrentHashMap<String, LongAdder> queuedPoints = new ConcurrentHashMap<>();
+    private final ThreadLocal<Consumer<PointBatch>> redirect = new ThreadLocal<>();
     
     public ImportBatchProcessor(
             RabbitTemplate rabbitTemplate,
+            QueueBackpressureService backpressureService,
             @Value("${reitti.import.batch-size:100}") int batchSize,
             @Value("${reitti.import.processing-idle-start-time:15}") int processingIdleStartTime) {
         this.rabbitTemplate = rabbitTemplate;
+        this.backpressureService = backpressureService;
         this.batchSize = batchSize;
         this.processingIdleStartTime = processingIdleStartTime;
         this.scheduler = Executors.newScheduledThreadPool(2);
         this.pendingTriggers = new ConcurrentHashMap<>();
     }
     
+    /**
+     * Queues points from an import, blocks while the location data queue is above its configured depth.
+     *
+     * @throws ImportBackpressureException if the queue did not drain in time, the batch was not queued then
+     */
     public void sendToQueue(User user, List<LocationDataRequest.LocationPoint> batch) {
+        sendToQueue(user, PointBatch.of(batch));
+    }
+
+    public void sendToQueue(User user, PointBatch batch) {
+        Consumer<PointBatch> sink = redirect.get();
+        if (sink != null) {
+            sink.accept(batch);
+            queuedPoints.computeIfAbsent(user.getUsername(), _ -> new LongAdder()).add(batch.validCount());
+            return;
+        }
+        backpressureService.acquireImportCredit();
+        publish(user, batch);
+        queuedPoints.computeIfAbsent(user.getUsername(), _ -> new LongAdder()).add(batch.validCount());
+    }
+
+    /**
+     * Runs the import on the current thread and hands all batches it sends to the sink instead of the queue. The
+     * redirect is bound to the import, other imports and live data of the same user still go through the queue.
+     * Importers handing work to other threads have to wrap it with {@link #withCurrentRedirect}.
+     *
+     * @throws IllegalStateException if the current thread is already redirected
+     */
+    public <T> T runRedirected(Consumer<PointBatch> sink, Supplier<T> importer) {
+        if (redirect.get() != null) {
+            throw new IllegalStateException("Import batches of the current thread are already redirected");
+        }
+        redirect.set(sink);
+        try {
+            return importer.get();
+        } finally {
+            redirect.remove();
+        }
+    }
+
+    /**
+     * Carries the redirect of the calling thread, if any, over to the thread running the task.
+     */
+    public <T> Callable<T> withCurrentRedirect(Callable<T> task) {
+        Consumer<PointBatch> sink = redirect.get();
+        if (sink == null) {
+            return task;
+        }
+        return () -> {
+            Consumer<PointBatch> previous = redirect.get();
+            redirect.set(sink);
+            try {
+                return task.call();
+            } finally {
+                redirect.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Queues points received from live clients without waiting for the queue to drain.
+     */
+    public void sendLiveToQueue(User user, List<LocationDataRequest.LocationPoint> batch) {
+        publish(user, PointBatch.of(batch));
+    }
+
+    private void publish(User user, PointBatch batch) {
         LocationDataEvent event = new LocationDataEvent(
                 user.getUsername(),
-                new ArrayList<>(batch)
+                batch
         );
         rabbitTemplate.convertAndSend(
                 RabbitMQConfig.EXCHANGE_NAME,
                 RabbitMQConfig.LOCATION_DATA_ROUTING_KEY,
                 event
         );
+        backpressureService.recordPublished();
         logger.info("Queued batch of {} locations for processing", batch.size());
 
         scheduleProcessingTrigger(user.getUsername());
     }
     
+    /**
+     * Triggers the processing pipeline right away, replacing a trigger which is still pending.
+     */
+    public void triggerProcessing(String username) {
+        ScheduledFuture<?> existingTrigger = pendingTriggers.remove(username);
+        if (existingTrigger != null) {
+            existingTrigger.cancel(false);
+        }
+        rabbitTemplate.convertAndSend(
+                RabbitMQConfig.EXCHANGE_NAME,
+                RabbitMQConfig.TRIGGER_PROCESSING_PIPELINE_ROUTING_KEY,
+                new TriggerProcessingEvent(username, null)
+        );
+        logger.info("Triggered processing for user: {}", username);
+    }
+
     private void scheduleProcessingTrigger(String username) {
         ScheduledFuture<?> existingTrigger = pendingTriggers.get(username);
         if (existingTrigger != null && !existingTrigger.isDone()) {
@@ -90,6 +181,14 @@ public class ImportBatchProcessor {
         }
     }
 
+    /**
+     * Total number of points queued by imports of the given user since startup, used to report the progress of imports.
+     * Points of live clients are not counted.
+     */
+    public long getQueuedPoints(String username) {
+        LongAdder counter = queuedPoints.get(username);
+        return counter != null ? counter.sum() : 0;
+    }
     
     public int getBatchSize() {
         return batchSize;
@@ -1,22 +1,28 @@
 package com.dedicatedcode.reitti.service;
 
+import com.dedicatedcode.reitti.model.security.User;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Counts the imports currently running per user, several of them may run at once when archives are imported in
+ * parallel. Only the processing of the importing user has to wait for them.
+ */
 @Service
 public class ImportStateHolder {
-    private final AtomicBoolean importRunning = new AtomicBoolean(false);
+    private final Map<String, Integer> runningImports = new ConcurrentHashMap<>();
 
-    public void importStarted() {
-        importRunning.set(true);
+    public void importStarted(User user) {
+        runningImports.merge(user.getUsername(), 1, Integer::sum);
     }
 
-    public boolean isImportRunning() {
-        return importRunning.get();
+    public boolean isImportRunning(String username) {
+        return runningImports.containsKey(username);
     }
 
-    public void importFinished() {
-        importRunning.set(false);
+    public void importFinished(User user) {
+        runningImports.computeIfPresent(user.getUsername(), (_, running) -> running > 1 ? running - 1 : null);
     }
 }
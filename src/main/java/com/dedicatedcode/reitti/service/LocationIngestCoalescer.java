@@ -0,0 +1,148 @@
+package com.dedicatedcode.reitti.service;
+
+import com.dedicatedcode.reitti.dto.LocationDataRequest;
+import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.repository.UserJdbcService;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects single location points sent by live clients per user and hands them to the {@link ImportBatchProcessor}
+ * as one batch, either when enough points are buffered or when the oldest buffered point has waited long enough.
+ * <p>
+ * Clients get their answer as soon as the point is buffered, the points only live in memory until the batch is
+ * queued. Buffers are flushed on a regular shutdown, but a crash of the process loses up to
+ * {@code reitti.ingest.coalesce.max-points} points per user, received within the last
+ * {@code reitti.ingest.coalesce.max-delay-ms}. With {@code max-points} set to 1 every point is queued before answering.
+ * <p>
+ * Batches of one user are queued one after another under the lock of the user's buffer, so they reach the queue in
+ * the order the points were received. A buffer is dropped once it is flushed, the user is looked up again when the
+ * batch is queued, so a rename or deletion in the meantime is picked up.
+ */
+@Component
+public class LocationIngestCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocationIngestCoalescer.class);
+
+    private final ImportBatchProcessor batchProcessor;
+    private final UserJdbcService userJdbcService;
+    private final int maxPoints;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentHashMap<Long, UserBuffer> buffers = new ConcurrentHashMap<>();
+    private volatile boolean shutdown;
+
+    public LocationIngestCoalescer(ImportBatchProcessor batchProcessor,
+                                   UserJdbcService userJdbcService,
+                                   @Value("${reitti.ingest.coalesce.max-points:250}") int maxPoints,
+                                   @Value("${reitti.ingest.coalesce.max-delay-ms:2000}") long maxDelayMillis) {
+        this.batchProcessor = batchProcessor;
+        this.userJdbcService = userJdbcService;
+        this.maxPoints = maxPoints;
+        this.maxDelayMillis = maxDelayMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    public void add(User user, LocationDataRequest.LocationPoint point) {
+        if (maxPoints <= 1 || maxDelayMillis <= 0) {
+            batchProcessor.sendLiveToQueue(user, List.of(point));
+            return;
+        }
+
+        while (true) {
+            UserBuffer buffer = buffers.computeIfAbsent(user.getId(), UserBuffer::new);
+            synchronized (buffer) {
+                if (buffer.retired) {
+                    // flushed and dropped while we waited for the lock, the next lookup creates a fresh one
+                    continue;
+                }
+                buffer.points.add(point);
+                if (shutdown || buffer.points.size() >= maxPoints) {
+                    send(buffer);
+                } else if (buffer.deadline == null) {
+                    try {
+                        buffer.deadline = scheduler.schedule(() -> flush(buffer), maxDelayMillis, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        // shutting down concurrently
+                        send(buffer);
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private void flush(UserBuffer buffer) {
+        synchronized (buffer) {
+            send(buffer);
+        }
+    }
+
+    /**
+     * Queues the buffered points and drops the now empty buffer, must be called holding the lock of the buffer. The
+     * buffer stays registered until the batch is queued, so points arriving meanwhile cannot overtake it.
+     */
+    private void send(UserBuffer buffer) {
+        List<LocationDataRequest.LocationPoint> points = buffer.drain();
+        try {
+            if (points.isEmpty()) {
+                return;
+            }
+            Optional<User> user = userJdbcService.findById(buffer.userId);
+            if (user.isEmpty()) {
+                logger.warn("Dropping {} buffered location points, user {} no longer exists", points.size(), buffer.userId);
+                return;
+            }
+            batchProcessor.sendLiveToQueue(user.get(), points);
+        } catch (Exception e) {
+            logger.error("Failed to queue {} buffered location points for user {}", points.size(), buffer.userId, e);
+        } finally {
+            buffer.retired = true;
+            buffers.remove(buffer.userId, buffer);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shutdown = true;
+        scheduler.shutdownNow();
+        for (UserBuffer buffer : buffers.values()) {
+            flush(buffer);
+        }
+        logger.info("Drained buffered location points on shutdown");
+    }
+
+    private static class UserBuffer {
+        private final Long userId;
+        private final List<LocationDataRequest.LocationPoint> points = new ArrayList<>();
+        private ScheduledFuture<?> deadline;
+        private boolean retired;
+
+        private UserBuffer(Long userId) {
+            this.userId = userId;
+        }
+
+        private List<LocationDataRequest.LocationPoint> drain() {
+            if (deadline != null) {
+                deadline.cancel(false);
+                deadline = null;
+            }
+            List<LocationDataRequest.LocationPoint> result = new ArrayList<>(points);
+            points.clear();
+            return result;
+        }
+    }
+}
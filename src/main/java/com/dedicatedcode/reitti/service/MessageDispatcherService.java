@@ -1,6 +1,7 @@
 package com.dedicatedcode.reitti.service;
 
 import com.dedicatedcode.reitti.config.RabbitMQConfig;
+import com.dedicatedcode.reitti.config.VisitMergeShardRouter;
 import com.dedicatedcode.reitti.event.*;
 import com.dedicatedcode.reitti.repository.UserJdbcService;
 import com.dedicatedcode.reitti.service.geocoding.ReverseGeocodingListener;
@@ -8,11 +9,16 @@ import com.dedicatedcode.reitti.service.processing.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.rabbit.listener.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 @Service
-public class MessageDispatcherService {
+public class MessageDispatcherService implements RabbitListenerConfigurer {
 
     private static final Logger logger = LoggerFactory.getLogger(MessageDispatcherService.class);
 
@@ -25,6 +31,9 @@ public class MessageDispatcherService {
     private final UserSseEmitterService userSseEmitterService;
     private final UserJdbcService  userJdbcService;
     private final VisitDetectionPreviewService visitDetectionPreviewService;
+    private final VisitMergeShardRouter visitMergeShardRouter;
+    private final MessageConverter messageConverter;
+    private final RabbitTemplate rabbitTemplate;
 
     @Autowired
     public MessageDispatcherService(LocationDataIngestPipeline locationDataIngestPipeline,
@@ -35,7 +44,10 @@ public class MessageDispatcherService {
                                     ProcessingPipelineTrigger processingPipelineTrigger,
                                     UserSseEmitterService userSseEmitterService,
                                     UserJdbcService userJdbcService,
-                                    VisitDetectionPreviewService visitDetectionPreviewService) {
+                                    VisitDetectionPreviewService visitDetectionPreviewService,
+                                    VisitMergeShardRouter visitMergeShardRouter,
+                                    MessageConverter messageConverter,
+                                    RabbitTemplate rabbitTemplate) {
         this.locationDataIngestPipeline = locationDataIngestPipeline;
         this.visitDetectionService = visitDetectionService;
         this.visitMergingService = visitMergingService;
@@ -45,6 +57,25 @@ public class MessageDispatcherService {
         this.userSseEmitterService = userSseEmitterService;
         this.userJdbcService = userJdbcService;
         this.visitDetectionPreviewService = visitDetectionPreviewService;
+        this.visitMergeShardRouter = visitMergeShardRouter;
+        this.messageConverter = messageConverter;
+        this.rabbitTemplate = rabbitTemplate;
+    }
+
+    /**
+     * Registers a single consumer per merge shard, the events of a user are merged in order while the shards are
+     * worked on in parallel.
+     */
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        for (int shard = 0; shard < visitMergeShardRouter.getShards(); shard++) {
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+            endpoint.setId("visit-merging-shard-" + shard);
+            endpoint.setQueueNames(VisitMergeShardRouter.queueName(shard));
+            endpoint.setConcurrency("1");
+            endpoint.setMessageListener(message -> handleVisitMerging((VisitUpdatedEvent) messageConverter.fromMessage(message)));
+            registrar.registerEndpoint(endpoint);
+        }
     }
 
     @RabbitListener(queues = RabbitMQConfig.LOCATION_DATA_QUEUE, concurrency = "${reitti.events.concurrency}")
@@ -60,7 +91,16 @@ public class MessageDispatcherService {
         visitDetectionPreviewService.updatePreviewStatus(event.getPreviewId());
     }
 
+    /**
+     * Drains the unsharded merge queue of older versions by moving its events over to the shard of their user, this
+     * way the visits of a user are never merged by two consumers at the same time.
+     */
     @RabbitListener(queues = RabbitMQConfig.MERGE_VISIT_QUEUE, concurrency = "1")
+    public void handleLegacyVisitMerging(VisitUpdatedEvent event) {
+        logger.debug("Moving VisitUpdatedEvent for user {} to its merge shard", event.getUsername());
+        rabbitTemplate.convertAndSend(RabbitMQConfig.EXCHANGE_NAME, visitMergeShardRouter.routingKeyFor(event.getUsername()), event);
+    }
+
     public void handleVisitMerging(VisitUpdatedEvent event) {
         logger.debug("Dispatching VisitUpdatedEvent for user: {}", event.getUsername());
         visitMergingService.visitUpdated(event);
@@ -0,0 +1,175 @@
+package com.dedicatedcode.reitti.service;
+
+import com.dedicatedcode.reitti.config.RabbitMQConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Admission control for the location data queue.
+ * <p>
+ * Importers have to take a credit for every batch they publish. Credits are handed out in windows which never
+ * exceed the free space below the configured queue depth, so a large import blocks until the consumers caught up
+ * instead of flooding the broker. An importer gives up with an {@link ImportBackpressureException} if no credit became
+ * available within the configured wait time, e.g. because no consumer is running. Live ingest is never blocked here,
+ * but gets rejected once the backlog is above its own limit, together with an estimate when to retry based on the
+ * observed drain rate.
+ * <p>
+ * The broker is queried without holding the lock, so a slow management call does not stall other threads.
+ */
+@Service
+public class QueueBackpressureService {
+    private static final Logger logger = LoggerFactory.getLogger(QueueBackpressureService.class);
+    private static final int MAX_RETRY_AFTER_SECONDS = 60;
+    private static final int DEFAULT_RETRY_AFTER_SECONDS = 5;
+
+    private final QueueStatsService queueStatsService;
+    private final boolean enabled;
+    private final int importMaxQueueDepth;
+    private final int creditWindow;
+    private final int ingestMaxQueueDepth;
+    private final long sampleIntervalMillis;
+    private final long importMaxWaitMillis;
+
+    private int credits;
+    private int queueDepth;
+    private int consumerCount;
+    private long lastSampleAt;
+    private long publishedSinceSample;
+    private double drainRatePerSecond = -1;
+
+    public QueueBackpressureService(QueueStatsService queueStatsService,
+                                    @Value("${reitti.backpressure.enabled:true}") boolean enabled,
+                                    @Value("${reitti.backpressure.import.max-queue-depth:200}") int importMaxQueueDepth,
+                                    @Value("${reitti.backpressure.import.credit-window:20}") int creditWindow,
+                                    @Value("${reitti.backpressure.ingest.max-queue-depth:1000}") int ingestMaxQueueDepth,
+                                    @Value("${reitti.backpressure.sample-interval-ms:1000}") long sampleIntervalMillis,
+                                    @Value("${reitti.backpressure.import.max-wait-seconds:600}") long importMaxWaitSeconds) {
+        this.queueStatsService = queueStatsService;
+        this.enabled = enabled;
+        this.importMaxQueueDepth = importMaxQueueDepth;
+        this.creditWindow = creditWindow;
+        this.ingestMaxQueueDepth = ingestMaxQueueDepth;
+        this.sampleIntervalMillis = sampleIntervalMillis;
+        this.importMaxWaitMillis = importMaxWaitSeconds * 1000;
+    }
+
+    /**
+     * Blocks the calling importer until another batch may be published.
+     *
+     * @throws ImportBackpressureException if the queue did not drain within the configured wait time or the thread got
+     *                                     interrupted, the batch must not be published then
+     */
+    public void acquireImportCredit() {
+        if (!enabled) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + importMaxWaitMillis;
+        boolean logged = false;
+        while (true) {
+            if (takeCredit()) {
+                return;
+            }
+            sample(logged);
+            synchronized (this) {
+                if (credits <= 0) {
+                    // messages published since the last sample are not part of the sampled depth yet
+                    credits = (int) Math.min(creditWindow, importMaxQueueDepth - queueDepth - publishedSinceSample);
+                }
+            }
+            if (takeCredit()) {
+                return;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new ImportBackpressureException("Location data queue did not drop below [" + importMaxQueueDepth + "] messages within ["
+                        + importMaxWaitMillis / 1000 + "] seconds, [" + getConsumerCount() + "] consumers are running");
+            }
+            if (!logged) {
+                logger.info("Location data queue holds [{}] messages, pausing import until it drops below [{}]", getQueueDepth(), importMaxQueueDepth);
+                logged = true;
+            }
+            try {
+                Thread.sleep(Math.min(sampleIntervalMillis, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ImportBackpressureException("Interrupted while waiting for the location data queue to drain", e);
+            }
+        }
+    }
+
+    /**
+     * Has to be called for every message published to the location data queue, used to estimate the drain rate.
+     */
+    public synchronized void recordPublished() {
+        publishedSinceSample++;
+    }
+
+    public boolean isIngestOverloaded() {
+        if (!enabled) {
+            return false;
+        }
+        sample(false);
+        return getQueueDepth() > ingestMaxQueueDepth;
+    }
+
+    /**
+     * Estimated number of seconds until the backlog dropped below the ingest limit again.
+     */
+    public synchronized int getRetryAfterSeconds() {
+        int excess = queueDepth - ingestMaxQueueDepth;
+        if (excess <= 0) {
+            return 1;
+        }
+        if (drainRatePerSecond <= 0 || consumerCount == 0) {
+            return DEFAULT_RETRY_AFTER_SECONDS;
+        }
+        return (int) Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, Math.ceil(excess / drainRatePerSecond)));
+    }
+
+    private synchronized boolean takeCredit() {
+        if (credits > 0) {
+            credits--;
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized int getQueueDepth() {
+        return queueDepth;
+    }
+
+    private synchronized int getConsumerCount() {
+        return consumerCount;
+    }
+
+    private void sample(boolean force) {
+        long now = System.currentTimeMillis();
+        long publishedBefore;
+        synchronized (this) {
+            if (!force && lastSampleAt != 0 && now - lastSampleAt < sampleIntervalMillis) {
+                return;
+            }
+            publishedBefore = publishedSinceSample;
+        }
+        int depth = queueStatsService.getMessageCount(RabbitMQConfig.LOCATION_DATA_QUEUE);
+        int consumers = queueStatsService.getConsumerCount(RabbitMQConfig.LOCATION_DATA_QUEUE);
+        synchronized (this) {
+            if (lastSampleAt != 0 && now <= lastSampleAt) {
+                // another thread stored a sample of the same time or newer meanwhile
+                return;
+            }
+            if (lastSampleAt != 0) {
+                long consumed = publishedBefore + queueDepth - depth;
+                double rate = Math.max(0, consumed) * 1000.0 / (now - lastSampleAt);
+                drainRatePerSecond = drainRatePerSecond < 0 ? rate : drainRatePerSecond * 0.7 + rate * 0.3;
+            }
+            queueDepth = depth;
+            consumerCount = consumers;
+            // messages published while the broker was queried may be missing in the depth, keep counting them
+            publishedSinceSample -= publishedBefore;
+            lastSampleAt = now;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.dedicatedcode.reitti.service;
 
 import com.dedicatedcode.reitti.config.RabbitMQConfig;
+import com.dedicatedcode.reitti.config.VisitMergeShardRouter;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.MessageSource;
@@ -19,6 +20,7 @@ public class QueueStatsService {
 
     private final RabbitAdmin rabbitAdmin;
     private final MessageSource messageSource;
+    private final VisitMergeShardRouter visitMergeShardRouter;
 
     private static final int LOOKBACK_HOURS = 24;
     private static final long DEFAULT_PROCESSING_TIME = 2000;
@@ -37,9 +39,10 @@ public class QueueStatsService {
     private final Map<String, Integer> previousMessageCounts = new ConcurrentHashMap<>();
 
     @Autowired
-    public QueueStatsService(RabbitAdmin rabbitAdmin, MessageSource messageSource) {
+    public QueueStatsService(RabbitAdmin rabbitAdmin, MessageSource messageSource, VisitMergeShardRouter visitMergeShardRouter) {
         this.rabbitAdmin = rabbitAdmin;
         this.messageSource = messageSource;
+        this.visitMergeShardRouter = visitMergeShardRouter;
         QUEUES.forEach(queue -> {
             processingHistory.put(queue, new ArrayList<>());
             previousMessageCounts.put(queue, 0);
@@ -68,7 +71,7 @@ public class QueueStatsService {
             long processingTimePerMessage = estimateProcessingTimePerMessage(queueName);
             List<ProcessingRecord> history = processingHistory.get(queueName);
             LocalDateTime now = LocalDateTime.now();
-            history.add(new ProcessingRecord(now, this.rabbitAdmin.getQueueInfo(queueName).getMessageCount(), processingTimePerMessage));
+            history.add(new ProcessingRecord(now, currentMessageCount, processingTimePerMessage));
             cleanupOldRecords(history, now);
         }
         
@@ -111,14 +114,34 @@ public class QueueStatsService {
         history.removeIf(record -> record.timestamp.isBefore(cutoff));
     }
 
-    private int getMessageCount(String queueName) {
+    public int getMessageCount(String queueName) {
+        if (RabbitMQConfig.MERGE_VISIT_QUEUE.equals(queueName)) {
+            // the merge stage is spread over its shard queues, the old queue might still be draining
+            int count = countMessages(queueName);
+            for (String shardQueue : visitMergeShardRouter.queueNames()) {
+                count += countMessages(shardQueue);
+            }
+            return count;
+        }
+        return countMessages(queueName);
+    }
+
+    private int countMessages(String queueName) {
         Properties properties = rabbitAdmin.getQueueProperties(queueName);
-        if (properties.containsKey(RabbitAdmin.QUEUE_MESSAGE_COUNT)) {
+        if (properties != null && properties.containsKey(RabbitAdmin.QUEUE_MESSAGE_COUNT)) {
             return (int) properties.get(RabbitAdmin.QUEUE_MESSAGE_COUNT);
         }
         return 0;
     }
 
+    public int getConsumerCount(String queueName) {
+        Properties properties = rabbitAdmin.getQueueProperties(queueName);
+        if (properties != null && properties.containsKey(RabbitAdmin.QUEUE_CONSUMER_COUNT)) {
+            return (int) properties.get(RabbitAdmin.QUEUE_CONSUMER_COUNT);
+        }
+        return 0;
+    }
+
     private String formatProcessingTime(long milliseconds) {
         if (milliseconds < 60000) {
             return (milliseconds / 1000) + " sec";
@@ -1,10 +1,11 @@
 package com.dedicatedcode.reitti.service;
 
 import com.dedicatedcode.reitti.config.RabbitMQConfig;
-import com.dedicatedcode.reitti.dto.LocationDataRequest;
+import com.dedicatedcode.reitti.event.ImportProgress;
 import com.dedicatedcode.reitti.event.SSEEvent;
 import com.dedicatedcode.reitti.event.SSEType;
 import com.dedicatedcode.reitti.model.NotificationData;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
 import com.dedicatedcode.reitti.model.geo.ProcessedVisit;
 import com.dedicatedcode.reitti.model.geo.Trip;
 import com.dedicatedcode.reitti.model.security.User;
@@ -17,7 +18,6 @@ import org.springframework.stereotype.Service;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
-import java.time.ZonedDateTime;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -26,6 +26,7 @@ import java.util.stream.Collectors;
 @Service
 public class UserNotificationService {
     private static final Logger log = LoggerFactory.getLogger(UserNotificationService.class);
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
     private final RabbitTemplate rabbitTemplate;
     private final ReittiSubscriptionService reittiSubscriptionService;
 
@@ -54,14 +55,29 @@ public class UserNotificationService {
         notifyReittiSubscriptions(user, eventType, dates);
     }
 
-    public void newRawLocationData(User user, List<LocationDataRequest.LocationPoint> filtered) {
+    public void newRawLocationData(User user, PointBatch filtered) {
         SSEType eventType = SSEType.RAW_DATA;
         log.debug("New RawLocationPoints for user [{}]", user.getId());
-        Set<LocalDate> dates = calculateAffectedDates(filtered.stream().map(LocationDataRequest.LocationPoint::getTimestamp).map(s -> ZonedDateTime.parse(s).toInstant()).toList());
+        Set<LocalDate> dates = new HashSet<>();
+        long lastDay = Long.MIN_VALUE;
+        for (int i = 0; i < filtered.size(); i++) {
+            if (filtered.isValid(i)) {
+                long day = Math.floorDiv(filtered.epochMillis(i), MILLIS_PER_DAY);
+                if (day != lastDay) {
+                    dates.add(LocalDate.ofEpochDay(day));
+                    lastDay = day;
+                }
+            }
+        }
         sendToQueue(user, dates, eventType, null);
         notifyReittiSubscriptions(user, eventType, dates);
     }
 
+    public void importProgress(User user, ImportProgress progress) {
+        log.debug("Import progress for user [{}]: {}", user.getId(), progress);
+        this.rabbitTemplate.convertAndSend(RabbitMQConfig.EXCHANGE_NAME, RabbitMQConfig.USER_EVENT_ROUTING_KEY, new SSEEvent(SSEType.IMPORT_PROGRESS, user.getId(), user.getId(), null, null, progress));
+    }
+
     public void sendToQueue(User user, Set<LocalDate> dates, SSEType eventType, String previewId) {
         for (LocalDate date : dates) {
             this.rabbitTemplate.convertAndSend(RabbitMQConfig.EXCHANGE_NAME, RabbitMQConfig.USER_EVENT_ROUTING_KEY, new SSEEvent(eventType, user.getId(), user.getId(), date, previewId));
@@ -65,6 +65,14 @@ public class VisitDetectionPreviewService {
                 end,
                 user.getId());
 
+        this.jdbcTemplate.update("INSERT INTO preview_visits(user_id, latitude, longitude, start_time, end_time, duration_seconds, processed, version, imported, preview_id, preview_created_at) " +
+                "SELECT user_id, latitude, longitude, start_time, end_time, duration_seconds, false, 1, true, ?, ? FROM visits WHERE imported AND end_time > ? AND start_time <= ? AND user_id = ?",
+                previewId,
+                Timestamp.valueOf(now),
+                start,
+                end,
+                user.getId());
+
         log.debug("Copied preview data user [{}] with previewId [{}] successfully", user.getId(), previewId);
         TriggerProcessingEvent triggerEvent = new TriggerProcessingEvent(user.getUsername(), previewId);
         rabbitTemplate.convertAndSend(
@@ -21,38 +21,33 @@ public abstract class BaseGoogleTimelineImporter {
 
     protected final ObjectMapper objectMapper;
     protected final ImportBatchProcessor batchProcessor;
+    protected final ImportedVisitService importedVisitService;
     private final VisitDetectionParametersService parametersService;
 
     public BaseGoogleTimelineImporter(ObjectMapper objectMapper,
                                       ImportBatchProcessor batchProcessor,
+                                      ImportedVisitService importedVisitService,
                                       VisitDetectionParametersService parametersService) {
         this.objectMapper = objectMapper;
         this.batchProcessor = batchProcessor;
+        this.importedVisitService = importedVisitService;
         this.parametersService = parametersService;
     }
 
-    protected int handleVisit(User user, ZonedDateTime startTime, ZonedDateTime endTime, LatLng latLng, List<LocationDataRequest.LocationPoint> batch) {
+    /**
+     * Google already recognized the stay, so it is stored as an imported visit instead of being re-detected from
+     * location points. Stays shorter than the configured minimum stay time would not have been detected and are skipped.
+     */
+    protected boolean handleVisit(User user, ZonedDateTime startTime, ZonedDateTime endTime, LatLng latLng, ImportedVisitService.Batch visits) {
         DetectionParameter detectionParameter = parametersService.getCurrentConfiguration(user, startTime.toInstant());
 
-        logger.info("Found visit at [{}] from start [{}] to end [{}]. Will insert at least [{}] synthetic geo locations.", latLng, startTime, endTime, detectionParameter.getVisitDetection().getMinimumAdjacentPoints());
-        createAndScheduleLocationPoint(latLng, startTime, user, batch);
-        int count = 1;
-
         long durationBetween = Duration.between(startTime.toInstant(), endTime.toInstant()).toSeconds();
-        if (durationBetween > detectionParameter.getVisitDetection().getMinimumStayTimeInSeconds()) {
-            long increment = 60;
-            ZonedDateTime currentTime = startTime.plusSeconds(increment);
-            while (currentTime.isBefore(endTime)) {
-                createAndScheduleLocationPoint(latLng, currentTime, user, batch);
-                count+=1;
-                currentTime = currentTime.plusSeconds(increment);
-            }
-            logger.debug("Inserting synthetic points into import to simulate stays at [{}] from [{}] till [{}]", latLng, startTime, endTime);
-        } else {
-            logger.info("Skipping creating synthetic points at [{}] since duration was less then [{}] seconds ", latLng, detectionParameter.getVisitDetection().getMinimumStayTimeInSeconds());
+        if (durationBetween < detectionParameter.getVisitDetection().getMinimumStayTimeInSeconds()) {
+            logger.info("Skipping visit at [{}] since duration was less then [{}] seconds", latLng, detectionParameter.getVisitDetection().getMinimumStayTimeInSeconds());
+            return false;
         }
-        createAndScheduleLocationPoint(latLng, endTime, user, batch);
-        return count + 1;
+        logger.info("Found visit at [{}] from start [{}] to end [{}].", latLng, startTime, endTime);
+        return visits.add(latLng.latitude, latLng.longitude, startTime.toInstant(), endTime.toInstant());
     }
 
     protected void createAndScheduleLocationPoint(LatLng latLng, ZonedDateTime timestamp, User user, List<LocationDataRequest.LocationPoint> batch) {
@@ -0,0 +1,122 @@
+package com.dedicatedcode.reitti.service.importer;
+
+import com.dedicatedcode.reitti.model.geo.PointBatch;
+import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.repository.RawLocationPointJdbcService;
+import com.dedicatedcode.reitti.repository.UserSettingsJdbcService;
+import com.dedicatedcode.reitti.service.ImportBatchProcessor;
+import com.dedicatedcode.reitti.service.processing.GeoPointAnomalyFilterConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Fast path for large offline imports. Instead of going through the location data queue, the batches of the
+ * importer are copied into an unlogged staging table and merged into raw_location_points chunk by chunk, each chunk
+ * in a single statement which also removes duplicates and anomalies. Processing is triggered once at the end.
+ */
+@Service
+public class BulkLocationImportService {
+    private static final Logger logger = LoggerFactory.getLogger(BulkLocationImportService.class);
+
+    private final ImportBatchProcessor batchProcessor;
+    private final RawLocationPointJdbcService rawLocationPointJdbcService;
+    private final UserSettingsJdbcService userSettingsJdbcService;
+    private final GeoPointAnomalyFilterConfig filterConfig;
+    private final int chunkSize;
+
+    public BulkLocationImportService(ImportBatchProcessor batchProcessor,
+                                     RawLocationPointJdbcService rawLocationPointJdbcService,
+                                     UserSettingsJdbcService userSettingsJdbcService,
+                                     GeoPointAnomalyFilterConfig filterConfig,
+                                     @Value("${reitti.import.bulk.chunk-size:100000}") int chunkSize) {
+        this.batchProcessor = batchProcessor;
+        this.rawLocationPointJdbcService = rawLocationPointJdbcService;
+        this.userSettingsJdbcService = userSettingsJdbcService;
+        this.filterConfig = filterConfig;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Runs the given import with all of its batches written straight to the database.
+     *
+     * @param importer one of the importers, called on the current thread
+     * @return the result of the importer, points still staged are discarded if it failed
+     */
+    public Map<String, Object> run(User user, Supplier<Map<String, Object>> importer) {
+        long start = System.currentTimeMillis();
+        BulkImport bulkImport = new BulkImport(user, rawLocationPointJdbcService.nextImportId());
+        Map<String, Object> result;
+        try {
+            result = batchProcessor.runRedirected(bulkImport::stage, importer);
+        } catch (RuntimeException e) {
+            rawLocationPointJdbcService.discardImportStaging(bulkImport.importId);
+            throw e;
+        }
+
+        if (Boolean.TRUE.equals(result.get("success"))) {
+            bulkImport.merge();
+        } else {
+            // like on the queue, chunks merged before the failure are kept, only the rest is dropped
+            rawLocationPointJdbcService.discardImportStaging(bulkImport.importId);
+        }
+        if (bulkImport.latestMerged.get() != Long.MIN_VALUE) {
+            userSettingsJdbcService.updateNewestData(user, Instant.ofEpochMilli(bulkImport.latestMerged.get()));
+        }
+        if (bulkImport.inserted.get() > 0) {
+            batchProcessor.triggerProcessing(user.getUsername());
+        }
+        logger.info("Bulk import [{}] for user [{}] stored [{}] of [{}] points in [{}]ms", bulkImport.importId, user.getUsername(),
+                bulkImport.inserted.get(), bulkImport.received.get(), System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private class BulkImport {
+        private final User user;
+        private final long importId;
+        private final AtomicLong stagedSinceMerge = new AtomicLong();
+        private final AtomicLong received = new AtomicLong();
+        private final AtomicLong inserted = new AtomicLong();
+        private final AtomicLong latest = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong latestMerged = new AtomicLong(Long.MIN_VALUE);
+
+        private BulkImport(User user, long importId) {
+            this.user = user;
+            this.importId = importId;
+        }
+
+        /**
+         * Called by the importers, possibly from several threads at once
+         */
+        private void stage(PointBatch batch) {
+            int count = batch.validCount();
+            if (count == 0) {
+                return;
+            }
+            rawLocationPointJdbcService.stageForImport(importId, user, batch);
+            received.addAndGet(count);
+            latest.accumulateAndGet(batch.maxValidEpochMillis(), Math::max);
+            if (stagedSinceMerge.addAndGet(count) >= chunkSize) {
+                merge();
+            }
+        }
+
+        private synchronized void merge() {
+            if (stagedSinceMerge.getAndSet(0) == 0) {
+                return;
+            }
+            long staged = latest.get();
+            int stored = rawLocationPointJdbcService.mergeImportStaging(importId, filterConfig.maxAccuracyMeters,
+                    filterConfig.maxSpeedKmh, filterConfig.maxDistanceJumpMeters);
+            inserted.addAndGet(stored);
+            latestMerged.accumulateAndGet(staged, Math::max);
+            logger.debug("Merged chunk of bulk import [{}], [{}] points stored so far", importId, inserted.get());
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.dedicatedcode.reitti.service.importer;
+
+public class ChunkedUploadException extends RuntimeException {
+    public enum Reason {
+        NOT_FOUND,
+        INVALID_STATE,
+        OFFSET_MISMATCH,
+        CHECKSUM_MISMATCH,
+        TOO_LARGE,
+        INCOMPLETE
+    }
+
+    private final Reason reason;
+    private final long currentOffset;
+
+    public ChunkedUploadException(Reason reason, long currentOffset, String message) {
+        super(message);
+        this.reason = reason;
+        this.currentOffset = currentOffset;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * Number of bytes the server received so far, the client has to continue the upload from here.
+     */
+    public long getCurrentOffset() {
+        return currentOffset;
+    }
+}
@@ -0,0 +1,387 @@
+package com.dedicatedcode.reitti.service.importer;
+
+import com.dedicatedcode.reitti.event.ImportProgress;
+import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.service.ImportBatchProcessor;
+import com.dedicatedcode.reitti.service.UserNotificationService;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Receives large import files in chunks and spools them to a local directory. Every chunk has to continue exactly
+ * at the number of bytes received so far and is checked against its SHA-256 checksum before it counts, so a client
+ * which lost its connection asks for the current offset and resumes from there.
+ * <p>
+ * Once all bytes arrived, the file is parsed in the background from a memory mapping and the progress is sent to
+ * the user over the SSE channel. Upload sessions are held in memory only, spooled files left behind by a restart
+ * are removed by the cleanup.
+ */
+@Service
+public class ChunkedUploadService {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final String SPOOL_FILE_SUFFIX = ".upload";
+    private static final String CHUNK_FILE_SUFFIX = ".chunk";
+
+    private final GpxImporter gpxImporter;
+    private final GeoJsonImporter geoJsonImporter;
+    private final GoogleRecordsImporter googleRecordsImporter;
+    private final GoogleAndroidTimelineImporter googleAndroidTimelineImporter;
+    private final GoogleIOSTimelineImporter googleIOSTimelineImporter;
+    private final GoogleTakeoutImporter googleTakeoutImporter;
+    private final BulkLocationImportService bulkLocationImportService;
+    private final ImportBatchProcessor batchProcessor;
+    private final UserNotificationService userNotificationService;
+    private final Path uploadDirectory;
+    private final long maxSize;
+    private final long maxChunkSize;
+    private final Duration expiry;
+    private final long progressIntervalMillis;
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+    private final ExecutorService importExecutor;
+    private final ScheduledExecutorService progressScheduler;
+
+    public ChunkedUploadService(GpxImporter gpxImporter,
+                                GeoJsonImporter geoJsonImporter,
+                                GoogleRecordsImporter googleRecordsImporter,
+                                GoogleAndroidTimelineImporter googleAndroidTimelineImporter,
+                                GoogleIOSTimelineImporter googleIOSTimelineImporter,
+                                GoogleTakeoutImporter googleTakeoutImporter,
+                                BulkLocationImportService bulkLocationImportService,
+                                ImportBatchProcessor batchProcessor,
+                                UserNotificationService userNotificationService,
+                                @Value("${reitti.import.upload.directory:${java.io.tmpdir}/reitti-uploads}") Path uploadDirectory,
+                                @Value("${reitti.import.upload.max-size:5GB}") DataSize maxSize,
+                                @Value("${reitti.import.upload.max-chunk-size:64MB}") DataSize maxChunkSize,
+                                @Value("${reitti.import.upload.expiry:PT24H}") Duration expiry,
+                                @Value("${reitti.import.upload.concurrent-imports:1}") int concurrentImports,
+                                @Value("${reitti.import.upload.progress-interval-ms:1000}") long progressIntervalMillis) {
+        this.gpxImporter = gpxImporter;
+        this.geoJsonImporter = geoJsonImporter;
+        this.googleRecordsImporter = googleRecordsImporter;
+        this.googleAndroidTimelineImporter = googleAndroidTimelineImporter;
+        this.googleIOSTimelineImporter = googleIOSTimelineImporter;
+        this.googleTakeoutImporter = googleTakeoutImporter;
+        this.bulkLocationImportService = bulkLocationImportService;
+        this.batchProcessor = batchProcessor;
+        this.userNotificationService = userNotificationService;
+        this.uploadDirectory = uploadDirectory;
+        this.maxSize = maxSize.toBytes();
+        this.maxChunkSize = maxChunkSize.toBytes();
+        this.expiry = expiry;
+        this.progressIntervalMillis = progressIntervalMillis;
+        this.importExecutor = Executors.newFixedThreadPool(concurrentImports);
+        this.progressScheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    public UploadSession start(User user, String filename, ImportFormat format, long size) throws IOException {
+        return start(user, filename, format, size, false);
+    }
+
+    /**
+     * @param bulk write the points straight to the database instead of queueing them, see {@link BulkLocationImportService}
+     */
+    public UploadSession start(User user, String filename, ImportFormat format, long size, boolean bulk) throws IOException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Upload size must be positive");
+        }
+        if (size > maxSize) {
+            throw new ChunkedUploadException(ChunkedUploadException.Reason.TOO_LARGE, 0, "Upload exceeds the maximum size of " + maxSize + " bytes");
+        }
+        Files.createDirectories(uploadDirectory);
+        String id = UUID.randomUUID().toString();
+        Path file = uploadDirectory.resolve(id + SPOOL_FILE_SUFFIX);
+        Files.createFile(file);
+
+        UploadSession session = new UploadSession(id, user, filename, format, size, file, bulk);
+        sessions.put(id, session);
+        logger.info("Started upload [{}] of [{}] with [{}] bytes for user [{}]", id, filename, size, user.getUsername());
+        return session;
+    }
+
+    public Optional<UploadSession> find(User user, String uploadId) {
+        return Optional.ofNullable(sessions.get(uploadId))
+                .filter(session -> session.getUser().getUsername().equals(user.getUsername()));
+    }
+
+    /**
+     * Appends a chunk to the spooled file. The chunk is received into a file of its own first, the session is only
+     * locked afterwards to copy it over, so a slow client does not block other requests of the upload. On a checksum
+     * mismatch or a broken connection the spooled file is left untouched, so the chunk can simply be sent again.
+     *
+     * @param sha256 hex encoded SHA-256 checksum of the chunk, may be null to skip the check
+     * @return the offset after the chunk got appended
+     */
+    public long appendChunk(User user, String uploadId, long offset, String sha256, InputStream content) throws IOException {
+        UploadSession session = find(user, uploadId).orElseThrow(() -> notFound(uploadId));
+        synchronized (session) {
+            checkAppendable(session, offset);
+        }
+
+        Path chunk = uploadDirectory.resolve(session.getId() + "-" + UUID.randomUUID() + CHUNK_FILE_SUFFIX);
+        try {
+            long written = receiveChunk(chunk, content, offset, Math.min(maxChunkSize, session.getSize() - offset), sha256);
+            synchronized (session) {
+                // the upload may have been cancelled or the chunk appended by another request while this one was received
+                checkAppendable(session, offset);
+                try (FileChannel source = FileChannel.open(chunk, StandardOpenOption.READ);
+                     FileChannel target = FileChannel.open(session.getFile(), StandardOpenOption.WRITE)) {
+                    long copied = 0;
+                    while (copied < written) {
+                        copied += target.transferFrom(source, offset + copied, written - copied);
+                    }
+                    target.force(false);
+                } catch (IOException | RuntimeException e) {
+                    try (FileChannel target = FileChannel.open(session.getFile(), StandardOpenOption.WRITE)) {
+                        target.truncate(offset);
+                    }
+                    throw e;
+                }
+                session.advance(written);
+                logger.debug("Received [{}] bytes for upload [{}], [{}] of [{}] bytes complete", written, uploadId, session.getOffset(), session.getSize());
+                return session.getOffset();
+            }
+        } finally {
+            deleteQuietly(chunk);
+        }
+    }
+
+    private void checkAppendable(UploadSession session, long offset) {
+        if (sessions.get(session.getId()) != session) {
+            throw notFound(session.getId());
+        }
+        if (session.getState() != UploadSession.State.UPLOADING) {
+            throw new ChunkedUploadException(ChunkedUploadException.Reason.INVALID_STATE, session.getOffset(), "Upload [" + session.getId() + "] is already " + session.getState());
+        }
+        if (offset != session.getOffset()) {
+            throw new ChunkedUploadException(ChunkedUploadException.Reason.OFFSET_MISMATCH, session.getOffset(), "Expected chunk at offset " + session.getOffset() + " but got " + offset);
+        }
+    }
+
+    /**
+     * Reads the chunk from the client into its own file and checks it against the checksum.
+     *
+     * @return the size of the chunk
+     */
+    private long receiveChunk(Path chunk, InputStream content, long offset, long limit, String sha256) throws IOException {
+        MessageDigest digest = sha256();
+        long written = 0;
+        try (FileChannel channel = FileChannel.open(chunk, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                written += read;
+                if (written > limit) {
+                    throw new ChunkedUploadException(ChunkedUploadException.Reason.TOO_LARGE, offset, "Chunk exceeds the remaining upload size or the maximum chunk size of " + maxChunkSize + " bytes");
+                }
+                digest.update(buffer, 0, read);
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+        }
+        String actual = HexFormat.of().formatHex(digest.digest());
+        if (sha256 != null && !sha256.equalsIgnoreCase(actual)) {
+            throw new ChunkedUploadException(ChunkedUploadException.Reason.CHECKSUM_MISMATCH, offset, "Checksum of chunk at offset " + offset + " does not match, expected " + sha256 + " but was " + actual);
+        }
+        return written;
+    }
+
+    /**
+     * Starts importing the spooled file in the background once all bytes arrived.
+     */
+    public UploadSession complete(User user, String uploadId) {
+        UploadSession session = find(user, uploadId).orElseThrow(() -> notFound(uploadId));
+        synchronized (session) {
+            if (session.getState() != UploadSession.State.UPLOADING) {
+                throw new ChunkedUploadException(ChunkedUploadException.Reason.INVALID_STATE, session.getOffset(), "Upload [" + uploadId + "] is already " + session.getState());
+            }
+            if (session.getOffset() != session.getSize()) {
+                throw new ChunkedUploadException(ChunkedUploadException.Reason.INCOMPLETE, session.getOffset(), "Upload [" + uploadId + "] is missing " + (session.getSize() - session.getOffset()) + " bytes");
+            }
+            session.setState(UploadSession.State.IMPORTING);
+        }
+        importExecutor.execute(() -> runImport(session));
+        return session;
+    }
+
+    public void cancel(User user, String uploadId) {
+        UploadSession session = find(user, uploadId).orElseThrow(() -> notFound(uploadId));
+        synchronized (session) {
+            if (session.getState() == UploadSession.State.IMPORTING) {
+                throw new ChunkedUploadException(ChunkedUploadException.Reason.INVALID_STATE, session.getOffset(), "Upload [" + uploadId + "] is currently imported");
+            }
+            remove(session);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${reitti.import.upload.cleanup-interval-ms:3600000}")
+    public void cleanUp() {
+        Instant threshold = Instant.now().minus(expiry);
+        for (UploadSession session : sessions.values()) {
+            synchronized (session) {
+                if (session.getState() != UploadSession.State.IMPORTING && session.getLastActivity().isBefore(threshold)) {
+                    logger.info("Removing expired upload [{}] of user [{}]", session.getId(), session.getUser().getUsername());
+                    remove(session);
+                }
+            }
+        }
+
+        if (!Files.isDirectory(uploadDirectory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(uploadDirectory)) {
+            files.filter(file -> isLeftOver(file.getFileName().toString()))
+                    .filter(file -> isOlderThan(file, threshold))
+                    .forEach(this::deleteQuietly);
+        } catch (IOException e) {
+            logger.warn("Unable to clean up upload directory [{}]", uploadDirectory, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        progressScheduler.shutdownNow();
+        importExecutor.shutdown();
+        try {
+            if (!importExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                importExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            importExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runImport(UploadSession session) {
+        User user = session.getUser();
+        long pointsBefore = batchProcessor.getQueuedPoints(user.getUsername());
+        logger.info("Importing upload [{}] of [{}] as [{}] for user [{}]", session.getId(), session.getFilename(), session.getFormat(), user.getUsername());
+
+        ImportProgress result;
+        try (MappedFileInputStream inputStream = new MappedFileInputStream(session.getFile())) {
+            ScheduledFuture<?> reporter = progressScheduler.scheduleAtFixedRate(
+                    () -> sendProgress(session, ImportProgress.State.RUNNING, inputStream.getPosition(), pointsBefore, null),
+                    0, progressIntervalMillis, TimeUnit.MILLISECONDS);
+            Map<String, Object> outcome;
+            try {
+                outcome = session.isBulk()
+                        ? bulkLocationImportService.run(user, () -> runImporter(session, inputStream, user))
+                        : runImporter(session, inputStream, user);
+            } finally {
+                reporter.cancel(false);
+            }
+
+            if (Boolean.TRUE.equals(outcome.get("success"))) {
+                session.setState(UploadSession.State.COMPLETED);
+                // the importer knows exactly how many points it queued, other imports of the user may have run meanwhile
+                long pointsQueued = outcome.get("pointsReceived") instanceof Number points ? points.longValue() : queuedSince(user, pointsBefore);
+                result = new ImportProgress(session.getId(), session.getFilename(), ImportProgress.State.COMPLETED, session.getSize(), session.getSize(), pointsQueued, (String) outcome.get("message"));
+            } else {
+                session.setState(UploadSession.State.FAILED);
+                result = progress(session, ImportProgress.State.FAILED, inputStream.getPosition(), pointsBefore, (String) outcome.get("error"));
+            }
+        } catch (Exception e) {
+            logger.error("Error importing upload [{}]", session.getId(), e);
+            session.setState(UploadSession.State.FAILED);
+            result = progress(session, ImportProgress.State.FAILED, 0, pointsBefore, "Error processing file: " + e.getMessage());
+        } finally {
+            deleteQuietly(session.getFile());
+        }
+        logger.info("Finished import of upload [{}]: {}", session.getId(), result);
+        userNotificationService.importProgress(user, result);
+    }
+
+    private Map<String, Object> runImporter(UploadSession session, InputStream inputStream, User user) {
+        return switch (session.getFormat()) {
+            case GPX -> gpxImporter.importGpx(inputStream, user);
+            case GEOJSON -> geoJsonImporter.importGeoJson(inputStream, user);
+            case GOOGLE_RECORDS -> googleRecordsImporter.importGoogleRecords(inputStream, user);
+            case GOOGLE_TIMELINE_ANDROID -> googleAndroidTimelineImporter.importTimeline(inputStream, user);
+            case GOOGLE_TIMELINE_IOS -> googleIOSTimelineImporter.importTimeline(inputStream, user);
+            // archives are read with random access, progress is only reported in points then
+            case GOOGLE_TAKEOUT -> googleTakeoutImporter.importTakeout(session.getFile(), user);
+        };
+    }
+
+    private void sendProgress(UploadSession session, ImportProgress.State state, long bytesParsed, long pointsBefore, String message) {
+        try {
+            userNotificationService.importProgress(session.getUser(), progress(session, state, bytesParsed, pointsBefore, message));
+        } catch (Exception e) {
+            logger.warn("Unable to send import progress for upload [{}]: {}", session.getId(), e.getMessage());
+        }
+    }
+
+    private ImportProgress progress(UploadSession session, ImportProgress.State state, long bytesParsed, long pointsBefore, String message) {
+        return new ImportProgress(session.getId(), session.getFilename(), state, bytesParsed, session.getSize(), queuedSince(session.getUser(), pointsBefore), message);
+    }
+
+    private long queuedSince(User user, long pointsBefore) {
+        return batchProcessor.getQueuedPoints(user.getUsername()) - pointsBefore;
+    }
+
+    private void remove(UploadSession session) {
+        sessions.remove(session.getId());
+        deleteQuietly(session.getFile());
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Unable to delete spooled upload [{}]", file, e);
+        }
+    }
+
+    private boolean isLeftOver(String filename) {
+        if (filename.endsWith(CHUNK_FILE_SUFFIX)) {
+            // chunks are deleted once appended, these are left behind by a restart during a request
+            return true;
+        }
+        return filename.endsWith(SPOOL_FILE_SUFFIX) && !sessions.containsKey(filename.replace(SPOOL_FILE_SUFFIX, ""));
+    }
+
+    private static boolean isOlderThan(Path file, Instant threshold) {
+        try {
+            return Files.getLastModifiedTime(file).toInstant().isBefore(threshold);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static ChunkedUploadException notFound(String uploadId) {
+        return new ChunkedUploadException(ChunkedUploadException.Reason.NOT_FOUND, 0, "Upload [" + uploadId + "] not found");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -2,14 +2,19 @@ package com.dedicatedcode.reitti.service.importer;
 
 import com.dedicatedcode.reitti.dto.LocationDataRequest;
 import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.service.ImportBackpressureException;
 import com.dedicatedcode.reitti.service.ImportBatchProcessor;
 import com.dedicatedcode.reitti.service.ImportStateHolder;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -32,60 +37,27 @@ public class GeoJsonImporter {
         this.batchProcessor = batchProcessor;
     }
     
+    /**
+     * Imports a GeoJSON document or a GeoJSON text sequence (one object per line, optionally prefixed with the
+     * record separator). The document is streamed, only a single feature is held in memory at any time unless the
+     * type of a FeatureCollection follows its features.
+     */
     public Map<String, Object> importGeoJson(InputStream inputStream, User user) {
         AtomicInteger processedCount = new AtomicInteger(0);
 
-        try {
-            stateHolder.importStarted();
-            JsonNode rootNode = objectMapper.readTree(inputStream);
-
-            // Check if it's a valid GeoJSON
-            if (!rootNode.has("type")) {
-                return Map.of("success", false, "error", "Invalid GeoJSON: missing 'type' field");
-            }
-
-            String type = rootNode.get("type").asText();
+        try (JsonParser parser = objectMapper.createParser(new RecordSeparatorSkippingInputStream(inputStream))) {
+            stateHolder.importStarted(user);
             List<LocationDataRequest.LocationPoint> batch = new ArrayList<>(batchProcessor.getBatchSize());
 
-            switch (type) {
-                case "FeatureCollection" -> {
-                    // Process FeatureCollection
-                    if (!rootNode.has("features")) {
-                        return Map.of("success", false, "error", "Invalid FeatureCollection: missing 'features' array");
-                    }
-
-                    JsonNode features = rootNode.get("features");
-                    for (JsonNode feature : features) {
-                        LocationDataRequest.LocationPoint point = convertGeoJsonFeature(feature);
-                        if (point != null) {
-                            batch.add(point);
-                            processedCount.incrementAndGet();
-
-                            if (batch.size() >= batchProcessor.getBatchSize()) {
-                                batchProcessor.sendToQueue(user, batch);
-                                batch.clear();
-                            }
-                        }
-                    }
-                }
-                case "Feature" -> {
-                    // Process single Feature
-                    LocationDataRequest.LocationPoint point = convertGeoJsonFeature(rootNode);
-                    if (point != null) {
-                        batch.add(point);
-                        processedCount.incrementAndGet();
-                    }
-                }
-                case "Point" -> {
-                    // Process single Point geometry
-                    LocationDataRequest.LocationPoint point = convertGeoJsonGeometry(rootNode, null);
-                    if (point != null) {
-                        batch.add(point);
-                        processedCount.incrementAndGet();
-                    }
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    return Map.of("success", false, "error", "Invalid GeoJSON: expected an object but found " + token);
                 }
-                case null, default -> {
-                    return Map.of("success", false, "error", "Unsupported GeoJSON type: " + type + ". Only FeatureCollection, Feature, and Point are supported.");
+
+                String error = importRootObject(parser, user, batch, processedCount);
+                if (error != null) {
+                    return Map.of("success", false, "error", error);
                 }
             }
 
@@ -103,11 +75,84 @@ public class GeoJsonImporter {
                     "pointsReceived", processedCount.get()
             );
 
-        } catch (IOException e) {
+        } catch (IOException | ImportBackpressureException e) {
             logger.error("Error processing GeoJSON file", e);
             return Map.of("success", false, "error", "Error processing GeoJSON file: " + e.getMessage());
         } finally {
-            stateHolder.importFinished();
+            stateHolder.importFinished(user);
+        }
+    }
+
+    /**
+     * Reads one top level object. Nothing is queued before its type is known to be supported: the features of a
+     * FeatureCollection are streamed into the batch once the type has been read, features appearing before the type
+     * are kept as converted points until the end of the object. Every other member is small and gets collected to
+     * decide what kind of object this is.
+     *
+     * @return an error message or null if the object could be imported
+     */
+    private String importRootObject(JsonParser parser, User user, List<LocationDataRequest.LocationPoint> batch, AtomicInteger processedCount) throws IOException {
+        ObjectNode rootNode = objectMapper.createObjectNode();
+        List<LocationDataRequest.LocationPoint> pending = new ArrayList<>();
+        boolean hasFeatures = false;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.currentName();
+            JsonToken valueToken = parser.nextToken();
+            if ("features".equals(fieldName) && valueToken == JsonToken.START_ARRAY) {
+                String type = rootNode.has("type") ? rootNode.get("type").asText() : null;
+                if (type != null && !"FeatureCollection".equals(type)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                hasFeatures = true;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    LocationDataRequest.LocationPoint point = convertGeoJsonFeature(parser.readValueAsTree());
+                    if (type != null) {
+                        addPoint(point, user, batch, processedCount);
+                    } else if (point != null) {
+                        pending.add(point);
+                    }
+                }
+            } else {
+                rootNode.set(fieldName, parser.readValueAsTree());
+            }
+        }
+
+        // Check if it's a valid GeoJSON
+        if (!rootNode.has("type")) {
+            return "Invalid GeoJSON: missing 'type' field";
+        }
+
+        String type = rootNode.get("type").asText();
+        switch (type) {
+            case "FeatureCollection" -> {
+                if (!hasFeatures) {
+                    return "Invalid FeatureCollection: missing 'features' array";
+                }
+                pending.forEach(point -> addPoint(point, user, batch, processedCount));
+            }
+            // Process single Feature
+            case "Feature" -> addPoint(convertGeoJsonFeature(rootNode), user, batch, processedCount);
+            // Process single Point geometry
+            case "Point" -> addPoint(convertGeoJsonGeometry(rootNode, null), user, batch, processedCount);
+            case null, default -> {
+                return "Unsupported GeoJSON type: " + type + ". Only FeatureCollection, Feature, and Point are supported.";
+            }
+        }
+        return null;
+    }
+
+    private void addPoint(LocationDataRequest.LocationPoint point, User user, List<LocationDataRequest.LocationPoint> batch, AtomicInteger processedCount) {
+        if (point == null) {
+            return;
+        }
+        batch.add(point);
+        processedCount.incrementAndGet();
+
+        if (batch.size() >= batchProcessor.getBatchSize()) {
+            batchProcessor.sendToQueue(user, batch);
+            batch.clear();
         }
     }
     
@@ -175,7 +220,7 @@ public class GeoJsonImporter {
         Double accuracy = null;
         String[] accuracyFields = {"accuracy", "acc", "precision", "hdop"};
         for (String field : accuracyFields) {
-            if (properties.has(field)) {
+            if (properties != null && properties.has(field)) {
                 accuracy = properties.get(field).asDouble();
                 break;
             }
@@ -185,4 +230,33 @@ public class GeoJsonImporter {
 
         return point;
     }
+
+    /**
+     * GeoJSON text sequences (RFC 8142) prefix every record with an ASCII record separator, which is not valid JSON.
+     * Replacing it with whitespace lets the parser read the records as consecutive root values.
+     */
+    private static class RecordSeparatorSkippingInputStream extends FilterInputStream {
+        private static final int RECORD_SEPARATOR = 0x1E;
+
+        private RecordSeparatorSkippingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            return b == RECORD_SEPARATOR ? ' ' : b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            for (int i = off; i < off + read; i++) {
+                if (b[i] == RECORD_SEPARATOR) {
+                    b[i] = ' ';
+                }
+            }
+            return read;
+        }
+    }
 }
@@ -2,25 +2,25 @@ package com.dedicatedcode.reitti.service.importer;
 
 import com.dedicatedcode.reitti.dto.LocationDataRequest;
 import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.service.ImportBackpressureException;
 import com.dedicatedcode.reitti.service.ImportBatchProcessor;
 import com.dedicatedcode.reitti.service.ImportStateHolder;
 import com.dedicatedcode.reitti.service.VisitDetectionParametersService;
-import com.dedicatedcode.reitti.service.importer.dto.GoogleTimelineData;
 import com.dedicatedcode.reitti.service.importer.dto.SemanticSegment;
 import com.dedicatedcode.reitti.service.importer.dto.TimelinePathPoint;
 import com.dedicatedcode.reitti.service.importer.dto.Visit;
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -36,66 +36,97 @@ public class GoogleAndroidTimelineImporter extends BaseGoogleTimelineImporter {
     public GoogleAndroidTimelineImporter(ObjectMapper objectMapper,
                                          ImportStateHolder stateHolder,
                                          ImportBatchProcessor batchProcessor,
+                                         ImportedVisitService importedVisitService,
                                          VisitDetectionParametersService visitDetectionParametersService) {
-        super(objectMapper, batchProcessor, visitDetectionParametersService);
+        super(objectMapper, batchProcessor, importedVisitService, visitDetectionParametersService);
         this.stateHolder = stateHolder;
     }
 
     public Map<String, Object> importTimeline(InputStream inputStream, User user) {
         AtomicInteger processedCount = new AtomicInteger(0);
         
-        try {
-            this.stateHolder.importStarted();
-            JsonFactory factory = objectMapper.getFactory();
-            JsonParser parser = factory.createParser(inputStream);
+        try (JsonParser parser = objectMapper.getFactory().createParser(inputStream)) {
+            this.stateHolder.importStarted(user);
             
             List<LocationDataRequest.LocationPoint> batch = new ArrayList<>(batchProcessor.getBatchSize());
+            ImportedVisitService.Batch visits = importedVisitService.batch(user);
 
-            GoogleTimelineData timelineData = objectMapper.readValue(parser, GoogleTimelineData.class);
-            List<SemanticSegment> semanticSegments = timelineData.getSemanticSegments();
-            logger.info("Found {} semantic segments", semanticSegments.size());
-            for (SemanticSegment semanticSegment : semanticSegments) {
-                ZonedDateTime start = ZonedDateTime.parse(semanticSegment.getStartTime(), DateTimeFormatter.ISO_OFFSET_DATE_TIME).withNano(0);
-                ZonedDateTime end = ZonedDateTime.parse(semanticSegment.getEndTime(), DateTimeFormatter.ISO_OFFSET_DATE_TIME).withNano(0);
-                if (semanticSegment.getVisit() != null) {
-                    Visit visit = semanticSegment.getVisit();
-                    Optional<LatLng> latLng = parseLatLng(visit.getTopCandidate().getPlaceLocation().getLatLng());
-                    if (latLng.isPresent()) {
-                        latLng.ifPresent(lng -> processedCount.addAndGet(handleVisit(user, start, end, lng, batch)));
-                    }
-                }
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return Map.of("success", false, "error", "Invalid Google Timeline file: expected a JSON object");
+            }
 
-                if (semanticSegment.getTimelinePath() != null) {
-                    List<TimelinePathPoint> timelinePath = semanticSegment.getTimelinePath();
-                    logger.info("Found timeline path from start [{}] to end [{}]. Will insert [{}] synthetic geo locations based on timeline path.", semanticSegment.getStartTime(), semanticSegment.getEndTime(), timelinePath.size());
-                    for (TimelinePathPoint timelinePathPoint : timelinePath) {
-                        parseLatLng(timelinePathPoint.getPoint()).ifPresent(location -> {
-                            createAndScheduleLocationPoint(location, ZonedDateTime.parse(timelinePathPoint.getTime(), DateTimeFormatter.ISO_OFFSET_DATE_TIME).withNano(0), user, batch);
-                            processedCount.incrementAndGet();
-                        });
+            // Only the segment currently processed is held in memory, everything besides semanticSegments is skipped
+            int segmentCount = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                JsonToken valueToken = parser.nextToken();
+                if ("semanticSegments".equals(fieldName) && valueToken == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        SemanticSegment segment = parser.readValueAs(SemanticSegment.class);
+                        try {
+                            handleSemanticSegment(segment, user, batch, visits, processedCount);
+                            segmentCount++;
+                        } catch (DateTimeParseException e) {
+                            logger.warn("Skipping malformed semantic segment starting at [{}]: {}", segment.getStartTime(), e.getMessage());
+                        }
                     }
+                } else {
+                    parser.skipChildren();
                 }
             }
+            logger.info("Processed {} semantic segments", segmentCount);
 
             // Process any remaining locations
             if (!batch.isEmpty()) {
                 batchProcessor.sendToQueue(user, batch);
             }
+            visits.flush();
             
-            logger.info("Successfully imported and queued {} location points from Google Timeline for user {}", 
-                    processedCount.get(), user.getUsername());
+            logger.info("Successfully imported and queued {} location points and {} visits from Google Timeline for user {}",
+                    processedCount.get(), visits.getCount(), user.getUsername());
             
             return Map.of(
                     "success", true,
-                    "message", "Successfully queued " + processedCount.get() + " location points for processing",
+                    "message", "Successfully queued " + processedCount.get() + " location points and " + visits.getCount() + " visits for processing",
                     "pointsReceived", processedCount.get()
             );
             
-        } catch (IOException e) {
+        } catch (IOException | ImportBackpressureException e) {
             logger.error("Error processing Google Timeline file", e);
             return Map.of("success", false, "error", "Error processing Google Timeline file: " + e.getMessage());
         } finally {
-            stateHolder.importFinished();
+            stateHolder.importFinished(user);
+        }
+    }
+
+    private void handleSemanticSegment(SemanticSegment semanticSegment, User user, List<LocationDataRequest.LocationPoint> batch, ImportedVisitService.Batch visits, AtomicInteger processedCount) {
+        if (semanticSegment.getStartTime() == null || semanticSegment.getEndTime() == null) {
+            logger.warn("Skipping semantic segment without start or end time");
+            return;
+        }
+        ZonedDateTime start = ZonedDateTime.parse(semanticSegment.getStartTime(), DateTimeFormatter.ISO_OFFSET_DATE_TIME).withNano(0);
+        ZonedDateTime end = ZonedDateTime.parse(semanticSegment.getEndTime(), DateTimeFormatter.ISO_OFFSET_DATE_TIME).withNano(0);
+        Visit visit = semanticSegment.getVisit();
+        if (visit != null && visit.getTopCandidate() != null && visit.getTopCandidate().getPlaceLocation() != null) {
+            Optional<LatLng> latLng = parseLatLng(visit.getTopCandidate().getPlaceLocation().getLatLng());
+            latLng.ifPresent(lng -> handleVisit(user, start, end, lng, visits));
+        }
+
+        if (semanticSegment.getTimelinePath() != null) {
+            List<TimelinePathPoint> timelinePath = semanticSegment.getTimelinePath();
+            logger.info("Found timeline path from start [{}] to end [{}]. Will insert [{}] geo locations based on timeline path.", semanticSegment.getStartTime(), semanticSegment.getEndTime(), timelinePath.size());
+            for (TimelinePathPoint timelinePathPoint : timelinePath) {
+                Optional<LatLng> location = parseLatLng(timelinePathPoint.getPoint());
+                if (location.isEmpty() || timelinePathPoint.getTime() == null) {
+                    continue;
+                }
+                try {
+                    createAndScheduleLocationPoint(location.get(), ZonedDateTime.parse(timelinePathPoint.getTime(), DateTimeFormatter.ISO_OFFSET_DATE_TIME).withNano(0), user, batch);
+                    processedCount.incrementAndGet();
+                } catch (DateTimeParseException e) {
+                    logger.warn("Skipping timeline path point with invalid time [{}]", timelinePathPoint.getTime());
+                }
+            }
         }
     }
 }
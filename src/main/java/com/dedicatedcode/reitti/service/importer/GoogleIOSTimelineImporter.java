@@ -2,24 +2,24 @@ package com.dedicatedcode.reitti.service.importer;
 
 import com.dedicatedcode.reitti.dto.LocationDataRequest;
 import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.service.ImportBackpressureException;
 import com.dedicatedcode.reitti.service.ImportBatchProcessor;
 import com.dedicatedcode.reitti.service.ImportStateHolder;
 import com.dedicatedcode.reitti.service.VisitDetectionParametersService;
 import com.dedicatedcode.reitti.service.importer.dto.ios.IOSSemanticSegment;
 import com.dedicatedcode.reitti.service.importer.dto.ios.IOSVisit;
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -34,68 +34,90 @@ public class GoogleIOSTimelineImporter extends BaseGoogleTimelineImporter {
     public GoogleIOSTimelineImporter(ObjectMapper objectMapper,
                                      ImportStateHolder stateHolder,
                                      ImportBatchProcessor batchProcessor,
+                                     ImportedVisitService importedVisitService,
                                      VisitDetectionParametersService parametersService) {
-        super(objectMapper, batchProcessor, parametersService);
+        super(objectMapper, batchProcessor, importedVisitService, parametersService);
         this.stateHolder = stateHolder;
     }
 
     public Map<String, Object> importTimeline(InputStream inputStream, User user) {
         AtomicInteger processedCount = new AtomicInteger(0);
 
-        try {
-            stateHolder.importStarted();
-            JsonFactory factory = objectMapper.getFactory();
-            JsonParser parser = factory.createParser(inputStream);
+        try (JsonParser parser = objectMapper.getFactory().createParser(inputStream)) {
+            stateHolder.importStarted(user);
 
             List<LocationDataRequest.LocationPoint> batch = new ArrayList<>(batchProcessor.getBatchSize());
+            ImportedVisitService.Batch visits = importedVisitService.batch(user);
 
-            List<IOSSemanticSegment> semanticSegments = objectMapper.readValue(parser, new TypeReference<>() {});
-            logger.info("Found {} semantic segments", semanticSegments.size());
-            for (IOSSemanticSegment semanticSegment : semanticSegments) {
-                //2024-01-01T00:33:18+01:00
-                //2024-01-01T00:33:18+01:00
-
-
-                ZonedDateTime start = ZonedDateTime.parse(semanticSegment.getStartTime(), DateTimeFormatter.ISO_OFFSET_DATE_TIME).withNano(0);
-                ZonedDateTime end = ZonedDateTime.parse(semanticSegment.getEndTime(), DateTimeFormatter.ISO_OFFSET_DATE_TIME).withNano(0);
-                if (semanticSegment.getVisit() != null) {
-                    IOSVisit visit = semanticSegment.getVisit();
-                    Optional<LatLng> latLng = parseLatLng(visit.getTopCandidate().getPlaceLocation());
-                    latLng.ifPresent(lng -> processedCount.addAndGet(handleVisit(user, start, end, lng, batch)));
-                }
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return Map.of("success", false, "error", "Invalid Google Timeline file: expected a JSON array");
+            }
 
-                if (semanticSegment.getTimelinePath() != null) {
-                    List<com.dedicatedcode.reitti.service.importer.dto.ios.TimelinePathPoint> timelinePath = semanticSegment.getTimelinePath();
-                    logger.info("Found timeline path from start [{}] to end [{}]. Will insert [{}] synthetic geo locations based on timeline path.", semanticSegment.getStartTime(), semanticSegment.getEndTime(), timelinePath.size());
-                    for (com.dedicatedcode.reitti.service.importer.dto.ios.TimelinePathPoint timelinePathPoint : timelinePath) {
-                        parseLatLng(timelinePathPoint.getPoint()).ifPresent(location -> {
-                            ZonedDateTime current = start.plusMinutes(Long.parseLong(timelinePathPoint.getDurationMinutesOffsetFromStartTime()));
-                            createAndScheduleLocationPoint(location, current, user, batch);
-                            processedCount.incrementAndGet();
-                        });
-                    }
+            // Only the segment currently processed is held in memory
+            int segmentCount = 0;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                IOSSemanticSegment segment = parser.readValueAs(IOSSemanticSegment.class);
+                try {
+                    handleSemanticSegment(segment, user, batch, visits, processedCount);
+                    segmentCount++;
+                } catch (DateTimeParseException e) {
+                    logger.warn("Skipping malformed semantic segment starting at [{}]: {}", segment.getStartTime(), e.getMessage());
                 }
             }
+            logger.info("Processed {} semantic segments", segmentCount);
 
             // Process any remaining locations
             if (!batch.isEmpty()) {
                 batchProcessor.sendToQueue(user, batch);
             }
+            visits.flush();
 
-            logger.info("Successfully imported and queued {} location points from Google Timeline for user {}",
-                    processedCount.get(), user.getUsername());
+            logger.info("Successfully imported and queued {} location points and {} visits from Google Timeline for user {}",
+                    processedCount.get(), visits.getCount(), user.getUsername());
 
             return Map.of(
                     "success", true,
-                    "message", "Successfully queued " + processedCount.get() + " location points for processing",
+                    "message", "Successfully queued " + processedCount.get() + " location points and " + visits.getCount() + " visits for processing",
                     "pointsReceived", processedCount.get()
             );
 
-        } catch (IOException e) {
+        } catch (IOException | ImportBackpressureException e) {
             logger.error("Error processing Google Timeline file", e);
             return Map.of("success", false, "error", "Error processing Google Timeline file: " + e.getMessage());
         } finally {
-            stateHolder.importFinished();
+            stateHolder.importFinished(user);
+        }
+    }
+
+    private void handleSemanticSegment(IOSSemanticSegment semanticSegment, User user, List<LocationDataRequest.LocationPoint> batch, ImportedVisitService.Batch visits, AtomicInteger processedCount) {
+        if (semanticSegment.getStartTime() == null || semanticSegment.getEndTime() == null) {
+            logger.warn("Skipping semantic segment without start or end time");
+            return;
+        }
+        ZonedDateTime start = ZonedDateTime.parse(semanticSegment.getStartTime(), DateTimeFormatter.ISO_OFFSET_DATE_TIME).withNano(0);
+        ZonedDateTime end = ZonedDateTime.parse(semanticSegment.getEndTime(), DateTimeFormatter.ISO_OFFSET_DATE_TIME).withNano(0);
+        IOSVisit visit = semanticSegment.getVisit();
+        if (visit != null && visit.getTopCandidate() != null) {
+            Optional<LatLng> latLng = parseLatLng(visit.getTopCandidate().getPlaceLocation());
+            latLng.ifPresent(lng -> handleVisit(user, start, end, lng, visits));
+        }
+
+        if (semanticSegment.getTimelinePath() != null) {
+            List<com.dedicatedcode.reitti.service.importer.dto.ios.TimelinePathPoint> timelinePath = semanticSegment.getTimelinePath();
+            logger.info("Found timeline path from start [{}] to end [{}]. Will insert [{}] geo locations based on timeline path.", semanticSegment.getStartTime(), semanticSegment.getEndTime(), timelinePath.size());
+            for (com.dedicatedcode.reitti.service.importer.dto.ios.TimelinePathPoint timelinePathPoint : timelinePath) {
+                Optional<LatLng> location = parseLatLng(timelinePathPoint.getPoint());
+                if (location.isEmpty() || timelinePathPoint.getDurationMinutesOffsetFromStartTime() == null) {
+                    continue;
+                }
+                try {
+                    ZonedDateTime current = start.plusMinutes(Long.parseLong(timelinePathPoint.getDurationMinutesOffsetFromStartTime().trim()));
+                    createAndScheduleLocationPoint(location.get(), current, user, batch);
+                    processedCount.incrementAndGet();
+                } catch (NumberFormatException e) {
+                    logger.warn("Skipping timeline path point with invalid offset [{}]", timelinePathPoint.getDurationMinutesOffsetFromStartTime());
+                }
+            }
         }
     }
 }
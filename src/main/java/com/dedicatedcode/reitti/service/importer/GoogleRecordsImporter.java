@@ -1,13 +1,12 @@
 package com.dedicatedcode.reitti.service.importer;
 
-import com.dedicatedcode.reitti.dto.LocationDataRequest;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
 import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.service.ImportBackpressureException;
 import com.dedicatedcode.reitti.service.ImportBatchProcessor;
 import com.dedicatedcode.reitti.service.ImportStateHolder;
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,8 +14,9 @@ import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -24,6 +24,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class GoogleRecordsImporter {
     
     private static final Logger logger = LoggerFactory.getLogger(GoogleRecordsImporter.class);
+    private static final double E7 = 10_000_000d;
+    private static final double DEFAULT_ACCURACY_METERS = 100.0;
     
     private final ObjectMapper objectMapper;
     private final ImportStateHolder stateHolder;
@@ -38,13 +40,10 @@ public class GoogleRecordsImporter {
     public Map<String, Object> importGoogleRecords(InputStream inputStream, User user) {
         AtomicInteger processedCount = new AtomicInteger(0);
         
-        try {
-            stateHolder.importStarted();
-            // Use Jackson's streaming API to process the file
-            JsonFactory factory = objectMapper.getFactory();
-            JsonParser parser = factory.createParser(inputStream);
-            
-            List<LocationDataRequest.LocationPoint> batch = new ArrayList<>(batchProcessor.getBatchSize());
+        // Use Jackson's streaming API to process the file
+        try (JsonParser parser = objectMapper.getFactory().createParser(inputStream)) {
+            stateHolder.importStarted(user);
+
             boolean foundData = false;
             
             // Look for "locations" array (old Records.json format)
@@ -54,7 +53,7 @@ public class GoogleRecordsImporter {
                     
                     if ("locations".equals(fieldName)) {
                         foundData = true;
-                        processedCount.addAndGet(processLocationsArray(parser, batch, user));
+                        processedCount.addAndGet(processLocationsArray(parser, user));
                         break;
                     }
                 }
@@ -64,11 +63,6 @@ public class GoogleRecordsImporter {
                 return Map.of("success", false, "error", "Invalid format: 'locations' array not found in Records.json");
             }
             
-            // Process any remaining locations
-            if (!batch.isEmpty()) {
-                batchProcessor.sendToQueue(user, batch);
-            }
-            
             logger.info("Successfully imported and queued {} location points from Google Records for user {}", 
                     processedCount.get(), user.getUsername());
             
@@ -78,18 +72,18 @@ public class GoogleRecordsImporter {
                     "pointsReceived", processedCount.get()
             );
             
-        } catch (IOException e) {
+        } catch (IOException | ImportBackpressureException e) {
             logger.error("Error processing Google Records file", e);
             return Map.of("success", false, "error", "Error processing Google Records file: " + e.getMessage());
         } finally {
-            stateHolder.importFinished();
+            stateHolder.importFinished(user);
         }
     }
     
     /**
      * Processes the Records.json format with "locations" array
      */
-    private int processLocationsArray(JsonParser parser, List<LocationDataRequest.LocationPoint> batch, User user) throws IOException {
+    private int processLocationsArray(JsonParser parser, User user) throws IOException {
         int processedCount = 0;
         
         // Move to the array
@@ -99,61 +93,93 @@ public class GoogleRecordsImporter {
             throw new IOException("Invalid format: 'locations' is not an array");
         }
         
+        int batchSize = batchProcessor.getBatchSize();
+        PointBatch.Builder batch = PointBatch.builder(batchSize);
         // Process each location in the array
         while (parser.nextToken() != JsonToken.END_ARRAY) {
             if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
-                // Parse the location object
-                JsonNode locationNode = objectMapper.readTree(parser);
-                
-                try {
-                    LocationDataRequest.LocationPoint point = convertGoogleRecordsLocation(locationNode);
-                    if (point != null) {
-                        batch.add(point);
-                        processedCount++;
+                if (readLocation(parser, batch)) {
+                    processedCount++;
 
-                        if (batch.size() >= batchProcessor.getBatchSize()) {
-                            batchProcessor.sendToQueue(user, batch);
-                            batch.clear();
-                        }
+                    if (batch.size() >= batchSize) {
+                        batchProcessor.sendToQueue(user, batch.build());
+                        batch = PointBatch.builder(batchSize);
                     }
-                } catch (Exception e) {
-                    logger.warn("Error processing location entry: {}", e.getMessage());
                 }
+            } else {
+                parser.skipChildren();
             }
         }
-        
+
+        // Process any remaining locations
+        if (batch.size() > 0) {
+            batchProcessor.sendToQueue(user, batch.build());
+        }
         return processedCount;
     }
     
     /**
-     * Converts a Google Records location entry to our LocationPoint format
+     * Reads a single location entry straight off the token stream into the given batch. The parser has to be
+     * positioned on the START_OBJECT of the entry and is left on its END_OBJECT. Fields we do not need, like the
+     * nested activity arrays, are skipped without being materialized.
+     *
+     * @return true if the entry had coordinates and a usable timestamp and was added to the batch
      */
-    private LocationDataRequest.LocationPoint convertGoogleRecordsLocation(JsonNode locationNode) {
-        // Check if we have the required fields
-        if (!locationNode.has("latitudeE7") ||
-                !locationNode.has("longitudeE7") ||
-                !locationNode.has("timestamp")) {
-            return null;
-        }
-
-        LocationDataRequest.LocationPoint point = new LocationDataRequest.LocationPoint();
-
-        // Convert latitudeE7 and longitudeE7 to standard decimal format
-        // Google stores these as integers with 7 decimal places of precision
-        double latitude = locationNode.get("latitudeE7").asDouble() / 10000000.0;
-        double longitude = locationNode.get("longitudeE7").asDouble() / 10000000.0;
-
-        point.setLatitude(latitude);
-        point.setLongitude(longitude);
-        point.setTimestamp(locationNode.get("timestamp").asText());
+    static boolean readLocation(JsonParser parser, PointBatch.Builder batch) throws IOException {
+        long latitudeE7 = 0;
+        long longitudeE7 = 0;
+        boolean hasLatitude = false;
+        boolean hasLongitude = false;
+        double accuracy = DEFAULT_ACCURACY_METERS;
+        long timestamp = 0;
+        boolean hasTimestamp = false;
 
-        // Set accuracy if available
-        if (locationNode.has("accuracy")) {
-            point.setAccuracyMeters(locationNode.get("accuracy").asDouble());
-        } else {
-            point.setAccuracyMeters(100.0);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (fieldName) {
+                case "latitudeE7" -> {
+                    hasLatitude = value.isNumeric();
+                    latitudeE7 = parser.getValueAsLong();
+                }
+                case "longitudeE7" -> {
+                    hasLongitude = value.isNumeric();
+                    longitudeE7 = parser.getValueAsLong();
+                }
+                case "accuracy" -> {
+                    if (value.isNumeric()) {
+                        accuracy = parser.getDoubleValue();
+                    }
+                }
+                case "timestamp" -> {
+                    if (value == JsonToken.VALUE_STRING) {
+                        try {
+                            timestamp = DateTimeFormatter.ISO_OFFSET_DATE_TIME.parse(parser.getText(), Instant::from).toEpochMilli();
+                            hasTimestamp = true;
+                        } catch (DateTimeParseException e) {
+                            logger.warn("Error processing location entry: {}", e.getMessage());
+                        }
+                    }
+                }
+                case "timestampMs" -> {
+                    // older exports store the epoch millis as a string, prefer the ISO timestamp if both are present
+                    if (!hasTimestamp) {
+                        long millis = parser.getValueAsLong(Long.MIN_VALUE);
+                        if (millis != Long.MIN_VALUE) {
+                            timestamp = millis;
+                            hasTimestamp = true;
+                        }
+                    }
+                }
+                default -> parser.skipChildren();
+            }
         }
 
-        return point;
+        if (!hasLatitude || !hasLongitude || !hasTimestamp) {
+            return false;
+        }
+        // Google stores the coordinates as integers with 7 decimal places of precision
+        batch.add(timestamp, latitudeE7 / E7, longitudeE7 / E7, accuracy);
+        return true;
     }
 }
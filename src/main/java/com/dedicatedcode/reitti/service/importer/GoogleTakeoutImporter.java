@@ -0,0 +1,196 @@
+package com.dedicatedcode.reitti.service.importer;
+
+import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.service.ImportBatchProcessor;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Imports a complete Google Takeout archive. The archive is opened with random access and every JSON entry is
+ * handed to the importer matching its content on a bounded worker pool, so several files are parsed at the same
+ * time. All importers publish through the shared {@link ImportBatchProcessor}, which throttles them together
+ * against the location data queue.
+ */
+@Component
+public class GoogleTakeoutImporter {
+    private static final Logger logger = LoggerFactory.getLogger(GoogleTakeoutImporter.class);
+
+    private final ObjectMapper objectMapper;
+    private final GoogleRecordsImporter googleRecordsImporter;
+    private final GoogleAndroidTimelineImporter googleAndroidTimelineImporter;
+    private final GoogleIOSTimelineImporter googleIOSTimelineImporter;
+    private final ImportBatchProcessor batchProcessor;
+    private final ExecutorService workers;
+
+    public GoogleTakeoutImporter(ObjectMapper objectMapper,
+                                 GoogleRecordsImporter googleRecordsImporter,
+                                 GoogleAndroidTimelineImporter googleAndroidTimelineImporter,
+                                 GoogleIOSTimelineImporter googleIOSTimelineImporter,
+                                 ImportBatchProcessor batchProcessor,
+                                 @Value("${reitti.import.takeout.parallelism:0}") int parallelism) {
+        this.objectMapper = objectMapper;
+        this.googleRecordsImporter = googleRecordsImporter;
+        this.googleAndroidTimelineImporter = googleAndroidTimelineImporter;
+        this.googleIOSTimelineImporter = googleIOSTimelineImporter;
+        this.batchProcessor = batchProcessor;
+        int threads = parallelism > 0 ? parallelism : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        this.workers = Executors.newFixedThreadPool(threads);
+    }
+
+    public Map<String, Object> importTakeout(Path archive, User user) {
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            List<String> names = new ArrayList<>();
+            List<Future<Map<String, Object>>> results = new ArrayList<>();
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().toLowerCase().endsWith(".json")) {
+                    continue;
+                }
+                names.add(entry.getName());
+                results.add(workers.submit(batchProcessor.withCurrentRedirect(() -> importEntry(zipFile, entry, user))));
+            }
+
+            int processed = 0;
+            int imported = 0;
+            List<String> errors = new ArrayList<>();
+            for (int i = 0; i < results.size(); i++) {
+                Map<String, Object> result;
+                try {
+                    result = await(results.get(i));
+                } catch (IOException e) {
+                    // the archive gets closed below, so none of the remaining entries can be read anymore
+                    results.forEach(future -> future.cancel(true));
+                    throw e;
+                }
+                if (result == null) {
+                    continue;
+                }
+                if (Boolean.TRUE.equals(result.get("success"))) {
+                    processed += (Integer) result.get("pointsReceived");
+                    imported++;
+                } else {
+                    errors.add(names.get(i) + ": " + result.get("error"));
+                }
+            }
+
+            logger.info("Imported [{}] files of Google Takeout archive with [{}] location points for user [{}], [{}] files failed",
+                    imported, processed, user.getUsername(), errors.size());
+            if (imported == 0) {
+                String error = errors.isEmpty() ? "No location history found in archive" : String.join(". ", errors);
+                return Map.of("success", false, "error", error);
+            }
+            String message = "Successfully queued " + processed + " location points from " + imported + " file(s) for processing";
+            if (!errors.isEmpty()) {
+                message += ". Errors: " + String.join(". ", errors);
+            }
+            return Map.of(
+                    "success", true,
+                    "message", message,
+                    "pointsReceived", processed
+            );
+        } catch (IOException e) {
+            logger.error("Error processing Google Takeout archive", e);
+            return Map.of("success", false, "error", "Error processing Google Takeout archive: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * @return the result of the matching importer or null if the entry holds no supported location history
+     */
+    private Map<String, Object> importEntry(ZipFile zipFile, ZipEntry entry, User user) throws IOException {
+        ImportFormat format;
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            format = detectFormat(in);
+        }
+        if (format == null) {
+            logger.debug("Skipping [{}] in Google Takeout archive, no supported location history", entry.getName());
+            return null;
+        }
+
+        logger.info("Importing [{}] from Google Takeout archive as [{}]", entry.getName(), format);
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            return switch (format) {
+                case GOOGLE_RECORDS -> googleRecordsImporter.importGoogleRecords(in, user);
+                case GOOGLE_TIMELINE_ANDROID -> googleAndroidTimelineImporter.importTimeline(in, user);
+                case GOOGLE_TIMELINE_IOS -> googleIOSTimelineImporter.importTimeline(in, user);
+                default -> null;
+            };
+        }
+    }
+
+    /**
+     * Looks at the root of the document: Records.json has a "locations" member, the Android export
+     * "semanticSegments" and the iOS export is an array of segments. Anything else, like the monthly
+     * Semantic Location History files, is not supported.
+     */
+    ImportFormat detectFormat(InputStream in) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            JsonToken root = parser.nextToken();
+            if (root == JsonToken.START_ARRAY) {
+                JsonToken first = parser.nextToken();
+                if (first != JsonToken.START_OBJECT) {
+                    return null;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.currentName();
+                    if ("visit".equals(name) || "activity".equals(name) || "timelinePath".equals(name)) {
+                        return ImportFormat.GOOGLE_TIMELINE_IOS;
+                    }
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+                return null;
+            }
+            if (root != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                if ("locations".equals(name)) {
+                    return ImportFormat.GOOGLE_RECORDS;
+                }
+                if ("semanticSegments".equals(name)) {
+                    return ImportFormat.GOOGLE_TIMELINE_ANDROID;
+                }
+                parser.nextToken();
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+
+    private static Map<String, Object> await(Future<Map<String, Object>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while importing archive", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            return Map.of("success", false, "error", cause != null ? cause.getMessage() : e.getMessage());
+        }
+    }
+}
@@ -8,22 +8,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 public class GpxImporter {
     
     private static final Logger logger = LoggerFactory.getLogger(GpxImporter.class);
+    private static final Set<String> POINT_ELEMENTS = Set.of("trkpt", "rtept", "wpt");
+    private static final double DEFAULT_ACCURACY_METERS = 10.0;
 
     private final ImportStateHolder stateHolder;
     private final ImportBatchProcessor batchProcessor;
@@ -35,27 +37,22 @@ public class GpxImporter {
     
     public Map<String, Object> importGpx(InputStream inputStream, User user) {
         AtomicInteger processedCount = new AtomicInteger(0);
+        XMLStreamReader reader = null;
         
         try {
-            stateHolder.importStarted();
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(inputStream);
-            
-            // Normalize the XML structure
-            document.getDocumentElement().normalize();
-            
-            // Get all track points (trkpt) from the GPX file
-            NodeList trackPoints = document.getElementsByTagName("trkpt");
+            stateHolder.importStarted(user);
+            reader = createReader(inputStream);
             
             List<LocationDataRequest.LocationPoint> batch = new ArrayList<>(batchProcessor.getBatchSize());
             
-            // Process each track point
-            for (int i = 0; i < trackPoints.getLength(); i++) {
-                Element trackPoint = (Element) trackPoints.item(i);
+            // Stream through the document, only the point currently read is kept in memory
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT || !POINT_ELEMENTS.contains(reader.getLocalName())) {
+                    continue;
+                }
                 
                 try {
-                    LocationDataRequest.LocationPoint point = convertGpxTrackPoint(trackPoint);
+                    LocationDataRequest.LocationPoint point = readPoint(reader);
                     if (point != null) {
                         batch.add(point);
                         processedCount.incrementAndGet();
@@ -66,7 +63,7 @@ public class GpxImporter {
                             batch.clear();
                         }
                     }
-                } catch (Exception e) {
+                } catch (NumberFormatException e) {
                     logger.warn("Error processing GPX track point: {}", e.getMessage());
                     // Continue with next point
                 }
@@ -90,44 +87,74 @@ public class GpxImporter {
             logger.error("Error processing GPX file", e);
             return Map.of("success", false, "error", "Error processing GPX file: " + e.getMessage());
         } finally {
-            stateHolder.importFinished();
+            closeQuietly(reader);
+            stateHolder.importFinished(user);
         }
     }
-    
+
+    private static XMLStreamReader createReader(InputStream inputStream) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory.createXMLStreamReader(inputStream);
+    }
+
     /**
-     * Converts a GPX track point to our LocationPoint format
+     * Reads a trkpt, rtept or wpt element the reader is positioned on and leaves the reader at its end element.
      */
-    private LocationDataRequest.LocationPoint convertGpxTrackPoint(Element trackPoint) {
+    private LocationDataRequest.LocationPoint readPoint(XMLStreamReader reader) throws XMLStreamException {
+        String elementName = reader.getLocalName();
+        String lat = reader.getAttributeValue(null, "lat");
+        String lon = reader.getAttributeValue(null, "lon");
+        String time = null;
+        Double accuracy = null;
+
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    // getElementText consumes the end element, so the depth stays the same
+                    case "time" -> time = reader.getElementText();
+                    case "accuracy" -> accuracy = parseAccuracy(reader.getElementText());
+                    default -> depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+
         // Check if we have the required attributes
-        if (!trackPoint.hasAttribute("lat") || !trackPoint.hasAttribute("lon")) {
+        if (!StringUtils.hasText(lat) || !StringUtils.hasText(lon) || !StringUtils.hasText(time)) {
+            logger.debug("Skipping {} without coordinates or time", elementName);
             return null;
         }
-        
+
         LocationDataRequest.LocationPoint point = new LocationDataRequest.LocationPoint();
-        
-        // Get latitude and longitude
-        double latitude = Double.parseDouble(trackPoint.getAttribute("lat"));
-        double longitude = Double.parseDouble(trackPoint.getAttribute("lon"));
-        
-        point.setLatitude(latitude);
-        point.setLongitude(longitude);
-        
-        // Get timestamp from the time element
-        NodeList timeElements = trackPoint.getElementsByTagName("time");
-        if (timeElements.getLength() > 0) {
-            String timeStr = timeElements.item(0).getTextContent();
-            if (StringUtils.hasText(timeStr)) {
-                point.setTimestamp(timeStr);
-            } else {
-                return null;
-            }
-        } else {
+        point.setLatitude(Double.parseDouble(lat));
+        point.setLongitude(Double.parseDouble(lon));
+        point.setTimestamp(time.trim());
+        // GPX doesn't typically include accuracy, only our own export writes it as an extension
+        point.setAccuracyMeters(accuracy != null ? accuracy : DEFAULT_ACCURACY_METERS);
+        return point;
+    }
+
+    private static Double parseAccuracy(String value) {
+        try {
+            return StringUtils.hasText(value) ? Double.parseDouble(value.trim()) : null;
+        } catch (NumberFormatException e) {
             return null;
         }
-        
-        // Set accuracy - GPX doesn't typically include accuracy, so use a default
-        point.setAccuracyMeters(10.0); // Default accuracy of 10 meters
-        
-        return point;
+    }
+
+    private static void closeQuietly(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                logger.debug("Unable to close GPX reader", e);
+            }
+        }
     }
 }
@@ -0,0 +1,10 @@
+package com.dedicatedcode.reitti.service.importer;
+
+public enum ImportFormat {
+    GPX,
+    GEOJSON,
+    GOOGLE_RECORDS,
+    GOOGLE_TIMELINE_ANDROID,
+    GOOGLE_TIMELINE_IOS,
+    GOOGLE_TAKEOUT
+}
@@ -0,0 +1,130 @@
+package com.dedicatedcode.reitti.service.importer;
+
+import com.dedicatedcode.reitti.config.RabbitMQConfig;
+import com.dedicatedcode.reitti.config.VisitMergeShardRouter;
+import com.dedicatedcode.reitti.event.VisitUpdatedEvent;
+import com.dedicatedcode.reitti.model.geo.Visit;
+import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.repository.VisitJdbcService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores stays which an import already knows about (e.g. the visits of a Google Timeline export) directly as visits
+ * and hands them to the visit merging stage. Nothing has to be detected for them, so no location points have to be
+ * fabricated for the time spent there.
+ */
+@Service
+public class ImportedVisitService {
+    private static final Logger logger = LoggerFactory.getLogger(ImportedVisitService.class);
+
+    private final VisitJdbcService visitJdbcService;
+    private final RabbitTemplate rabbitTemplate;
+    private final VisitMergeShardRouter visitMergeShardRouter;
+    private final int batchSize;
+
+    public ImportedVisitService(VisitJdbcService visitJdbcService,
+                                RabbitTemplate rabbitTemplate,
+                                VisitMergeShardRouter visitMergeShardRouter,
+                                @Value("${reitti.import.visits.batch-size:500}") int batchSize) {
+        this.visitJdbcService = visitJdbcService;
+        this.rabbitTemplate = rabbitTemplate;
+        this.visitMergeShardRouter = visitMergeShardRouter;
+        this.batchSize = batchSize;
+    }
+
+    public Batch batch(User user) {
+        return new Batch(user);
+    }
+
+    /**
+     * Sends all imported visits of the user to the merging stage again, needed after the processed visits have been
+     * cleared for a recalculation, since visit detection will not recreate them.
+     */
+    public void reprocess(User user) {
+        reprocess(user, visitJdbcService.findImportedIdsByUser(user));
+    }
+
+    /**
+     * Same as {@link #reprocess(User)}, limited to the imported visits overlapping the cleared range.
+     */
+    public void reprocessBetween(User user, Instant start, Instant end) {
+        reprocess(user, visitJdbcService.findImportedIdsByUserBetween(user, start, end));
+    }
+
+    /**
+     * Same as {@link #reprocess(User)}, limited to the imported visits ending at or after the given instant.
+     */
+    public void reprocessAfter(User user, Instant start) {
+        reprocess(user, visitJdbcService.findImportedIdsByUserAfter(user, start));
+    }
+
+    private void reprocess(User user, List<Long> ids) {
+        for (int i = 0; i < ids.size(); i += batchSize) {
+            publish(user, ids.subList(i, Math.min(ids.size(), i + batchSize)));
+        }
+        logger.debug("Scheduled [{}] imported visits of user [{}] for merging", ids.size(), user.getUsername());
+    }
+
+    private void store(User user, List<Visit> visits) {
+        List<Long> createdIds = visitJdbcService.bulkInsertImported(user, visits).stream().map(Visit::getId).toList();
+        logger.debug("Stored [{}] of [{}] imported visits for user [{}]", createdIds.size(), visits.size(), user.getUsername());
+        if (!createdIds.isEmpty()) {
+            publish(user, createdIds);
+        }
+    }
+
+    private void publish(User user, List<Long> visitIds) {
+        rabbitTemplate.convertAndSend(RabbitMQConfig.EXCHANGE_NAME, visitMergeShardRouter.routingKeyFor(user.getUsername()),
+                new VisitUpdatedEvent(user.getUsername(), new ArrayList<>(visitIds), null));
+    }
+
+    /**
+     * Collects the visits of one import, expects them in chronological order. Not thread safe.
+     */
+    public class Batch {
+        private final User user;
+        private List<Visit> pending = new ArrayList<>(batchSize);
+        private Visit last;
+        private int count;
+
+        private Batch(User user) {
+            this.user = user;
+        }
+
+        /**
+         * @return false if the visit was dropped because it lies within the previous one
+         */
+        public boolean add(double latitude, double longitude, Instant start, Instant end) {
+            if (last != null && !start.isBefore(last.getStartTime()) && !end.isAfter(last.getEndTime())) {
+                return false;
+            }
+            last = new Visit(longitude, latitude, start, end, end.getEpochSecond() - start.getEpochSecond(), false);
+            pending.add(last);
+            count++;
+            if (pending.size() >= batchSize) {
+                flush();
+            }
+            return true;
+        }
+
+        public void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            store(user, pending);
+            pending = new ArrayList<>(batchSize);
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
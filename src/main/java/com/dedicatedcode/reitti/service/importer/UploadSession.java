@@ -0,0 +1,90 @@
+package com.dedicatedcode.reitti.service.importer;
+
+import com.dedicatedcode.reitti.model.security.User;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+public class UploadSession {
+    public enum State {
+        UPLOADING,
+        IMPORTING,
+        COMPLETED,
+        FAILED
+    }
+
+    private final String id;
+    private final User user;
+    private final String filename;
+    private final ImportFormat format;
+    private final long size;
+    private final Path file;
+    private final boolean bulk;
+    private volatile long offset;
+    private volatile State state = State.UPLOADING;
+    private volatile Instant lastActivity;
+
+    public UploadSession(String id, User user, String filename, ImportFormat format, long size, Path file, boolean bulk) {
+        this.id = id;
+        this.user = user;
+        this.filename = filename;
+        this.format = format;
+        this.size = size;
+        this.file = file;
+        this.bulk = bulk;
+        this.lastActivity = Instant.now();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public ImportFormat getFormat() {
+        return format;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Whether the points are written straight to the database instead of being queued.
+     */
+    public boolean isBulk() {
+        return bulk;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Instant getLastActivity() {
+        return lastActivity;
+    }
+
+    void advance(long bytes) {
+        this.offset += bytes;
+        this.lastActivity = Instant.now();
+    }
+
+    void setState(State state) {
+        this.state = state;
+        this.lastActivity = Instant.now();
+    }
+}
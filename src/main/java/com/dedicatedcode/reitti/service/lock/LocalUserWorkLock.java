@@ -0,0 +1,66 @@
+package com.dedicatedcode.reitti.service.lock;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock for a single instance. A lock is dropped as soon as nobody holds or waits for it anymore, so the map only
+ * contains the users currently being processed.
+ */
+public class LocalUserWorkLock implements UserWorkLock {
+    private final Map<String, Entry> locks = new ConcurrentHashMap<>();
+    private final Duration acquireTimeout;
+
+    public LocalUserWorkLock(Duration acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    @Override
+    public Lease acquire(String work, String username) {
+        String key = UserWorkLock.key(work, username);
+        Entry entry = locks.compute(key, (_, existing) -> {
+            Entry result = existing != null ? existing : new Entry();
+            result.users++;
+            return result;
+        });
+        boolean locked = false;
+        try {
+            locked = entry.lock.tryLock(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!locked) {
+                release(key, entry);
+            }
+        }
+        if (!locked) {
+            throw new UserWorkLockException("Unable to acquire lock [" + key + "] within " + acquireTimeout);
+        }
+        return () -> {
+            entry.lock.unlock();
+            release(key, entry);
+        };
+    }
+
+    int size() {
+        return locks.size();
+    }
+
+    private void release(String key, Entry entry) {
+        locks.computeIfPresent(key, (_, existing) -> {
+            if (existing != entry) {
+                return existing;
+            }
+            return --existing.users == 0 ? null : existing;
+        });
+    }
+
+    private static class Entry {
+        private final ReentrantLock lock = new ReentrantLock();
+        // guarded by the map entry, only modified inside compute
+        private int users;
+    }
+}
@@ -0,0 +1,99 @@
+package com.dedicatedcode.reitti.service.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+
+/**
+ * Cluster wide lock based on PostgreSQL session level advisory locks. Every lease keeps its own connection until it
+ * is closed, so the locks are taken on a small pool of their own instead of the one the work itself runs on. A full
+ * lock pool then only delays acquiring, bounded by the acquire timeout, and never starves the work transactions of
+ * connections. If an instance dies, its connections are closed and the database releases the locks, there is nothing
+ * to evict.
+ */
+public class PostgresUserWorkLock implements UserWorkLock, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(PostgresUserWorkLock.class);
+    private static final long RETRY_INTERVAL_MS = 50;
+
+    private final DataSource dataSource;
+    private final Duration acquireTimeout;
+
+    public PostgresUserWorkLock(DataSource dataSource, Duration acquireTimeout) {
+        this.dataSource = dataSource;
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    @Override
+    public Lease acquire(String work, String username) {
+        String key = UserWorkLock.key(work, username);
+        long deadline = System.nanoTime() + acquireTimeout.toNanos();
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(true);
+            while (!tryLock(connection, key)) {
+                if (System.nanoTime() > deadline) {
+                    throw new UserWorkLockException("Unable to acquire lock [" + key + "] within " + acquireTimeout);
+                }
+                Thread.sleep(RETRY_INTERVAL_MS);
+            }
+            Connection lockConnection = connection;
+            connection = null;
+            return () -> unlock(lockConnection, key);
+        } catch (SQLException e) {
+            throw new UserWorkLockException("Unable to acquire lock [" + key + "]", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UserWorkLockException("Interrupted while waiting for lock [" + key + "]", e);
+        } finally {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Closes the pool the locks are taken on.
+     */
+    @Override
+    public void close() throws Exception {
+        if (dataSource instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    private static boolean tryLock(Connection connection, String key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_try_advisory_lock(hashtextextended(?, 0))")) {
+            statement.setString(1, key);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private static void unlock(Connection connection, String key) {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_unlock(hashtextextended(?, 0))")) {
+            statement.setString(1, key);
+            statement.execute();
+        } catch (SQLException e) {
+            log.warn("Unable to release lock [{}], it will be released with its connection", key, e);
+        } finally {
+            closeQuietly(connection);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.warn("Unable to close lock connection", e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.dedicatedcode.reitti.service.lock;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Cluster wide lock kept in Redis. Each lease expires after the lease timeout, so a lock held by a crashed instance
+ * frees itself and idle locks never pile up. The lease timeout therefore has to be longer than a single detection
+ * run for a user can take.
+ */
+public class RedisUserWorkLock implements UserWorkLock {
+    private static final long RETRY_INTERVAL_MS = 50;
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end", Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final Duration acquireTimeout;
+    private final Duration leaseTimeout;
+
+    public RedisUserWorkLock(StringRedisTemplate redisTemplate, Duration acquireTimeout, Duration leaseTimeout) {
+        this.redisTemplate = redisTemplate;
+        this.acquireTimeout = acquireTimeout;
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    @Override
+    public Lease acquire(String work, String username) {
+        String key = UserWorkLock.key(work, username);
+        String token = UUID.randomUUID().toString();
+        long deadline = System.nanoTime() + acquireTimeout.toNanos();
+        while (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, token, leaseTimeout))) {
+            if (System.nanoTime() > deadline) {
+                throw new UserWorkLockException("Unable to acquire lock [" + key + "] within " + acquireTimeout);
+            }
+            try {
+                Thread.sleep(RETRY_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UserWorkLockException("Interrupted while waiting for lock [" + key + "]", e);
+            }
+        }
+        // only delete the key if the lease did not expire and got taken over by someone else meanwhile
+        return () -> redisTemplate.execute(RELEASE_SCRIPT, List.of(key), token);
+    }
+}
@@ -0,0 +1,25 @@
+package com.dedicatedcode.reitti.service.lock;
+
+/**
+ * Serializes the processing work done for one user, e.g. rewriting the visits of a time window. Depending on
+ * reitti.processing.lock.type the lock only covers this instance (local) or every instance sharing the database
+ * (postgres) or the Redis server (redis).
+ */
+public interface UserWorkLock {
+
+    /**
+     * Waits until the lock for the given kind of work and user is free, at most for the configured acquire timeout.
+     *
+     * @throws UserWorkLockException if the lock could not be acquired in time
+     */
+    Lease acquire(String work, String username);
+
+    interface Lease extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    static String key(String work, String username) {
+        return "reitti:lock:" + work + ":" + username;
+    }
+}
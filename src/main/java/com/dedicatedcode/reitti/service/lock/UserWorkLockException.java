@@ -0,0 +1,11 @@
+package com.dedicatedcode.reitti.service.lock;
+
+public class UserWorkLockException extends RuntimeException {
+    public UserWorkLockException(String message) {
+        super(message);
+    }
+
+    public UserWorkLockException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
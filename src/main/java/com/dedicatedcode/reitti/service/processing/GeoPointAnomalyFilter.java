@@ -2,230 +2,278 @@ package com.dedicatedcode.reitti.service.processing;
 
 import com.dedicatedcode.reitti.dto.LocationDataRequest;
 import com.dedicatedcode.reitti.model.geo.GeoUtils;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.time.Instant;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
-
+import java.util.Map;
+
+/**
+ * Filters anomalous points in a single pass. The filter slides over the points and compares every point with the
+ * last accepted ones. Those are remembered per user, so a file which got split into several batches is filtered
+ * the same way as if it was processed as a whole.
+ * <p>
+ * The last accepted points only count for points up to reitti.geo-point-filter.max-gap-seconds later, after that the
+ * tail has expired and the next point starts a new one. Several rejected points in a row which agree with each other
+ * are taken as a relocation, e.g. after the tracking was switched off during a ride, and start a new tail as well.
+ */
 @Service
 public class GeoPointAnomalyFilter {
     private static final Logger logger = LoggerFactory.getLogger(GeoPointAnomalyFilter.class);
     private final GeoPointAnomalyFilterConfig config;
+    private final Map<String, Tail> tails;
 
     public GeoPointAnomalyFilter(GeoPointAnomalyFilterConfig config) {
         this.config = config;
+        this.tails = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Tail> eldest) {
+                return size() > config.maxTrackedUsers;
+            }
+        });
     }
 
-    /**
-     * Main filtering method that removes anomalous geopoints
-     */
     public List<LocationDataRequest.LocationPoint> filterAnomalies(List<LocationDataRequest.LocationPoint> points) {
         if (points == null || points.isEmpty()) {
             return new ArrayList<>();
         }
-
-        Set<LocationDataRequest.LocationPoint> detectedAnomalies = new HashSet<>();
-
-        // Apply multiple detection methods
-        detectedAnomalies.addAll(detectAccuracyAnomalies(points));
-        detectedAnomalies.addAll(detectSpeedAnomalies(points));
-        detectedAnomalies.addAll(detectDistanceJumpAnomalies(points));
-        detectedAnomalies.addAll(detectDirectionAnomalies(points));
-
-        // Filter out anomalies
-        return points.stream()
-                .filter(point -> !detectedAnomalies.contains(point))
-                .collect(Collectors.toList());
+        return filterAnomalies(PointBatch.of(points)).toLocationPoints();
     }
 
     /**
-     * Detect points with poor accuracy
+     * Filters the batch without taking previously seen points into account
      */
-    private Set<LocationDataRequest.LocationPoint> detectAccuracyAnomalies(List<LocationDataRequest.LocationPoint> points) {
-        Set<LocationDataRequest.LocationPoint> anomalies = new HashSet<>();
-
-        for (LocationDataRequest.LocationPoint point : points) {
-            if (point.getAccuracyMeters() > config.maxAccuracyMeters) {
-                anomalies.add(point);
-            }
-        }
-        logger.debug("Filtering out [{}] points because min accuracy [{}] not met.", anomalies.size(), config.maxAccuracyMeters);
-        return anomalies;
+    public PointBatch filterAnomalies(PointBatch batch) {
+        return filterAnomalies(null, batch);
     }
 
     /**
-     * Detect impossible speeds between consecutive points
+     * Main filtering method, anomalous points get invalidated in the given batch which is returned for convenience.
+     * The last accepted points of the given user are used as the starting window and updated afterward.
      */
-    private Set<LocationDataRequest.LocationPoint> detectSpeedAnomalies(List<LocationDataRequest.LocationPoint> points) {
-        Set<LocationDataRequest.LocationPoint> anomalies = new HashSet<>();
-
-        for (int i = 1; i < points.size(); i++) {
-            LocationDataRequest.LocationPoint prev = points.get(i - 1);
-            LocationDataRequest.LocationPoint curr = points.get(i);
-
-            if (prev.getTimestamp() != null && curr.getTimestamp() != null) {
-                double distance = GeoUtils.distanceInMeters(prev, curr);
-                long timeDiffSeconds = ChronoUnit.SECONDS.between(getTimestamp(prev.getTimestamp()), getTimestamp(curr.getTimestamp()));
-
-                if (timeDiffSeconds > 0) {
-                    double speedKmh = (distance / 1000.0) / (timeDiffSeconds / 3600.0);
-                    double maxSpeed = isEdgePoint(i, points.size()) ?
-                            config.maxSpeedKmh * config.edgeToleranceMultiplier : config.maxSpeedKmh;
-
-                    if (speedKmh > maxSpeed) {
-                        // Mark the point with worse accuracy as anomaly
-                        if (curr.getAccuracyMeters() > prev.getAccuracyMeters()) {
-                            anomalies.add(curr);
-                        } else {
-                            anomalies.add(prev);
-                        }
-                    }
-                }
-            }
+    public PointBatch filterAnomalies(String username, PointBatch batch) {
+        if (batch == null || batch.isEmpty()) {
+            return batch;
+        }
+        if (username == null) {
+            filter(batch, new Tail());
+            return batch;
         }
 
-        logger.debug("Filtering out [{}] points because speed was above [{}].", anomalies.size(), config.maxSpeedKmh);
-        return anomalies;
+        Tail tail = tails.computeIfAbsent(username, _ -> new Tail());
+        synchronized (tail) {
+            tail.detach();
+            filter(batch, tail);
+            tail.detach();
+        }
+        return batch;
     }
 
-    private Instant getTimestamp(String timestamp) {
-        return DateTimeFormatter.ISO_ZONED_DATE_TIME.parse(timestamp, Instant::from);
-    }
+    private void filter(PointBatch batch, Tail tail) {
+        int accuracyAnomalies = 0;
+        int speedAnomalies = 0;
+        int jumpAnomalies = 0;
+        int directionAnomalies = 0;
 
-    /**
-     * Detect large distance jumps between consecutive points
-     */
-    private Set<LocationDataRequest.LocationPoint> detectDistanceJumpAnomalies(List<LocationDataRequest.LocationPoint> points) {
-        Set<LocationDataRequest.LocationPoint> anomalies = new HashSet<>();
-
-        for (int i = 1; i < points.size(); i++) {
-            LocationDataRequest.LocationPoint prev = points.get(i - 1);
-            LocationDataRequest.LocationPoint curr = points.get(i);
-
-            double distance = GeoUtils.distanceInMeters(prev, curr);
-            double maxDistance = isEdgePoint(i, points.size()) ?
-                    config.maxDistanceJumpMeters * config.edgeToleranceMultiplier :
-                    config.maxDistanceJumpMeters;
-
-            if (distance > maxDistance) {
-                // For edge points, be more careful about which point to remove
-                if (isEdgePoint(i, points.size())) {
-                    anomalies.add(selectWorsePoint(prev, curr, points, i));
-                } else {
-                    // Mark the point with worse accuracy as anomaly
-                    if (curr.getAccuracyMeters() > prev.getAccuracyMeters()) {
-                        anomalies.add(curr);
-                    } else {
-                        anomalies.add(prev);
+        for (int i = 0; i < batch.size(); i++) {
+            if (!batch.isValid(i)) {
+                continue;
+            }
+
+            // Detect points with poor accuracy
+            double accuracy = batch.accuracyMeters(i);
+            if (accuracy > config.maxAccuracyMeters) {
+                batch.invalidate(i);
+                accuracyAnomalies++;
+                continue;
+            }
+
+            // the remembered window only applies to data arriving in order, older data starts a fresh one
+            if (tail.count > 0 && tail.index[Tail.NEWEST] < 0 && batch.epochMillis(i) < tail.epochMillis[Tail.NEWEST]) {
+                tail.clear();
+            }
+            // after a long gap, e.g. a flight, the last accepted points tell nothing about this one anymore
+            if (tail.count > 0 && batch.epochMillis(i) - tail.epochMillis[Tail.NEWEST] > config.maxGapSeconds * 1000) {
+                tail.clear();
+            }
+            if (tail.count == 0) {
+                tail.push(batch, i);
+                continue;
+            }
+
+            // Without any history the neighbour of the current point is an edge point, so be more tolerant
+            boolean edge = tail.count == 1;
+            double distance = distanceInMeters(batch, i, tail, Tail.NEWEST);
+            long timeDiffSeconds = (batch.epochMillis(i) - tail.epochMillis[Tail.NEWEST]) / 1000;
+
+            // Detect impossible speeds and large distance jumps between consecutive points
+            boolean impossible = false;
+            if (timeDiffSeconds > 0) {
+                double speedKmh = (distance / 1000.0) / (timeDiffSeconds / 3600.0);
+                double maxSpeed = edge ? config.maxSpeedKmh * config.edgeToleranceMultiplier : config.maxSpeedKmh;
+                if (speedKmh > maxSpeed) {
+                    impossible = true;
+                    speedAnomalies++;
+                }
+            }
+            if (!impossible) {
+                double maxDistance = edge ? config.maxDistanceJumpMeters * config.edgeToleranceMultiplier : config.maxDistanceJumpMeters;
+                if (distance > maxDistance) {
+                    impossible = true;
+                    jumpAnomalies++;
+                }
+            }
+
+            if (impossible) {
+                // Mark the point with worse accuracy as anomaly
+                if (accuracy > tail.accuracyMeters[Tail.NEWEST]) {
+                    if (tail.rejected(batch, i, config) >= config.relocationConfirmations) {
+                        // the user really moved, the rejected points before this one stay filtered
+                        tail.clear();
+                        tail.push(batch, i);
+                        continue;
                     }
+                    batch.invalidate(i);
+                    continue;
                 }
+                tail.dropNewest(batch);
+                tail.push(batch, i);
+                continue;
             }
-        }
 
-        logger.debug("Filtering out [{}] points because distance jumped more than [{}] meters.", anomalies.size(), config.maxDistanceJumpMeters);
+            // Detect sudden direction changes at the last accepted point
+            if (tail.count == 2 && isReversal(batch, i, tail)
+                    && tail.accuracyMeters[Tail.NEWEST] > Math.max(tail.accuracyMeters[Tail.OLDER], accuracy)) {
+                tail.dropNewest(batch);
+                directionAnomalies++;
+            }
+            tail.push(batch, i);
+        }
 
-        return anomalies;
+        logger.debug("Filtered out [{}] points because min accuracy [{}] not met, [{}] because speed was above [{}], [{}] because distance jumped more than [{}] meters and [{}] because they suddenly changed the direction.",
+                accuracyAnomalies, config.maxAccuracyMeters, speedAnomalies, config.maxSpeedKmh, jumpAnomalies, config.maxDistanceJumpMeters, directionAnomalies);
     }
+
     /**
-     * Detect sudden direction changes that might indicate errors
+     * If it's a sharp reversal (close to 180 degrees) and the distances are significant
      */
-    private Set<LocationDataRequest.LocationPoint> detectDirectionAnomalies(List<LocationDataRequest.LocationPoint> points) {
-        Set<LocationDataRequest.LocationPoint> anomalies = new HashSet<>();
+    private boolean isReversal(PointBatch batch, int current, Tail tail) {
+        double bearing1 = calculateBearing(tail.latitude[Tail.OLDER], tail.longitude[Tail.OLDER], tail.latitude[Tail.NEWEST], tail.longitude[Tail.NEWEST]);
+        double bearing2 = calculateBearing(tail.latitude[Tail.NEWEST], tail.longitude[Tail.NEWEST], batch.latitude(current), batch.longitude(current));
 
-        if (points.size() < 3) {
-            return anomalies;
+        double angleDiff = Math.abs(bearing2 - bearing1);
+        if (angleDiff > 180) {
+            angleDiff = 360 - angleDiff;
+        }
+        if (angleDiff <= 150) {
+            return false;
         }
 
-        for (int i = 1; i < points.size() - 1; i++) {
-            LocationDataRequest.LocationPoint prev = points.get(i - 1);
-            LocationDataRequest.LocationPoint curr = points.get(i);
-            LocationDataRequest.LocationPoint next = points.get(i + 1);
-
-            // Calculate bearings
-            double bearing1 = calculateBearing(prev, curr);
-            double bearing2 = calculateBearing(curr, next);
+        double dist1 = GeoUtils.distanceInMeters(tail.latitude[Tail.OLDER], tail.longitude[Tail.OLDER], tail.latitude[Tail.NEWEST], tail.longitude[Tail.NEWEST]);
+        double dist2 = distanceInMeters(batch, current, tail, Tail.NEWEST);
+        return dist1 > 50 && dist2 > 50;
+    }
 
-            // Calculate angle difference
-            double angleDiff = Math.abs(bearing2 - bearing1);
-            if (angleDiff > 180) {
-                angleDiff = 360 - angleDiff;
-            }
+    private static double distanceInMeters(PointBatch batch, int index, Tail tail, int slot) {
+        return GeoUtils.distanceInMeters(tail.latitude[slot], tail.longitude[slot], batch.latitude(index), batch.longitude(index));
+    }
 
-            // If it's a sharp reversal (close to 180 degrees) and the distances are significant
-            double dist1 = GeoUtils.distanceInMeters(prev, curr);
-            double dist2 = GeoUtils.distanceInMeters(next, curr);
+    private double calculateBearing(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+        double lat1 = Math.toRadians(fromLatitude);
+        double lat2 = Math.toRadians(toLatitude);
+        double deltaLng = Math.toRadians(toLongitude - fromLongitude);
 
-            if (angleDiff > 150 && dist1 > 50 && dist2 > 50) {
-                // Check if current point has worse accuracy
-                if (curr.getAccuracyMeters() > Math.max(prev.getAccuracyMeters(), next.getAccuracyMeters())) {
-                    anomalies.add(curr);
-                }
-            }
-        }
-        logger.debug("Filtering out [{}] points because the suddenly changed the direction.", anomalies.size());
+        double y = Math.sin(deltaLng) * Math.cos(lat2);
+        double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1) * Math.cos(lat2) * Math.cos(deltaLng);
 
-        return anomalies;
+        double bearing = Math.toDegrees(Math.atan2(y, x));
+        return (bearing + 360) % 360;
     }
 
     /**
-     * Handle edge cases specially - first and last points
+     * The last two accepted points. Index holds the position in the batch currently filtered or -1 if the point
+     * was accepted in an earlier batch and can not be revoked anymore.
      */
-    private LocationDataRequest.LocationPoint selectWorsePoint(LocationDataRequest.LocationPoint p1, LocationDataRequest.LocationPoint p2, List<LocationDataRequest.LocationPoint> allPoints, int currentIndex) {
-        // For edge points, compare against multiple criteria
-        double accuracyScore1 = p1.getAccuracyMeters();
-        double accuracyScore2 = p2.getAccuracyMeters();
-
-        // If we have enough points, check consistency with neighbors
-        if (currentIndex == 1 && allPoints.size() > 2) {
-            // First edge: check consistency with second next point
-            LocationDataRequest.LocationPoint next = allPoints.get(currentIndex + 1);
-            double dist1Next = GeoUtils.distanceInMeters(p1, next);
-            double dist2Next = GeoUtils.distanceInMeters(p2, next);
-
-            // Prefer the point that's more consistent with the next point
-            if (Math.abs(dist1Next - dist2Next) > 1000) {
-                return dist1Next > dist2Next ? p1 : p2;
+    private static final class Tail {
+        private static final int OLDER = 0;
+        private static final int NEWEST = 1;
+
+        private final long[] epochMillis = new long[2];
+        private final double[] latitude = new double[2];
+        private final double[] longitude = new double[2];
+        private final double[] accuracyMeters = new double[2];
+        private final int[] index = {-1, -1};
+        private int count;
+        private double rejectedLatitude;
+        private double rejectedLongitude;
+        private long rejectedEpochMillis;
+        private int rejectedInARow;
+
+        private void push(PointBatch batch, int i) {
+            if (count == 2) {
+                copy(NEWEST, OLDER);
+            } else if (count == 1) {
+                copy(NEWEST, OLDER);
+                count = 2;
+            } else {
+                count = 1;
             }
+            epochMillis[NEWEST] = batch.epochMillis(i);
+            latitude[NEWEST] = batch.latitude(i);
+            longitude[NEWEST] = batch.longitude(i);
+            accuracyMeters[NEWEST] = batch.accuracyMeters(i);
+            index[NEWEST] = i;
+            rejectedInARow = 0;
         }
 
-        if (currentIndex == allPoints.size() - 1 && allPoints.size() > 2) {
-            // Last edge: check consistency with second previous point
-            LocationDataRequest.LocationPoint prevPrev = allPoints.get(currentIndex - 2);
-            double prevPrevDist1 = GeoUtils.distanceInMeters(prevPrev, p1);
-            double prevPrevDist2 = GeoUtils.distanceInMeters(prevPrev, p2);
+        /**
+         * Remembers the rejected point.
+         *
+         * @return how many points in a row were rejected while being close to each other, including this one
+         */
+        private int rejected(PointBatch batch, int i, GeoPointAnomalyFilterConfig config) {
+            boolean agrees = rejectedInARow > 0
+                    && batch.epochMillis(i) - rejectedEpochMillis <= config.maxGapSeconds * 1000
+                    && GeoUtils.distanceInMeters(rejectedLatitude, rejectedLongitude, batch.latitude(i), batch.longitude(i)) <= config.maxDistanceJumpMeters;
+            rejectedInARow = agrees ? rejectedInARow + 1 : 1;
+            rejectedLatitude = batch.latitude(i);
+            rejectedLongitude = batch.longitude(i);
+            rejectedEpochMillis = batch.epochMillis(i);
+            return rejectedInARow;
+        }
 
-            // Prefer the point that's more consistent with the previous point
-            if (Math.abs(prevPrevDist1 - prevPrevDist2) > 1000) {
-                return prevPrevDist1 > prevPrevDist2 ? p1 : p2;
+        private void dropNewest(PointBatch batch) {
+            if (index[NEWEST] >= 0) {
+                batch.invalidate(index[NEWEST]);
+            }
+            if (count == 2) {
+                copy(OLDER, NEWEST);
             }
+            count--;
         }
 
-        // Fall back to accuracy
-        return accuracyScore1 > accuracyScore2 ? p1 : p2;
-    }
-
-    private boolean isEdgePoint(int index, int totalSize) {
-        return index == 0 || index == totalSize - 1;
-    }
-
-    private double calculateBearing(LocationDataRequest.LocationPoint from, LocationDataRequest.LocationPoint to) {
-        double lat1 = Math.toRadians(from.getLatitude());
-        double lat2 = Math.toRadians(to.getLatitude());
-        double deltaLng = Math.toRadians(to.getLongitude() - from.getLongitude());
+        private void detach() {
+            index[OLDER] = -1;
+            index[NEWEST] = -1;
+        }
 
-        double y = Math.sin(deltaLng) * Math.cos(lat2);
-        double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1) * Math.cos(lat2) * Math.cos(deltaLng);
+        private void clear() {
+            count = 0;
+            rejectedInARow = 0;
+            detach();
+        }
 
-        double bearing = Math.toDegrees(Math.atan2(y, x));
-        return (bearing + 360) % 360;
+        private void copy(int from, int to) {
+            epochMillis[to] = epochMillis[from];
+            latitude[to] = latitude[from];
+            longitude[to] = longitude[from];
+            accuracyMeters[to] = accuracyMeters[from];
+            index[to] = index[from];
+        }
     }
 }
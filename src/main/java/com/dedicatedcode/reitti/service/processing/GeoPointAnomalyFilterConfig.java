@@ -1,5 +1,6 @@
 package com.dedicatedcode.reitti.service.processing;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
@@ -9,13 +10,25 @@ public class GeoPointAnomalyFilterConfig {
     public final double maxAccuracyMeters;     // Maximum acceptable accuracy
     public final double maxDistanceJumpMeters; // Maximum jump between points
     public final double edgeToleranceMultiplier = 1.5;   // Extra tolerance for edge points
+    public final int relocationConfirmations = 3;   // Rejected points in a row which agree with each other to accept a relocation
+    public final int maxTrackedUsers;          // How many per-user tails are kept between batches
+    public final long maxGapSeconds;           // Points further apart are not compared with each other
 
+    public GeoPointAnomalyFilterConfig(double maxSpeedKmh, double maxAccuracyMeters, double maxDistanceJumpMeters) {
+        this(maxSpeedKmh, maxAccuracyMeters, maxDistanceJumpMeters, 10000, 600);
+    }
+
+    @Autowired
     public GeoPointAnomalyFilterConfig(
             @Value("${reitti.geo-point-filter.max-speed-kmh:1000}") double maxSpeedKmh,
             @Value("${reitti.geo-point-filter.max-accuracy-meters:100}") double maxAccuracyMeters,
-            @Value("${reitti.geo-point-filter.max-distance-jump-meters:5000}") double maxDistanceJumpMeters) {
+            @Value("${reitti.geo-point-filter.max-distance-jump-meters:5000}") double maxDistanceJumpMeters,
+            @Value("${reitti.geo-point-filter.max-tracked-users:10000}") int maxTrackedUsers,
+            @Value("${reitti.geo-point-filter.max-gap-seconds:600}") long maxGapSeconds) {
         this.maxSpeedKmh = maxSpeedKmh;
         this.maxAccuracyMeters = maxAccuracyMeters;
         this.maxDistanceJumpMeters = maxDistanceJumpMeters;
+        this.maxTrackedUsers = maxTrackedUsers;
+        this.maxGapSeconds = maxGapSeconds;
     }
 }
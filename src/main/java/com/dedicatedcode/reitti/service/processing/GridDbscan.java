@@ -0,0 +1,393 @@
+package com.dedicatedcode.reitti.service.processing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * DBSCAN over planar coordinates, using the same distance semantics as PostGIS' {@code ST_ClusterDBSCAN}: a point is a
+ * core point if at least {@code minPoints} points, itself included, lie within {@code epsilon}.
+ * <p>
+ * Points are kept in primitive arrays and bucketed into a uniform grid with a cell size of {@code epsilon}, so a
+ * neighbourhood lookup only has to look at the nine surrounding cells. The clustering is maintained while points come
+ * and go: adding a point only looks at its neighbourhood and at the neighbourhoods of the points which become core
+ * points through it, the clusters they touch are joined in a union-find structure. Removing the oldest points only
+ * connects the core points of the clusters they were part of again. {@link #clusterIds()} then just reads the
+ * result. Not thread safe.
+ */
+public class GridDbscan {
+    public static final int NOISE = -1;
+    private static final int NONE = -1;
+
+    private final double epsilon;
+    private final double epsilonSquared;
+    private final int minPoints;
+    private final Map<Long, IntList> grid = new HashMap<>();
+    private final IntList scratch = new IntList();
+
+    // indices below first belong to removed points, they stay in the arrays until the next compaction
+    private double[] xs;
+    private double[] ys;
+    private int[] neighbourCounts;
+    private int[] parents;
+    private int[] earliestCores;
+    private int first;
+    private int size;
+
+    public GridDbscan(double epsilon, int minPoints) {
+        this(epsilon, minPoints, 64);
+    }
+
+    public GridDbscan(double epsilon, int minPoints, int expectedSize) {
+        if (!(epsilon > 0)) {
+            throw new IllegalArgumentException("epsilon must be positive but was " + epsilon);
+        }
+        this.epsilon = epsilon;
+        this.epsilonSquared = epsilon * epsilon;
+        this.minPoints = minPoints;
+        int capacity = Math.max(expectedSize, 16);
+        this.xs = new double[capacity];
+        this.ys = new double[capacity];
+        this.neighbourCounts = new int[capacity];
+        this.parents = new int[capacity];
+        this.earliestCores = new int[capacity];
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public int getMinPoints() {
+        return minPoints;
+    }
+
+    /**
+     * @return the index of the added point, indices are handed out in the order the points are added and move down
+     * when older points are removed
+     */
+    public int add(double x, double y) {
+        ensureCapacity(size + 1);
+        int point = size++;
+        xs[point] = x;
+        ys[point] = y;
+        parents[point] = point;
+        earliestCores[point] = NONE;
+        grid.computeIfAbsent(cellKey(x, y), _ -> new IntList()).add(point);
+
+        IntList neighbours = neighbours(point, new IntList());
+        neighbourCounts[point] = neighbours.size() + 1;
+        IntList promoted = new IntList();
+        if (isCore(point)) {
+            promoted.add(point);
+        }
+        for (int i = 0; i < neighbours.size(); i++) {
+            int neighbour = neighbours.get(i);
+            if (++neighbourCounts[neighbour] == minPoints) {
+                promoted.add(neighbour);
+            }
+        }
+        for (int i = 0; i < promoted.size(); i++) {
+            connect(promoted.get(i));
+        }
+        if (!isCore(point)) {
+            // core neighbours which were core before already, the promoted ones were handled by connect
+            for (int i = 0; i < neighbours.size(); i++) {
+                attach(point, neighbours.get(i));
+            }
+        }
+        return point - first;
+    }
+
+    /**
+     * Removes the given number of the oldest points. Only the clusters these points were part of are connected again,
+     * together with the points next to them which lose their core point.
+     */
+    public void removeOldest(int count) {
+        if (count < 0 || count > size()) {
+            throw new IllegalArgumentException("Cannot remove " + count + " of " + size() + " points");
+        }
+        Set<Integer> dirtyRoots = new HashSet<>();
+        Set<Integer> detached = new HashSet<>();
+        IntList neighbours = new IntList();
+        for (int removed = 0; removed < count; removed++) {
+            int point = first++;
+            boolean wasCore = isCore(point);
+            if (wasCore) {
+                dirtyRoots.add(find(point));
+            }
+            neighboursOf(xs[point], ys[point], NONE, neighbours);
+            for (int i = 0; i < neighbours.size(); i++) {
+                int neighbour = neighbours.get(i);
+                if (neighbourCounts[neighbour]-- == minPoints) {
+                    // demoted, its cluster may fall apart and the points it held lose their core point
+                    dirtyRoots.add(find(neighbour));
+                    IntList held = neighbours(neighbour, new IntList());
+                    for (int j = 0; j < held.size(); j++) {
+                        if (earliestCores[held.get(j)] == neighbour) {
+                            detached.add(held.get(j));
+                        }
+                    }
+                    detached.add(neighbour);
+                }
+                if (wasCore && earliestCores[neighbour] == point) {
+                    detached.add(neighbour);
+                }
+            }
+        }
+        if (!dirtyRoots.isEmpty()) {
+            reconnect(dirtyRoots);
+        }
+        for (int point : detached) {
+            if (point >= first) {
+                earliestCores[point] = NONE;
+                IntList around = neighbours(point, scratch);
+                for (int i = 0; i < around.size(); i++) {
+                    attach(point, around.get(i));
+                }
+            }
+        }
+        if (first > 1024 && first > size / 2) {
+            compact();
+        }
+    }
+
+    public int size() {
+        return size - first;
+    }
+
+    /**
+     * Resolves the cluster of every point. Cluster ids are numbered from 0 in the order in which the clusters were
+     * first reached by their points, points which belong to no cluster get {@link #NOISE}. A border point reachable
+     * from several clusters is assigned to the cluster of its earliest core neighbour.
+     */
+    public int[] clusterIds() {
+        int[] result = new int[size()];
+        int[] idByRoot = new int[size];
+        Arrays.fill(idByRoot, NOISE);
+        int nextId = 0;
+        for (int point = first; point < size; point++) {
+            if (isCore(point)) {
+                int root = find(point);
+                if (idByRoot[root] == NOISE) {
+                    idByRoot[root] = nextId++;
+                }
+                result[point - first] = idByRoot[root];
+            } else {
+                result[point - first] = NOISE;
+            }
+        }
+        for (int point = first; point < size; point++) {
+            if (!isCore(point) && earliestCores[point] != NONE) {
+                result[point - first] = result[earliestCores[point] - first];
+            }
+        }
+        return result;
+    }
+
+    private boolean isCore(int point) {
+        return neighbourCounts[point] >= minPoints;
+    }
+
+    /**
+     * Joins a new core point with the core points around it and offers it to the other points around it.
+     */
+    private void connect(int core) {
+        IntList neighbours = neighbours(core, scratch);
+        for (int i = 0; i < neighbours.size(); i++) {
+            int neighbour = neighbours.get(i);
+            if (isCore(neighbour)) {
+                union(core, neighbour);
+            } else {
+                attach(neighbour, core);
+            }
+        }
+    }
+
+    private void attach(int point, int candidate) {
+        if (isCore(candidate) && (earliestCores[point] == NONE || candidate < earliestCores[point])) {
+            earliestCores[point] = candidate;
+        }
+    }
+
+    /**
+     * Connects the core points of the given clusters again, the clusters may have been split by removing points.
+     */
+    private void reconnect(Set<Integer> dirtyRoots) {
+        IntList members = new IntList();
+        for (int point = first; point < size; point++) {
+            if (dirtyRoots.contains(find(point))) {
+                members.add(point);
+            }
+        }
+        for (int i = 0; i < members.size(); i++) {
+            parents[members.get(i)] = members.get(i);
+        }
+        for (int i = 0; i < members.size(); i++) {
+            int member = members.get(i);
+            if (!isCore(member)) {
+                continue;
+            }
+            IntList neighbours = neighbours(member, scratch);
+            for (int j = 0; j < neighbours.size(); j++) {
+                if (isCore(neighbours.get(j))) {
+                    union(member, neighbours.get(j));
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects all points within epsilon of the given one, the point itself excluded.
+     */
+    private IntList neighbours(int point, IntList target) {
+        return neighboursOf(xs[point], ys[point], point, target);
+    }
+
+    private IntList neighboursOf(double x, double y, int excluded, IntList target) {
+        target.clear();
+        long cellX = cell(x);
+        long cellY = cell(y);
+        for (long cx = cellX - 1; cx <= cellX + 1; cx++) {
+            for (long cy = cellY - 1; cy <= cellY + 1; cy++) {
+                IntList bucket = grid.get(cellKey(cx, cy));
+                if (bucket == null) {
+                    continue;
+                }
+                for (int i = 0; i < bucket.size(); i++) {
+                    int candidate = bucket.get(i);
+                    if (candidate == excluded || candidate < first) {
+                        continue;
+                    }
+                    double dx = xs[candidate] - x;
+                    double dy = ys[candidate] - y;
+                    if (dx * dx + dy * dy <= epsilonSquared) {
+                        target.add(candidate);
+                    }
+                }
+            }
+        }
+        return target;
+    }
+
+    private int find(int point) {
+        int root = point;
+        while (parents[root] != root) {
+            root = parents[root];
+        }
+        while (parents[point] != root) {
+            int next = parents[point];
+            parents[point] = root;
+            point = next;
+        }
+        return root;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA != rootB) {
+            // keep the older point as root, this way cluster ids follow the order of the points
+            parents[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+
+    /**
+     * Moves the remaining points to the front of the arrays. The root of a cluster may be a removed point, the oldest
+     * remaining point of the cluster takes over.
+     */
+    private void compact() {
+        int remaining = size();
+        int[] newRoots = new int[size];
+        Arrays.fill(newRoots, NONE);
+        int[] newParents = new int[Math.max(remaining, 16)];
+        for (int point = first; point < size; point++) {
+            int root = find(point);
+            if (newRoots[root] == NONE) {
+                newRoots[root] = point - first;
+            }
+            newParents[point - first] = newRoots[root];
+        }
+        int[] newEarliestCores = new int[newParents.length];
+        for (int point = first; point < size; point++) {
+            newEarliestCores[point - first] = earliestCores[point] == NONE ? NONE : earliestCores[point] - first;
+        }
+        xs = Arrays.copyOf(Arrays.copyOfRange(xs, first, size), newParents.length);
+        ys = Arrays.copyOf(Arrays.copyOfRange(ys, first, size), newParents.length);
+        neighbourCounts = Arrays.copyOf(Arrays.copyOfRange(neighbourCounts, first, size), newParents.length);
+        parents = newParents;
+        earliestCores = newEarliestCores;
+        for (Iterator<IntList> buckets = grid.values().iterator(); buckets.hasNext(); ) {
+            IntList bucket = buckets.next();
+            bucket.shift(first);
+            if (bucket.size() == 0) {
+                buckets.remove();
+            }
+        }
+        size = remaining;
+        first = 0;
+    }
+
+    private long cell(double value) {
+        return (long) Math.floor(value / epsilon);
+    }
+
+    private long cellKey(double x, double y) {
+        return cellKey(cell(x), cell(y));
+    }
+
+    private static long cellKey(long cellX, long cellY) {
+        return (cellX << 32) ^ (cellY & 0xffffffffL);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= xs.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, xs.length * 2);
+        xs = Arrays.copyOf(xs, newCapacity);
+        ys = Arrays.copyOf(ys, newCapacity);
+        neighbourCounts = Arrays.copyOf(neighbourCounts, newCapacity);
+        parents = Arrays.copyOf(parents, newCapacity);
+        earliestCores = Arrays.copyOf(earliestCores, newCapacity);
+    }
+
+    private static final class IntList {
+        private int[] values = new int[8];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        /**
+         * Drops the values below the offset and moves the others down by it.
+         */
+        void shift(int offset) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (values[i] >= offset) {
+                    values[kept++] = values[i] - offset;
+                }
+            }
+            size = kept;
+        }
+    }
+}
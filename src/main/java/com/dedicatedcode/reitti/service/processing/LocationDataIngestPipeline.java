@@ -1,7 +1,7 @@
 package com.dedicatedcode.reitti.service.processing;
 
-import com.dedicatedcode.reitti.dto.LocationDataRequest;
 import com.dedicatedcode.reitti.event.LocationDataEvent;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
 import com.dedicatedcode.reitti.model.security.User;
 import com.dedicatedcode.reitti.repository.RawLocationPointJdbcService;
 import com.dedicatedcode.reitti.repository.UserJdbcService;
@@ -12,7 +12,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
 import java.util.Optional;
 
 @Service
@@ -49,11 +48,13 @@ public class LocationDataIngestPipeline {
         }
 
         User user = userOpt.get();
-        List<LocationDataRequest.LocationPoint> points = event.getPoints();
-        List<LocationDataRequest.LocationPoint> filtered = this.geoPointAnomalyFilter.filterAnomalies(points);
+        PointBatch points = event.getPoints();
+        int received = points.size();
+        PointBatch filtered = this.geoPointAnomalyFilter.filterAnomalies(user.getUsername(), points);
+        int stored = filtered.validCount();
         rawLocationPointJdbcService.bulkInsert(user, filtered);
         userSettingsJdbcService.updateNewestData(user, filtered);
         userNotificationService.newRawLocationData(user, filtered);
-        logger.info("Finished storing points [{}] for user [{}] in [{}]ms. Filtered out [{}] points.", filtered.size(), event.getUsername(), System.currentTimeMillis() - start, points.size() - filtered.size());
+        logger.info("Finished storing points [{}] for user [{}] in [{}]ms. Filtered out [{}] points.", stored, event.getUsername(), System.currentTimeMillis() - start, received - stored);
     }
 }
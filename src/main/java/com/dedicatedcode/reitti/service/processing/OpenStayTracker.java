@@ -0,0 +1,172 @@
+package com.dedicatedcode.reitti.service.processing;
+
+import com.dedicatedcode.reitti.model.geo.GeoUtils;
+import com.dedicatedcode.reitti.model.geo.RawLocationPoint;
+import com.dedicatedcode.reitti.model.geo.StayPoint;
+import com.dedicatedcode.reitti.model.geo.Visit;
+import com.dedicatedcode.reitti.model.processing.DetectionParameter;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the stay each user is currently in, so live location data can extend it point by point instead of
+ * detecting the stays of a whole time window again.
+ * <p>
+ * The state only lives in memory. Whoever uses it has to make sure it still matches the stored data and fall back
+ * to a window detection otherwise, e.g. after a restart or when another instance handled the user in between.
+ */
+@Component
+public class OpenStayTracker {
+    private final Map<String, OpenStay> openStays = new ConcurrentHashMap<>();
+
+    public Optional<OpenStay> get(String username) {
+        return Optional.ofNullable(openStays.get(username));
+    }
+
+    public void put(String username, OpenStay stay) {
+        openStays.put(username, stay);
+    }
+
+    public void remove(String username) {
+        openStays.remove(username);
+    }
+
+    /**
+     * A stay which is still going on. Its position is the accuracy weighted center of all points seen so far, once
+     * it is long enough to count as a visit, the visit stored for it is kept as well.
+     * <p>
+     * Like the window detection, which treats single far away points as noise of the cluster around them, the stay
+     * only ends once {@code minimumAdjacentPoints} points in a row are too far away or when no point arrived for
+     * {@code maxMergeTimeBetweenSameStayPoints}. Far away points are held back until then.
+     */
+    public static class OpenStay {
+        private final Instant firstSeen;
+        private final List<RawLocationPoint> outliers = new ArrayList<>();
+        private Instant lastSeen;
+        private int count;
+        private double weightSum;
+        private double weightedLatSum;
+        private double weightedLngSum;
+        private Visit visit;
+        private boolean changed;
+
+        public OpenStay(RawLocationPoint first) {
+            this.firstSeen = first.getTimestamp();
+            add(first);
+        }
+
+        /**
+         * Continues a stay detected from a time window.
+         */
+        public OpenStay(StayPoint stayPoint, Visit visit) {
+            this.firstSeen = stayPoint.getArrivalTime();
+            stayPoint.getPoints().forEach(this::add);
+            this.visit = visit;
+            this.changed = false;
+        }
+
+        public boolean accepts(RawLocationPoint point, DetectionParameter.VisitDetection parameters) {
+            return continues(point, parameters)
+                    && GeoUtils.distanceInMeters(getLatitude(), getLongitude(), point.getLatitude(), point.getLongitude()) <= parameters.getSearchDistanceInMeters();
+        }
+
+        private boolean continues(RawLocationPoint point, DetectionParameter.VisitDetection parameters) {
+            return Duration.between(lastSeen, point.getTimestamp()).getSeconds() < parameters.getMaxMergeTimeBetweenSameStayPoints();
+        }
+
+        /**
+         * Feeds the next point of the user to the stay. Points held back as outliers are dropped once a point close
+         * to the stay follows, when the stay ends they start the next one together with the given point.
+         *
+         * @return this stay if it goes on, otherwise the stay started by the points after it
+         */
+        public OpenStay next(RawLocationPoint point, DetectionParameter.VisitDetection parameters) {
+            if (accepts(point, parameters)) {
+                outliers.clear();
+                add(point);
+                return this;
+            }
+            outliers.add(point);
+            if (continues(point, parameters) && outliers.size() < parameters.getMinimumAdjacentPoints()) {
+                return this;
+            }
+            return replay(List.copyOf(outliers), parameters);
+        }
+
+        public void add(RawLocationPoint point) {
+            // same weighting as the window detection, points with a better accuracy count more
+            double weight = point.getAccuracyMeters() != null && point.getAccuracyMeters() > 0
+                    ? 1.0 / point.getAccuracyMeters()
+                    : 1.0;
+            weightSum += weight;
+            weightedLatSum += point.getLatitude() * weight;
+            weightedLngSum += point.getLongitude() * weight;
+            count++;
+            lastSeen = point.getTimestamp();
+            changed = true;
+        }
+
+        public boolean isVisit(DetectionParameter.VisitDetection parameters) {
+            return count >= parameters.getMinimumAdjacentPoints()
+                    && Duration.between(firstSeen, lastSeen).toSeconds() > parameters.getMinimumStayTimeInSeconds();
+        }
+
+        public boolean isChanged() {
+            return changed;
+        }
+
+        public Instant getLastSeen() {
+            return lastSeen;
+        }
+
+        /**
+         * @return the time of the last point fed to the stay, including the ones held back as outliers
+         */
+        public Instant getLastPoint() {
+            return outliers.isEmpty() ? lastSeen : outliers.getLast().getTimestamp();
+        }
+
+        public double getLatitude() {
+            return weightedLatSum / weightSum;
+        }
+
+        public double getLongitude() {
+            return weightedLngSum / weightSum;
+        }
+
+        /**
+         * @return the visit as it has to be stored now, with the id and version of the stored one if there is one
+         */
+        public Visit toVisit() {
+            long duration = Duration.between(firstSeen, lastSeen).getSeconds();
+            if (visit == null) {
+                return new Visit(getLongitude(), getLatitude(), firstSeen, lastSeen, duration, false);
+            }
+            return new Visit(visit.getId(), getLongitude(), getLatitude(), firstSeen, lastSeen, duration, false, visit.getVersion());
+        }
+
+        public boolean isStored() {
+            return visit != null;
+        }
+
+        public void stored(Visit visit) {
+            this.visit = visit;
+            this.changed = false;
+        }
+
+        static OpenStay replay(List<RawLocationPoint> points, DetectionParameter.VisitDetection parameters) {
+            OpenStay stay = null;
+            for (RawLocationPoint point : points) {
+                stay = stay == null ? new OpenStay(point) : stay.next(point, parameters);
+            }
+            return stay;
+        }
+    }
+}
@@ -3,128 +3,184 @@ package com.dedicatedcode.reitti.service.processing;
 import com.dedicatedcode.reitti.config.RabbitMQConfig;
 import com.dedicatedcode.reitti.event.LocationProcessEvent;
 import com.dedicatedcode.reitti.event.TriggerProcessingEvent;
-import com.dedicatedcode.reitti.model.geo.RawLocationPoint;
+import com.dedicatedcode.reitti.model.processing.ProcessingChunk;
 import com.dedicatedcode.reitti.model.security.User;
 import com.dedicatedcode.reitti.repository.PreviewRawLocationPointJdbcService;
 import com.dedicatedcode.reitti.repository.RawLocationPointJdbcService;
 import com.dedicatedcode.reitti.repository.UserJdbcService;
 import com.dedicatedcode.reitti.service.ImportStateHolder;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Set;
+import java.util.concurrent.*;
 
+/**
+ * Hands the unprocessed points of a user to visit detection. Every user is processed on its own, so a large import
+ * of one user only defers the processing of that user. The scheduled sweep runs the users in parallel, in rounds of
+ * at most a few chunks per user, so a single large backlog does not keep the others waiting.
+ */
 @Service
 public class ProcessingPipelineTrigger {
     private static final Logger log = LoggerFactory.getLogger(ProcessingPipelineTrigger.class);
-    private static final int BATCH_SIZE = 100;
 
     private final ImportStateHolder stateHolder;
     private final RawLocationPointJdbcService rawLocationPointJdbcService;
     private final PreviewRawLocationPointJdbcService previewRawLocationPointJdbcService;
     private final UserJdbcService userJdbcService;
     private final RabbitTemplate rabbitTemplate;
+    private final int chunkSize;
+    private final Duration chunkMaxDuration;
+    private final int maxChunksPerRound;
+    private final ExecutorService workers;
 
-    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
 
     public ProcessingPipelineTrigger(ImportStateHolder stateHolder,
                                      RawLocationPointJdbcService rawLocationPointJdbcService,
                                      PreviewRawLocationPointJdbcService previewRawLocationPointJdbcService,
                                      UserJdbcService userJdbcService,
-                                     RabbitTemplate rabbitTemplate) {
+                                     RabbitTemplate rabbitTemplate,
+                                     @Value("${reitti.process-data.chunk-size:100}") int chunkSize,
+                                     @Value("${reitti.process-data.chunk-max-duration:PT12H}") Duration chunkMaxDuration,
+                                     @Value("${reitti.process-data.parallelism:4}") int parallelism,
+                                     @Value("${reitti.process-data.max-chunks-per-round:50}") int maxChunksPerRound) {
         this.stateHolder = stateHolder;
         this.rawLocationPointJdbcService = rawLocationPointJdbcService;
         this.previewRawLocationPointJdbcService = previewRawLocationPointJdbcService;
         this.userJdbcService = userJdbcService;
         this.rabbitTemplate = rabbitTemplate;
+        this.chunkSize = chunkSize;
+        this.chunkMaxDuration = chunkMaxDuration;
+        this.maxChunksPerRound = maxChunksPerRound;
+        this.workers = Executors.newFixedThreadPool(Math.max(1, parallelism));
     }
 
     @Scheduled(cron = "${reitti.process-data.schedule}")
     public void start() {
-        if (isBusy()) return;
+        List<User> claimed = new ArrayList<>();
+        for (User user : userJdbcService.findAll()) {
+            if (tryClaim(user.getUsername(), null)) {
+                claimed.add(user);
+            }
+        }
 
-        isRunning.set(true);
+        List<User> pending = claimed;
         try {
-            for (User user : userJdbcService.findAll()) {
-                handleDataForUser(user, null);
+            while (!pending.isEmpty()) {
+                List<Callable<Boolean>> round = pending.stream()
+                        .<Callable<Boolean>>map(user -> () -> handleDataForUser(user, null, maxChunksPerRound))
+                        .toList();
+                List<Future<Boolean>> results = workers.invokeAll(round);
+                List<User> remaining = new ArrayList<>();
+                for (int i = 0; i < results.size(); i++) {
+                    if (hasMore(results.get(i), pending.get(i))) {
+                        remaining.add(pending.get(i));
+                    }
+                }
+                pending = remaining;
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Processing of [{}] users got interrupted", pending.size());
         } finally {
-            isRunning.set(false);
+            claimed.forEach(user -> release(user.getUsername(), null));
         }
     }
 
     public void handle(TriggerProcessingEvent event) {
-        if (isBusy()) return;
+        if (!tryClaim(event.getUsername(), event.getPreviewId())) return;
 
-        isRunning.set(true);
         try {
             Optional<User> byUsername = this.userJdbcService.findByUsername(event.getUsername());
             if (byUsername.isPresent()) {
-                handleDataForUser(byUsername.get(), event.getPreviewId());
+                handleDataForUser(byUsername.get(), event.getPreviewId(), Integer.MAX_VALUE);
             } else {
                 log.warn("No user found for username: {}", event.getUsername());
             }
         } finally {
-            isRunning.set(false);
+            release(event.getUsername(), event.getPreviewId());
         }
     }
 
-    private void handleDataForUser(User user, String previewId) {
-        int offset = 0;
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * @return true if there are points left after maxChunks chunks have been scheduled
+     */
+    private boolean handleDataForUser(User user, String previewId, int maxChunks) {
+        Instant after = null;
         int totalProcessed = 0;
-        
-        while (true) {
-            List<RawLocationPoint> currentBatch;
+
+        for (int chunks = 0; chunks < maxChunks; chunks++) {
+            Optional<ProcessingChunk> chunk;
             if (previewId == null) {
-                currentBatch = rawLocationPointJdbcService.findByUserAndProcessedIsFalseOrderByTimestampWithLimit(user, BATCH_SIZE, offset);
+                chunk = rawLocationPointJdbcService.markNextChunkProcessed(user, after, chunkSize, chunkMaxDuration);
             } else {
-                currentBatch = previewRawLocationPointJdbcService.findByUserAndProcessedIsFalseOrderByTimestampWithLimit(user, previewId, BATCH_SIZE, offset);
+                chunk = previewRawLocationPointJdbcService.markNextChunkProcessed(user, previewId, after, chunkSize, chunkMaxDuration);
             }
-            
-            if (currentBatch.isEmpty()) {
-                break;
+
+            if (chunk.isEmpty()) {
+                log.debug("Processed [{}] unprocessed points for user [{}]", totalProcessed, user.getId());
+                return false;
             }
-            
-            Instant earliest = currentBatch.getFirst().getTimestamp();
-            Instant latest = currentBatch.getLast().getTimestamp();
+
+            Instant earliest = chunk.get().earliest();
+            Instant latest = chunk.get().latest();
             log.debug("Scheduling stay detection event for user [{}] and points between [{}] and [{}]", user.getId(), earliest, latest);
 
-            currentBatch.forEach(RawLocationPoint::markProcessed);
-            if (previewId != null) {
-                previewRawLocationPointJdbcService.bulkUpdateProcessedStatus(currentBatch);
-            } else {
-                rawLocationPointJdbcService.bulkUpdateProcessedStatus(currentBatch);
-            }
-            
             this.rabbitTemplate
                     .convertAndSend(RabbitMQConfig.EXCHANGE_NAME,
                             RabbitMQConfig.STAY_DETECTION_ROUTING_KEY,
                             new LocationProcessEvent(user.getUsername(), earliest, latest, previewId));
-            
-            totalProcessed += currentBatch.size();
-            offset += BATCH_SIZE;
+
+            totalProcessed += chunk.get().count();
+            after = latest;
         }
-        
-        log.debug("Processed [{}] unprocessed points for user [{}]", totalProcessed, user.getId());
+
+        log.debug("Processed [{}] unprocessed points for user [{}], will continue with the next round", totalProcessed, user.getId());
+        return true;
     }
 
-    private boolean isBusy() {
-        if (isRunning.get()) {
-            log.warn("Processing is already running, wil skip this run");
-            return true;
+    private boolean hasMore(Future<Boolean> result, User user) throws InterruptedException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            log.error("Processing of user [{}] failed", user.getUsername(), e.getCause());
+            return false;
         }
+    }
 
-        if (stateHolder.isImportRunning()) {
-            log.warn("Data Import is currently running, wil skip this run");
-            return true;
+    private boolean tryClaim(String username, String previewId) {
+        if (previewId == null && stateHolder.isImportRunning(username)) {
+            log.debug("Data import of user [{}] is currently running, will skip this run", username);
+            return false;
         }
-        return false;
+        if (!running.add(key(username, previewId))) {
+            log.debug("Processing of user [{}] is already running, will skip this run", username);
+            return false;
+        }
+        return true;
+    }
+
+    private void release(String username, String previewId) {
+        running.remove(key(username, previewId));
     }
 
+    private static String key(String username, String previewId) {
+        return previewId == null ? username : username + ":" + previewId;
+    }
 }
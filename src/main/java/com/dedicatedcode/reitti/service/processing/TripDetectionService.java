@@ -2,9 +2,11 @@ package com.dedicatedcode.reitti.service.processing;
 
 import com.dedicatedcode.reitti.event.ProcessedVisitCreatedEvent;
 import com.dedicatedcode.reitti.model.geo.*;
+import com.dedicatedcode.reitti.model.processing.TimeRange;
 import com.dedicatedcode.reitti.model.security.User;
 import com.dedicatedcode.reitti.repository.*;
 import com.dedicatedcode.reitti.service.UserNotificationService;
+import com.dedicatedcode.reitti.service.lock.UserWorkLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -12,10 +14,11 @@ import org.springframework.stereotype.Service;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Set;
+import java.util.stream.Stream;
 
 @Service
 public class TripDetectionService {
@@ -30,7 +33,7 @@ public class TripDetectionService {
     private final PreviewTripJdbcService previewTripJdbcService;
     private final UserJdbcService userJdbcService;
     private final UserNotificationService userNotificationService;
-    private final ConcurrentHashMap<String, ReentrantLock> userLocks = new ConcurrentHashMap<>();
+    private final UserWorkLock userWorkLock;
 
     public TripDetectionService(ProcessedVisitJdbcService processedVisitJdbcService,
                                 PreviewProcessedVisitJdbcService previewProcessedVisitJdbcService,
@@ -39,7 +42,8 @@ public class TripDetectionService {
                                 TripJdbcService tripJdbcService,
                                 PreviewTripJdbcService previewTripJdbcService,
                                 UserJdbcService userJdbcService,
-                                UserNotificationService userNotificationService) {
+                                UserNotificationService userNotificationService,
+                                UserWorkLock userWorkLock) {
         this.processedVisitJdbcService = processedVisitJdbcService;
         this.previewProcessedVisitJdbcService = previewProcessedVisitJdbcService;
         this.rawLocationPointJdbcService = rawLocationPointJdbcService;
@@ -48,87 +52,161 @@ public class TripDetectionService {
         this.previewTripJdbcService = previewTripJdbcService;
         this.userJdbcService = userJdbcService;
         this.userNotificationService = userNotificationService;
+        this.userWorkLock = userWorkLock;
     }
 
     public void visitCreated(ProcessedVisitCreatedEvent event) {
-        String username = event.getUsername();
-        ReentrantLock userLock = userLocks.computeIfAbsent(username, k -> new ReentrantLock());
-        
-        userLock.lock();
-        try {
-            User user = this.userJdbcService.findByUsername(username).orElseThrow();
-
-            Optional<ProcessedVisit> createdVisit;
-            if (event.getPreviewId() == null) {
-                createdVisit = this.processedVisitJdbcService.findByUserAndId(user, event.getVisitId());
+        User user = this.userJdbcService.findByUsername(event.getUsername()).orElseThrow();
+
+        List<ProcessedVisit> createdVisits;
+        if (event.getPreviewId() == null) {
+            createdVisits = this.processedVisitJdbcService.findByUserAndIds(user, event.getVisitIds());
+        } else {
+            createdVisits = this.previewProcessedVisitJdbcService.findByUserAndIds(user, event.getPreviewId(), event.getVisitIds());
+        }
+        if (createdVisits.isEmpty()) {
+            logger.debug("Processed visits [{}] were already deleted, no trips to detect", event.getVisitIds());
+            return;
+        }
+        visitsCreated(user, createdVisits, event.getPreviewId());
+    }
+
+    /**
+     * Detects the trips around the given visits, which were just stored by visit merging.
+     */
+    public void visitsCreated(User user, List<ProcessedVisit> createdVisits, String previewId) {
+        if (createdVisits.isEmpty()) {
+            return;
+        }
+        try (UserWorkLock.Lease _ = userWorkLock.acquire("trip-detection", user.getUsername())) {
+            Instant from = createdVisits.stream().map(ProcessedVisit::getStartTime).min(Comparator.naturalOrder()).orElseThrow().minus(1, ChronoUnit.DAYS);
+            Instant to = createdVisits.stream().map(ProcessedVisit::getEndTime).max(Comparator.naturalOrder()).orElseThrow().plus(1, ChronoUnit.DAYS);
+            detectTrips(user, previewId, from, to);
+        }
+    }
+
+    /**
+     * Detects the trips of the visits visit merging just built, handed over in memory in fused mode. Merging replaced
+     * all processed visits of their time range, so the trips to detect are the ones between them and the ones to the
+     * visit before and after. Only these two neighbours are loaded instead of all visits a day around them.
+     */
+    public void visitsMerged(User user, List<ProcessedVisit> mergedVisits, String previewId) {
+        if (mergedVisits.isEmpty()) {
+            return;
+        }
+        try (UserWorkLock.Lease _ = userWorkLock.acquire("trip-detection", user.getUsername())) {
+            List<ProcessedVisit> sorted = mergedVisits.stream().sorted(Comparator.comparing(ProcessedVisit::getStartTime)).toList();
+            Instant start = sorted.getFirst().getStartTime();
+            Instant end = sorted.getLast().getEndTime();
+            List<ProcessedVisit> neighbours;
+            if (previewId == null) {
+                neighbours = this.processedVisitJdbcService.findNeighboursByUser(user, start, end);
             } else {
-                createdVisit = this.previewProcessedVisitJdbcService.findByUserAndId(user, event.getVisitId());
+                neighbours = this.previewProcessedVisitJdbcService.findNeighboursByUser(user, previewId, start, end);
             }
-            createdVisit.ifPresent(visit -> {
-                //find visits in timerange
-                Instant searchStart = visit.getStartTime().minus(1, ChronoUnit.DAYS);
-                Instant searchEnd = visit.getEndTime().plus(1, ChronoUnit.DAYS);
-
-                List<ProcessedVisit> visits;
-                if (event.getPreviewId() == null) {
-                    visits = this.processedVisitJdbcService.findByUserAndTimeOverlap(user, searchStart, searchEnd);
-                } else {
-                    visits = this.previewProcessedVisitJdbcService.findByUserAndTimeOverlap(user, event.getPreviewId(), searchStart, searchEnd);
-                }
-
-                if (visits.size() < 2) {
-                    logger.info("Not enough visits to detect trips for user: {}", user.getUsername());
-                    return;
-                }
-
-                List<Trip> trips = new ArrayList<>();
-                // Iterate through consecutive visits to detect trips
-                for (int i = 0; i < visits.size() - 1; i++) {
-                    ProcessedVisit startVisit = visits.get(i);
-                    ProcessedVisit endVisit = visits.get(i + 1);
-
-                    // Create a trip between these two visits
-                    Trip trip = createTripBetweenVisits(user, event.getPreviewId(), startVisit, endVisit);
-                    if (trip != null) {
-                        trips.add(trip);
-                    }
-                }
-
-                if (event.getPreviewId() == null) {
-                    tripJdbcService.bulkInsert(user, trips);
-                } else {
-                    previewTripJdbcService.bulkInsert(user, event.getPreviewId(), trips);
-
-                }
-                if (event.getPreviewId() == null) {
-                    userNotificationService.newTrips(user, trips);
-                } else {
-                    userNotificationService.newTrips(user, trips, event.getPreviewId());
-                }
-            });
-        } finally {
-            userLock.unlock();
+            List<ProcessedVisit> visits = new ArrayList<>(sorted.size() + 2);
+            neighbours.stream().filter(visit -> visit.getEndTime().isBefore(start)).forEach(visits::add);
+            visits.addAll(sorted);
+            neighbours.stream().filter(visit -> visit.getStartTime().isAfter(end)).forEach(visits::add);
+            detectTrips(user, previewId, visits);
         }
     }
 
-    private Trip createTripBetweenVisits(User user, String previewId, ProcessedVisit startVisit, ProcessedVisit endVisit) {
-        // Trip starts when the first visit ends
-        Instant tripStartTime = startVisit.getEndTime();
+    /**
+     * Creates the trips between all consecutive visits overlapping the given range. The visits, the trips already
+     * stored and the location points of the range are loaded once, all trips are then built in memory and stored
+     * together.
+     */
+    public void detectTrips(User user, String previewId, Instant from, Instant to) {
+        List<ProcessedVisit> visits;
+        if (previewId == null) {
+            visits = this.processedVisitJdbcService.findByUserAndTimeOverlap(user, from, to);
+        } else {
+            visits = this.previewProcessedVisitJdbcService.findByUserAndTimeOverlap(user, previewId, from, to);
+        }
+        detectTrips(user, previewId, visits);
+    }
 
-        // Trip ends when the second visit starts
-        Instant tripEndTime = endVisit.getStartTime();
+    private void detectTrips(User user, String previewId, List<ProcessedVisit> visits) {
+        if (visits.size() < 2) {
+            logger.info("Not enough visits to detect trips for user: {}", user.getUsername());
+            return;
+        }
 
-        if (previewId != null) {
-            if (this.previewProcessedVisitJdbcService.findById(startVisit.getId()).isEmpty() || this.previewProcessedVisitJdbcService.findById(endVisit.getId()).isEmpty()) {
-                logger.debug("One of the following preview visits [{},{}] where already deleted. Will skip trip creation.", startVisit.getId(), endVisit.getId());
-                return null;
+        Instant tracksStart = visits.getFirst().getEndTime();
+        Instant tracksEnd = visits.getLast().getStartTime();
+        Set<TimeRange> existingTrips;
+        PointTrack track;
+        if (previewId == null) {
+            existingTrips = new HashSet<>(tripJdbcService.findTimeRangesByUserBetween(user, tracksStart, tracksEnd));
+            track = rawLocationPointJdbcService.findTrackByUserAndTimestampBetween(user, tracksStart, tracksEnd);
+        } else {
+            existingTrips = Set.of();
+            track = previewRawLocationPointJdbcService.findTrackByUserAndTimestampBetween(user, previewId, tracksStart, tracksEnd);
+        }
+
+        List<Trip> trips = new ArrayList<>();
+        // Iterate through consecutive visits to detect trips
+        for (int i = 0; i < visits.size() - 1; i++) {
+            ProcessedVisit startVisit = visits.get(i);
+            ProcessedVisit endVisit = visits.get(i + 1);
+
+            // Create a trip between these two visits
+            Trip trip = createTripBetweenVisits(user, startVisit, endVisit, existingTrips, track);
+            if (trip != null) {
+                trips.add(trip);
             }
+        }
+
+        trips = withoutDeletedVisits(trips, previewId);
+        if (previewId == null) {
+            tripJdbcService.bulkInsert(user, trips);
+            userNotificationService.newTrips(user, trips);
+        } else {
+            previewTripJdbcService.bulkInsert(user, previewId, trips);
+            userNotificationService.newTrips(user, trips, previewId);
+        }
+    }
+
+    /**
+     * Visit merging may delete visits while the trips are built, it does so under a lock of its own. A trip pointing
+     * to a deleted visit would fail the whole insert, so these trips are dropped right before storing them.
+     */
+    private List<Trip> withoutDeletedVisits(List<Trip> trips, String previewId) {
+        if (trips.isEmpty()) {
+            return trips;
+        }
+        List<Long> visitIds = trips.stream()
+                .flatMap(trip -> Stream.of(trip.getStartVisit().getId(), trip.getEndVisit().getId()))
+                .distinct()
+                .toList();
+        Set<Long> existingVisitIds;
+        if (previewId == null) {
+            existingVisitIds = this.processedVisitJdbcService.findExistingIds(visitIds);
         } else {
-            if (this.processedVisitJdbcService.findById(startVisit.getId()).isEmpty() || this.processedVisitJdbcService.findById(endVisit.getId()).isEmpty()) {
-                logger.debug("One of the following visits [{},{}] where already deleted. Will skip trip creation.", startVisit.getId(), endVisit.getId());
-                return null;
+            existingVisitIds = this.previewProcessedVisitJdbcService.findExistingIds(previewId, visitIds);
+        }
+        if (existingVisitIds.size() == visitIds.size()) {
+            return trips;
+        }
+        List<Trip> result = new ArrayList<>(trips.size());
+        for (Trip trip : trips) {
+            if (existingVisitIds.contains(trip.getStartVisit().getId()) && existingVisitIds.contains(trip.getEndVisit().getId())) {
+                result.add(trip);
+            } else {
+                logger.debug("One of the following visits [{},{}] where already deleted. Will skip trip creation.", trip.getStartVisit().getId(), trip.getEndVisit().getId());
             }
         }
+        return result;
+    }
+
+    private Trip createTripBetweenVisits(User user, ProcessedVisit startVisit, ProcessedVisit endVisit, Set<TimeRange> existingTrips, PointTrack track) {
+        // Trip starts when the first visit ends
+        Instant tripStartTime = startVisit.getEndTime();
+
+        // Trip ends when the second visit starts
+        Instant tripEndTime = endVisit.getStartTime();
+
         // If end time is before or equal to start time, this is not a valid trip
         if (tripEndTime.isBefore(tripStartTime) || tripEndTime.equals(tripStartTime)) {
             logger.warn("Invalid trip time range detected for user {}: {} to {}",
@@ -136,25 +214,15 @@ public class TripDetectionService {
             return null;
         }
 
-
-        if (previewId == null) {
-            // Check if a trip already exists with the same start and end times
-            if (tripJdbcService.existsByUserAndStartTimeAndEndTime(user, tripStartTime, tripEndTime)) {
-                logger.debug("Trip already exists for user {} from {} to {}",
-                        user.getUsername(), tripStartTime, tripEndTime);
-                return null;
-            }
+        // Check if a trip already exists with the same start and end times
+        if (existingTrips.contains(new TimeRange(tripStartTime, tripEndTime))) {
+            logger.debug("Trip already exists for user {} from {} to {}",
+                    user.getUsername(), tripStartTime, tripEndTime);
+            return null;
         }
 
-        // Get location points between the two visits
-        List<RawLocationPoint> tripPoints;
-        if (previewId == null) {
-            tripPoints = rawLocationPointJdbcService.findByUserAndTimestampBetweenOrderByTimestampAsc(user, tripStartTime, tripEndTime);
-        } else {
-            tripPoints = previewRawLocationPointJdbcService.findByUserAndTimestampBetweenOrderByTimestampAsc(user, previewId, tripStartTime, tripEndTime);
-        }
         double estimatedDistanceInMeters = calculateDistanceBetweenPlaces(startVisit.getPlace(), endVisit.getPlace());
-        double travelledDistanceMeters = GeoUtils.calculateTripDistance(tripPoints);
+        double travelledDistanceMeters = track.distanceBetween(tripStartTime, tripEndTime);
         // Create a new trip
         String transportMode = inferTransportMode(travelledDistanceMeters != 0 ? travelledDistanceMeters : estimatedDistanceInMeters, tripStartTime, tripEndTime);
         Trip trip = new Trip(
@@ -170,7 +238,6 @@ public class TripDetectionService {
         logger.debug("Created trip from {} to {}: travelled distance={}m, mode={}",
                 startVisit.getPlace().getName(), endVisit.getPlace().getName(), Math.round(travelledDistanceMeters), transportMode);
 
-        // Save and return the trip
         return trip;
     }
 
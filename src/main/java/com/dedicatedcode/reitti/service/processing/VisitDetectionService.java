@@ -1,18 +1,21 @@
 package com.dedicatedcode.reitti.service.processing;
 
 import com.dedicatedcode.reitti.config.RabbitMQConfig;
+import com.dedicatedcode.reitti.config.VisitMergeShardRouter;
 import com.dedicatedcode.reitti.event.LocationProcessEvent;
 import com.dedicatedcode.reitti.event.VisitUpdatedEvent;
-import com.dedicatedcode.reitti.model.ClusteredPoint;
 import com.dedicatedcode.reitti.model.geo.*;
 import com.dedicatedcode.reitti.model.processing.DetectionParameter;
 import com.dedicatedcode.reitti.model.security.User;
 import com.dedicatedcode.reitti.repository.*;
 import com.dedicatedcode.reitti.service.VisitDetectionParametersService;
+import com.dedicatedcode.reitti.service.lock.UserWorkLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
@@ -20,12 +23,12 @@ import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 @Service
 public class VisitDetectionService {
     private static final Logger logger = LoggerFactory.getLogger(VisitDetectionService.class);
+    private static final int MAX_DETECTION_ATTEMPTS = 3;
 
     private final UserJdbcService userJdbcService;
     private final RawLocationPointJdbcService rawLocationPointJdbcService;
@@ -35,7 +38,14 @@ public class VisitDetectionService {
     private final PreviewVisitJdbcService previewVisitJdbcService;
 
     private final RabbitTemplate rabbitTemplate;
-    private final ConcurrentHashMap<String, ReentrantLock> userLocks = new ConcurrentHashMap<>();
+    private final UserWorkLock userWorkLock;
+    private final VisitMergeShardRouter visitMergeShardRouter;
+    private final OpenStayTracker openStayTracker;
+    private final VisitMergingService visitMergingService;
+    private final boolean openStaysEnabled;
+    private final Duration openStaysMaxAge;
+    private final boolean fused;
+    private final Map<String, WindowClusters> windowClusters = new ConcurrentHashMap<>();
 
     @Autowired
     public VisitDetectionService(
@@ -45,7 +55,14 @@ public class VisitDetectionService {
             UserJdbcService userJdbcService,
             VisitJdbcService visitJdbcService,
             PreviewVisitJdbcService previewVisitJdbcService,
-            RabbitTemplate rabbitTemplate) {
+            RabbitTemplate rabbitTemplate,
+            UserWorkLock userWorkLock,
+            VisitMergeShardRouter visitMergeShardRouter,
+            OpenStayTracker openStayTracker,
+            VisitMergingService visitMergingService,
+            @Value("${reitti.process-data.open-stays.enabled:true}") boolean openStaysEnabled,
+            @Value("${reitti.process-data.open-stays.max-age:PT1H}") Duration openStaysMaxAge,
+            @Value("${reitti.process-data.fused.enabled:false}") boolean fused) {
         this.rawLocationPointJdbcService = rawLocationPointJdbcService;
         this.visitDetectionParametersService = visitDetectionParametersService;
         this.userJdbcService = userJdbcService;
@@ -53,105 +70,276 @@ public class VisitDetectionService {
         this.visitJdbcService = visitJdbcService;
         this.previewVisitJdbcService = previewVisitJdbcService;
         this.rabbitTemplate = rabbitTemplate;
+        this.userWorkLock = userWorkLock;
+        this.visitMergeShardRouter = visitMergeShardRouter;
+        this.openStayTracker = openStayTracker;
+        this.visitMergingService = visitMergingService;
+        this.openStaysEnabled = openStaysEnabled;
+        this.openStaysMaxAge = openStaysMaxAge;
+        this.fused = fused;
     }
 
     public void detectStayPoints(LocationProcessEvent incoming) {
         String username = incoming.getUsername();
-        ReentrantLock userLock = userLocks.computeIfAbsent(username, _ -> new ReentrantLock());
-        
-        userLock.lock();
-        try {
+        try (UserWorkLock.Lease _ = userWorkLock.acquire("visit-detection", username)) {
             logger.debug("Detecting stay points for user {} from {} to {}. Mode: {}", username, incoming.getEarliest(), incoming.getLatest(), incoming.getPreviewId() == null ? "live" : "preview");
             User user = userJdbcService.findByUsername(username).orElseThrow();
-            // We extend the search window slightly to catch visits spanning midnight
-            Instant windowStart = incoming.getEarliest().minus(5, ChronoUnit.MINUTES);
-            // Get points from 1 day after the latest new point
-            Instant windowEnd = incoming.getLatest().plus(5, ChronoUnit.MINUTES);
-
-            DetectionParameter.VisitDetection detectionParameters;
-            if (incoming.getPreviewId() == null) {
-                detectionParameters = this.visitDetectionParametersService.getCurrentConfiguration(user, windowStart).getVisitDetection();
-            } else {
-                detectionParameters = this.visitDetectionParametersService.getCurrentConfiguration(user, incoming.getPreviewId()).getVisitDetection();
-
+            if (incoming.getPreviewId() == null && extendOpenStay(user, incoming)) {
+                return;
             }
-            List<Visit> affectedVisits;
-            if (incoming.getPreviewId() == null) {
-                affectedVisits = this.visitJdbcService.findByUserAndTimeAfterAndStartTimeBefore(user, windowStart, windowEnd);
-            } else {
-                affectedVisits = this.previewVisitJdbcService.findByUserAndTimeAfterAndStartTimeBefore(user, incoming.getPreviewId(), windowStart, windowEnd);
-            }
-            if (logger.isDebugEnabled()) {
-                logger.debug("Found [{}] visits which touch the timerange from [{}] to [{}]", affectedVisits.size(), windowStart, windowEnd);
-                affectedVisits.forEach(visit -> logger.debug("Visit [{}] from [{}] to [{}] at [{},{}]", visit.getId(), visit.getStartTime(), visit.getEndTime(), visit.getLongitude(), visit.getLatitude()));
-
-            }
-            try {
-                if (incoming.getPreviewId() == null) {
-                    this.visitJdbcService.delete(affectedVisits);
-                } else {
-                    this.previewVisitJdbcService.delete(affectedVisits);
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    detectWindow(user, incoming);
+                    return;
+                } catch (OptimisticLockException | DuplicateKeyException e) {
+                    if (attempt == MAX_DETECTION_ATTEMPTS) {
+                        logger.error("Visits of user [{}] kept changing while detecting stay points", username, e);
+                        throw new RuntimeException(e);
+                    }
+                    logger.debug("Visits of user [{}] were changed in the meantime, detecting the window again: {}", username, e.getMessage());
                 }
-                logger.debug("Deleted [{}] visits with ids [{}]", affectedVisits.size(), affectedVisits.stream().map(Visit::getId).map(Object::toString).collect(Collectors.joining()));
-            } catch (OptimisticLockException e) {
-                logger.error("Optimistic lock exception", e);
-                throw new RuntimeException(e);
             }
+        }
+    }
 
-            if (!affectedVisits.isEmpty()) {
-                if (affectedVisits.getFirst().getStartTime().isBefore(windowStart)) {
-                    windowStart = affectedVisits.getFirst().getStartTime();
-                }
+    /**
+     * Detects the stay points in the window of the event and stores the differences to the visits detected before.
+     * Visits are also written outside of this lock, e.g. by imports or the user, the changes to them surface as an
+     * {@link OptimisticLockException} or a {@link DuplicateKeyException} and the window has to be detected again.
+     * The changes are stored in one transaction, so a failed attempt leaves nothing behind.
+     */
+    private void detectWindow(User user, LocationProcessEvent incoming) throws OptimisticLockException {
+        String username = user.getUsername();
+        // We extend the search window slightly to catch visits spanning midnight
+        Instant windowStart = incoming.getEarliest().minus(5, ChronoUnit.MINUTES);
+        // and by the same margin after the latest new point
+        Instant windowEnd = incoming.getLatest().plus(5, ChronoUnit.MINUTES);
+
+        DetectionParameter.VisitDetection detectionParameters;
+        if (incoming.getPreviewId() == null) {
+            detectionParameters = this.visitDetectionParametersService.getCurrentConfiguration(user, windowStart).getVisitDetection();
+        } else {
+            detectionParameters = this.visitDetectionParametersService.getCurrentConfiguration(user, incoming.getPreviewId()).getVisitDetection();
 
-                if (affectedVisits.getLast().getEndTime().isAfter(windowEnd)) {
-                    windowEnd = affectedVisits.getLast().getEndTime();
-                }
-            }
-            logger.debug("Searching for points in the timerange from [{}] to [{}]", windowStart, windowEnd);
-
-            double baseLatitude = affectedVisits.isEmpty() ? 50 : affectedVisits.getFirst().getLatitude();
-            double[] metersAsDegrees = GeoUtils.metersToDegreesAtPosition(detectionParameters.getSearchDistanceInMeters(), baseLatitude);
-            List<ClusteredPoint> clusteredPointsInTimeRangeForUser;
-            if (incoming.getPreviewId() == null) {
-                clusteredPointsInTimeRangeForUser = this.rawLocationPointJdbcService.findClusteredPointsInTimeRangeForUser(user, windowStart, windowEnd, detectionParameters.getMinimumAdjacentPoints(), metersAsDegrees[0]);
-            } else {
-                clusteredPointsInTimeRangeForUser = this.previewRawLocationPointJdbcService.findClusteredPointsInTimeRangeForUser(user, incoming.getPreviewId(), windowStart, windowEnd, detectionParameters.getMinimumAdjacentPoints(), metersAsDegrees[0]);
+        }
+        List<Visit> affectedVisits;
+        if (incoming.getPreviewId() == null) {
+            affectedVisits = this.visitJdbcService.findDetectedByUserAndTimeAfterAndStartTimeBefore(user, windowStart, windowEnd);
+        } else {
+            affectedVisits = this.previewVisitJdbcService.findDetectedByUserAndTimeAfterAndStartTimeBefore(user, incoming.getPreviewId(), windowStart, windowEnd);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Found [{}] visits which touch the timerange from [{}] to [{}]", affectedVisits.size(), windowStart, windowEnd);
+            affectedVisits.forEach(visit -> logger.debug("Visit [{}] from [{}] to [{}] at [{},{}]", visit.getId(), visit.getStartTime(), visit.getEndTime(), visit.getLongitude(), visit.getLatitude()));
+
+        }
+        if (!affectedVisits.isEmpty()) {
+            if (affectedVisits.getFirst().getStartTime().isBefore(windowStart)) {
+                windowStart = affectedVisits.getFirst().getStartTime();
             }
 
-            Map<Integer, List<RawLocationPoint>> clusteredByLocation = new HashMap<>();
-            for (ClusteredPoint clusteredPoint : clusteredPointsInTimeRangeForUser) {
-                if (clusteredPoint.getClusterId() != null) {
-                    clusteredByLocation.computeIfAbsent(clusteredPoint.getClusterId(), _ -> new ArrayList<>()).add(clusteredPoint.getPoint());
-                }
+            if (affectedVisits.getLast().getEndTime().isAfter(windowEnd)) {
+                windowEnd = affectedVisits.getLast().getEndTime();
             }
+        }
+        logger.debug("Searching for points in the timerange from [{}] to [{}]", windowStart, windowEnd);
+
+        double baseLatitude = affectedVisits.isEmpty() ? 50 : affectedVisits.getFirst().getLatitude();
+        double[] metersAsDegrees = GeoUtils.metersToDegreesAtPosition(detectionParameters.getSearchDistanceInMeters(), baseLatitude);
+        List<RawLocationPoint> pointsInTimeRange;
+        if (incoming.getPreviewId() == null) {
+            pointsInTimeRange = this.rawLocationPointJdbcService.findByUserAndTimestampBetweenOrderByTimestampAsc(user, windowStart, windowEnd);
+        } else {
+            pointsInTimeRange = this.previewRawLocationPointJdbcService.findByUserAndTimestampBetweenOrderByTimestampAsc(user, incoming.getPreviewId(), windowStart, windowEnd);
+        }
+
+        Map<Integer, List<RawLocationPoint>> clusteredByLocation = clusterByLocation(user, incoming.getPreviewId(), pointsInTimeRange, metersAsDegrees[0], detectionParameters.getMinimumAdjacentPoints());
+
+        logger.debug("Found {} point clusters in the processing window from [{}] to [{}]", clusteredByLocation.size(), windowStart, windowEnd);
+
+        // Apply the stay point detection algorithm
+        List<StayPoint> stayPoints = detectStayPointsFromTrajectory(clusteredByLocation, detectionParameters);
+
+        logger.info("Detected {} stay points for user {}", stayPoints.size(), user.getUsername());
+
+        List<Visit> detectedVisits = new ArrayList<>();
+
+        for (StayPoint stayPoint : stayPoints) {
+                Visit visit = createVisit(stayPoint.getLongitude(), stayPoint.getLatitude(), stayPoint);
+                logger.debug("Detected visit: {}", visit);
+                detectedVisits.add(visit);
+        }
+
+        VisitReconciliation.Plan plan = VisitReconciliation.plan(affectedVisits, detectedVisits, detectionParameters.getSearchDistanceInMeters());
+        logger.debug("Reconciled visits of user [{}]: [{}] unchanged, [{}] updated, [{}] new, [{}] removed", username,
+                plan.unchanged().size(), plan.updated().size(), plan.inserted().size(), plan.deleted().size());
 
-            logger.debug("Found {} point clusters in the processing window from [{}] to [{}]", clusteredByLocation.size(), windowStart, windowEnd);
+        List<Visit> changedVisits;
+        if (incoming.getPreviewId() == null) {
+            changedVisits = this.visitJdbcService.applyChanges(user, plan.deleted(), plan.updated(), plan.inserted());
+        } else {
+            changedVisits = this.previewVisitJdbcService.applyChanges(user, incoming.getPreviewId(), plan.deleted(), plan.updated(), plan.inserted());
+        }
+
+        List<Visit> updatedVisits = new ArrayList<>(changedVisits);
+        if (!plan.deleted().isEmpty()) {
+            // merging rebuilds the time around the given visits, the remaining ones make it drop the removed visits
+            updatedVisits.addAll(plan.unchanged());
+        }
+        if (incoming.getPreviewId() == null) {
+            List<Visit> storedVisits = new ArrayList<>(plan.unchanged());
+            storedVisits.addAll(changedVisits);
+            trackOpenStay(user, incoming, pointsInTimeRange, stayPoints, storedVisits, detectionParameters);
+        }
+        visitsUpdated(user, updatedVisits, incoming.getPreviewId());
+    }
+
+    /**
+     * Hands the visits over to merging, through its queue or, with reitti.process-data.fused.enabled, directly in
+     * this thread. Running the stages back to back saves the queue hops and re-reading the visits, but all of them
+     * then happen on the instance which received the points.
+     */
+    private void visitsUpdated(User user, List<Visit> visits, String previewId) {
+        if (visits.isEmpty()) {
+            return;
+        }
+        if (fused) {
+            visitMergingService.visitsUpdated(user, visits, previewId);
+        } else {
+            List<Long> visitIds = visits.stream().map(Visit::getId).collect(Collectors.toList());
+            rabbitTemplate.convertAndSend(RabbitMQConfig.EXCHANGE_NAME, visitMergeShardRouter.routingKeyFor(user.getUsername()), new VisitUpdatedEvent(user.getUsername(), visitIds, previewId));
+        }
+    }
 
-            // Apply the stay point detection algorithm
-            List<StayPoint> stayPoints = detectStayPointsFromTrajectory(clusteredByLocation, detectionParameters);
 
-            logger.info("Detected {} stay points for user {}", stayPoints.size(), user.getUsername());
+    /**
+     * Live data mostly continues the stay the user is in or starts a new one right after it, so the points of the
+     * event are added to the tracked open stay one by one and only the visits which changed are stored, all of them
+     * in one transaction. Stays overlapping an imported visit are not stored, the import already covers that time.
+     *
+     * @return false if there is no usable open stay and the window has to be detected again, which is the case for
+     * older data, data arriving out of order or when the stored visits were changed in the meantime
+     */
+    private boolean extendOpenStay(User user, LocationProcessEvent incoming) {
+        String username = user.getUsername();
+        Optional<OpenStayTracker.OpenStay> tracked = openStayTracker.get(username);
+        if (tracked.isEmpty() || !isLive(incoming)) {
+            return false;
+        }
+        OpenStayTracker.OpenStay current = tracked.get();
+        if (!incoming.getEarliest().isAfter(current.getLastPoint())
+                || rawLocationPointJdbcService.containsData(user, current.getLastPoint(), incoming.getEarliest())) {
+            logger.debug("Points of user [{}] do not continue the open stay ending at [{}]", username, current.getLastPoint());
+            openStayTracker.remove(username);
+            return false;
+        }
 
-            List<Visit> createdVisits = new ArrayList<>();
+        DetectionParameter.VisitDetection detectionParameters = this.visitDetectionParametersService.getCurrentConfiguration(user, incoming.getEarliest()).getVisitDetection();
+        List<RawLocationPoint> points = this.rawLocationPointJdbcService.findByUserAndTimestampBetweenOrderByTimestampAsc(user, incoming.getEarliest(), incoming.getLatest());
+        List<OpenStayTracker.OpenStay> stays = new ArrayList<>();
+        stays.add(current);
+        for (RawLocationPoint point : points) {
+            OpenStayTracker.OpenStay next = current.next(point, detectionParameters);
+            if (next != current) {
+                current = next;
+                stays.add(current);
+            }
+        }
 
-            for (StayPoint stayPoint : stayPoints) {
-                    Visit visit = createVisit(stayPoint.getLongitude(), stayPoint.getLatitude(), stayPoint);
-                    logger.debug("Creating new visit: {}", visit);
-                    createdVisits.add(visit);
+        List<OpenStayTracker.OpenStay> changedStays = new ArrayList<>();
+        for (OpenStayTracker.OpenStay stay : stays) {
+            if (!stay.isChanged() || !stay.isVisit(detectionParameters)) {
+                continue;
+            }
+            Visit visit = stay.toVisit();
+            if (!this.visitJdbcService.findImportedIdsByUserBetween(user, visit.getStartTime(), visit.getEndTime()).isEmpty()) {
+                logger.debug("Not storing open stay of user [{}] from [{}] to [{}], it overlaps an imported visit", username, visit.getStartTime(), visit.getEndTime());
+                continue;
             }
+            changedStays.add(stay);
+        }
+        List<Visit> changedVisits;
+        try {
+            changedVisits = this.visitJdbcService.saveAll(user, changedStays.stream().map(OpenStayTracker.OpenStay::toVisit).toList());
+        } catch (OptimisticLockException | DuplicateKeyException e) {
+            logger.debug("Visits of the open stay of user [{}] were changed in the meantime: {}", username, e.getMessage());
+            openStayTracker.remove(username);
+            return false;
+        }
+        for (int i = 0; i < changedStays.size(); i++) {
+            changedStays.get(i).stored(changedVisits.get(i));
+        }
+        openStayTracker.put(username, current);
 
-            List<Long> createdIds;
-            if (incoming.getPreviewId() == null) {
-                createdIds = visitJdbcService.bulkInsert(user, createdVisits).stream().map(Visit::getId).toList();
-            } else {
-                createdIds = previewVisitJdbcService.bulkInsert(user, incoming.getPreviewId(), createdVisits).stream().map(Visit::getId).toList();
+        logger.debug("Extended open stay of user [{}] with [{}] points, [{}] visits changed", username, points.size(), changedVisits.size());
+        visitsUpdated(user, changedVisits, null);
+        return true;
+    }
+
+    /**
+     * Remembers the stay the user was in at the end of the event after detecting a whole window, following live
+     * data can then be handled by {@link #extendOpenStay(User, LocationProcessEvent)}.
+     */
+    private void trackOpenStay(User user, LocationProcessEvent incoming, List<RawLocationPoint> pointsInTimeRange,
+                               List<StayPoint> stayPoints, List<Visit> storedVisits, DetectionParameter.VisitDetection detectionParameters) {
+        String username = user.getUsername();
+        // points after the event have not been handed to the detection yet
+        List<RawLocationPoint> points = pointsInTimeRange.stream().filter(point -> !point.getTimestamp().isAfter(incoming.getLatest())).toList();
+        if (!isLive(incoming) || points.isEmpty()) {
+            openStayTracker.remove(username);
+            return;
+        }
+
+        Optional<StayPoint> lastStayPoint = stayPoints.stream().max(Comparator.comparing(StayPoint::getDepartureTime));
+        Instant lastDeparture = lastStayPoint.map(StayPoint::getDepartureTime).orElse(Instant.MIN);
+        List<RawLocationPoint> trailing = points.stream().filter(point -> point.getTimestamp().isAfter(lastDeparture)).toList();
+        Optional<Visit> lastVisit = lastStayPoint.flatMap(stayPoint -> storedVisits.stream()
+                .filter(stored -> stored.getStartTime().equals(stayPoint.getArrivalTime()) && stored.getEndTime().equals(stayPoint.getDepartureTime()))
+                .findFirst());
+        if (lastVisit.isPresent()) {
+            // points after the last visit may only be outliers, the stay is closed once enough of them followed
+            OpenStayTracker.OpenStay stay = new OpenStayTracker.OpenStay(lastStayPoint.get(), lastVisit.get());
+            for (RawLocationPoint point : trailing) {
+                stay = stay.next(point, detectionParameters);
             }
-            rabbitTemplate.convertAndSend(RabbitMQConfig.EXCHANGE_NAME, RabbitMQConfig.MERGE_VISIT_ROUTING_KEY, new VisitUpdatedEvent(user.getUsername(), createdIds, incoming.getPreviewId()));
-        } finally {
-            userLock.unlock();
+            openStayTracker.put(username, stay);
+        } else if (trailing.isEmpty()) {
+            openStayTracker.remove(username);
+        } else {
+            openStayTracker.put(username, OpenStayTracker.OpenStay.replay(trailing, detectionParameters));
         }
     }
 
+    private boolean isLive(LocationProcessEvent incoming) {
+        return openStaysEnabled && incoming.getLatest().isAfter(Instant.now().minus(openStaysMaxAge));
+    }
+
+    /**
+     * Clusters the points in memory instead of running ST_ClusterDBSCAN over the whole window in the database, the
+     * points are added in chronological order, so clusters grow along the trajectory. The clustering of the last live
+     * window of a user is kept, when the next window continues it only the points before its start are removed and
+     * the new ones are added.
+     */
+    private Map<Integer, List<RawLocationPoint>> clusterByLocation(User user, String previewId, List<RawLocationPoint> points, double distanceInDegrees, int minimumPoints) {
+        WindowClusters clusters = previewId == null ? windowClusters.get(user.getUsername()) : null;
+        if (clusters == null || !clusters.moveTo(points, distanceInDegrees, minimumPoints)) {
+            clusters = new WindowClusters(points, distanceInDegrees, minimumPoints);
+        } else {
+            logger.debug("Continued the clustering of the last window of user [{}]", user.getUsername());
+        }
+        if (previewId == null) {
+            windowClusters.put(user.getUsername(), clusters);
+        }
+        int[] clusterIds = clusters.dbscan.clusterIds();
+
+        Map<Integer, List<RawLocationPoint>> clusteredByLocation = new HashMap<>();
+        for (int i = 0; i < clusterIds.length; i++) {
+            if (clusterIds[i] != GridDbscan.NOISE) {
+                clusteredByLocation.computeIfAbsent(clusterIds[i], _ -> new ArrayList<>()).add(points.get(i));
+            }
+        }
+        return clusteredByLocation;
+    }
 
     private List<StayPoint> detectStayPointsFromTrajectory(Map<Integer, List<RawLocationPoint>> points, DetectionParameter.VisitDetection visitDetectionParameters) {
         logger.debug("Starting cluster-based stay point detection with {} different spatial clusters.", points.size());
@@ -233,4 +421,62 @@ public class VisitDetectionService {
     private Visit createVisit(Double longitude, Double latitude, StayPoint stayPoint) {
         return new Visit(longitude, latitude, stayPoint.getArrivalTime(), stayPoint.getDepartureTime(), stayPoint.getDurationSeconds(), false);
     }
+
+    /**
+     * The points of a window together with their clustering. Like the open stays it only lives in memory, a window
+     * which does not continue it, e.g. because points were added in between or another instance handled the user,
+     * is clustered from scratch.
+     */
+    private static final class WindowClusters {
+        private final GridDbscan dbscan;
+        private final List<RawLocationPoint> points;
+
+        private WindowClusters(List<RawLocationPoint> points, double distanceInDegrees, int minimumPoints) {
+            this.dbscan = new GridDbscan(distanceInDegrees, minimumPoints, points.size());
+            this.points = new ArrayList<>(points.size());
+            append(points, 0);
+        }
+
+        /**
+         * Moves on to the points of the next window if it starts within the clustered points and holds all of them
+         * after its start in the same order, otherwise nothing is changed.
+         */
+        private boolean moveTo(List<RawLocationPoint> window, double distanceInDegrees, int minimumPoints) {
+            if (window.isEmpty() || dbscan.getEpsilon() != distanceInDegrees || dbscan.getMinPoints() != minimumPoints) {
+                return false;
+            }
+            Instant windowStart = window.getFirst().getTimestamp();
+            int dropped = 0;
+            while (dropped < points.size() && points.get(dropped).getTimestamp().isBefore(windowStart)) {
+                dropped++;
+            }
+            int kept = points.size() - dropped;
+            if (kept == 0 || kept > window.size()) {
+                return false;
+            }
+            for (int i = 0; i < kept; i++) {
+                if (!isSame(points.get(dropped + i), window.get(i))) {
+                    return false;
+                }
+            }
+            dbscan.removeOldest(dropped);
+            points.subList(0, dropped).clear();
+            append(window, kept);
+            return true;
+        }
+
+        private void append(List<RawLocationPoint> window, int from) {
+            for (RawLocationPoint point : window.subList(from, window.size())) {
+                dbscan.add(point.getLongitude(), point.getLatitude());
+                points.add(point);
+            }
+        }
+
+        private static boolean isSame(RawLocationPoint clustered, RawLocationPoint loaded) {
+            return Objects.equals(clustered.getId(), loaded.getId())
+                    && clustered.getTimestamp().equals(loaded.getTimestamp())
+                    && clustered.getLatitude().equals(loaded.getLatitude())
+                    && clustered.getLongitude().equals(loaded.getLongitude());
+        }
+    }
 }
@@ -11,13 +11,12 @@ import com.dedicatedcode.reitti.repository.*;
 import com.dedicatedcode.reitti.service.GeoLocationTimezoneService;
 import com.dedicatedcode.reitti.service.UserNotificationService;
 import com.dedicatedcode.reitti.service.VisitDetectionParametersService;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.Point;
+import com.dedicatedcode.reitti.service.lock.UserWorkLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
@@ -42,11 +41,13 @@ public class VisitMergingService {
     private final SignificantPlaceJdbcService significantPlaceJdbcService;
     private final RawLocationPointJdbcService rawLocationPointJdbcService;
     private final PreviewRawLocationPointJdbcService previewRawLocationPointJdbcService;
-    private final GeometryFactory geometryFactory;
     private final RabbitTemplate rabbitTemplate;
     private final UserNotificationService userNotificationService;
     private final GeoLocationTimezoneService timezoneService;
     private final VisitDetectionParametersService visitDetectionParametersService;
+    private final TripDetectionService tripDetectionService;
+    private final UserWorkLock userWorkLock;
+    private final boolean fused;
 
     @Autowired
     public VisitMergingService(VisitJdbcService visitJdbcService,
@@ -58,10 +59,12 @@ public class VisitMergingService {
                                SignificantPlaceJdbcService significantPlaceJdbcService,
                                RawLocationPointJdbcService rawLocationPointJdbcService,
                                PreviewRawLocationPointJdbcService previewRawLocationPointJdbcService,
-                               GeometryFactory geometryFactory,
                                UserNotificationService userNotificationService,
                                GeoLocationTimezoneService timezoneService,
-                               VisitDetectionParametersService visitDetectionParametersService) {
+                               VisitDetectionParametersService visitDetectionParametersService,
+                               TripDetectionService tripDetectionService,
+                               UserWorkLock userWorkLock,
+                               @Value("${reitti.process-data.fused.enabled:false}") boolean fused) {
         this.visitJdbcService = visitJdbcService;
         this.previewVisitJdbcService = previewVisitJdbcService;
         this.processedVisitJdbcService = processedVisitJdbcService;
@@ -71,10 +74,12 @@ public class VisitMergingService {
         this.significantPlaceJdbcService = significantPlaceJdbcService;
         this.rawLocationPointJdbcService = rawLocationPointJdbcService;
         this.previewRawLocationPointJdbcService = previewRawLocationPointJdbcService;
-        this.geometryFactory = geometryFactory;
         this.userNotificationService = userNotificationService;
         this.timezoneService = timezoneService;
         this.visitDetectionParametersService = visitDetectionParametersService;
+        this.tripDetectionService = tripDetectionService;
+        this.userWorkLock = userWorkLock;
+        this.fused = fused;
     }
 
     public void visitUpdated(VisitUpdatedEvent event) {
@@ -93,18 +98,30 @@ public class VisitMergingService {
             logger.debug("Visit not found for visitId: [{}]", visitIds);
             return;
         }
+        visitsUpdated(user.get(), visits, previewId);
+    }
 
+    /**
+     * Merges the visits around the given ones, which were just stored by visit detection.
+     */
+    public void visitsUpdated(User user, List<Visit> visits, String previewId) {
+        try (UserWorkLock.Lease _ = userWorkLock.acquire("visit-merging", user.getUsername())) {
+            mergeAround(user, visits, previewId);
+        }
+    }
+
+    private void mergeAround(User user, List<Visit> visits, String previewId) {
         Instant firstVisitTime = visits.stream().map(Visit::getStartTime).min(Comparator.naturalOrder()).orElseThrow();
         DetectionParameter.VisitMerging mergeConfiguration;
         if (previewId == null) {
-            mergeConfiguration = this.visitDetectionParametersService.getCurrentConfiguration(user.get(), firstVisitTime).getVisitMerging();
+            mergeConfiguration = this.visitDetectionParametersService.getCurrentConfiguration(user, firstVisitTime).getVisitMerging();
         } else{
-            mergeConfiguration = this.visitDetectionParametersService.getCurrentConfiguration(user.get(), previewId).getVisitMerging();
+            mergeConfiguration = this.visitDetectionParametersService.getCurrentConfiguration(user, previewId).getVisitMerging();
         }
         Instant searchStart = visits.stream().min(Comparator.comparing(Visit::getStartTime)).map(Visit::getStartTime).map(instant -> instant.minus(mergeConfiguration.getSearchDurationInHours(), ChronoUnit.HOURS)).orElseThrow();
         Instant searchEnd = visits.stream().max(Comparator.comparing(Visit::getEndTime)).map(Visit::getEndTime).map(instant -> instant.plus(mergeConfiguration.getSearchDurationInHours(), ChronoUnit.HOURS)).orElseThrow();
 
-        processAndMergeVisits(user.get(), previewId, searchStart, searchEnd, mergeConfiguration);
+        processAndMergeVisits(user, previewId, searchStart, searchEnd, mergeConfiguration);
     }
 
     private void processAndMergeVisits(User user, String previewId, Instant searchStart, Instant searchEnd, DetectionParameter.VisitMerging mergeConfiguration) {
@@ -146,16 +163,21 @@ public class VisitMergingService {
         // Process all visits chronologically to avoid overlaps
         List<ProcessedVisit> processedVisits = mergeVisitsChronologically(user, previewId, allVisits, mergeConfiguration);
 
-        if (previewId == null) {
-            processedVisitJdbcService.bulkInsert(user, processedVisits)
-                    .stream()
-                    .sorted(Comparator.comparing(ProcessedVisit::getStartTime))
-                    .forEach(processedVisit -> this.rabbitTemplate.convertAndSend(RabbitMQConfig.EXCHANGE_NAME, RabbitMQConfig.DETECT_TRIP_ROUTING_KEY, new ProcessedVisitCreatedEvent(user.getUsername(), processedVisit.getId(), null)));
-        } else {
-            previewProcessedVisitJdbcService.bulkInsert(user, previewId, processedVisits)
-                    .stream()
-                    .sorted(Comparator.comparing(ProcessedVisit::getStartTime))
-                    .forEach(processedVisit -> this.rabbitTemplate.convertAndSend(RabbitMQConfig.EXCHANGE_NAME, RabbitMQConfig.DETECT_TRIP_ROUTING_KEY, new ProcessedVisitCreatedEvent(user.getUsername(), processedVisit.getId(), previewId)));
+        List<ProcessedVisit> storedVisits = previewId == null
+                ? processedVisitJdbcService.bulkInsert(user, processedVisits)
+                : previewProcessedVisitJdbcService.bulkInsert(user, previewId, processedVisits);
+        // all visits of this run go into one event, so trip detection looks at their time range only once
+        List<Long> storedVisitIds = storedVisits.stream()
+                .sorted(Comparator.comparing(ProcessedVisit::getStartTime))
+                .map(ProcessedVisit::getId)
+                .toList();
+        if (fused && storedVisits.size() == processedVisits.size()) {
+            this.tripDetectionService.visitsMerged(user, storedVisits, previewId);
+        } else if (fused) {
+            // some visits were stored concurrently and are missing here, detect the trips from the stored ones instead
+            this.tripDetectionService.visitsCreated(user, storedVisits, previewId);
+        } else if (!storedVisitIds.isEmpty()) {
+            this.rabbitTemplate.convertAndSend(RabbitMQConfig.EXCHANGE_NAME, RabbitMQConfig.DETECT_TRIP_ROUTING_KEY, new ProcessedVisitCreatedEvent(user.getUsername(), storedVisitIds, previewId));
         }
         logger.debug("Processed [{}] visits into [{}] merged visits for user: [{}]",
                 allVisits.size(), processedVisits.size(), user.getUsername());
@@ -180,20 +202,20 @@ public class VisitMergingService {
         Instant currentStartTime = currentVisit.getStartTime();
         Instant currentEndTime = currentVisit.getEndTime();
 
+        // places created or moved elsewhere since the last run show up in the in-memory index
+        significantPlaceJdbcService.refreshPlaceIndex(user.getId());
+
         // Find or create a place for the first visit
-        List<SignificantPlace> nearbyPlaces = findNearbyPlaces(user, currentVisit.getLatitude(), currentVisit.getLongitude());
-        SignificantPlace currentPlace = nearbyPlaces.isEmpty() ?
-                createSignificantPlace(user, currentVisit) :
-                findClosestPlace(currentVisit, nearbyPlaces);
+        SignificantPlace currentPlace = findOrCreatePlace(user, currentVisit);
+
+        // the points of the whole range are only loaded once the first gap has to be checked
+        PointTrack track = null;
 
         for (int i = 1; i < visits.size(); i++) {
             Visit nextVisit = visits.get(i);
 
-            // Find nearby places for the next visit
-            nearbyPlaces = findNearbyPlaces(user, nextVisit.getLatitude(), nextVisit.getLongitude());
-            SignificantPlace nextPlace = nearbyPlaces.isEmpty() ?
-                    createSignificantPlace(user, nextVisit) :
-                    findClosestPlace(nextVisit, nearbyPlaces);
+            // Find or create the place of the next visit
+            SignificantPlace nextPlace = findOrCreatePlace(user, nextVisit);
 
             // Check if the next visit is at the same place and within the time threshold
             boolean samePlace = nextPlace.getId().equals(currentPlace.getId());
@@ -203,14 +225,11 @@ public class VisitMergingService {
 
             //fluke detections
             if (samePlace && !withinTimeThreshold) {
-                List<RawLocationPoint> pointsBetweenVisits;
-                if (previewId == null) {
-                    pointsBetweenVisits = this.rawLocationPointJdbcService.findByUserAndTimestampBetweenOrderByTimestampAsc(user, currentEndTime, nextVisit.getStartTime());
-                } else {
-                    pointsBetweenVisits = this.previewRawLocationPointJdbcService.findByUserAndTimestampBetweenOrderByTimestampAsc(user, previewId, currentEndTime, nextVisit.getStartTime());
+                if (track == null) {
+                    track = loadTrack(user, previewId, visits);
                 }
-                if (pointsBetweenVisits.size() > 2) {
-                    double travelledDistanceInMeters = GeoUtils.calculateTripDistance(pointsBetweenVisits);
+                if (track.countBetween(currentEndTime, nextVisit.getStartTime()) > 2) {
+                    double travelledDistanceInMeters = track.distanceBetween(currentEndTime, nextVisit.getStartTime());
                     shouldMergeWithNextVisit = travelledDistanceInMeters <= mergeConfiguration.getMinDistanceBetweenVisits();
                 } else {
                     logger.debug("There are no points tracked between {} and {}. Will merge consecutive visits because they are on the same place", currentEndTime, nextVisit.getStartTime());
@@ -242,21 +261,25 @@ public class VisitMergingService {
         return result;
     }
 
-    private SignificantPlace findClosestPlace(Visit visit, List<SignificantPlace> places) {
-        return places.stream()
-                .min(Comparator.comparingDouble(place ->
-                        GeoUtils.distanceInMeters(
-                                visit.getLatitude(), visit.getLongitude(),
-                                place.getLatitudeCentroid(), place.getLongitudeCentroid())))
-                .orElseThrow(() -> new IllegalStateException("No places found"));
+    private PointTrack loadTrack(User user, String previewId, List<Visit> visits) {
+        Instant start = visits.getFirst().getStartTime();
+        Instant end = visits.stream().map(Visit::getEndTime).max(Comparator.naturalOrder()).orElseThrow();
+        PointTrack track = previewId == null
+                ? this.rawLocationPointJdbcService.findTrackByUserAndTimestampBetween(user, start, end)
+                : this.previewRawLocationPointJdbcService.findTrackByUserAndTimestampBetween(user, previewId, start, end);
+        logger.debug("Loaded [{}] points between [{}] and [{}] to check the gaps between visits", track.size(), start, end);
+        return track;
     }
 
-
-    private List<SignificantPlace> findNearbyPlaces(User user, double latitude, double longitude) {
-        // Create a point geometry
-        Point point = geometryFactory.createPoint(new Coordinate(longitude, latitude));
-        // Find places within the merge distance
-        return significantPlaceJdbcService.findNearbyPlaces(user.getId(), point, GeoUtils.metersToDegreesAtPosition(50, latitude)[0]);
+    /**
+     * The closest place within the merge distance comes from the in-memory place index, the place itself from the
+     * place cache, so neither needs a query once they are loaded.
+     */
+    private SignificantPlace findOrCreatePlace(User user, Visit visit) {
+        double distance = GeoUtils.metersToDegreesAtPosition(50, visit.getLatitude())[0];
+        return significantPlaceJdbcService.findClosestPlaceId(user.getId(), visit.getLatitude(), visit.getLongitude(), distance)
+                .flatMap(significantPlaceJdbcService::findById)
+                .orElseGet(() -> createSignificantPlace(user, visit));
     }
 
     private SignificantPlace createSignificantPlace(User user, Visit visit) {
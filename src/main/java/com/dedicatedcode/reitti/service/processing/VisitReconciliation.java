@@ -0,0 +1,94 @@
+package com.dedicatedcode.reitti.service.processing;
+
+import com.dedicatedcode.reitti.model.geo.GeoUtils;
+import com.dedicatedcode.reitti.model.geo.Visit;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares the visits detected for a time window with the ones already stored for it. Detected and stored visits are
+ * paired by how long they overlap, as long as both are close enough to be the same place, so running the detection
+ * again for mostly the same points keeps the ids of the visits and only touches the ones that really changed.
+ */
+public final class VisitReconciliation {
+
+    private VisitReconciliation() {
+    }
+
+    /**
+     * @param unchanged stored visits which were detected exactly the same again
+     * @param updated stored visits with the position and times they were detected with now
+     * @param inserted detected visits without a matching stored visit
+     * @param deleted stored visits which were not detected again
+     */
+    public record Plan(List<Visit> unchanged, List<Visit> updated, List<Visit> inserted, List<Visit> deleted) {
+    }
+
+    public static Plan plan(List<Visit> stored, List<Visit> detected, double maxDistanceInMeters) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (Visit visit : detected) {
+            for (Visit existing : stored) {
+                long overlap = overlapInSeconds(visit, existing);
+                if (overlap >= 0
+                        && GeoUtils.distanceInMeters(visit.getLatitude(), visit.getLongitude(), existing.getLatitude(), existing.getLongitude()) <= maxDistanceInMeters) {
+                    candidates.add(new Candidate(visit, existing, overlap));
+                }
+            }
+        }
+        // the pairs overlapping most are matched first, every visit is only matched once
+        candidates.sort(Comparator.comparingLong(Candidate::overlap).reversed());
+        Map<Visit, Visit> matches = new IdentityHashMap<>();
+        Set<Visit> matchedStored = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Candidate candidate : candidates) {
+            if (!matches.containsKey(candidate.detected()) && !matchedStored.contains(candidate.stored())) {
+                matches.put(candidate.detected(), candidate.stored());
+                matchedStored.add(candidate.stored());
+            }
+        }
+
+        List<Visit> unchanged = new ArrayList<>();
+        List<Visit> updated = new ArrayList<>();
+        List<Visit> inserted = new ArrayList<>();
+        for (Visit visit : detected) {
+            Visit match = matches.get(visit);
+            if (match == null) {
+                inserted.add(visit);
+            } else if (isSame(match, visit)) {
+                unchanged.add(match);
+            } else {
+                updated.add(new Visit(match.getId(), visit.getLongitude(), visit.getLatitude(), visit.getStartTime(), visit.getEndTime(),
+                        visit.getDurationSeconds(), false, match.getVersion()));
+            }
+        }
+        List<Visit> deleted = stored.stream().filter(visit -> !matchedStored.contains(visit)).toList();
+        return new Plan(unchanged, updated, inserted, deleted);
+    }
+
+    /**
+     * @return the overlap of both visits, -1 if they do not overlap at all
+     */
+    private static long overlapInSeconds(Visit first, Visit second) {
+        Instant start = first.getStartTime().isAfter(second.getStartTime()) ? first.getStartTime() : second.getStartTime();
+        Instant end = first.getEndTime().isBefore(second.getEndTime()) ? first.getEndTime() : second.getEndTime();
+        return start.isAfter(end) ? -1 : Duration.between(start, end).getSeconds();
+    }
+
+    private static boolean isSame(Visit stored, Visit detected) {
+        return stored.getStartTime().equals(detected.getStartTime())
+                && stored.getEndTime().equals(detected.getEndTime())
+                && stored.getLatitude().equals(detected.getLatitude())
+                && stored.getLongitude().equals(detected.getLongitude())
+                && !stored.isProcessed();
+    }
+
+    private record Candidate(Visit detected, Visit stored, long overlap) {
+    }
+}
@@ -0,0 +1,15 @@
+CREATE SEQUENCE raw_location_points_import_staging_import_id_seq;
+
+-- Bulk imports are copied in here first and merged into raw_location_points chunk by chunk. The table is only a
+-- staging area, so it does not need to survive a crash and skips the WAL.
+CREATE UNLOGGED TABLE raw_location_points_import_staging
+(
+    import_id       bigint                      not null,
+    user_id         bigint                      not null,
+    timestamp       timestamp(6) with time zone not null,
+    accuracy_meters double precision            not null,
+    geom            geometry(Point, 4326)       not null
+);
+
+CREATE INDEX raw_location_points_import_staging_import_id_index
+    ON raw_location_points_import_staging (import_id);
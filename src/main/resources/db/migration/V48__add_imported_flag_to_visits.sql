@@ -0,0 +1,9 @@
+-- Visits taken over from an import (e.g. Google Timeline) instead of being detected from raw location points.
+-- Visit detection must neither delete nor recreate them when it reprocesses the raw points of their time range.
+ALTER TABLE visits
+    ADD COLUMN imported BOOLEAN NOT NULL DEFAULT FALSE;
+
+ALTER TABLE preview_visits
+    ADD COLUMN imported BOOLEAN NOT NULL DEFAULT FALSE;
+
+CREATE INDEX idx_visits_user_imported ON visits (user_id, start_time) WHERE imported;
@@ -0,0 +1,11 @@
+-- The processing trigger pages through the unprocessed points of a user by timestamp. A partial index only holds
+-- the points still waiting, so it stays small however much data has been processed already.
+DROP INDEX IF EXISTS raw_location_points_processed;
+
+CREATE INDEX raw_location_points_unprocessed_user_id_timestamp_index
+    ON raw_location_points (user_id, timestamp)
+    WHERE processed = false;
+
+CREATE INDEX preview_raw_location_points_unprocessed_index
+    ON preview_raw_location_points (user_id, preview_id, timestamp)
+    WHERE processed = false;
@@ -0,0 +1,3 @@
+-- Nearby places are looked up by distance to their geometry, without an index every lookup scans all places.
+CREATE INDEX IF NOT EXISTS idx_significant_places_geom
+    ON significant_places USING GIST (geom);
@@ -1,6 +1,7 @@
 package com.dedicatedcode.reitti;
 
 import com.dedicatedcode.reitti.config.RabbitMQConfig;
+import com.dedicatedcode.reitti.config.VisitMergeShardRouter;
 import com.dedicatedcode.reitti.model.security.User;
 import com.dedicatedcode.reitti.repository.*;
 import com.dedicatedcode.reitti.service.importer.GeoJsonImporter;
@@ -13,6 +14,7 @@ import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -49,6 +51,8 @@ public class TestingService {
     private VisitJdbcService visitRepository;
     @Autowired
     private ProcessingPipelineTrigger trigger;
+    @Autowired
+    private VisitMergeShardRouter visitMergeShardRouter;
 
     public void importData(String path) {
         User admin = userJdbcService.findById(1L)
@@ -72,6 +76,12 @@ public class TestingService {
        return this.userJdbcService.createUser(new User(UUID.randomUUID().toString(), "Test User"));
     }
 
+    private List<String> queuesToCheck() {
+        List<String> queues = new ArrayList<>(QUEUES_TO_CHECK);
+        queues.addAll(visitMergeShardRouter.queueNames());
+        return queues;
+    }
+
     public void triggerProcessingPipeline(int timeout) {
         trigger.start();
         awaitDataImport(timeout);
@@ -83,7 +93,7 @@ public class TestingService {
                 .pollInterval(seconds / 10, TimeUnit.SECONDS)
                 .atMost(seconds, TimeUnit.SECONDS)
                 .alias("Wait for Queues to be empty").until(() -> {
-                    boolean queuesArEmpty = QUEUES_TO_CHECK.stream().allMatch(name -> this.rabbitAdmin.getQueueInfo(name).getMessageCount() == 0);
+                    boolean queuesArEmpty = queuesToCheck().stream().allMatch(name -> this.rabbitAdmin.getQueueInfo(name).getMessageCount() == 0);
                     if (!queuesArEmpty) {
                         return false;
                     }
@@ -96,7 +106,7 @@ public class TestingService {
     public void clearData() {
         //first, purge all messages from rabbit mq
         lastRun.set(0);
-        QUEUES_TO_CHECK.forEach(name -> this.rabbitAdmin.purgeQueue(name));
+        queuesToCheck().forEach(name -> this.rabbitAdmin.purgeQueue(name));
 
         try {
             Thread.sleep(2000);
@@ -0,0 +1,92 @@
+package com.dedicatedcode.reitti.config;
+
+import com.dedicatedcode.reitti.event.LocationDataEvent;
+import com.dedicatedcode.reitti.event.TriggerProcessingEvent;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocationDataMessageConverterTest {
+
+    @Test
+    void shouldRoundTripLocationDataInBinaryFormat() {
+        LocationDataMessageConverter converter = new LocationDataMessageConverter(new Jackson2JsonMessageConverter(), true, 64);
+        LocationDataEvent event = new LocationDataEvent("test", createBatch());
+
+        Message message = converter.toMessage(event, new MessageProperties());
+
+        assertEquals(LocationDataMessageConverter.CONTENT_TYPE, message.getMessageProperties().getContentType());
+        assertEquals(LocationDataMessageConverter.DEFLATE_ENCODING, message.getMessageProperties().getContentEncoding());
+
+        LocationDataEvent decoded = (LocationDataEvent) converter.fromMessage(message);
+        assertEquals("test", decoded.getUsername());
+        PointBatch points = decoded.getPoints();
+        assertEquals(499, points.size());
+        assertEquals(499, points.validCount());
+        // the invalidated point at index 10 is not transferred
+        assertEquals(event.getPoints().epochMillis(11), points.epochMillis(10));
+        assertEquals(event.getPoints().latitude(11), points.latitude(10), 0.0000001);
+        assertEquals(event.getPoints().longitude(11), points.longitude(10), 0.0000001);
+        assertEquals(event.getPoints().accuracyMeters(11), points.accuracyMeters(10), 0.01);
+    }
+
+    @Test
+    void shouldStillReadJsonMessages() {
+        Jackson2JsonMessageConverter jsonConverter = new Jackson2JsonMessageConverter();
+        LocationDataMessageConverter converter = new LocationDataMessageConverter(new Jackson2JsonMessageConverter(), true, -1);
+
+        Message jsonMessage = jsonConverter.toMessage(new LocationDataEvent("test", createBatch()), new MessageProperties());
+        LocationDataEvent decoded = (LocationDataEvent) converter.fromMessage(jsonMessage);
+        assertEquals(499, decoded.getPoints().validCount());
+
+        Message otherMessage = converter.toMessage(new TriggerProcessingEvent("test", null), new MessageProperties());
+        assertEquals(MessageProperties.CONTENT_TYPE_JSON, otherMessage.getMessageProperties().getContentType());
+        assertInstanceOf(TriggerProcessingEvent.class, converter.fromMessage(otherMessage));
+    }
+
+    @Test
+    void shouldReadJsonMessagesQueuedBeforeTheColumnarFormat() {
+        LocationDataMessageConverter converter = new LocationDataMessageConverter(new Jackson2JsonMessageConverter(), true, -1);
+        // as published by versions which sent the points as a list of objects
+        String body = """
+                {"username":"test","points":[
+                {"latitude":53.8646532,"longitude":10.6980228,"timestamp":"2025-06-17T05:39:50.330Z","accuracyMeters":12.5},
+                {"latitude":53.8646655,"longitude":10.6980157,"timestamp":"2025-06-17T07:40:05+02:00","accuracyMeters":8.0},
+                {"latitude":53.8646778,"longitude":10.6980086,"timestamp":"2025-06-17T05:40:20Z","accuracyMeters":7.5}
+                ],"receivedAt":1750138790.330000000}""";
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setContentEncoding("UTF-8");
+        properties.setHeader("__TypeId__", LocationDataEvent.class.getName());
+
+        LocationDataEvent decoded = (LocationDataEvent) converter.fromMessage(new Message(body.getBytes(StandardCharsets.UTF_8), properties));
+
+        assertEquals("test", decoded.getUsername());
+        PointBatch points = decoded.getPoints();
+        assertEquals(3, points.size());
+        assertEquals(3, points.validCount());
+        assertEquals(Instant.parse("2025-06-17T05:39:50.330Z").toEpochMilli(), points.epochMillis(0));
+        assertEquals(Instant.parse("2025-06-17T05:40:05Z").toEpochMilli(), points.epochMillis(1));
+        assertEquals(53.8646778, points.latitude(2), 0.0000001);
+        assertEquals(10.6980086, points.longitude(2), 0.0000001);
+        assertEquals(7.5, points.accuracyMeters(2), 0.01);
+    }
+
+    private static PointBatch createBatch() {
+        PointBatch.Builder builder = PointBatch.builder(500);
+        long start = 1_700_000_000_123L;
+        for (int i = 0; i < 500; i++) {
+            builder.add(start + i * 15_000L, 53.8646532 + i * 0.0000123, 10.6980228 - i * 0.0000071, 5 + (i % 17) * 1.25);
+        }
+        PointBatch batch = builder.build();
+        batch.invalidate(10);
+        return batch;
+    }
+}
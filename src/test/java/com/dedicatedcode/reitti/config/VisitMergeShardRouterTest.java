@@ -0,0 +1,47 @@
+package com.dedicatedcode.reitti.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VisitMergeShardRouterTest {
+
+    @Test
+    void shouldAlwaysRouteUserToSameShard() {
+        VisitMergeShardRouter router = new VisitMergeShardRouter(4);
+        int shard = router.shardFor("test");
+
+        assertEquals(shard, new VisitMergeShardRouter(4).shardFor("test"));
+        assertEquals(VisitMergeShardRouter.routingKey(shard), router.routingKeyFor("test"));
+        assertEquals(4, router.queueNames().size());
+    }
+
+    @Test
+    void shouldSpreadUsersOverAllShards() {
+        VisitMergeShardRouter router = new VisitMergeShardRouter(4);
+        int[] counts = new int[4];
+        IntStream.range(0, 4000).forEach(i -> counts[router.shardFor("user-" + i)]++);
+
+        for (int count : counts) {
+            assertTrue(count > 800 && count < 1200, "unbalanced shard with " + count + " users");
+        }
+    }
+
+    @Test
+    void shouldOnlyMoveUsersToAddedShard() {
+        VisitMergeShardRouter before = new VisitMergeShardRouter(4);
+        VisitMergeShardRouter after = new VisitMergeShardRouter(5);
+
+        IntStream.range(0, 1000).mapToObj(i -> "user-" + i).forEach(username -> {
+            int shard = after.shardFor(username);
+            assertTrue(shard == 4 || shard == before.shardFor(username));
+        });
+    }
+
+    @Test
+    void shouldRejectInvalidShardCount() {
+        assertThrows(IllegalArgumentException.class, () -> new VisitMergeShardRouter(0));
+    }
+}
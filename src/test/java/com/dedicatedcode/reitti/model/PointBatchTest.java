@@ -0,0 +1,89 @@
+package com.dedicatedcode.reitti.model;
+
+import com.dedicatedcode.reitti.dto.LocationDataRequest;
+import com.dedicatedcode.reitti.event.LocationDataEvent;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PointBatchTest {
+
+    @Test
+    void shouldParseTimestampsOnceAndMarkIncompletePointsInvalid() {
+        PointBatch batch = PointBatch.of(List.of(
+                point("2025-06-01T10:00:00Z", 10.0),
+                point("2025-06-01T12:00:00+02:00", 5.0),
+                point("not a timestamp", 5.0),
+                point("2025-06-01T10:02:00Z", null)
+        ));
+
+        assertEquals(4, batch.size());
+        assertEquals(2, batch.validCount());
+        assertTrue(batch.isValid(0));
+        assertTrue(batch.isValid(1));
+        assertFalse(batch.isValid(2));
+        assertFalse(batch.isValid(3));
+        assertEquals(Instant.parse("2025-06-01T10:00:00Z").toEpochMilli(), batch.epochMillis(0));
+        assertEquals(Instant.parse("2025-06-01T10:00:00Z").toEpochMilli(), batch.maxValidEpochMillis());
+    }
+
+    @Test
+    void shouldKeepValidityAcrossSerialization() throws Exception {
+        PointBatch.Builder builder = PointBatch.builder(1);
+        for (int i = 0; i < 130; i++) {
+            builder.add(1_000L * i, 53.0 + i / 1000.0, 10.0, 15.0);
+        }
+        PointBatch batch = builder.build();
+        batch.invalidate(0);
+        batch.invalidate(64);
+        batch.invalidate(129);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        PointBatch copy = objectMapper.readValue(objectMapper.writeValueAsString(batch), PointBatch.class);
+
+        assertEquals(130, copy.size());
+        assertEquals(127, copy.validCount());
+        assertFalse(copy.isValid(64));
+        assertEquals(53.1, copy.latitude(100), 0.000001);
+        assertEquals(127, copy.toLocationPoints().size());
+    }
+
+    @Test
+    void shouldReadEventsQueuedWithPointObjects() throws Exception {
+        String payload = """
+                {"username":"test","points":[
+                  {"latitude":53.86,"longitude":10.69,"timestamp":"2025-06-17T05:39:50.330Z","accuracyMeters":12.5},
+                  {"latitude":53.87,"longitude":10.70,"timestamp":"2025-06-17T07:40:50+02:00","accuracyMeters":8.0},
+                  {"latitude":53.88,"longitude":10.71,"timestamp":null,"accuracyMeters":8.0}
+                ],"receivedAt":1750138790.330000000}
+                """;
+
+        LocationDataEvent event = new ObjectMapper().registerModule(new JavaTimeModule()).readValue(payload, LocationDataEvent.class);
+
+        assertEquals("test", event.getUsername());
+        PointBatch batch = event.getPoints();
+        assertEquals(3, batch.size());
+        assertEquals(2, batch.validCount());
+        assertEquals(Instant.parse("2025-06-17T05:39:50.330Z").toEpochMilli(), batch.epochMillis(0));
+        assertEquals(Instant.parse("2025-06-17T05:40:50Z").toEpochMilli(), batch.epochMillis(1));
+        assertEquals(53.87, batch.latitude(1), 0.000001);
+        assertEquals(10.70, batch.longitude(1), 0.000001);
+        assertEquals(8.0, batch.accuracyMeters(1), 0.000001);
+        assertFalse(batch.isValid(2));
+    }
+
+    private static LocationDataRequest.LocationPoint point(String timestamp, Double accuracy) {
+        LocationDataRequest.LocationPoint point = new LocationDataRequest.LocationPoint();
+        point.setTimestamp(timestamp);
+        point.setLatitude(53.0);
+        point.setLongitude(10.0);
+        point.setAccuracyMeters(accuracy);
+        return point;
+    }
+}
@@ -0,0 +1,79 @@
+package com.dedicatedcode.reitti.model;
+
+import com.dedicatedcode.reitti.model.geo.GeoUtils;
+import com.dedicatedcode.reitti.model.geo.PointTrack;
+import com.dedicatedcode.reitti.model.geo.RawLocationPoint;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PointTrackTest {
+    private static final Instant START = Instant.parse("2025-06-01T10:00:00Z");
+
+    @Test
+    void shouldIncludeBothEndsOfTheRange() {
+        PointTrack track = PointTrack.builder(4)
+                .add(START, 53.0, 10.0)
+                .add(START.plusSeconds(60), 53.001, 10.0)
+                .add(START.plusSeconds(120), 53.002, 10.0)
+                .add(START.plusSeconds(180), 53.003, 10.0)
+                .build();
+
+        assertEquals(3, track.countBetween(START.plusSeconds(60), START.plusSeconds(180)));
+        assertEquals(GeoUtils.distanceInMeters(53.001, 10.0, 53.003, 10.0), track.distanceBetween(START.plusSeconds(60), START.plusSeconds(180)), 0.5);
+        assertEquals(1, track.countBetween(START.plusSeconds(61), START.plusSeconds(179)));
+        assertEquals(0.0, track.distanceBetween(START.plusSeconds(61), START.plusSeconds(179)));
+        assertEquals(0, track.countBetween(START.plusSeconds(181), START.plusSeconds(300)));
+    }
+
+    @Test
+    void shouldNotRoundSubMillisecondTimestamps() {
+        PointTrack track = PointTrack.builder(1)
+                .add(START.plusNanos(500_000), 53.0, 10.0)
+                .build();
+
+        assertEquals(0, track.countBetween(START.plusNanos(501_000), START.plusSeconds(1)));
+        assertEquals(1, track.countBetween(START.plusNanos(500_000), START.plusSeconds(1)));
+    }
+
+    @Test
+    void shouldMatchTripDistanceOfTheSameRange() {
+        Random random = new Random(7);
+        GeometryFactory factory = new GeometryFactory();
+        List<RawLocationPoint> points = new ArrayList<>();
+        PointTrack.Builder builder = PointTrack.builder(0);
+        for (int i = 0; i < 200; i++) {
+            Instant timestamp = START.plusSeconds(i * 30L);
+            double latitude = 53.0 + random.nextDouble() * 0.05;
+            double longitude = 10.0 + random.nextDouble() * 0.05;
+            points.add(new RawLocationPoint(timestamp, factory.createPoint(new Coordinate(longitude, latitude)), 10.0));
+            builder.add(timestamp, latitude, longitude);
+        }
+        PointTrack track = builder.build();
+
+        for (int i = 0; i < 50; i++) {
+            Instant start = START.plusSeconds(random.nextInt(6000));
+            Instant end = start.plusSeconds(random.nextInt(3000));
+            List<RawLocationPoint> between = points.stream()
+                    .filter(point -> !point.getTimestamp().isBefore(start) && !point.getTimestamp().isAfter(end))
+                    .toList();
+
+            assertEquals(between.size(), track.countBetween(start, end));
+            assertEquals(GeoUtils.calculateTripDistance(between), track.distanceBetween(start, end), 0.001);
+        }
+    }
+
+    @Test
+    void shouldRejectPointsOutOfOrder() {
+        PointTrack.Builder builder = PointTrack.builder(2).add(START, 53.0, 10.0);
+
+        assertThrows(IllegalArgumentException.class, () -> builder.add(START.minusSeconds(1), 53.0, 10.0));
+    }
+}
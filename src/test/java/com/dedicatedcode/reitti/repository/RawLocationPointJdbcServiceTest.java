@@ -0,0 +1,137 @@
+package com.dedicatedcode.reitti.repository;
+
+import com.dedicatedcode.reitti.IntegrationTest;
+import com.dedicatedcode.reitti.model.Role;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
+import com.dedicatedcode.reitti.model.processing.ProcessingChunk;
+import com.dedicatedcode.reitti.model.security.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@IntegrationTest
+public class RawLocationPointJdbcServiceTest {
+    private static final long START = Instant.parse("2025-01-01T10:00:00Z").toEpochMilli();
+
+    @Autowired
+    private RawLocationPointJdbcService rawLocationPointJdbcService;
+    @Autowired
+    private UserJdbcService userJdbcService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        String username = "user_" + UUID.randomUUID().toString().replace("-", "").substring(0, 8);
+        jdbcTemplate.update(
+                "INSERT INTO users (username, password, display_name, role) VALUES (?, ?, ?, ?)",
+                username, "password", "Test User", Role.USER.name()
+        );
+        user = userJdbcService.findByUsername(username).orElseThrow();
+    }
+
+    @Test
+    void shouldFilterAndDeduplicateStagedImport() {
+        PointBatch batch = PointBatch.builder(8)
+                .add(START, 60.0, 25.0, 10)
+                .add(START + 60_000, 60.0001, 25.0, 10)
+                .add(START + 60_000, 60.0001, 25.0, 20)
+                .add(START + 120_000, 60.0002, 25.0, 10)
+                // far away and less accurate than its neighbours
+                .add(START + 180_000, 60.5, 25.0, 50)
+                .add(START + 240_000, 60.0003, 25.0, 10)
+                // accuracy above the configured maximum
+                .add(START + 300_000, 60.0004, 25.0, 500)
+                .build();
+
+        long importId = rawLocationPointJdbcService.nextImportId();
+        rawLocationPointJdbcService.stageForImport(importId, user, batch);
+        int inserted = rawLocationPointJdbcService.mergeImportStaging(importId, 100, 1000, 5000);
+
+        assertThat(inserted).isEqualTo(4);
+        assertThat(rawLocationPointJdbcService.countByUser(user)).isEqualTo(4);
+        assertThat(jdbcTemplate.queryForObject("SELECT accuracy_meters FROM raw_location_points WHERE user_id = ? AND timestamp = ?",
+                Double.class, user.getId(), Timestamp.from(Instant.ofEpochMilli(START + 60_000)))).isEqualTo(10.0);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM raw_location_points_import_staging WHERE import_id = ?", Long.class, importId)).isZero();
+
+        long secondImport = rawLocationPointJdbcService.nextImportId();
+        rawLocationPointJdbcService.stageForImport(secondImport, user, batch);
+        assertThat(rawLocationPointJdbcService.mergeImportStaging(secondImport, 100, 1000, 5000)).isZero();
+    }
+
+    @Test
+    void shouldCheckTheEdgesOfAChunkAgainstStoredPoints() {
+        long importId = rawLocationPointJdbcService.nextImportId();
+        rawLocationPointJdbcService.stageForImport(importId, user, PointBatch.builder(2)
+                .add(START, 60.0, 25.0, 10)
+                .add(START + 60_000, 60.0001, 25.0, 10)
+                .build());
+        assertThat(rawLocationPointJdbcService.mergeImportStaging(importId, 100, 1000, 5000)).isEqualTo(2);
+
+        // the only point of the next chunk, far away from the last point of the previous one
+        rawLocationPointJdbcService.stageForImport(importId, user, PointBatch.builder(1)
+                .add(START + 120_000, 60.5, 25.0, 50)
+                .build());
+        assertThat(rawLocationPointJdbcService.mergeImportStaging(importId, 100, 1000, 5000)).isZero();
+
+        rawLocationPointJdbcService.stageForImport(importId, user, PointBatch.builder(1)
+                .add(START + 180_000, 60.0002, 25.0, 10)
+                .build());
+        assertThat(rawLocationPointJdbcService.mergeImportStaging(importId, 100, 1000, 5000)).isEqualTo(1);
+        assertThat(rawLocationPointJdbcService.countByUser(user)).isEqualTo(3);
+    }
+
+    @Test
+    void shouldNotMergeStagedPointsTwiceWithinOneTransaction() {
+        transactionTemplate.executeWithoutResult(_ -> {
+            rawLocationPointJdbcService.bulkInsert(user, PointBatch.builder(1).add(START, 60.0, 25.0, 10).build());
+            jdbcTemplate.update("DELETE FROM raw_location_points WHERE user_id = ?", user.getId());
+            rawLocationPointJdbcService.bulkInsert(user, PointBatch.builder(1).add(START + 60_000, 60.0, 25.0, 10).build());
+        });
+
+        assertThat(rawLocationPointJdbcService.countByUser(user)).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM raw_location_points WHERE user_id = ? AND timestamp = ?",
+                Long.class, user.getId(), Timestamp.from(Instant.ofEpochMilli(START)))).isZero();
+    }
+
+    @Test
+    void shouldMarkUnprocessedPointsInChunks() {
+        rawLocationPointJdbcService.bulkInsert(user, PointBatch.builder(6)
+                .add(START, 60.0, 25.0, 10)
+                .add(START + 60_000, 60.0, 25.0, 10)
+                .add(START + 120_000, 60.0, 25.0, 10)
+                .add(START + 180_000, 60.0, 25.0, 10)
+                // a long gap ends the chunk even though the limit is not reached
+                .add(START + 36_000_000, 60.0, 25.0, 10)
+                .add(START + 36_060_000, 60.0, 25.0, 10)
+                .build());
+
+        ProcessingChunk first = rawLocationPointJdbcService.markNextChunkProcessed(user, null, 3, Duration.ofHours(1)).orElseThrow();
+        assertThat(first.count()).isEqualTo(3);
+        assertThat(first.earliest()).isEqualTo(Instant.ofEpochMilli(START));
+        assertThat(first.latest()).isEqualTo(Instant.ofEpochMilli(START + 120_000));
+
+        ProcessingChunk second = rawLocationPointJdbcService.markNextChunkProcessed(user, first.latest(), 3, Duration.ofHours(1)).orElseThrow();
+        assertThat(second.count()).isEqualTo(1);
+        assertThat(second.latest()).isEqualTo(Instant.ofEpochMilli(START + 180_000));
+
+        ProcessingChunk third = rawLocationPointJdbcService.markNextChunkProcessed(user, second.latest(), 3, Duration.ofHours(1)).orElseThrow();
+        assertThat(third.count()).isEqualTo(2);
+
+        assertThat(rawLocationPointJdbcService.markNextChunkProcessed(user, third.latest(), 3, Duration.ofHours(1))).isEmpty();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM raw_location_points WHERE user_id = ? AND processed = false", Long.class, user.getId())).isZero();
+    }
+}
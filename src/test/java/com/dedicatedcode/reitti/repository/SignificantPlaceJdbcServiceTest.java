@@ -101,6 +101,71 @@ class SignificantPlaceJdbcServiceTest {
         assertThat(nearbyPlaces.get(0).getName()).isEqualTo("Near Place");
     }
 
+    @Test
+    void findClosestPlaceId_shouldSeePlacesCreatedAndMovedAfterFirstLookup() {
+        // Given
+        assertThat(significantPlaceJdbcService.findClosestPlaceId(testUser.getId(), 53.863149, 10.700927, 0.003)).isEmpty();
+
+        // When
+        SignificantPlace created = significantPlaceJdbcService.create(testUser, createTestPlace("Near Place", 53.863200, 10.701000));
+
+        // Then
+        assertThat(significantPlaceJdbcService.findClosestPlaceId(testUser.getId(), 53.863149, 10.700927, 0.003)).contains(created.getId());
+
+        // When
+        significantPlaceJdbcService.update(new SignificantPlace(created.getId(), created.getName(), null, null, 53.870000, 10.720000,
+                created.getType(), created.getTimezone(), false, created.getVersion()));
+
+        // Then
+        assertThat(significantPlaceJdbcService.findClosestPlaceId(testUser.getId(), 53.863149, 10.700927, 0.003)).isEmpty();
+    }
+
+    @Test
+    void findClosestPlaceId_shouldReturnTheClosestOfTheNearbyPlaces() {
+        // Given
+        significantPlaceJdbcService.create(testUser, createTestPlace("Near Place", 53.863400, 10.701200));
+        SignificantPlace closest = significantPlaceJdbcService.create(testUser, createTestPlace("Closest Place", 53.863200, 10.701000));
+        significantPlaceJdbcService.create(otherUser, createTestPlaceForUser(otherUser, "Other Place", 53.863149, 10.700927));
+
+        // When
+        Optional<Long> result = significantPlaceJdbcService.findClosestPlaceId(testUser.getId(), 53.863149, 10.700927, 0.003);
+
+        // Then
+        assertThat(result).contains(closest.getId());
+    }
+
+    @Test
+    void refreshPlaceIndex_shouldPickUpPlacesChangedElsewhere() {
+        // Given
+        SignificantPlace moved = significantPlaceJdbcService.create(testUser, createTestPlace("Moved Place", 53.863200, 10.701000));
+        assertThat(significantPlaceJdbcService.findClosestPlaceId(testUser.getId(), 53.863149, 10.700927, 0.003)).contains(moved.getId());
+        // as another instance would do it
+        jdbcTemplate.update("UPDATE significant_places SET latitude_centroid = 53.870000, longitude_centroid = 10.720000 WHERE id = ?", moved.getId());
+        Long inserted = jdbcTemplate.queryForObject("INSERT INTO significant_places (user_id, name, latitude_centroid, longitude_centroid, geom) " +
+                "VALUES (?, 'Inserted Place', 53.880000, 10.730000, ST_GeomFromText('POINT(10.73 53.88)', '4326')) RETURNING id", Long.class, testUser.getId());
+
+        // When
+        significantPlaceJdbcService.refreshPlaceIndex(testUser.getId());
+
+        // Then
+        assertThat(significantPlaceJdbcService.findClosestPlaceId(testUser.getId(), 53.863149, 10.700927, 0.003)).isEmpty();
+        assertThat(significantPlaceJdbcService.findClosestPlaceId(testUser.getId(), 53.870000, 10.720000, 0.003)).contains(moved.getId());
+        assertThat(significantPlaceJdbcService.findClosestPlaceId(testUser.getId(), 53.880000, 10.730000, 0.003)).contains(inserted);
+    }
+
+    @Test
+    void deleteForUser_shouldDropThePlacesFromTheIndex() {
+        // Given
+        significantPlaceJdbcService.create(testUser, createTestPlace("Near Place", 53.863200, 10.701000));
+        assertThat(significantPlaceJdbcService.findClosestPlaceId(testUser.getId(), 53.863149, 10.700927, 0.003)).isPresent();
+
+        // When
+        significantPlaceJdbcService.deleteForUser(testUser);
+
+        // Then
+        assertThat(significantPlaceJdbcService.findClosestPlaceId(testUser.getId(), 53.863149, 10.700927, 0.003)).isEmpty();
+    }
+
     @Test
     void create_shouldPersistNewPlace() {
         // Given
@@ -0,0 +1,147 @@
+package com.dedicatedcode.reitti.repository;
+
+import com.dedicatedcode.reitti.IntegrationTest;
+import com.dedicatedcode.reitti.model.Role;
+import com.dedicatedcode.reitti.model.geo.Visit;
+import com.dedicatedcode.reitti.model.security.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@IntegrationTest
+class VisitJdbcServiceTest {
+    private static final Instant START = Instant.parse("2025-06-17T06:00:00Z");
+
+    @Autowired
+    private VisitJdbcService visitJdbcService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private User testUser;
+
+    @BeforeEach
+    void setUp() {
+        String username = "testuser_" + UUID.randomUUID();
+        Long userId = jdbcTemplate.queryForObject(
+                "INSERT INTO users (username, password, display_name, role) VALUES (?, ?, ?, ?) RETURNING id",
+                Long.class,
+                username, "password", "Test User", "USER"
+        );
+        testUser = new User(userId, username, "password", "Test User", null, null, Role.USER, 0L);
+    }
+
+    @Test
+    void bulkUpdate_shouldUpdateNothingWhenOneVisitWasModified() throws Exception {
+        // Given
+        Visit first = visitJdbcService.create(testUser, visit(0));
+        Visit second = visitJdbcService.create(testUser, visit(2));
+        visitJdbcService.update(second);
+
+        // When
+        List<Visit> changed = List.of(moved(first, 1), moved(second, 3));
+
+        // Then
+        assertThatThrownBy(() -> visitJdbcService.bulkUpdate(changed)).isInstanceOf(OptimisticLockException.class);
+        Visit stored = visitJdbcService.findById(first.getId()).orElseThrow();
+        assertThat(stored.getStartTime()).isEqualTo(first.getStartTime());
+        assertThat(stored.getVersion()).isEqualTo(first.getVersion());
+    }
+
+    @Test
+    void bulkUpdate_shouldFailForDeletedVisits() throws Exception {
+        // Given
+        Visit first = visitJdbcService.create(testUser, visit(0));
+        visitJdbcService.delete(List.of(first));
+
+        // Then
+        assertThatThrownBy(() -> visitJdbcService.bulkUpdate(List.of(moved(first, 1)))).isInstanceOf(OptimisticLockException.class);
+    }
+
+    @Test
+    void bulkUpdate_shouldKeepVisitWhenItsNewTimeRangeIsTaken() throws Exception {
+        // Given
+        Visit imported = visitJdbcService.bulkInsertImported(testUser, List.of(visit(4))).getFirst();
+        Visit detected = visitJdbcService.create(testUser, visit(0));
+        Visit other = visitJdbcService.create(testUser, visit(2));
+
+        // When
+        List<Visit> updated = visitJdbcService.bulkUpdate(List.of(moved(detected, 4), moved(other, 1)));
+
+        // Then
+        assertThat(updated).extracting(Visit::getId).containsExactly(other.getId());
+        assertThat(updated.getFirst().getVersion()).isEqualTo(other.getVersion() + 1);
+        Visit stored = visitJdbcService.findById(detected.getId()).orElseThrow();
+        assertThat(stored.getStartTime()).isEqualTo(detected.getStartTime());
+        assertThat(stored.getVersion()).isEqualTo(detected.getVersion());
+        assertThat(visitJdbcService.findById(imported.getId())).isPresent();
+    }
+
+    @Test
+    void applyChanges_shouldStoreNothingWhenOneVisitWasModified() throws Exception {
+        // Given
+        Visit deleted = visitJdbcService.create(testUser, visit(0));
+        Visit modified = visitJdbcService.create(testUser, visit(2));
+        visitJdbcService.update(modified);
+
+        // Then
+        assertThatThrownBy(() -> visitJdbcService.applyChanges(testUser, List.of(deleted), List.of(moved(modified, 3)), List.of(visit(6))))
+                .isInstanceOf(OptimisticLockException.class);
+        assertThat(visitJdbcService.findById(deleted.getId())).isPresent();
+        assertThat(visitJdbcService.findByUser(testUser)).extracting(Visit::getStartTime)
+                .containsExactly(START, START.plusSeconds(2 * 3600));
+    }
+
+    @Test
+    void bulkInsertImported_shouldSkipTakenTimeRanges() {
+        // Given
+        visitJdbcService.create(testUser, visit(2));
+        List<Visit> visits = new ArrayList<>();
+        for (int hour = 0; hour < 1200; hour++) {
+            visits.add(visit(hour));
+        }
+        visits.add(visit(5));
+
+        // When
+        List<Visit> imported = visitJdbcService.bulkInsertImported(testUser, visits);
+
+        // Then
+        assertThat(imported).hasSize(1199);
+        assertThat(imported).extracting(Visit::getStartTime).doesNotHaveDuplicates().doesNotContain(START.plusSeconds(2 * 3600));
+        assertThat(visitJdbcService.findByUser(testUser)).hasSize(1200);
+    }
+
+    @Test
+    void findImportedIds_shouldOnlyReturnImportedVisitsOfTheRange() {
+        // Given
+        List<Visit> imported = visitJdbcService.bulkInsertImported(testUser, List.of(visit(0), visit(2), visit(4), visit(6)));
+        visitJdbcService.create(testUser, visit(3));
+
+        // When
+        List<Long> between = visitJdbcService.findImportedIdsByUserBetween(testUser, START.plusSeconds(2 * 3600 + 900), START.plusSeconds(4 * 3600));
+        List<Long> after = visitJdbcService.findImportedIdsByUserAfter(testUser, START.plusSeconds(4 * 3600 + 900));
+
+        // Then
+        assertThat(between).containsExactly(imported.get(1).getId(), imported.get(2).getId());
+        assertThat(after).containsExactly(imported.get(2).getId(), imported.get(3).getId());
+    }
+
+    private static Visit visit(int startHour) {
+        Instant start = START.plusSeconds(startHour * 3600L);
+        return new Visit(10.700927, 53.863149, start, start.plusSeconds(1800), 1800L, false);
+    }
+
+    private static Visit moved(Visit visit, int startHour) {
+        Instant start = START.plusSeconds(startHour * 3600L);
+        return new Visit(visit.getId(), visit.getLongitude(), visit.getLatitude(), start, start.plusSeconds(1800), 1800L, visit.isProcessed(), visit.getVersion());
+    }
+}
@@ -0,0 +1,121 @@
+package com.dedicatedcode.reitti.service;
+
+import com.dedicatedcode.reitti.dto.LocationDataRequest;
+import com.dedicatedcode.reitti.model.Role;
+import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.repository.UserJdbcService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class LocationIngestCoalescerTest {
+
+    private final User user = new User(1L, "test", "password", "Test User", null, null, Role.USER, 1L);
+    private final UserJdbcService userJdbcService = mock(UserJdbcService.class);
+
+    @BeforeEach
+    void setUp() {
+        when(userJdbcService.findById(1L)).thenReturn(Optional.of(user));
+    }
+
+    @Test
+    void shouldFlushWhenBufferIsFull() {
+        ImportBatchProcessor batchProcessor = mock(ImportBatchProcessor.class);
+        LocationIngestCoalescer coalescer = new LocationIngestCoalescer(batchProcessor, userJdbcService, 3, 60_000);
+
+        for (int i = 0; i < 7; i++) {
+            coalescer.add(user, point(i));
+        }
+
+        verify(batchProcessor, times(2)).sendLiveToQueue(eq(user), argThat((List<LocationDataRequest.LocationPoint> points) -> points.size() == 3));
+        coalescer.shutdown();
+        verify(batchProcessor, times(1)).sendLiveToQueue(eq(user), argThat((List<LocationDataRequest.LocationPoint> points) -> points.size() == 1));
+    }
+
+    @Test
+    void shouldFlushAfterMaxDelay() {
+        ImportBatchProcessor batchProcessor = mock(ImportBatchProcessor.class);
+        LocationIngestCoalescer coalescer = new LocationIngestCoalescer(batchProcessor, userJdbcService, 250, 50);
+
+        coalescer.add(user, point(0));
+        coalescer.add(user, point(1));
+
+        verify(batchProcessor, timeout(2000).times(1)).sendLiveToQueue(eq(user), argThat((List<LocationDataRequest.LocationPoint> points) -> points.size() == 2));
+        coalescer.shutdown();
+        verify(batchProcessor, times(1)).sendLiveToQueue(eq(user), anyList());
+    }
+
+    @Test
+    void shouldQueueBatchesInReceivedOrder() {
+        ImportBatchProcessor batchProcessor = mock(ImportBatchProcessor.class);
+        // the timer flushes concurrently to the flushes of full buffers
+        LocationIngestCoalescer coalescer = new LocationIngestCoalescer(batchProcessor, userJdbcService, 3, 1);
+
+        List<LocationDataRequest.LocationPoint> received = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            LocationDataRequest.LocationPoint point = point(i % 60);
+            received.add(point);
+            coalescer.add(user, point);
+        }
+        coalescer.shutdown();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<LocationDataRequest.LocationPoint>> batches = ArgumentCaptor.forClass(List.class);
+        verify(batchProcessor, atLeastOnce()).sendLiveToQueue(eq(user), batches.capture());
+        List<LocationDataRequest.LocationPoint> queued = batches.getAllValues().stream().flatMap(List::stream).toList();
+        assertEquals(received.size(), queued.size());
+        for (int i = 0; i < received.size(); i++) {
+            assertSame(received.get(i), queued.get(i));
+        }
+    }
+
+    @Test
+    void shouldQueuePointsRightAwayAfterShutdown() {
+        ImportBatchProcessor batchProcessor = mock(ImportBatchProcessor.class);
+        LocationIngestCoalescer coalescer = new LocationIngestCoalescer(batchProcessor, userJdbcService, 250, 60_000);
+
+        coalescer.add(user, point(0));
+        coalescer.shutdown();
+        coalescer.add(user, point(1));
+
+        verify(batchProcessor, times(2)).sendLiveToQueue(eq(user), argThat((List<LocationDataRequest.LocationPoint> points) -> points.size() == 1));
+    }
+
+    @Test
+    void shouldResolveTheUserWhenQueueing() {
+        ImportBatchProcessor batchProcessor = mock(ImportBatchProcessor.class);
+        LocationIngestCoalescer coalescer = new LocationIngestCoalescer(batchProcessor, userJdbcService, 2, 60_000);
+        User renamed = new User(1L, "renamed", "password", "Test User", null, null, Role.USER, 2L);
+
+        coalescer.add(user, point(0));
+        when(userJdbcService.findById(1L)).thenReturn(Optional.of(renamed));
+        coalescer.add(user, point(1));
+        verify(batchProcessor, times(1)).sendLiveToQueue(eq(renamed), argThat((List<LocationDataRequest.LocationPoint> points) -> points.size() == 2));
+
+        coalescer.add(user, point(2));
+        when(userJdbcService.findById(1L)).thenReturn(Optional.empty());
+        coalescer.shutdown();
+        verify(batchProcessor, times(1)).sendLiveToQueue(any(User.class), anyList());
+    }
+
+    private static LocationDataRequest.LocationPoint point(int second) {
+        LocationDataRequest.LocationPoint point = new LocationDataRequest.LocationPoint();
+        point.setLatitude(60.0);
+        point.setLongitude(25.0);
+        point.setAccuracyMeters(10.0);
+        point.setTimestamp(String.format("2025-01-01T00:00:%02dZ", second));
+        return point;
+    }
+}
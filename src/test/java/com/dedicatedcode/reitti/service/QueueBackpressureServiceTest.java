@@ -0,0 +1,69 @@
+package com.dedicatedcode.reitti.service;
+
+import com.dedicatedcode.reitti.config.RabbitMQConfig;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class QueueBackpressureServiceTest {
+
+    @Test
+    void shouldOnlyHandOutCreditsBelowTheQueueLimit() {
+        QueueStatsService queueStatsService = mock(QueueStatsService.class);
+        when(queueStatsService.getMessageCount(RabbitMQConfig.LOCATION_DATA_QUEUE)).thenReturn(195, 0);
+        when(queueStatsService.getConsumerCount(RabbitMQConfig.LOCATION_DATA_QUEUE)).thenReturn(1);
+        QueueBackpressureService service = new QueueBackpressureService(queueStatsService, true, 200, 20, 1000, 10, 600);
+
+        for (int i = 0; i < 5; i++) {
+            service.acquireImportCredit();
+            service.recordPublished();
+        }
+        verify(queueStatsService, times(1)).getMessageCount(RabbitMQConfig.LOCATION_DATA_QUEUE);
+
+        // the queue is full now, the next credit needs a fresh sample showing the queue got drained
+        service.acquireImportCredit();
+        verify(queueStatsService, times(2)).getMessageCount(RabbitMQConfig.LOCATION_DATA_QUEUE);
+    }
+
+    @Test
+    void shouldRejectIngestAboveLimit() {
+        QueueStatsService queueStatsService = mock(QueueStatsService.class);
+        when(queueStatsService.getMessageCount(RabbitMQConfig.LOCATION_DATA_QUEUE)).thenReturn(1500);
+        QueueBackpressureService service = new QueueBackpressureService(queueStatsService, true, 200, 20, 1000, 10, 600);
+
+        assertTrue(service.isIngestOverloaded());
+        assertTrue(service.getRetryAfterSeconds() >= 1);
+
+        QueueBackpressureService disabled = new QueueBackpressureService(queueStatsService, false, 200, 20, 1000, 10, 600);
+        assertFalse(disabled.isIngestOverloaded());
+    }
+
+    @Test
+    void shouldGiveUpWhenTheQueueDoesNotDrain() {
+        QueueStatsService queueStatsService = mock(QueueStatsService.class);
+        when(queueStatsService.getMessageCount(RabbitMQConfig.LOCATION_DATA_QUEUE)).thenReturn(250);
+        when(queueStatsService.getConsumerCount(RabbitMQConfig.LOCATION_DATA_QUEUE)).thenReturn(0);
+        QueueBackpressureService service = new QueueBackpressureService(queueStatsService, true, 200, 20, 1000, 10, 1);
+
+        long start = System.currentTimeMillis();
+        ImportBackpressureException exception = assertThrows(ImportBackpressureException.class, service::acquireImportCredit);
+
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+        assertTrue(exception.getMessage().contains("[0] consumers"));
+        verify(queueStatsService, atLeast(2)).getMessageCount(RabbitMQConfig.LOCATION_DATA_QUEUE);
+    }
+
+    @Test
+    void shouldGiveUpWhenInterrupted() {
+        QueueStatsService queueStatsService = mock(QueueStatsService.class);
+        when(queueStatsService.getMessageCount(RabbitMQConfig.LOCATION_DATA_QUEUE)).thenReturn(250);
+        QueueBackpressureService service = new QueueBackpressureService(queueStatsService, true, 200, 20, 1000, 10, 600);
+
+        Thread.currentThread().interrupt();
+        assertThrows(ImportBackpressureException.class, service::acquireImportCredit);
+
+        // the flag is restored for the caller, Thread.interrupted() clears it again for the following tests
+        assertTrue(Thread.interrupted());
+    }
+}
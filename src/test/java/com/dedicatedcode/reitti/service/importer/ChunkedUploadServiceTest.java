@@ -0,0 +1,182 @@
+package com.dedicatedcode.reitti.service.importer;
+
+import com.dedicatedcode.reitti.event.ImportProgress;
+import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.service.ImportBatchProcessor;
+import com.dedicatedcode.reitti.service.UserNotificationService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ChunkedUploadServiceTest {
+
+    private final User user = new User("test", "Test User");
+
+    @TempDir
+    Path uploadDirectory;
+
+    private GpxImporter gpxImporter;
+    private UserNotificationService notificationService;
+    private ChunkedUploadService service;
+
+    @BeforeEach
+    void setUp() {
+        gpxImporter = mock(GpxImporter.class);
+        notificationService = mock(UserNotificationService.class);
+        service = new ChunkedUploadService(gpxImporter, mock(GeoJsonImporter.class), mock(GoogleRecordsImporter.class),
+                mock(GoogleAndroidTimelineImporter.class), mock(GoogleIOSTimelineImporter.class), mock(GoogleTakeoutImporter.class), mock(BulkLocationImportService.class), mock(ImportBatchProcessor.class),
+                notificationService, uploadDirectory, DataSize.ofMegabytes(1), DataSize.ofKilobytes(8), Duration.ofHours(1), 1, 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void shouldResumeAfterBrokenChunk() throws Exception {
+        byte[] content = "<gpx><trk><trkseg></trkseg></trk></gpx>".getBytes(StandardCharsets.UTF_8);
+        UploadSession session = service.start(user, "track.gpx", ImportFormat.GPX, content.length);
+        byte[] first = Arrays.copyOfRange(content, 0, 10);
+        byte[] second = Arrays.copyOfRange(content, 10, content.length);
+
+        assertEquals(10, service.appendChunk(user, session.getId(), 0, sha256(first), new ByteArrayInputStream(first)));
+
+        ChunkedUploadException checksum = assertThrows(ChunkedUploadException.class,
+                () -> service.appendChunk(user, session.getId(), 10, sha256(first), new ByteArrayInputStream(second)));
+        assertEquals(ChunkedUploadException.Reason.CHECKSUM_MISMATCH, checksum.getReason());
+        assertEquals(10, checksum.getCurrentOffset());
+        assertEquals(10, Files.size(session.getFile()));
+
+        ChunkedUploadException offset = assertThrows(ChunkedUploadException.class,
+                () -> service.appendChunk(user, session.getId(), 0, sha256(first), new ByteArrayInputStream(first)));
+        assertEquals(ChunkedUploadException.Reason.OFFSET_MISMATCH, offset.getReason());
+        assertEquals(10, offset.getCurrentOffset());
+
+        assertEquals(content.length, service.appendChunk(user, session.getId(), 10, sha256(second), new ByteArrayInputStream(second)));
+        assertArrayEquals(content, Files.readAllBytes(session.getFile()));
+    }
+
+    @Test
+    void shouldRejectUploadsOfOtherUsers() throws Exception {
+        UploadSession session = service.start(user, "track.gpx", ImportFormat.GPX, 10);
+
+        User other = new User("other", "Other User");
+        assertTrue(service.find(other, session.getId()).isEmpty());
+        ChunkedUploadException e = assertThrows(ChunkedUploadException.class,
+                () -> service.appendChunk(other, session.getId(), 0, null, new ByteArrayInputStream(new byte[10])));
+        assertEquals(ChunkedUploadException.Reason.NOT_FOUND, e.getReason());
+    }
+
+    @Test
+    void shouldImportCompletedUploadInBackground() throws Exception {
+        byte[] content = "<gpx></gpx>".getBytes(StandardCharsets.UTF_8);
+        AtomicReference<String> parsed = new AtomicReference<>();
+        when(gpxImporter.importGpx(any(InputStream.class), eq(user))).thenAnswer(invocation -> {
+            parsed.set(new String(invocation.getArgument(0, InputStream.class).readAllBytes(), StandardCharsets.UTF_8));
+            return Map.of("success", true, "message", "done", "pointsReceived", 0);
+        });
+
+        UploadSession session = service.start(user, "track.gpx", ImportFormat.GPX, content.length);
+        ChunkedUploadException incomplete = assertThrows(ChunkedUploadException.class, () -> service.complete(user, session.getId()));
+        assertEquals(ChunkedUploadException.Reason.INCOMPLETE, incomplete.getReason());
+
+        service.appendChunk(user, session.getId(), 0, null, new ByteArrayInputStream(content));
+        service.complete(user, session.getId());
+
+        verify(notificationService, timeout(2000)).importProgress(eq(user), argThat(progress -> progress.getState() == ImportProgress.State.COMPLETED
+                && progress.getBytesParsed() == content.length
+                && "done".equals(progress.getMessage())));
+        assertEquals("<gpx></gpx>", parsed.get());
+        assertEquals(UploadSession.State.COMPLETED, session.getState());
+        assertFalse(Files.exists(session.getFile()));
+    }
+
+    @Test
+    void shouldNotLockTheUploadWhileReceivingAChunk() throws Exception {
+        byte[] content = "<gpx></gpx>".getBytes(StandardCharsets.UTF_8);
+        UploadSession session = service.start(user, "track.gpx", ImportFormat.GPX, content.length);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        InputStream slowClient = new SequenceInputStream(new ByteArrayInputStream(content, 0, 5), new InputStream() {
+            private final InputStream rest = new ByteArrayInputStream(content, 5, content.length - 5);
+
+            @Override
+            public int read() throws IOException {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return rest.read();
+            }
+        });
+        CompletableFuture<Long> upload = CompletableFuture.supplyAsync(() -> {
+            try {
+                return service.appendChunk(user, session.getId(), 0, sha256(content), slowClient);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+        assertTrue(reading.await(2, TimeUnit.SECONDS));
+
+        // a chunk still being received does not count and does not block other requests of the upload
+        ChunkedUploadException incomplete = assertTimeoutPreemptively(Duration.ofSeconds(2), () -> assertThrows(ChunkedUploadException.class, () -> service.complete(user, session.getId())));
+        assertEquals(ChunkedUploadException.Reason.INCOMPLETE, incomplete.getReason());
+        assertEquals(0, Files.size(session.getFile()));
+
+        release.countDown();
+        assertEquals(content.length, upload.get(2, TimeUnit.SECONDS));
+        assertArrayEquals(content, Files.readAllBytes(session.getFile()));
+        try (var files = Files.list(uploadDirectory)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void shouldReadLargeFilesWindowByWindow() throws Exception {
+        byte[] content = new byte[10_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        Path file = uploadDirectory.resolve("mapped.bin");
+        Files.write(file, content);
+
+        try (MappedFileInputStream in = new MappedFileInputStream(file, 4096)) {
+            assertArrayEquals(content, in.readAllBytes());
+            assertEquals(content.length, in.getPosition());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+}
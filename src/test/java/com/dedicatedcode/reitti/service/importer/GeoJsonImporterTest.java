@@ -0,0 +1,86 @@
+package com.dedicatedcode.reitti.service.importer;
+
+import com.dedicatedcode.reitti.config.RabbitMQConfig;
+import com.dedicatedcode.reitti.event.LocationDataEvent;
+import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.service.ImportBatchProcessor;
+import com.dedicatedcode.reitti.service.ImportStateHolder;
+import com.dedicatedcode.reitti.service.QueueBackpressureService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class GeoJsonImporterTest {
+
+    private static final String FEATURE_1 = "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[10.1,53.1]},\"properties\":{\"timestamp\":\"2025-06-01T10:00:00Z\",\"accuracy\":12}}";
+    private static final String FEATURE_2 = "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[10.2,53.2]},\"properties\":{\"time\":\"2025-06-01T10:01:00Z\"}}";
+    private static final String FEATURE_3 = "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[10.3,53.3]},\"properties\":{\"time\":\"2025-06-01T10:02:00Z\"}}";
+
+    @Test
+    void shouldStreamFeatureCollectionWithTypeAfterFeatures() {
+        RabbitTemplate mock = mock(RabbitTemplate.class);
+        GeoJsonImporter importer = createImporter(mock);
+
+        String json = "{\"features\":[" + FEATURE_1 + "," + FEATURE_2 + "," + FEATURE_3 + "],\"type\":\"FeatureCollection\"}";
+        Map<String, Object> result = importer.importGeoJson(stream(json), new User("test", "Test User"));
+
+        assertTrue((Boolean) result.get("success"));
+        assertEquals(3, result.get("pointsReceived"));
+        verify(mock, times(2)).convertAndSend(eq(RabbitMQConfig.EXCHANGE_NAME), eq(RabbitMQConfig.LOCATION_DATA_ROUTING_KEY), any(LocationDataEvent.class));
+    }
+
+    @Test
+    void shouldImportGeoJsonTextSequence() {
+        RabbitTemplate mock = mock(RabbitTemplate.class);
+        GeoJsonImporter importer = createImporter(mock);
+
+        String sequence = "\u001E" + FEATURE_1 + "\n\u001E" + FEATURE_2 + "\n" + FEATURE_3 + "\n";
+        Map<String, Object> result = importer.importGeoJson(stream(sequence), new User("test", "Test User"));
+
+        assertTrue((Boolean) result.get("success"));
+        assertEquals(3, result.get("pointsReceived"));
+    }
+
+    @Test
+    void shouldRejectUnsupportedTypes() {
+        GeoJsonImporter importer = createImporter(mock(RabbitTemplate.class));
+
+        Map<String, Object> result = importer.importGeoJson(stream("{\"type\":\"LineString\",\"coordinates\":[]}"), new User("test", "Test User"));
+
+        assertFalse((Boolean) result.get("success"));
+    }
+
+    @Test
+    void shouldNotQueueFeaturesOfUnsupportedRootObjects() {
+        RabbitTemplate mock = mock(RabbitTemplate.class);
+        GeoJsonImporter importer = createImporter(mock);
+
+        String missingType = "{\"features\":[" + FEATURE_1 + "," + FEATURE_2 + "," + FEATURE_3 + "]}";
+        String wrongTypeAfterFeatures = "{\"features\":[" + FEATURE_1 + "," + FEATURE_2 + "," + FEATURE_3 + "],\"type\":\"GeometryCollection\"}";
+        String wrongTypeBeforeFeatures = "{\"type\":\"GeometryCollection\",\"features\":[" + FEATURE_1 + "," + FEATURE_2 + "," + FEATURE_3 + "]}";
+
+        assertFalse((Boolean) importer.importGeoJson(stream(missingType), new User("test", "Test User")).get("success"));
+        assertFalse((Boolean) importer.importGeoJson(stream(wrongTypeAfterFeatures), new User("test", "Test User")).get("success"));
+        assertFalse((Boolean) importer.importGeoJson(stream(wrongTypeBeforeFeatures), new User("test", "Test User")).get("success"));
+        verifyNoInteractions(mock);
+    }
+
+    private static GeoJsonImporter createImporter(RabbitTemplate rabbitTemplate) {
+        return new GeoJsonImporter(new ObjectMapper(), new ImportStateHolder(), new ImportBatchProcessor(rabbitTemplate, mock(QueueBackpressureService.class), 2, 15));
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,50 +1,58 @@
 package com.dedicatedcode.reitti.service.importer;
 
 import com.dedicatedcode.reitti.config.RabbitMQConfig;
+import com.dedicatedcode.reitti.config.VisitMergeShardRouter;
 import com.dedicatedcode.reitti.event.LocationDataEvent;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
+import com.dedicatedcode.reitti.model.geo.Visit;
 import com.dedicatedcode.reitti.model.processing.DetectionParameter;
 import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.repository.VisitJdbcService;
 import com.dedicatedcode.reitti.service.ImportBatchProcessor;
 import com.dedicatedcode.reitti.service.ImportStateHolder;
+import com.dedicatedcode.reitti.service.QueueBackpressureService;
 import com.dedicatedcode.reitti.service.VisitDetectionParametersService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 class GoogleAndroidTimelineImporterTest {
+    private final RabbitTemplate mock = mock(RabbitTemplate.class);
+    private final VisitJdbcService visitJdbcService = mock(VisitJdbcService.class);
+    private final User user = new User("test", "Test User");
 
     @Test
     void shouldParseNewGoogleTakeOutFileFromAndroid() {
-        RabbitTemplate mock = mock(RabbitTemplate.class);
-
-        VisitDetectionParametersService parametersService = mock(VisitDetectionParametersService.class);
-        DetectionParameter config = new DetectionParameter(-1L,
-                new DetectionParameter.VisitDetection(100, 5, 300, 300),
-                new DetectionParameter.VisitMerging(24,300, 100),
-                null, false);
-        when(parametersService.getCurrentConfiguration(any(), any(Instant.class))).thenReturn(config);
-        GoogleAndroidTimelineImporter importHandler = new GoogleAndroidTimelineImporter(new ObjectMapper(), new ImportStateHolder(), new ImportBatchProcessor(mock, 100, 15), parametersService);
-        User user = new User("test", "Test User");
+        GoogleAndroidTimelineImporter importHandler = createImporter(100);
         Map<String, Object> result = importHandler.importTimeline(getClass().getResourceAsStream("/data/google/timeline_from_android_randomized.json"), user);
 
         assertTrue(result.containsKey("success"));
         assertTrue((Boolean) result.get("success"));
 
+        // Visits are stored as they are, no synthetic location points are created for them
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Visit>> visitCaptor = ArgumentCaptor.forClass(List.class);
+        verify(visitJdbcService, times(1)).bulkInsertImported(eq(user), visitCaptor.capture());
+        assertEquals(6, visitCaptor.getValue().size());
+
         // Create a spy to retrieve all LocationDataEvents pushed into RabbitMQ
         ArgumentCaptor<LocationDataEvent> eventCaptor = ArgumentCaptor.forClass(LocationDataEvent.class);
-        verify(mock, times(30)).convertAndSend(eq(RabbitMQConfig.EXCHANGE_NAME), eq(RabbitMQConfig.LOCATION_DATA_ROUTING_KEY), eventCaptor.capture());
+        verify(mock, times(1)).convertAndSend(eq(RabbitMQConfig.EXCHANGE_NAME), eq(RabbitMQConfig.LOCATION_DATA_ROUTING_KEY), eventCaptor.capture());
 
         List<LocationDataEvent> capturedEvents = eventCaptor.getAllValues();
-        assertEquals(30, capturedEvents.size());
+        assertEquals(1, capturedEvents.size());
 
         // Verify that all events are for the correct user
         for (LocationDataEvent event : capturedEvents) {
@@ -52,7 +60,146 @@ class GoogleAndroidTimelineImporterTest {
             assertNotNull(event.getPoints());
             assertFalse(event.getPoints().isEmpty());
 
-            event.getPoints().forEach(point -> assertNotNull(point.getAccuracyMeters()));
+            assertEquals(event.getPoints().size(), event.getPoints().validCount());
         }
     }
+
+    @Test
+    void shouldStoreVisitsOfSemanticSegments() {
+        GoogleAndroidTimelineImporter importHandler = createImporter(100);
+
+        Map<String, Object> result = importHandler.importTimeline(stream("""
+                {"semanticSegments": [
+                  {"startTime": "2025-06-01T08:00:00.000+02:00", "endTime": "2025-06-01T10:00:00.000+02:00",
+                   "visit": {"hierarchyLevel": 0, "probability": 0.9, "topCandidate": {"placeId": "a", "placeLocation": {"latLng": "53.8633043°, 10.7011529°"}}}},
+                  {"startTime": "2025-06-01T10:00:00.000+02:00", "endTime": "2025-06-01T10:01:00.000+02:00",
+                   "visit": {"topCandidate": {"placeLocation": {"latLng": "53.8700000°, 10.6900000°"}}}}
+                ]}
+                """), user);
+
+        assertTrue((Boolean) result.get("success"));
+        assertEquals(0, result.get("pointsReceived"));
+        // the second stay is shorter than the minimum stay time
+        List<Visit> visits = captureVisits();
+        assertEquals(1, visits.size());
+        assertEquals(53.8633043, visits.getFirst().getLatitude(), 0.000001);
+        assertEquals(10.7011529, visits.getFirst().getLongitude(), 0.000001);
+        assertEquals(Instant.parse("2025-06-01T06:00:00Z"), visits.getFirst().getStartTime());
+        assertEquals(Instant.parse("2025-06-01T08:00:00Z"), visits.getFirst().getEndTime());
+        verifyNoInteractions(mock);
+    }
+
+    @Test
+    void shouldQueueTimelinePathsAcrossBatches() {
+        GoogleAndroidTimelineImporter importHandler = createImporter(2);
+
+        Map<String, Object> result = importHandler.importTimeline(stream("""
+                {"semanticSegments": [
+                  {"startTime": "2025-06-01T10:00:00+02:00", "endTime": "2025-06-01T11:00:00+02:00",
+                   "timelinePath": [{"point": "53.1°, 10.1°", "time": "2025-06-01T10:02:00+02:00"}, {"point": "53.2°, 10.2°", "time": "2025-06-01T10:04:00+02:00"}]},
+                  {"startTime": "2025-06-01T11:00:00+02:00", "endTime": "2025-06-01T12:00:00+02:00",
+                   "timelinePath": [{"point": "geo:53.3,10.3", "time": "2025-06-01T11:02:00+02:00"}]}
+                ]}
+                """), user);
+
+        assertTrue((Boolean) result.get("success"));
+        assertEquals(3, result.get("pointsReceived"));
+        List<PointBatch> batches = captureBatches(2);
+        assertEquals(List.of(2, 1), batches.stream().map(PointBatch::validCount).toList());
+        assertEquals(53.2, batches.get(0).latitude(1), 0.000001);
+        assertEquals(Instant.parse("2025-06-01T09:02:00Z").toEpochMilli(), batches.get(1).epochMillis(0));
+        assertEquals(10.3, batches.get(1).longitude(0), 0.000001);
+    }
+
+    @Test
+    void shouldSkipRawSignalsAndOtherRootMembers() {
+        GoogleAndroidTimelineImporter importHandler = createImporter(100);
+
+        Map<String, Object> result = importHandler.importTimeline(stream("""
+                {"rawSignals": [
+                   {"position": {"LatLng": "53.5°, 10.5°", "accuracyMeters": 5, "timestamp": "2025-06-01T09:00:00.000+02:00"}},
+                   {"wifiScan": {"deliveryTime": "2025-06-01T09:00:00.000+02:00", "devicesRecords": [{"mac": 1, "rawRssi": -50}]}}
+                 ],
+                 "semanticSegments": [
+                   {"startTime": "2025-06-01T10:00:00+02:00", "endTime": "2025-06-01T11:00:00+02:00",
+                    "timelinePath": [{"point": "53.1°, 10.1°", "time": "2025-06-01T10:02:00+02:00"}]}
+                 ],
+                 "userLocationProfile": {"frequentPlaces": [{"placeId": "a", "placeLocation": "53.1°, 10.1°"}]}}
+                """), user);
+
+        assertTrue((Boolean) result.get("success"));
+        assertEquals(1, result.get("pointsReceived"));
+        PointBatch batch = captureBatches(1).getFirst();
+        assertEquals(1, batch.size());
+        assertEquals(53.1, batch.latitude(0), 0.000001);
+    }
+
+    @Test
+    void shouldSkipMalformedSegmentsAndPoints() {
+        GoogleAndroidTimelineImporter importHandler = createImporter(100);
+
+        Map<String, Object> result = importHandler.importTimeline(stream("""
+                {"semanticSegments": [
+                  {"startTime": "yesterday", "endTime": "2025-06-01T11:00:00+02:00",
+                   "timelinePath": [{"point": "53.0°, 10.0°", "time": "2025-06-01T10:02:00+02:00"}]},
+                  {"endTime": "2025-06-01T11:00:00+02:00",
+                   "visit": {"topCandidate": {"placeLocation": {"latLng": "53.0°, 10.0°"}}}},
+                  {"startTime": "2025-06-01T08:00:00+02:00", "endTime": "2025-06-01T10:00:00+02:00",
+                   "visit": {"topCandidate": {"placeId": "without location"}}},
+                  {"startTime": "2025-06-01T10:00:00+02:00", "endTime": "2025-06-01T11:00:00+02:00",
+                   "timelinePath": [
+                     {"point": "not a point", "time": "2025-06-01T10:01:00+02:00"},
+                     {"point": "53.1°, 10.1°", "time": "later"},
+                     {"point": "53.2°, 10.2°"},
+                     {"point": "53.3°, 10.3°", "time": "2025-06-01T10:04:00+02:00"}
+                   ]}
+                ]}
+                """), user);
+
+        assertTrue((Boolean) result.get("success"));
+        assertEquals(1, result.get("pointsReceived"));
+        PointBatch batch = captureBatches(1).getFirst();
+        assertEquals(1, batch.size());
+        assertEquals(53.3, batch.latitude(0), 0.000001);
+        verify(visitJdbcService, never()).bulkInsertImported(any(), anyList());
+    }
+
+    @Test
+    void shouldFailOnFilesThatAreNoTimeline() {
+        GoogleAndroidTimelineImporter importHandler = createImporter(100);
+
+        Map<String, Object> array = importHandler.importTimeline(stream("[{\"startTime\": \"2025-06-01T10:00:00+02:00\"}]"), user);
+        Map<String, Object> truncated = importHandler.importTimeline(stream("{\"semanticSegments\": [{\"startTime\": \"2025-06-01T10:00:00+02:00\", \"endTi"), user);
+
+        assertFalse((Boolean) array.get("success"));
+        assertFalse((Boolean) truncated.get("success"));
+        verifyNoInteractions(mock);
+    }
+
+    private List<Visit> captureVisits() {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Visit>> visitCaptor = ArgumentCaptor.forClass(List.class);
+        verify(visitJdbcService, times(1)).bulkInsertImported(eq(user), visitCaptor.capture());
+        return visitCaptor.getValue();
+    }
+
+    private List<PointBatch> captureBatches(int expectedBatches) {
+        ArgumentCaptor<LocationDataEvent> events = ArgumentCaptor.forClass(LocationDataEvent.class);
+        verify(mock, times(expectedBatches)).convertAndSend(eq(RabbitMQConfig.EXCHANGE_NAME), eq(RabbitMQConfig.LOCATION_DATA_ROUTING_KEY), events.capture());
+        return events.getAllValues().stream().map(LocationDataEvent::getPoints).toList();
+    }
+
+    private GoogleAndroidTimelineImporter createImporter(int batchSize) {
+        VisitDetectionParametersService parametersService = mock(VisitDetectionParametersService.class);
+        DetectionParameter config = new DetectionParameter(-1L,
+                new DetectionParameter.VisitDetection(100, 5, 300, 300),
+                new DetectionParameter.VisitMerging(24,300, 100),
+                null, false);
+        when(parametersService.getCurrentConfiguration(any(), any(Instant.class))).thenReturn(config);
+        return new GoogleAndroidTimelineImporter(new ObjectMapper(), new ImportStateHolder(), new ImportBatchProcessor(mock, mock(QueueBackpressureService.class), batchSize, 15), new ImportedVisitService(visitJdbcService, mock, new VisitMergeShardRouter(4), 500), parametersService);
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
 }
@@ -1,22 +1,29 @@
 package com.dedicatedcode.reitti.service.importer;
 
 import com.dedicatedcode.reitti.config.RabbitMQConfig;
+import com.dedicatedcode.reitti.config.VisitMergeShardRouter;
 import com.dedicatedcode.reitti.event.LocationDataEvent;
+import com.dedicatedcode.reitti.model.geo.Visit;
 import com.dedicatedcode.reitti.model.processing.DetectionParameter;
 import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.repository.VisitJdbcService;
 import com.dedicatedcode.reitti.service.ImportBatchProcessor;
 import com.dedicatedcode.reitti.service.ImportStateHolder;
+import com.dedicatedcode.reitti.service.QueueBackpressureService;
 import com.dedicatedcode.reitti.service.VisitDetectionParametersService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -25,6 +32,7 @@ class GoogleIOSTimelineImporterTest {
     @Test
     void shouldParseNewGoogleTakeOutFileFromIOS() {
         RabbitTemplate mock = mock(RabbitTemplate.class);
+        VisitJdbcService visitJdbcService = mock(VisitJdbcService.class);
         VisitDetectionParametersService parametersService = mock(VisitDetectionParametersService.class);
         DetectionParameter config = new DetectionParameter(-1L,
                 new DetectionParameter.VisitDetection(100, 5, 300, 300),
@@ -32,28 +40,58 @@ class GoogleIOSTimelineImporterTest {
                 null, false);
         when(parametersService.getCurrentConfiguration(any(), any(Instant.class))).thenReturn(config);
 
-        GoogleIOSTimelineImporter importHandler = new GoogleIOSTimelineImporter(new ObjectMapper(), new ImportStateHolder(), new ImportBatchProcessor(mock, 100, 15), parametersService);
+        GoogleIOSTimelineImporter importHandler = new GoogleIOSTimelineImporter(new ObjectMapper(), new ImportStateHolder(), new ImportBatchProcessor(mock, mock(QueueBackpressureService.class), 100, 15), new ImportedVisitService(visitJdbcService, mock, new VisitMergeShardRouter(4), 500), parametersService);
         User user = new User("test", "Test User");
         Map<String, Object> result = importHandler.importTimeline(getClass().getResourceAsStream("/data/google/timeline_from_ios_randomized.json"), user);
 
         assertTrue(result.containsKey("success"));
         assertTrue((Boolean) result.get("success"));
 
-        // Create a spy to retrieve all LocationDataEvents pushed into RabbitMQ
-        ArgumentCaptor<LocationDataEvent> eventCaptor = ArgumentCaptor.forClass(LocationDataEvent.class);
-        verify(mock, times(118)).convertAndSend(eq(RabbitMQConfig.EXCHANGE_NAME), eq(RabbitMQConfig.LOCATION_DATA_ROUTING_KEY), eventCaptor.capture());
+        // Visits are stored as they are, no synthetic location points are created for them
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Visit>> visitCaptor = ArgumentCaptor.forClass(List.class);
+        verify(visitJdbcService, times(1)).bulkInsertImported(eq(user), visitCaptor.capture());
+        assertEquals(24, visitCaptor.getValue().size());
 
-        List<LocationDataEvent> capturedEvents = eventCaptor.getAllValues();
-        assertEquals(118, capturedEvents.size());
+        verify(mock, never()).convertAndSend(eq(RabbitMQConfig.EXCHANGE_NAME), eq(RabbitMQConfig.LOCATION_DATA_ROUTING_KEY), any(LocationDataEvent.class));
+    }
 
-        // Verify that all events are for the correct user
-        for (LocationDataEvent event : capturedEvents) {
-            assertEquals("test", event.getUsername());
-            assertNotNull(event.getPoints());
-            assertFalse(event.getPoints().isEmpty());
+    @Test
+    void shouldSkipMalformedSegmentsAndPoints() {
+        RabbitTemplate mock = mock(RabbitTemplate.class);
+        VisitJdbcService visitJdbcService = mock(VisitJdbcService.class);
+        VisitDetectionParametersService parametersService = mock(VisitDetectionParametersService.class);
+        DetectionParameter config = new DetectionParameter(-1L,
+                new DetectionParameter.VisitDetection(100, 5, 300, 300),
+                new DetectionParameter.VisitMerging(24,300, 100),
+                null, false);
+        when(parametersService.getCurrentConfiguration(any(), any(Instant.class))).thenReturn(config);
+        GoogleIOSTimelineImporter importHandler = new GoogleIOSTimelineImporter(new ObjectMapper(), new ImportStateHolder(), new ImportBatchProcessor(mock, mock(QueueBackpressureService.class), 100, 15), new ImportedVisitService(visitJdbcService, mock, new VisitMergeShardRouter(4), 500), parametersService);
+        User user = new User("test", "Test User");
 
-            event.getPoints().forEach(point -> assertNotNull(point.getAccuracyMeters()));
-        }
+        String json = """
+                [
+                  {"startTime": "yesterday", "endTime": "2023-12-27T14:00:00+01:00",
+                   "timelinePath": [{"point": "geo:55.60,24.76", "durationMinutesOffsetFromStartTime": "1"}]},
+                  {"endTime": "2023-12-27T14:00:00+01:00", "visit": {"topCandidate": {"placeLocation": "geo:55.60,24.76"}}},
+                  {"startTime": "2023-12-27T10:00:00+01:00", "endTime": "2023-12-27T12:00:00+01:00", "visit": {"hierarchyLevel": "0"}},
+                  {"startTime": "2023-12-27T13:00:00+01:00", "endTime": "2023-12-27T14:00:00+01:00",
+                   "timelinePath": [
+                     {"point": "geo:55.61,24.77", "durationMinutesOffsetFromStartTime": "soon"},
+                     {"point": "geo:55.62,24.78"},
+                     {"point": "geo:55.63,24.79", "durationMinutesOffsetFromStartTime": "4"}
+                   ]}
+                ]
+                """;
+        Map<String, Object> result = importHandler.importTimeline(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), user);
 
+        assertTrue((Boolean) result.get("success"));
+        assertEquals(1, result.get("pointsReceived"));
+        ArgumentCaptor<LocationDataEvent> eventCaptor = ArgumentCaptor.forClass(LocationDataEvent.class);
+        verify(mock, times(1)).convertAndSend(eq(RabbitMQConfig.EXCHANGE_NAME), eq(RabbitMQConfig.LOCATION_DATA_ROUTING_KEY), eventCaptor.capture());
+        assertEquals(1, eventCaptor.getValue().getPoints().size());
+        assertEquals(55.63, eventCaptor.getValue().getPoints().latitude(0), 0.000001);
+        assertEquals(Instant.parse("2023-12-27T12:04:00Z").toEpochMilli(), eventCaptor.getValue().getPoints().epochMillis(0));
+        verify(visitJdbcService, never()).bulkInsertImported(any(), anyList());
     }
-}
\ No newline at end of file
+}
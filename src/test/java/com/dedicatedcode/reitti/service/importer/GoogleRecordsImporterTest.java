@@ -2,15 +2,27 @@ package com.dedicatedcode.reitti.service.importer;
 
 import com.dedicatedcode.reitti.config.RabbitMQConfig;
 import com.dedicatedcode.reitti.event.LocationDataEvent;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
 import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.service.ImportBackpressureException;
 import com.dedicatedcode.reitti.service.ImportBatchProcessor;
 import com.dedicatedcode.reitti.service.ImportStateHolder;
+import com.dedicatedcode.reitti.service.QueueBackpressureService;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
@@ -21,7 +33,7 @@ class GoogleRecordsImporterTest {
     @Test
     void shouldParseOldFormat() {
         RabbitTemplate mock = mock(RabbitTemplate.class);
-        GoogleRecordsImporter importHandler = new GoogleRecordsImporter(new ObjectMapper(), new ImportStateHolder(), new ImportBatchProcessor(mock, 100, 15));
+        GoogleRecordsImporter importHandler = new GoogleRecordsImporter(new ObjectMapper(), new ImportStateHolder(), new ImportBatchProcessor(mock, mock(QueueBackpressureService.class), 100, 15));
         User user = new User("test", "Test User");
         Map<String, Object> result = importHandler.importGoogleRecords(getClass().getResourceAsStream("/data/google/Records.json"), user);
 
@@ -29,4 +41,60 @@ class GoogleRecordsImporterTest {
         assertTrue((Boolean) result.get("success"));
         verify(mock, times(1)).convertAndSend(eq(RabbitMQConfig.EXCHANGE_NAME), eq(RabbitMQConfig.LOCATION_DATA_ROUTING_KEY), any(LocationDataEvent.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldFailWithoutQueueingWhenTheQueueDoesNotDrain() {
+        RabbitTemplate mock = mock(RabbitTemplate.class);
+        QueueBackpressureService backpressureService = mock(QueueBackpressureService.class);
+        doThrow(new ImportBackpressureException("Location data queue did not drain")).when(backpressureService).acquireImportCredit();
+        GoogleRecordsImporter importHandler = new GoogleRecordsImporter(new ObjectMapper(), new ImportStateHolder(), new ImportBatchProcessor(mock, backpressureService, 100, 15));
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream input = new FilterInputStream(getClass().getResourceAsStream("/data/google/Records.json")) {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+
+        Map<String, Object> result = importHandler.importGoogleRecords(input, new User("test", "Test User"));
+
+        assertFalse((Boolean) result.get("success"));
+        assertTrue(((String) result.get("error")).contains("did not drain"));
+        assertTrue(closed.get());
+        verifyNoInteractions(mock);
+    }
+
+    @Test
+    void shouldReadLocationFieldsFromTokenStream() throws Exception {
+        String json = """
+                {"locations": [
+                  {"latitudeE7": 525121303, "longitudeE7": 134309551, "accuracy": 25, "activity": [{"activity": [{"type": "STILL"}]}], "timestamp": "2013-04-15T06:31:26.860Z"},
+                  {"timestampMs": "1366007551475", "latitudeE7": 525122834, "longitudeE7": 134313306},
+                  {"latitudeE7": 525117217, "timestamp": "2013-04-15T06:33:32.406Z"}
+                ]}
+                """;
+        try (JsonParser parser = new ObjectMapper().getFactory().createParser(json)) {
+            while (parser.nextToken() != JsonToken.START_ARRAY) {
+                // advance to the locations array
+            }
+            PointBatch.Builder builder = PointBatch.builder(3);
+            int read = 0;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                if (GoogleRecordsImporter.readLocation(parser, builder)) {
+                    read++;
+                }
+            }
+            PointBatch batch = builder.build();
+
+            assertEquals(2, read);
+            assertEquals(2, batch.validCount());
+            assertEquals(Instant.parse("2013-04-15T06:31:26.860Z").toEpochMilli(), batch.epochMillis(0));
+            assertEquals(52.5121303, batch.latitude(0), 0.0000001);
+            assertEquals(13.4309551, batch.longitude(0), 0.0000001);
+            assertEquals(25.0, batch.accuracyMeters(0));
+            assertEquals(1366007551475L, batch.epochMillis(1));
+            assertEquals(100.0, batch.accuracyMeters(1));
+        }
+    }
+}
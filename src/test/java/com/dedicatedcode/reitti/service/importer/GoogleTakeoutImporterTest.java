@@ -0,0 +1,120 @@
+package com.dedicatedcode.reitti.service.importer;
+
+import com.dedicatedcode.reitti.config.RabbitMQConfig;
+import com.dedicatedcode.reitti.event.LocationDataEvent;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
+import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.service.ImportBatchProcessor;
+import com.dedicatedcode.reitti.service.QueueBackpressureService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class GoogleTakeoutImporterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldDispatchEntriesToMatchingImporter() throws Exception {
+        GoogleRecordsImporter recordsImporter = mock(GoogleRecordsImporter.class);
+        GoogleAndroidTimelineImporter androidImporter = mock(GoogleAndroidTimelineImporter.class);
+        GoogleIOSTimelineImporter iosImporter = mock(GoogleIOSTimelineImporter.class);
+        User user = new User("test", "Test User");
+        when(recordsImporter.importGoogleRecords(any(InputStream.class), eq(user))).thenReturn(Map.of("success", true, "pointsReceived", 10));
+        when(androidImporter.importTimeline(any(InputStream.class), eq(user))).thenReturn(Map.of("success", true, "pointsReceived", 20));
+        when(iosImporter.importTimeline(any(InputStream.class), eq(user))).thenReturn(Map.of("success", false, "error", "broken"));
+
+        Path archive = tempDir.resolve("takeout.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+            addResource(zip, "Takeout/Location History/Records.json", "/data/google/Records.json");
+            addResource(zip, "Takeout/Timeline/timeline.json", "/data/google/timeline_from_android_randomized.json");
+            addResource(zip, "Takeout/Timeline/ios.json", "/data/google/timeline_from_ios_randomized.json");
+            addEntry(zip, "Takeout/Location History/Semantic Location History/2019/2019_JANUARY.json", "{\"timelineObjects\": []}");
+            addEntry(zip, "Takeout/archive_browser.html", "<html></html>");
+        }
+
+        ImportBatchProcessor batchProcessor = new ImportBatchProcessor(mock(RabbitTemplate.class), mock(QueueBackpressureService.class), 100, 15);
+        GoogleTakeoutImporter importer = new GoogleTakeoutImporter(new ObjectMapper(), recordsImporter, androidImporter, iosImporter, batchProcessor, 2);
+        try {
+            Map<String, Object> result = importer.importTakeout(archive, user);
+
+            assertTrue((Boolean) result.get("success"));
+            assertEquals(30, result.get("pointsReceived"));
+            assertTrue(((String) result.get("message")).contains("ios.json: broken"));
+            verify(recordsImporter, times(1)).importGoogleRecords(any(InputStream.class), eq(user));
+            verify(androidImporter, times(1)).importTimeline(any(InputStream.class), eq(user));
+            verify(iosImporter, times(1)).importTimeline(any(InputStream.class), eq(user));
+        } finally {
+            importer.shutdown();
+            batchProcessor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldCarryTheRedirectOfTheImportOverToTheWorkers() throws Exception {
+        GoogleRecordsImporter recordsImporter = mock(GoogleRecordsImporter.class);
+        RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+        ImportBatchProcessor batchProcessor = new ImportBatchProcessor(rabbitTemplate, mock(QueueBackpressureService.class), 100, 15);
+        User user = new User("test", "Test User");
+        PointBatch batch = PointBatch.builder(1).add(1_700_000_000_000L, 60.0, 25.0, 10).build();
+        when(recordsImporter.importGoogleRecords(any(InputStream.class), eq(user))).thenAnswer(_ -> {
+            batchProcessor.sendToQueue(user, batch);
+            return Map.of("success", true, "pointsReceived", 1);
+        });
+
+        Path archive = tempDir.resolve("takeout.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+            addResource(zip, "Takeout/Location History/Records.json", "/data/google/Records.json");
+        }
+
+        GoogleTakeoutImporter importer = new GoogleTakeoutImporter(new ObjectMapper(), recordsImporter,
+                mock(GoogleAndroidTimelineImporter.class), mock(GoogleIOSTimelineImporter.class), batchProcessor, 2);
+        try {
+            List<PointBatch> redirected = new CopyOnWriteArrayList<>();
+            Map<String, Object> result = batchProcessor.runRedirected(redirected::add, () -> importer.importTakeout(archive, user));
+
+            assertTrue((Boolean) result.get("success"));
+            assertEquals(List.of(batch), redirected);
+            verifyNoInteractions(rabbitTemplate);
+
+            // the workers do not keep the redirect, the next import of the same user goes to the queue
+            importer.importTakeout(archive, user);
+            assertEquals(1, redirected.size());
+            verify(rabbitTemplate, times(1)).convertAndSend(eq(RabbitMQConfig.EXCHANGE_NAME), eq(RabbitMQConfig.LOCATION_DATA_ROUTING_KEY), any(LocationDataEvent.class));
+        } finally {
+            importer.shutdown();
+            batchProcessor.shutdown();
+        }
+    }
+
+    private void addResource(ZipOutputStream zip, String name, String resource) throws Exception {
+        zip.putNextEntry(new ZipEntry(name));
+        try (InputStream in = getClass().getResourceAsStream(resource)) {
+            in.transferTo(zip);
+        }
+        zip.closeEntry();
+    }
+
+    private static void addEntry(ZipOutputStream zip, String name, String content) throws Exception {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,142 @@
+package com.dedicatedcode.reitti.service.importer;
+
+import com.dedicatedcode.reitti.config.RabbitMQConfig;
+import com.dedicatedcode.reitti.event.LocationDataEvent;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
+import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.service.ImportBatchProcessor;
+import com.dedicatedcode.reitti.service.ImportStateHolder;
+import com.dedicatedcode.reitti.service.QueueBackpressureService;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class GpxImporterTest {
+
+    @Test
+    void shouldImportTrackRouteAndWayPoints() {
+        RabbitTemplate mock = mock(RabbitTemplate.class);
+        GpxImporter importer = createImporter(mock);
+
+        String gpx = gpx("""
+                <wpt lat="53.1" lon="10.1"><ele>12.0</ele><time>2025-06-01T10:00:00Z</time><name>Start</name></wpt>
+                <rte><rtept lat="53.2" lon="10.2"><time>2025-06-01T10:01:00Z</time></rtept></rte>
+                <trk><name>Track</name><trkseg>
+                  <trkpt lat="53.3" lon="10.3"><ele>14.5</ele><time>2025-06-01T10:02:00Z</time></trkpt>
+                  <trkpt lat="53.4" lon="10.4"><time>2025-06-01T10:03:00Z</time></trkpt>
+                </trkseg></trk>
+                """);
+        Map<String, Object> result = importer.importGpx(stream(gpx), new User("test", "Test User"));
+
+        assertTrue((Boolean) result.get("success"));
+        assertEquals(4, result.get("pointsReceived"));
+        List<PointBatch> batches = captureBatches(mock, 2);
+        assertEquals(53.1, batches.get(0).latitude(0), 0.000001);
+        assertEquals(10.2, batches.get(0).longitude(1), 0.000001);
+        assertEquals(Instant.parse("2025-06-01T10:02:00Z").toEpochMilli(), batches.get(1).epochMillis(0));
+        assertEquals(53.4, batches.get(1).latitude(1), 0.000001);
+    }
+
+    @Test
+    void shouldSkipPointsWithoutTimeAndInvalidateUnreadableTimes() {
+        RabbitTemplate mock = mock(RabbitTemplate.class);
+        GpxImporter importer = createImporter(mock);
+
+        String gpx = gpx("""
+                <trk><trkseg>
+                  <trkpt lat="53.1" lon="10.1"><ele>12.0</ele></trkpt>
+                  <trkpt lat="53.2" lon="10.2"><time>   </time></trkpt>
+                  <trkpt lat="53.3" lon="10.3"><time>yesterday</time></trkpt>
+                  <trkpt lat="53.4" lon="10.4"><time>2025-06-01T10:03:00Z</time></trkpt>
+                </trkseg></trk>
+                """);
+        Map<String, Object> result = importer.importGpx(stream(gpx), new User("test", "Test User"));
+
+        assertTrue((Boolean) result.get("success"));
+        assertEquals(2, result.get("pointsReceived"));
+        PointBatch batch = captureBatches(mock, 1).getFirst();
+        assertEquals(2, batch.size());
+        assertFalse(batch.isValid(0));
+        assertTrue(batch.isValid(1));
+        assertEquals(Instant.parse("2025-06-01T10:03:00Z").toEpochMilli(), batch.epochMillis(1));
+    }
+
+    @Test
+    void shouldReadAccuracyFromExtensions() {
+        RabbitTemplate mock = mock(RabbitTemplate.class);
+        GpxImporter importer = createImporter(mock);
+
+        String gpx = gpx("""
+                <trk><trkseg>
+                  <trkpt lat="53.1" lon="10.1"><time>2025-06-01T10:00:00Z</time><extensions><accuracy>4.5</accuracy></extensions></trkpt>
+                  <trkpt lat="53.2" lon="10.2"><time>2025-06-01T10:01:00Z</time><extensions><accuracy>unknown</accuracy></extensions></trkpt>
+                  <trkpt lat="53.3" lon="10.3"><time>2025-06-01T10:02:00Z</time></trkpt>
+                </trkseg></trk>
+                """);
+        importer.importGpx(stream(gpx), new User("test", "Test User"));
+
+        List<PointBatch> batches = captureBatches(mock, 2);
+        assertEquals(4.5, batches.get(0).accuracyMeters(0), 0.000001);
+        assertEquals(10.0, batches.get(0).accuracyMeters(1), 0.000001);
+        assertEquals(10.0, batches.get(1).accuracyMeters(0), 0.000001);
+    }
+
+    @Test
+    void shouldQueueEveryPointAcrossBatches() {
+        RabbitTemplate mock = mock(RabbitTemplate.class);
+        GpxImporter importer = createImporter(mock);
+
+        StringBuilder points = new StringBuilder("<trk><trkseg>");
+        for (int i = 0; i < 5; i++) {
+            points.append("<trkpt lat=\"53.").append(i).append("\" lon=\"10.").append(i).append("\"><time>2025-06-01T10:0").append(i).append(":00Z</time></trkpt>");
+        }
+        points.append("</trkseg></trk>");
+        Map<String, Object> result = importer.importGpx(stream(gpx(points.toString())), new User("test", "Test User"));
+
+        assertTrue((Boolean) result.get("success"));
+        assertEquals(5, result.get("pointsReceived"));
+        List<PointBatch> batches = captureBatches(mock, 3);
+        assertEquals(List.of(2, 2, 1), batches.stream().map(PointBatch::validCount).toList());
+        assertEquals(Instant.parse("2025-06-01T10:04:00Z").toEpochMilli(), batches.get(2).epochMillis(0));
+    }
+
+    @Test
+    void shouldFailOnMalformedDocuments() {
+        GpxImporter importer = createImporter(mock(RabbitTemplate.class));
+
+        Map<String, Object> result = importer.importGpx(stream("<gpx><trk><trkpt lat=\"53.1\""), new User("test", "Test User"));
+
+        assertFalse((Boolean) result.get("success"));
+    }
+
+    private static List<PointBatch> captureBatches(RabbitTemplate mock, int expectedBatches) {
+        ArgumentCaptor<LocationDataEvent> events = ArgumentCaptor.forClass(LocationDataEvent.class);
+        verify(mock, times(expectedBatches)).convertAndSend(eq(RabbitMQConfig.EXCHANGE_NAME), eq(RabbitMQConfig.LOCATION_DATA_ROUTING_KEY), events.capture());
+        return events.getAllValues().stream().map(LocationDataEvent::getPoints).toList();
+    }
+
+    private static GpxImporter createImporter(RabbitTemplate rabbitTemplate) {
+        return new GpxImporter(new ImportStateHolder(), new ImportBatchProcessor(rabbitTemplate, mock(QueueBackpressureService.class), 2, 15));
+    }
+
+    private static String gpx(String content) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<gpx version=\"1.1\" creator=\"test\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n" +
+                content +
+                "</gpx>\n";
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
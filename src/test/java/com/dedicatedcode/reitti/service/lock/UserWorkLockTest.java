@@ -0,0 +1,94 @@
+package com.dedicatedcode.reitti.service.lock;
+
+import com.dedicatedcode.reitti.IntegrationTest;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.JdbcConnectionDetails;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@IntegrationTest
+class UserWorkLockTest {
+    private static final Duration ACQUIRE_TIMEOUT = Duration.ofMillis(300);
+
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private JdbcConnectionDetails connectionDetails;
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Test
+    void localLockShouldBeExclusiveAndEvictedAfterUse() throws Exception {
+        LocalUserWorkLock lock = new LocalUserWorkLock(ACQUIRE_TIMEOUT);
+        verifyExclusive(lock);
+        assertThat(lock.size()).isZero();
+    }
+
+    @Test
+    void postgresLockShouldBeExclusive() throws Exception {
+        verifyExclusive(new PostgresUserWorkLock(dataSource, ACQUIRE_TIMEOUT));
+    }
+
+    @Test
+    void postgresLockShouldGiveUpWhenItsPoolIsExhausted() throws Exception {
+        HikariDataSource lockDataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(connectionDetails.getJdbcUrl())
+                .username(connectionDetails.getUsername())
+                .password(connectionDetails.getPassword())
+                .build();
+        lockDataSource.setMaximumPoolSize(1);
+        lockDataSource.setConnectionTimeout(ACQUIRE_TIMEOUT.toMillis());
+        try (PostgresUserWorkLock lock = new PostgresUserWorkLock(lockDataSource, ACQUIRE_TIMEOUT)) {
+            String username = UUID.randomUUID().toString();
+            try (UserWorkLock.Lease _ = lock.acquire("test", username)) {
+                // the only lock connection is taken, a nested lock has to fail instead of waiting forever
+                assertThatThrownBy(() -> lock.acquire("other", username)).isInstanceOf(UserWorkLockException.class);
+            }
+            lock.acquire("other", username).close();
+        }
+        assertThat(lockDataSource.isClosed()).isTrue();
+    }
+
+    @Test
+    void redisLockShouldBeExclusive() throws Exception {
+        verifyExclusive(new RedisUserWorkLock(redisTemplate, ACQUIRE_TIMEOUT, Duration.ofMinutes(1)));
+    }
+
+    @Test
+    void redisLockShouldExpireAfterLeaseTimeout() throws Exception {
+        RedisUserWorkLock lock = new RedisUserWorkLock(redisTemplate, Duration.ofSeconds(5), Duration.ofMillis(200));
+        String username = UUID.randomUUID().toString();
+        UserWorkLock.Lease abandoned = lock.acquire("test", username);
+
+        try (UserWorkLock.Lease _ = lock.acquire("test", username)) {
+            // closing the expired lease must not release the lock taken over meanwhile
+            abandoned.close();
+            assertThat(redisTemplate.hasKey(UserWorkLock.key("test", username))).isTrue();
+        }
+        assertThat(redisTemplate.hasKey(UserWorkLock.key("test", username))).isFalse();
+    }
+
+    private void verifyExclusive(UserWorkLock lock) throws Exception {
+        String username = UUID.randomUUID().toString();
+        try (UserWorkLock.Lease _ = lock.acquire("test", username)) {
+            // held by another thread, a different user or work is not affected
+            CompletableFuture<Void> competing = CompletableFuture.runAsync(() -> lock.acquire("test", username).close());
+            assertThatThrownBy(() -> competing.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(UserWorkLockException.class);
+            CompletableFuture.runAsync(() -> lock.acquire("test", "other-" + username).close()).get(5, TimeUnit.SECONDS);
+            CompletableFuture.runAsync(() -> lock.acquire("other", username).close()).get(5, TimeUnit.SECONDS);
+        }
+        CompletableFuture.runAsync(() -> lock.acquire("test", username).close()).get(5, TimeUnit.SECONDS);
+    }
+}
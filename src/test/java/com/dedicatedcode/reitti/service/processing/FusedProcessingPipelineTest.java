@@ -0,0 +1,51 @@
+package com.dedicatedcode.reitti.service.processing;
+
+import com.dedicatedcode.reitti.IntegrationTest;
+import com.dedicatedcode.reitti.TestingService;
+import com.dedicatedcode.reitti.model.geo.ProcessedVisit;
+import com.dedicatedcode.reitti.model.geo.Trip;
+import com.dedicatedcode.reitti.repository.ProcessedVisitJdbcService;
+import com.dedicatedcode.reitti.repository.TripJdbcService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@IntegrationTest
+@TestPropertySource(properties = "reitti.process-data.fused.enabled=true")
+public class FusedProcessingPipelineTest {
+
+    @Autowired
+    private TestingService testingService;
+
+    @Autowired
+    private ProcessedVisitJdbcService processedVisitJdbcService;
+
+    @Autowired
+    private TripJdbcService tripJdbcService;
+
+    @BeforeEach
+    public void setUp() {
+        this.testingService.clearData();
+    }
+
+    @Test
+    void shouldCreateSameVisitsAndTripsWithoutQueues() {
+        testingService.importAndProcess("/data/gpx/20250617.gpx");
+
+        List<ProcessedVisit> processedVisits = this.processedVisitJdbcService.findByUser(testingService.admin());
+        assertEquals(5, processedVisits.size());
+        assertEquals(Instant.parse("2025-06-16T22:00:09.154Z"), processedVisits.getFirst().getStartTime());
+        assertEquals(Instant.parse("2025-06-17T21:59:44.876Z"), processedVisits.getLast().getEndTime());
+
+        List<Trip> trips = this.tripJdbcService.findByUser(testingService.admin());
+        assertEquals(4, trips.size());
+        assertEquals(Instant.parse("2025-06-17T05:39:50.330Z"), trips.getFirst().getStartTime());
+        assertEquals(Instant.parse("2025-06-17T13:22:00.725Z"), trips.getLast().getEndTime());
+    }
+}
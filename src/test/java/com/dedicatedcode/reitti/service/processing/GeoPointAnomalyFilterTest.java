@@ -3,11 +3,14 @@ package com.dedicatedcode.reitti.service.processing;
 import com.dedicatedcode.reitti.TestUtils;
 import com.dedicatedcode.reitti.dto.LocationDataRequest;
 import com.dedicatedcode.reitti.model.geo.GeoUtils;
+import com.dedicatedcode.reitti.model.geo.PointBatch;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class GeoPointAnomalyFilterTest {
 
@@ -30,4 +33,85 @@ class GeoPointAnomalyFilterTest {
             assertFalse(GeoUtils.distanceInMeters(invalidPoint2, locationPoint) < 100);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldFilterAcrossBatchBoundaries() {
+        GeoPointAnomalyFilter filter = new GeoPointAnomalyFilter(new GeoPointAnomalyFilterConfig(1000, 100, 5000));
+        long start = 1_700_000_000_000L;
+
+        PointBatch first = PointBatch.builder(2)
+                .add(start, 53.0, 10.0, 10)
+                .add(start + 60_000, 53.0001, 10.0, 10)
+                .build();
+        // the jump of 6km is within the tolerance for edge points, but this is not an edge when looking at the whole track
+        PointBatch second = PointBatch.builder(2)
+                .add(start + 120_000, 53.054, 10.0, 20)
+                .add(start + 180_000, 53.0002, 10.0, 10)
+                .build();
+
+        filter.filterAnomalies("test", first);
+        filter.filterAnomalies("test", second);
+
+        assertEquals(2, first.validCount());
+        assertFalse(second.isValid(0));
+        assertTrue(second.isValid(1));
+
+        PointBatch withoutHistory = PointBatch.builder(2)
+                .add(start + 120_000, 53.054, 10.0, 20)
+                .add(start + 180_000, 53.0542, 10.0, 10)
+                .build();
+        filter.filterAnomalies("other", withoutHistory);
+        assertEquals(2, withoutHistory.validCount());
+    }
+
+    @Test
+    void shouldKeepPointsAfterRelocationWithLongGap() {
+        GeoPointAnomalyFilter filter = new GeoPointAnomalyFilter(new GeoPointAnomalyFilterConfig(1000, 100, 5000));
+        long start = 1_700_000_000_000L;
+
+        PointBatch beforeFlight = PointBatch.builder(2)
+                .add(start, 53.0, 10.0, 5)
+                .add(start + 60_000, 53.0001, 10.0, 5)
+                .build();
+        // landed about 600km away three hours later, with a worse accuracy than the last point before the flight
+        PointBatch afterFlight = PointBatch.builder(3)
+                .add(start + 3 * 3600_000, 48.1, 11.5, 20)
+                .add(start + 3 * 3600_000 + 60_000, 48.1001, 11.5, 20)
+                .add(start + 3 * 3600_000 + 120_000, 48.1002, 11.5, 20)
+                .build();
+
+        filter.filterAnomalies("test", beforeFlight);
+        filter.filterAnomalies("test", afterFlight);
+
+        assertEquals(3, afterFlight.validCount());
+
+        PointBatch later = PointBatch.builder(1)
+                .add(start + 3 * 3600_000 + 180_000, 48.1003, 11.5, 20)
+                .build();
+        filter.filterAnomalies("test", later);
+        assertEquals(1, later.validCount());
+    }
+
+    @Test
+    void shouldAcceptRelocationConfirmedByFollowingPoints() {
+        GeoPointAnomalyFilter filter = new GeoPointAnomalyFilter(new GeoPointAnomalyFilterConfig(1000, 100, 5000));
+        long start = 1_700_000_000_000L;
+
+        // tracking was off during a ride of 8km in five minutes, the points afterwards agree with each other
+        PointBatch batch = PointBatch.builder(6)
+                .add(start, 53.0, 10.0, 5)
+                .add(start + 60_000, 53.0001, 10.0, 5)
+                .add(start + 360_000, 53.072, 10.0, 20)
+                .add(start + 420_000, 53.0721, 10.0, 20)
+                .add(start + 480_000, 53.0722, 10.0, 20)
+                .add(start + 540_000, 53.0723, 10.0, 20)
+                .build();
+
+        filter.filterAnomalies("test", batch);
+
+        assertTrue(batch.isValid(0));
+        assertTrue(batch.isValid(1));
+        assertTrue(batch.isValid(4));
+        assertTrue(batch.isValid(5));
+    }
+}
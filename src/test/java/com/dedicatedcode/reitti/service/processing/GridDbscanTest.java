@@ -0,0 +1,157 @@
+package com.dedicatedcode.reitti.service.processing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GridDbscanTest {
+
+    @Test
+    void shouldFindClustersAndNoise() {
+        GridDbscan dbscan = new GridDbscan(1.0, 3);
+        dbscan.add(0, 0);
+        dbscan.add(0.5, 0);
+        dbscan.add(0, 0.5);
+        dbscan.add(10, 10);
+        dbscan.add(10.5, 10);
+        dbscan.add(10, 10.5);
+        dbscan.add(50, 50);
+
+        assertArrayEquals(new int[]{0, 0, 0, 1, 1, 1, GridDbscan.NOISE}, dbscan.clusterIds());
+    }
+
+    @Test
+    void shouldCountThePointItselfForMinimumPoints() {
+        GridDbscan dbscan = new GridDbscan(1.0, 2);
+        dbscan.add(0, 0);
+        assertArrayEquals(new int[]{GridDbscan.NOISE}, dbscan.clusterIds());
+
+        dbscan.add(1.0, 0);
+        assertArrayEquals(new int[]{0, 0}, dbscan.clusterIds());
+    }
+
+    @Test
+    void shouldJoinClustersWhenPointsAreAdded() {
+        GridDbscan dbscan = new GridDbscan(1.0, 3);
+        dbscan.add(0, 0);
+        dbscan.add(0.5, 0);
+        dbscan.add(1.0, 0);
+        dbscan.add(3.0, 0);
+        dbscan.add(3.5, 0);
+        dbscan.add(4.0, 0);
+        assertArrayEquals(new int[]{0, 0, 0, 1, 1, 1}, dbscan.clusterIds());
+
+        // the gap gets filled, both clusters become one
+        dbscan.add(1.7, 0);
+        dbscan.add(2.4, 0);
+        assertArrayEquals(new int[]{0, 0, 0, 0, 0, 0, 0, 0}, dbscan.clusterIds());
+    }
+
+    @Test
+    void shouldAttachBorderPointsToTheirCluster() {
+        GridDbscan dbscan = new GridDbscan(1.0, 4);
+        dbscan.add(0, 0);
+        dbscan.add(0.2, 0);
+        dbscan.add(0, 0.2);
+        dbscan.add(-0.2, 0);
+        // only has a single neighbour, but that one is a core point
+        dbscan.add(1.1, 0);
+
+        assertArrayEquals(new int[]{0, 0, 0, 0, 0}, dbscan.clusterIds());
+    }
+
+    @Test
+    void shouldMatchClusteringOfAllPairs() {
+        Random random = new Random(42);
+        double epsilon = 0.8;
+        int minPoints = 4;
+        int size = 500;
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        GridDbscan dbscan = new GridDbscan(epsilon, minPoints);
+        for (int i = 0; i < size; i++) {
+            int center = random.nextInt(5);
+            xs[i] = center * 7 + random.nextGaussian() * 1.5;
+            ys[i] = center * 3 + random.nextGaussian() * 1.5;
+            dbscan.add(xs[i], ys[i]);
+        }
+        int[] clusterIds = dbscan.clusterIds();
+
+        boolean[] core = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            int neighbours = 0;
+            for (int j = 0; j < size; j++) {
+                if (distanceSquared(xs, ys, i, j) <= epsilon * epsilon) {
+                    neighbours++;
+                }
+            }
+            core[i] = neighbours >= minPoints;
+        }
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                boolean directlyReachable = distanceSquared(xs, ys, i, j) <= epsilon * epsilon;
+                if (core[i] && core[j] && directlyReachable) {
+                    assertEquals(clusterIds[i], clusterIds[j], "core points " + i + " and " + j + " are in different clusters");
+                }
+                if (core[i] && directlyReachable) {
+                    assertNotEquals(GridDbscan.NOISE, clusterIds[j], "point " + j + " next to core point " + i + " is noise");
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldSplitClustersWhenTheOldestPointsAreRemoved() {
+        GridDbscan dbscan = new GridDbscan(1.0, 3);
+        dbscan.add(1.0, 0);
+        dbscan.add(0, 0);
+        dbscan.add(0.5, 0);
+        dbscan.add(1.7, 0);
+        dbscan.add(2.4, 0);
+        dbscan.add(3.0, 0);
+        dbscan.add(-3.0, 0);
+        assertArrayEquals(new int[]{0, 0, 0, 0, 0, 0, GridDbscan.NOISE}, dbscan.clusterIds());
+
+        // the point bridging both sides is gone, what is left of the left side is too small for a cluster
+        dbscan.removeOldest(1);
+        assertArrayEquals(new int[]{GridDbscan.NOISE, GridDbscan.NOISE, 0, 0, 0, GridDbscan.NOISE}, dbscan.clusterIds());
+        assertEquals(6, dbscan.size());
+    }
+
+    @Test
+    void shouldMatchAFreshClusteringWhileThePointsSlideAlong() {
+        Random random = new Random(7);
+        double epsilon = 0.8;
+        int minPoints = 4;
+        List<double[]> points = new ArrayList<>();
+        GridDbscan incremental = new GridDbscan(epsilon, minPoints);
+        for (int round = 0; round < 200; round++) {
+            // a trajectory which moves between places, stays are dense and travels sparse
+            int added = 1 + random.nextInt(40);
+            for (int i = 0; i < added; i++) {
+                int place = (points.size() / 60) % 6;
+                double spread = random.nextInt(3) == 0 ? 3.0 : 0.6;
+                double[] point = {place * 4 + random.nextGaussian() * spread, (place % 2) * 3 + random.nextGaussian() * spread};
+                points.add(point);
+                incremental.add(point[0], point[1]);
+            }
+            int removed = random.nextInt(Math.max(1, points.size() / 3));
+            points.subList(0, removed).clear();
+            incremental.removeOldest(removed);
+
+            GridDbscan fresh = new GridDbscan(epsilon, minPoints);
+            points.forEach(point -> fresh.add(point[0], point[1]));
+            assertArrayEquals(fresh.clusterIds(), incremental.clusterIds(), "round " + round);
+        }
+    }
+
+    private static double distanceSquared(double[] xs, double[] ys, int i, int j) {
+        double dx = xs[i] - xs[j];
+        double dy = ys[i] - ys[j];
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,160 @@
+package com.dedicatedcode.reitti.service.processing;
+
+import com.dedicatedcode.reitti.model.geo.GeoUtils;
+import com.dedicatedcode.reitti.model.geo.RawLocationPoint;
+import com.dedicatedcode.reitti.model.geo.Visit;
+import com.dedicatedcode.reitti.model.processing.DetectionParameter;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OpenStayTrackerTest {
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+    private static final Instant START = Instant.parse("2025-01-01T10:00:00Z");
+    private static final DetectionParameter.VisitDetection PARAMETERS = new DetectionParameter.VisitDetection(100, 3, 300, 600);
+
+    @Test
+    void shouldBecomeVisitOnceLongEnough() {
+        OpenStayTracker.OpenStay stay = new OpenStayTracker.OpenStay(point(0, 60.0, 25.0));
+        stay.add(point(120, 60.0001, 25.0));
+        stay.add(point(240, 60.0002, 25.0));
+        assertFalse(stay.isVisit(PARAMETERS));
+
+        stay.add(point(360, 60.0001, 25.0001));
+        assertTrue(stay.isVisit(PARAMETERS));
+
+        Visit visit = stay.toVisit();
+        assertNull(visit.getId());
+        assertEquals(START, visit.getStartTime());
+        assertEquals(START.plusSeconds(360), visit.getEndTime());
+        assertEquals(360, visit.getDurationSeconds());
+        assertEquals(60.0001, visit.getLatitude(), 0.0001);
+    }
+
+    @Test
+    void shouldKeepStoredVisitWhenExtended() {
+        OpenStayTracker.OpenStay stay = new OpenStayTracker.OpenStay(point(0, 60.0, 25.0));
+        stay.add(point(400, 60.0, 25.0));
+        stay.stored(stay.toVisit().withId(42L));
+        assertFalse(stay.isChanged());
+
+        stay.add(point(500, 60.0, 25.0));
+        assertTrue(stay.isChanged());
+        assertEquals(42L, stay.toVisit().getId());
+        assertEquals(START.plusSeconds(500), stay.toVisit().getEndTime());
+    }
+
+    @Test
+    void shouldNotAcceptFarAwayOrLatePoints() {
+        OpenStayTracker.OpenStay stay = new OpenStayTracker.OpenStay(point(0, 60.0, 25.0));
+
+        assertTrue(stay.accepts(point(60, 60.0005, 25.0), PARAMETERS));
+        assertFalse(stay.accepts(point(60, 60.01, 25.0), PARAMETERS));
+        assertFalse(stay.accepts(point(600, 60.0, 25.0), PARAMETERS));
+    }
+
+    @Test
+    void shouldReplayToTheLastStay() {
+        OpenStayTracker.OpenStay stay = OpenStayTracker.OpenStay.replay(List.of(
+                point(0, 60.0, 25.0),
+                point(60, 60.0, 25.0),
+                point(120, 60.1, 25.0),
+                point(180, 60.1001, 25.0),
+                point(240, 60.1002, 25.0)), PARAMETERS);
+
+        assertEquals(START.plusSeconds(240), stay.getLastSeen());
+        assertEquals(60.1001, stay.getLatitude(), 0.00001);
+        assertEquals(START.plusSeconds(120), stay.toVisit().getStartTime());
+    }
+
+    @Test
+    void shouldKeepTheStayOverSingleOutliers() {
+        OpenStayTracker.OpenStay stay = new OpenStayTracker.OpenStay(point(0, 60.0, 25.0));
+
+        assertSame(stay, stay.next(point(60, 60.01, 25.0), PARAMETERS));
+        assertSame(stay, stay.next(point(120, 59.99, 25.0), PARAMETERS));
+        assertEquals(START.plusSeconds(120), stay.getLastPoint());
+        assertSame(stay, stay.next(point(180, 60.0001, 25.0), PARAMETERS));
+        assertEquals(START.plusSeconds(180), stay.getLastSeen());
+        assertEquals(60.00005, stay.getLatitude(), 0.00001);
+
+        // the third far away point in a row ends the stay
+        stay.next(point(240, 60.1, 25.0), PARAMETERS);
+        stay.next(point(300, 60.1, 25.0), PARAMETERS);
+        OpenStayTracker.OpenStay next = stay.next(point(360, 60.1, 25.0), PARAMETERS);
+        assertNotSame(stay, next);
+        assertEquals(START.plusSeconds(240), next.toVisit().getStartTime());
+        assertEquals(START.plusSeconds(180), stay.getLastSeen());
+
+        // as does a point after a longer gap
+        assertNotSame(next, next.next(point(1000, 60.1, 25.0), PARAMETERS));
+    }
+
+    @Test
+    void shouldFindTheSameStaysAsTheWindowDetectionOnANoisyTrack() {
+        List<RawLocationPoint> track = noisyTrack();
+
+        // what the window detection finds, no cluster has to be split by time on this track
+        double epsilon = GeoUtils.metersToDegreesAtPosition(PARAMETERS.getSearchDistanceInMeters(), 60.0)[0];
+        GridDbscan dbscan = new GridDbscan(epsilon, PARAMETERS.getMinimumAdjacentPoints(), track.size());
+        track.forEach(point -> dbscan.add(point.getLongitude(), point.getLatitude()));
+        int[] clusterIds = dbscan.clusterIds();
+        Map<Integer, List<Instant>> clusters = new TreeMap<>();
+        for (int i = 0; i < clusterIds.length; i++) {
+            if (clusterIds[i] != GridDbscan.NOISE) {
+                clusters.computeIfAbsent(clusterIds[i], _ -> new ArrayList<>()).add(track.get(i).getTimestamp());
+            }
+        }
+        List<List<Instant>> expected = clusters.values().stream().map(times -> List.of(times.getFirst(), times.getLast())).toList();
+        assertEquals(2, expected.size());
+
+        List<OpenStayTracker.OpenStay> stays = new ArrayList<>();
+        OpenStayTracker.OpenStay stay = null;
+        for (RawLocationPoint point : track) {
+            OpenStayTracker.OpenStay next = stay == null ? new OpenStayTracker.OpenStay(point) : stay.next(point, PARAMETERS);
+            if (next != stay) {
+                stays.add(next);
+            }
+            stay = next;
+        }
+        List<List<Instant>> visits = stays.stream()
+                .filter(open -> open.isVisit(PARAMETERS))
+                .map(open -> List.of(open.toVisit().getStartTime(), open.toVisit().getEndTime()))
+                .toList();
+
+        assertEquals(expected, visits);
+        Visit replayed = OpenStayTracker.OpenStay.replay(track, PARAMETERS).toVisit();
+        assertEquals(expected.getLast(), List.of(replayed.getStartTime(), replayed.getEndTime()));
+    }
+
+    /**
+     * Two stays with single far away points in between, connected by a walk with points too far apart to cluster.
+     */
+    private static List<RawLocationPoint> noisyTrack() {
+        List<RawLocationPoint> track = new ArrayList<>();
+        for (int i = 0; i <= 30; i++) {
+            double latitude = i == 10 ? 60.01 : i == 20 ? 59.99 : 60.0 + (i % 3 - 1) * 0.0002;
+            track.add(point(i * 60, latitude, 25.0));
+        }
+        for (int i = 1; i <= 10; i++) {
+            track.add(point(1800 + i * 60, 60.0 + i * 0.005, 25.0));
+        }
+        for (int i = 0; i <= 30; i++) {
+            double latitude = i == 9 ? 60.11 : 60.1 + (i % 3 - 1) * 0.0002;
+            track.add(point(2460 + i * 60, latitude, 25.0));
+        }
+        return track;
+    }
+
+    private static RawLocationPoint point(int secondsAfterStart, double latitude, double longitude) {
+        return new RawLocationPoint(START.plusSeconds(secondsAfterStart), FACTORY.createPoint(new Coordinate(longitude, latitude)), 10.0);
+    }
+}
@@ -0,0 +1,72 @@
+package com.dedicatedcode.reitti.service.processing;
+
+import com.dedicatedcode.reitti.config.RabbitMQConfig;
+import com.dedicatedcode.reitti.event.LocationProcessEvent;
+import com.dedicatedcode.reitti.model.Role;
+import com.dedicatedcode.reitti.model.processing.ProcessingChunk;
+import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.repository.PreviewRawLocationPointJdbcService;
+import com.dedicatedcode.reitti.repository.RawLocationPointJdbcService;
+import com.dedicatedcode.reitti.repository.UserJdbcService;
+import com.dedicatedcode.reitti.service.ImportStateHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+class ProcessingPipelineTriggerTest {
+    private static final Instant START = Instant.parse("2025-01-01T10:00:00Z");
+
+    private final RawLocationPointJdbcService rawLocationPointJdbcService = mock(RawLocationPointJdbcService.class);
+    private final UserJdbcService userJdbcService = mock(UserJdbcService.class);
+    private final RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+    private final ImportStateHolder stateHolder = new ImportStateHolder();
+    private final User importing = new User(1L, "importing", "secret", "Importing", null, null, Role.USER, 1L);
+    private final User idle = new User(2L, "idle", "secret", "Idle", null, null, Role.USER, 1L);
+
+    private ProcessingPipelineTrigger trigger;
+
+    @BeforeEach
+    void setUp() {
+        when(userJdbcService.findAll()).thenReturn(List.of(importing, idle));
+        trigger = new ProcessingPipelineTrigger(stateHolder, rawLocationPointJdbcService, mock(PreviewRawLocationPointJdbcService.class),
+                userJdbcService, rabbitTemplate, 100, Duration.ofHours(12), 2, 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        trigger.shutdown();
+    }
+
+    @Test
+    void shouldOnlyDeferProcessingOfTheImportingUser() {
+        stateHolder.importStarted(importing);
+        when(rawLocationPointJdbcService.markNextChunkProcessed(eq(idle), any(), anyInt(), any()))
+                .thenReturn(Optional.of(new ProcessingChunk(100, START, START.plusSeconds(600))))
+                .thenReturn(Optional.of(new ProcessingChunk(20, START.plusSeconds(660), START.plusSeconds(900))))
+                .thenReturn(Optional.empty());
+
+        trigger.start();
+
+        verify(rawLocationPointJdbcService, never()).markNextChunkProcessed(eq(importing), any(), anyInt(), any());
+        // one chunk per round, the user is picked up again until nothing is left
+        verify(rawLocationPointJdbcService, times(3)).markNextChunkProcessed(eq(idle), isNull(), anyInt(), any());
+        verify(rabbitTemplate, times(2)).convertAndSend(eq(RabbitMQConfig.EXCHANGE_NAME), eq(RabbitMQConfig.STAY_DETECTION_ROUTING_KEY), any(LocationProcessEvent.class));
+
+        stateHolder.importFinished(importing);
+        trigger.start();
+
+        verify(rawLocationPointJdbcService, times(1)).markNextChunkProcessed(eq(importing), isNull(), anyInt(), any());
+    }
+}
@@ -0,0 +1,113 @@
+package com.dedicatedcode.reitti.service.processing;
+
+import com.dedicatedcode.reitti.model.Role;
+import com.dedicatedcode.reitti.model.geo.PointTrack;
+import com.dedicatedcode.reitti.model.geo.ProcessedVisit;
+import com.dedicatedcode.reitti.model.geo.SignificantPlace;
+import com.dedicatedcode.reitti.model.geo.Trip;
+import com.dedicatedcode.reitti.model.security.User;
+import com.dedicatedcode.reitti.repository.*;
+import com.dedicatedcode.reitti.service.UserNotificationService;
+import com.dedicatedcode.reitti.service.lock.LocalUserWorkLock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class TripDetectionServiceTest {
+    private static final Instant START = Instant.parse("2025-06-17T06:00:00Z");
+
+    private final ProcessedVisitJdbcService processedVisitJdbcService = mock(ProcessedVisitJdbcService.class);
+    private final RawLocationPointJdbcService rawLocationPointJdbcService = mock(RawLocationPointJdbcService.class);
+    private final TripJdbcService tripJdbcService = mock(TripJdbcService.class);
+    private final UserNotificationService userNotificationService = mock(UserNotificationService.class);
+    private final User user = new User(1L, "test", "secret", "Test", null, null, Role.USER, 1L);
+
+    private TripDetectionService tripDetectionService;
+
+    @BeforeEach
+    void setUp() {
+        tripDetectionService = new TripDetectionService(processedVisitJdbcService, mock(PreviewProcessedVisitJdbcService.class),
+                rawLocationPointJdbcService, mock(PreviewRawLocationPointJdbcService.class), tripJdbcService, mock(PreviewTripJdbcService.class),
+                mock(UserJdbcService.class), userNotificationService, new LocalUserWorkLock(Duration.ofSeconds(5)));
+        when(tripJdbcService.findTimeRangesByUserBetween(eq(user), any(), any())).thenReturn(List.of());
+        when(rawLocationPointJdbcService.findTrackByUserAndTimestampBetween(eq(user), any(), any())).thenReturn(PointTrack.builder(0).build());
+    }
+
+    @Test
+    void shouldSkipTripsOfVisitsDeletedMeanwhile() {
+        ProcessedVisit home = visit(1L, "Home", 53.863, 10.700, 0);
+        ProcessedVisit work = visit(2L, "Work", 53.868, 10.680, 2);
+        ProcessedVisit lunch = visit(3L, "Lunch", 53.870, 10.690, 4);
+        ProcessedVisit gym = visit(4L, "Gym", 53.860, 10.710, 6);
+        when(processedVisitJdbcService.findByUserAndTimeOverlap(eq(user), any(), any())).thenReturn(List.of(home, work, lunch, gym));
+        // lunch got merged away by visit merging after the visits were loaded
+        when(processedVisitJdbcService.findExistingIds(anyList())).thenReturn(Set.of(1L, 2L, 4L));
+
+        tripDetectionService.detectTrips(user, null, START.minusSeconds(86400), START.plusSeconds(86400));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Trip>> stored = ArgumentCaptor.forClass(List.class);
+        verify(tripJdbcService).bulkInsert(eq(user), stored.capture());
+        assertEquals(1, stored.getValue().size());
+        assertEquals(home, stored.getValue().getFirst().getStartVisit());
+        assertEquals(work, stored.getValue().getFirst().getEndVisit());
+        verify(userNotificationService).newTrips(user, stored.getValue());
+    }
+
+    @Test
+    void shouldStoreAllTripsWhenNoVisitWasDeleted() {
+        ProcessedVisit home = visit(1L, "Home", 53.863, 10.700, 0);
+        ProcessedVisit work = visit(2L, "Work", 53.868, 10.680, 2);
+        ProcessedVisit gym = visit(3L, "Gym", 53.860, 10.710, 4);
+        when(processedVisitJdbcService.findByUserAndTimeOverlap(eq(user), any(), any())).thenReturn(List.of(home, work, gym));
+        when(processedVisitJdbcService.findExistingIds(anyList())).thenReturn(Set.of(1L, 2L, 3L));
+
+        tripDetectionService.detectTrips(user, null, START.minusSeconds(86400), START.plusSeconds(86400));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Trip>> stored = ArgumentCaptor.forClass(List.class);
+        verify(tripJdbcService).bulkInsert(eq(user), stored.capture());
+        assertEquals(2, stored.getValue().size());
+        verify(processedVisitJdbcService, times(1)).findExistingIds(anyList());
+    }
+
+    @Test
+    void shouldDetectTheTripsOfMergedVisitsAndTheirNeighbours() {
+        ProcessedVisit home = visit(1L, "Home", 53.863, 10.700, 0);
+        ProcessedVisit work = visit(2L, "Work", 53.868, 10.680, 2);
+        ProcessedVisit lunch = visit(3L, "Lunch", 53.870, 10.690, 4);
+        ProcessedVisit gym = visit(4L, "Gym", 53.860, 10.710, 6);
+        when(processedVisitJdbcService.findNeighboursByUser(user, work.getStartTime(), lunch.getEndTime())).thenReturn(List.of(home, gym));
+        when(processedVisitJdbcService.findExistingIds(anyList())).thenReturn(Set.of(1L, 2L, 3L, 4L));
+
+        tripDetectionService.visitsMerged(user, List.of(lunch, work), null);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Trip>> stored = ArgumentCaptor.forClass(List.class);
+        verify(tripJdbcService).bulkInsert(eq(user), stored.capture());
+        assertEquals(3, stored.getValue().size());
+        assertEquals(home, stored.getValue().getFirst().getStartVisit());
+        assertEquals(gym, stored.getValue().getLast().getEndVisit());
+        verify(processedVisitJdbcService, never()).findByUserAndTimeOverlap(any(), any(), any());
+    }
+
+    private static ProcessedVisit visit(long id, String name, double latitude, double longitude, int startHour) {
+        SignificantPlace place = new SignificantPlace(id, name, null, null, latitude, longitude,
+                SignificantPlace.PlaceType.OTHER, ZoneId.of("UTC"), false, 1L);
+        Instant start = START.plusSeconds(startHour * 3600L);
+        Instant end = start.plusSeconds(3600);
+        return new ProcessedVisit(id, place, start, end, 3600L, 1L);
+    }
+}
@@ -0,0 +1,79 @@
+package com.dedicatedcode.reitti.service.processing;
+
+import com.dedicatedcode.reitti.model.geo.Visit;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VisitReconciliationTest {
+    private static final Instant START = Instant.parse("2025-01-01T10:00:00Z");
+
+    @Test
+    void shouldKeepVisitsWhichWereDetectedAgain() {
+        Visit stored = stored(1L, 60.0, 25.0, 0, 3600);
+
+        VisitReconciliation.Plan plan = VisitReconciliation.plan(List.of(stored), List.of(detected(60.0, 25.0, 0, 3600)), 100);
+
+        assertEquals(List.of(stored), plan.unchanged());
+        assertTrue(plan.updated().isEmpty());
+        assertTrue(plan.inserted().isEmpty());
+        assertTrue(plan.deleted().isEmpty());
+    }
+
+    @Test
+    void shouldUpdateExtendedVisitAndKeepItsId() {
+        Visit stored = stored(1L, 60.0, 25.0, 0, 3600);
+
+        VisitReconciliation.Plan plan = VisitReconciliation.plan(List.of(stored), List.of(detected(60.0001, 25.0, 0, 5400)), 100);
+
+        assertEquals(1, plan.updated().size());
+        Visit updated = plan.updated().getFirst();
+        assertEquals(1L, updated.getId());
+        assertEquals(2L, updated.getVersion());
+        assertEquals(START.plusSeconds(5400), updated.getEndTime());
+        assertEquals(60.0001, updated.getLatitude());
+        assertTrue(plan.unchanged().isEmpty());
+    }
+
+    @Test
+    void shouldReplaceVisitsAtOtherPlaces() {
+        Visit home = stored(1L, 60.0, 25.0, 0, 3600);
+        Visit work = stored(2L, 60.1, 25.1, 7200, 10800);
+
+        VisitReconciliation.Plan plan = VisitReconciliation.plan(List.of(home, work), List.of(
+                detected(60.0, 25.0, 0, 3600),
+                detected(60.2, 25.2, 7200, 10800)), 100);
+
+        assertEquals(List.of(home), plan.unchanged());
+        assertEquals(1, plan.inserted().size());
+        assertNull(plan.inserted().getFirst().getId());
+        assertEquals(List.of(work), plan.deleted());
+    }
+
+    @Test
+    void shouldMatchEachStoredVisitOnlyOnce() {
+        Visit stored = stored(1L, 60.0, 25.0, 0, 7200);
+
+        // the stay got split up, the part overlapping most takes over the stored visit
+        VisitReconciliation.Plan plan = VisitReconciliation.plan(List.of(stored), List.of(
+                detected(60.0, 25.0, 0, 1800),
+                detected(60.0, 25.0, 2400, 7200)), 100);
+
+        assertEquals(1, plan.updated().size());
+        assertEquals(START.plusSeconds(2400), plan.updated().getFirst().getStartTime());
+        assertEquals(1, plan.inserted().size());
+        assertEquals(START, plan.inserted().getFirst().getStartTime());
+        assertTrue(plan.deleted().isEmpty());
+    }
+
+    private static Visit stored(Long id, double latitude, double longitude, int start, int end) {
+        return new Visit(id, longitude, latitude, START.plusSeconds(start), START.plusSeconds(end), (long) end - start, false, 2L);
+    }
+
+    private static Visit detected(double latitude, double longitude, int start, int end) {
+        return new Visit(longitude, latitude, START.plusSeconds(start), START.plusSeconds(end), (long) end - start, false);
+    }
+}